@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import org.apache.activemq.broker.BrokerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process, non-persistent ActiveMQ broker standing in for the broker embedded in Fedora.
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class EmbeddedBroker implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedBroker.class);
+
+    private final BrokerService broker;
+
+    private final String brokerUrl;
+
+    /**
+     * Creates a broker accepting TCP connections on the loopback interface.  The broker is not started until {@link
+     * #start()} is invoked.
+     *
+     * @param port the port to accept connections on
+     */
+    public EmbeddedBroker(int port) {
+        this.brokerUrl = "tcp://127.0.0.1:" + port;
+        this.broker = new BrokerService();
+        this.broker.setBrokerName("deposit-loadtest");
+        this.broker.setPersistent(false);
+        this.broker.setUseJmx(false);
+        this.broker.setUseShutdownHook(false);
+        this.broker.setAdvisorySupport(false);
+        try {
+            this.broker.addConnector(brokerUrl);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to configure broker connector " + brokerUrl + ": " + e.getMessage(),
+                    e);
+        }
+    }
+
+    public void start() {
+        try {
+            broker.start();
+            broker.waitUntilStarted();
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to start the broker: " + e.getMessage(), e);
+        }
+        LOG.info(">>>> JMS broker stand-in listening at {}", brokerUrl);
+    }
+
+    /**
+     * @return the url clients use to connect to the broker, suitable for {@code spring.activemq.broker-url}
+     */
+    public String brokerUrl() {
+        return brokerUrl;
+    }
+
+    @Override
+    public void close() throws Exception {
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+
+}
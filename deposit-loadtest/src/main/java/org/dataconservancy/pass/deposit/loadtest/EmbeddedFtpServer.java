@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import org.apache.ftpserver.ConnectionConfigFactory;
+import org.apache.ftpserver.DataConnectionConfigurationFactory;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.apache.ftpserver.usermanager.impl.TransferRatePermission;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An embedded FTP server standing in for the NIHMS FTP endpoint.  Uploads are written beneath a local directory.
+ * <p>
+ * The user name and password must match those of the {@code nihms} transport in {@code packagers.properties}.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class EmbeddedFtpServer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedFtpServer.class);
+
+    private final FtpServer server;
+
+    private final int port;
+
+    /**
+     * Creates an FTP server.  The server is not started until {@link #start()} is invoked.
+     *
+     * @param port the control port
+     * @param passivePorts the passive data port range, e.g. {@code 30000-30100}
+     * @param maxLogins the maximum number of concurrent logins
+     * @param user the user name accepted by the server
+     * @param password the password accepted by the server
+     * @param homeDirectory the directory uploads are written to
+     */
+    public EmbeddedFtpServer(int port, String passivePorts, int maxLogins, String user, String password,
+                             File homeDirectory) {
+        this.port = port;
+
+        if (!homeDirectory.exists() && !homeDirectory.mkdirs()) {
+            throw new RuntimeException("Unable to create FTP home directory " + homeDirectory);
+        }
+
+        FtpServerFactory serverFactory = new FtpServerFactory();
+
+        DataConnectionConfigurationFactory dataConnection = new DataConnectionConfigurationFactory();
+        dataConnection.setPassivePorts(passivePorts);
+        dataConnection.setPassiveExternalAddress("127.0.0.1");
+
+        ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setServerAddress("127.0.0.1");
+        listenerFactory.setPort(port);
+        listenerFactory.setDataConnectionConfiguration(dataConnection.createDataConnectionConfiguration());
+        serverFactory.addListener("default", listenerFactory.createListener());
+
+        ConnectionConfigFactory connectionConfig = new ConnectionConfigFactory();
+        connectionConfig.setMaxLogins(maxLogins);
+        connectionConfig.setMaxThreads(maxLogins);
+        connectionConfig.setAnonymousLoginEnabled(false);
+        serverFactory.setConnectionConfig(connectionConfig.createConnectionConfig());
+
+        BaseUser ftpUser = new BaseUser();
+        ftpUser.setName(user);
+        ftpUser.setPassword(password);
+        ftpUser.setHomeDirectory(homeDirectory.getAbsolutePath());
+        List<Authority> authorities = Arrays.asList(new WritePermission(),
+                new ConcurrentLoginPermission(0, 0), new TransferRatePermission(0, 0));
+        ftpUser.setAuthorities(authorities);
+
+        UserManager userManager = new PropertiesUserManagerFactory().createUserManager();
+        try {
+            userManager.save(ftpUser);
+        } catch (FtpException e) {
+            throw new RuntimeException("Unable to configure FTP user '" + user + "': " + e.getMessage(), e);
+        }
+        serverFactory.setUserManager(userManager);
+
+        this.server = serverFactory.createServer();
+    }
+
+    public void start() {
+        try {
+            server.start();
+        } catch (FtpException e) {
+            throw new RuntimeException("Unable to start the FTP server: " + e.getMessage(), e);
+        }
+        LOG.info(">>>> FTP stand-in listening at ftp://127.0.0.1:{}", port);
+    }
+
+    /**
+     * @return the control port, suitable for {@code ftp.port}
+     */
+    public int port() {
+        return port;
+    }
+
+    @Override
+    public void close() {
+        server.stop();
+    }
+
+}
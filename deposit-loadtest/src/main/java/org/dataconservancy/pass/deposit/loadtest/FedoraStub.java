@@ -0,0 +1,547 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * A minimal, in-memory stand-in for the Fedora repository, sufficient for Deposit Services to resolve {@code
+ * Submission} graphs, create and update {@code Deposit} and {@code RepositoryCopy} resources, and retrieve binary
+ * content.
+ * <p>
+ * Resources are stored as the JSON-LD documents sent by the PASS client, and are served back with an {@code ETag}.
+ * {@code PUT} and {@code PATCH} ({@code application/merge-patch+json}) honor {@code If-Match}, answering {@code 412}
+ * on a mismatch so that the optimistic locking paths in Deposit Services are exercised.  Requests that prefer
+ * inbound references are answered with the resources linking to the requested resource, either as N-Triples or as a
+ * JSON-LD {@code @graph}, depending on the {@code Accept} header.
+ * </p>
+ * <p>
+ * Creation or modification of a {@code Submission} or {@code Deposit} is announced on the configured {@link
+ * JmsEventPublisher}, and every write is reported to registered {@link ResourceListener}s, which is how the load
+ * test observes the progress of each deposit.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class FedoraStub implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FedoraStub.class);
+
+    static final String CONTEXT_PATH = "/fcrepo/rest";
+
+    private static final String JSONLD = "application/ld+json";
+
+    private static final String NTRIPLES = "application/n-triples";
+
+    private static final String INBOUND_REFERENCES = "InboundReferences";
+
+    private static final String MERGE_PATCH = "merge-patch";
+
+    private static final String AT_ID = "@id";
+
+    private static final String AT_TYPE = "@type";
+
+    private static final String AT_CONTEXT = "@context";
+
+    /**
+     * Notified after each write to the repository.
+     */
+    public interface ResourceListener {
+
+        /**
+         * Invoked after a JSON-LD resource has been created, updated or deleted.
+         *
+         * @param id the identifier of the resource
+         * @param before the state of the resource before the write, {@code null} if the resource was created
+         * @param after the state of the resource after the write, {@code null} if the resource was deleted
+         */
+        void written(String id, JsonNode before, JsonNode after);
+
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<String, StubResource> resources = new ConcurrentHashMap<>();
+
+    /**
+     * Inbound reference index: target identifier to a set of "source field" pairs
+     */
+    private final Map<String, Set<String>> inbound = new ConcurrentHashMap<>();
+
+    private final List<ResourceListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong versions = new AtomicLong();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong conflicts = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final String baseUrl;
+
+    private final JmsEventPublisher publisher;
+
+    /**
+     * Creates a stub listening on the supplied port.  The stub is not started until {@link #start()} is invoked.
+     *
+     * @param port the port to listen on
+     * @param threads the number of threads serving requests
+     * @param publisher announces {@code Submission} and {@code Deposit} writes, may be {@code null}
+     * @throws IOException if the server cannot bind to the port
+     */
+    public FedoraStub(int port, int threads, JmsEventPublisher publisher) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 128);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server.setExecutor(executor);
+        this.server.createContext(CONTEXT_PATH, this::handle);
+        this.baseUrl = "http://localhost:" + server.getAddress().getPort() + CONTEXT_PATH + "/";
+        this.publisher = publisher;
+    }
+
+    public void start() {
+        server.start();
+        LOG.info(">>>> Fedora stand-in listening at {}", baseUrl);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the base url of the repository, with a trailing slash, suitable for {@code pass.fedora.baseurl}
+     */
+    public String baseUrl() {
+        return baseUrl;
+    }
+
+    public void addListener(ResourceListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Creates a JSON-LD resource without going through HTTP, as a user interface or ingest process would.
+     *
+     * @param container the path of the container, relative to the base url, e.g. {@code submissions}
+     * @param body the JSON-LD body of the resource; the {@code @id} will be assigned
+     * @param agent the user agent credited with the creation, may be {@code null}
+     * @return the identifier of the created resource
+     */
+    public String create(String container, ObjectNode body, String agent) {
+        String id = mint(baseUrl + container);
+        write(id, body, null, true, agent);
+        return id;
+    }
+
+    /**
+     * Replaces a JSON-LD resource without going through HTTP.
+     *
+     * @param id the identifier of the resource
+     * @param body the new JSON-LD body of the resource
+     * @param agent the user agent credited with the modification, may be {@code null}
+     */
+    public void update(String id, ObjectNode body, String agent) {
+        write(id, body, null, false, agent);
+    }
+
+    /**
+     * Creates a binary resource without going through HTTP.
+     *
+     * @param container the path of the container, relative to the base url
+     * @param content the content of the binary
+     * @param contentType the media type of the binary
+     * @return the identifier of the created binary
+     */
+    public String createBinary(String container, byte[] content, String contentType) {
+        String id = mint(baseUrl + container);
+        resources.put(id, new StubResource(null, content, contentType, versions.incrementAndGet()));
+        return id;
+    }
+
+    /**
+     * @param id the identifier of a JSON-LD resource
+     * @return a copy of the resource, or {@code null} if it does not exist
+     */
+    public ObjectNode read(String id) {
+        StubResource r = resources.get(id);
+        return r == null || r.body == null ? null : r.body.deepCopy();
+    }
+
+    /**
+     * @return the number of HTTP requests served
+     */
+    public long requests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of conditional writes rejected with {@code 412}
+     */
+    public long conflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * @return the number of requests answered with a {@code 5xx} status
+     */
+    public long errors() {
+        return errors.get();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        requests.incrementAndGet();
+        try {
+            String path = ex.getRequestURI().getPath();
+            while (path.length() > CONTEXT_PATH.length() + 1 && path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+
+            String id = "http://localhost:" + server.getAddress().getPort() + path;
+
+            if (path.equals(CONTEXT_PATH) || path.equals(CONTEXT_PATH + "/")) {
+                respond(ex, 200, JSONLD, ("{\"" + AT_ID + "\":\"" + baseUrl + "\"}").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            switch (ex.getRequestMethod()) {
+                case "GET":
+                case "HEAD":
+                    doGet(ex, id);
+                    break;
+                case "POST":
+                    doPost(ex, id);
+                    break;
+                case "PUT":
+                    doPut(ex, id);
+                    break;
+                case "PATCH":
+                    doPatch(ex, id);
+                    break;
+                case "DELETE":
+                    doDelete(ex, id);
+                    break;
+                default:
+                    respond(ex, 405, null, null);
+            }
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            LOG.warn(">>>> Error serving {} {}: {}", ex.getRequestMethod(), ex.getRequestURI(), e.getMessage(), e);
+            respond(ex, 500, "text/plain", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        } finally {
+            ex.close();
+        }
+    }
+
+    private void doGet(HttpExchange ex, String id) throws IOException {
+        StubResource r = resources.get(id);
+        if (r == null) {
+            respond(ex, 404, null, null);
+            return;
+        }
+
+        ex.getResponseHeaders().set("ETag", r.etag());
+
+        if (r.body == null) {
+            respond(ex, 200, r.contentType, r.binary);
+            return;
+        }
+
+        String prefer = ex.getRequestHeaders().getFirst("Prefer");
+        String accept = ex.getRequestHeaders().getFirst("Accept");
+
+        if (prefer != null && prefer.contains(INBOUND_REFERENCES)) {
+            if (accept != null && accept.contains(NTRIPLES)) {
+                StringBuilder triples = new StringBuilder();
+                inbound.getOrDefault(id, Collections.emptySet()).forEach(ref -> {
+                    String[] parts = ref.split(" ");
+                    triples.append("<").append(parts[0]).append("> <").append(JmsEventPublisher.PASS_NS)
+                            .append(parts[1]).append("> <").append(id).append("> .\n");
+                });
+                respond(ex, 200, NTRIPLES, triples.toString().getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            ObjectNode graph = mapper.createObjectNode();
+            ArrayNode nodes = graph.putArray("@graph");
+            nodes.add(r.body);
+            inbound.getOrDefault(id, Collections.emptySet()).forEach(ref -> {
+                String[] parts = ref.split(" ");
+                nodes.addObject().put(AT_ID, parts[0]).put(parts[1], id);
+            });
+            respond(ex, 200, JSONLD, mapper.writeValueAsBytes(graph));
+            return;
+        }
+
+        respond(ex, 200, JSONLD, mapper.writeValueAsBytes(r.body));
+    }
+
+    private void doPost(HttpExchange ex, String container) throws IOException {
+        byte[] content = readBody(ex.getRequestBody());
+        String contentType = ex.getRequestHeaders().getFirst("Content-Type");
+        String id = mint(container);
+
+        if (contentType != null && contentType.contains("json")) {
+            write(id, (ObjectNode) mapper.readTree(content), null, true, userAgent(ex));
+        } else {
+            resources.put(id, new StubResource(null, content,
+                    contentType == null ? "application/octet-stream" : contentType, versions.incrementAndGet()));
+        }
+
+        ex.getResponseHeaders().set("Location", id);
+        respond(ex, 201, "text/plain", id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void doPut(HttpExchange ex, String id) throws IOException {
+        ObjectNode body = (ObjectNode) mapper.readTree(readBody(ex.getRequestBody()));
+        boolean exists = resources.containsKey(id);
+        if (!write(id, body, ex.getRequestHeaders().getFirst("If-Match"), !exists, userAgent(ex))) {
+            respond(ex, 412, null, null);
+            return;
+        }
+        respond(ex, exists ? 204 : 201, null, null);
+    }
+
+    private void doPatch(HttpExchange ex, String id) throws IOException {
+        String contentType = ex.getRequestHeaders().getFirst("Content-Type");
+        if (contentType == null || !contentType.contains(MERGE_PATCH)) {
+            respond(ex, 415, null, null);
+            return;
+        }
+
+        StubResource existing = resources.get(id);
+        if (existing == null || existing.body == null) {
+            respond(ex, 404, null, null);
+            return;
+        }
+
+        ObjectNode merged = existing.body.deepCopy();
+        merge(merged, (ObjectNode) mapper.readTree(readBody(ex.getRequestBody())));
+        if (!write(id, merged, ex.getRequestHeaders().getFirst("If-Match"), false, userAgent(ex))) {
+            respond(ex, 412, null, null);
+            return;
+        }
+        respond(ex, 204, null, null);
+    }
+
+    private void doDelete(HttpExchange ex, String id) throws IOException {
+        StubResource removed = resources.remove(id);
+        if (removed == null) {
+            respond(ex, 404, null, null);
+            return;
+        }
+        if (removed.body != null) {
+            unindex(id, removed.body);
+            listeners.forEach(l -> l.written(id, removed.body, null));
+        }
+        respond(ex, 204, null, null);
+    }
+
+    /**
+     * Stores the body as the new state of the identified resource, provided the {@code If-Match} precondition (if
+     * any) holds.  Listeners are notified and an event is published after the write.
+     *
+     * @return {@code false} if the precondition failed
+     */
+    private boolean write(String id, ObjectNode body, String ifMatch, boolean created, String agent) {
+        body.put(AT_ID, id);
+        StubResource[] previous = new StubResource[1];
+        boolean[] conflict = new boolean[1];
+
+        resources.compute(id, (key, existing) -> {
+            if (ifMatch != null && existing != null && !tagsMatch(ifMatch, existing.etag())) {
+                conflict[0] = true;
+                return existing;
+            }
+            previous[0] = existing;
+            if (existing != null && existing.body != null && !body.has(AT_CONTEXT) && existing.body.has(AT_CONTEXT)) {
+                body.set(AT_CONTEXT, existing.body.get(AT_CONTEXT));
+            }
+            return new StubResource(body, null, JSONLD, versions.incrementAndGet());
+        });
+
+        if (conflict[0]) {
+            conflicts.incrementAndGet();
+            return false;
+        }
+
+        JsonNode before = previous[0] == null ? null : previous[0].body;
+        if (before != null) {
+            unindex(id, before);
+        }
+        index(id, body);
+
+        listeners.forEach(l -> l.written(id, before, body));
+
+        if (publisher != null && body.has(AT_TYPE)) {
+            publisher.publish(id, body.get(AT_TYPE).asText(), created, agent);
+        }
+
+        return true;
+    }
+
+    private void index(String source, JsonNode body) {
+        references(body, (field, target) ->
+                inbound.computeIfAbsent(target, t -> ConcurrentHashMap.newKeySet()).add(source + " " + field));
+    }
+
+    private void unindex(String source, JsonNode body) {
+        references(body, (field, target) -> {
+            Set<String> refs = inbound.get(target);
+            if (refs != null) {
+                refs.remove(source + " " + field);
+            }
+        });
+    }
+
+    private void references(JsonNode body, BiConsumer<String, String> consumer) {
+        Iterator<Map.Entry<String, JsonNode>> fields = body.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getKey().startsWith("@")) {
+                continue;
+            }
+            JsonNode value = field.getValue();
+            if (value.isTextual() && value.asText().startsWith(baseUrl)) {
+                consumer.accept(field.getKey(), value.asText());
+            } else if (value.isArray()) {
+                value.forEach(element -> {
+                    if (element.isTextual() && element.asText().startsWith(baseUrl)) {
+                        consumer.accept(field.getKey(), element.asText());
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Applies an RFC 7386 JSON merge patch to the target.
+     */
+    static void merge(ObjectNode target, ObjectNode patch) {
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode value = field.getValue();
+            if (value.isNull()) {
+                target.remove(field.getKey());
+            } else if (value.isObject() && target.path(field.getKey()).isObject()) {
+                merge((ObjectNode) target.get(field.getKey()), (ObjectNode) value);
+            } else {
+                target.set(field.getKey(), value);
+            }
+        }
+    }
+
+    static boolean tagsMatch(String ifMatch, String etag) {
+        return "*".equals(ifMatch.trim()) || normalize(ifMatch).equals(normalize(etag));
+    }
+
+    private static String normalize(String etag) {
+        String normalized = etag.trim();
+        if (normalized.startsWith("W/")) {
+            normalized = normalized.substring(2);
+        }
+        return normalized.replace("\"", "");
+    }
+
+    private static String mint(String container) {
+        String c = container.endsWith("/") ? container.substring(0, container.length() - 1) : container;
+        return c + "/" + UUID.randomUUID();
+    }
+
+    private static String userAgent(HttpExchange ex) {
+        return ex.getRequestHeaders().getFirst("User-Agent");
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) > -1) {
+            out.write(buf, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange ex, int status, String contentType, byte[] body) throws IOException {
+        if (contentType != null) {
+            ex.getResponseHeaders().set("Content-Type", contentType);
+        }
+        if (body == null || "HEAD".equals(ex.getRequestMethod())) {
+            ex.sendResponseHeaders(status, -1);
+            return;
+        }
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static class StubResource {
+
+        private final ObjectNode body;
+
+        private final byte[] binary;
+
+        private final String contentType;
+
+        private final long version;
+
+        private StubResource(ObjectNode body, byte[] binary, String contentType, long version) {
+            this.body = body;
+            this.binary = binary;
+            this.contentType = contentType;
+            this.version = version;
+        }
+
+        private String etag() {
+            return "W/\"" + Long.toHexString(version) + "\"";
+        }
+
+    }
+
+}
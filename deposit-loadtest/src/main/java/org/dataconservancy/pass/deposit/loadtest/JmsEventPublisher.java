@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.JmsFcrepoEvent.RESOURCE_CREATION;
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.JmsFcrepoEvent.RESOURCE_MODIFICATION;
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.JmsFcrepoHeader.FCREPO_EVENT_TYPE;
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.JmsFcrepoHeader.FCREPO_RESOURCE_TYPE;
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.JmsFcrepoType.REPO_CONTAINER;
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.JmsFcrepoType.REPO_RESOURCE;
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.LdpType.LDP_CONTAINER;
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.LdpType.LDP_RDFSOURCE;
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.Prov.SOFTWARE_AGENT;
+
+/**
+ * Emits JMS messages that mimic those produced by the Fedora JMS module (and routed by the PASS Camel routes) when a
+ * {@code Submission} or {@code Deposit} is created or modified.
+ * <p>
+ * Messages for {@code Submission}s are sent to the submission queue, and messages for {@code Deposit}s are sent to
+ * the deposit queue.  Messages for other PASS resource types are not emitted, because Deposit Services does not
+ * listen for them.  The message body carries the resource identifier, its RDF types, and a {@code wasAttributedTo}
+ * software agent equal to the {@code User-Agent} that performed the modification, which allows the
+ * {@code AgentPolicy} to drop messages that Deposit Services caused.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class JmsEventPublisher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JmsEventPublisher.class);
+
+    static final String PASS_NS = "http://oapass.org/ns/pass#";
+
+    private static final String PROV_PERSON = "http://www.w3.org/ns/prov#Person";
+
+    private static final String PROV_ACTIVITY = "http://www.w3.org/ns/prov#Activity";
+
+    private static final String FEDORA_USER = "fedoraAdmin";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Connection connection;
+
+    private final Session session;
+
+    private final MessageProducer producer;
+
+    private final String submissionQueue;
+
+    private final String depositQueue;
+
+    private final AtomicLong published = new AtomicLong();
+
+    /**
+     * Connects to the broker and prepares a producer.
+     *
+     * @param brokerUrl the broker connection url
+     * @param submissionQueue the name of the queue receiving {@code Submission} messages
+     * @param depositQueue the name of the queue receiving {@code Deposit} messages
+     */
+    public JmsEventPublisher(String brokerUrl, String submissionQueue, String depositQueue) {
+        this.submissionQueue = submissionQueue;
+        this.depositQueue = depositQueue;
+        try {
+            this.connection = new ActiveMQConnectionFactory(brokerUrl).createConnection();
+            this.connection.start();
+            this.session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            this.producer = session.createProducer(null);
+            this.producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        } catch (JMSException e) {
+            throw new RuntimeException("Unable to connect to the broker at " + brokerUrl + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Publish a message describing the creation or modification of a PASS resource.
+     *
+     * @param id the identifier of the resource
+     * @param passType the simple PASS type of the resource, e.g. {@code Submission}
+     * @param created {@code true} if the resource was created, {@code false} if it was modified
+     * @param agent the user agent that performed the modification, may be {@code null}
+     */
+    public void publish(String id, String passType, boolean created, String agent) {
+        String queue;
+        if ("Submission".equals(passType)) {
+            queue = submissionQueue;
+        } else if ("Deposit".equals(passType)) {
+            queue = depositQueue;
+        } else {
+            return;
+        }
+
+        List<String> types = Arrays.asList(LDP_CONTAINER, PASS_NS + passType, REPO_RESOURCE, REPO_CONTAINER,
+                LDP_RDFSOURCE);
+        String eventType = created ? RESOURCE_CREATION : RESOURCE_MODIFICATION;
+
+        ObjectNode body = mapper.createObjectNode();
+        body.put("id", id);
+        ArrayNode typeNode = body.putArray("type");
+        types.forEach(typeNode::add);
+        ObjectNode generatedBy = body.putObject("wasGeneratedBy");
+        generatedBy.putArray("type").add(eventType).add(PROV_ACTIVITY);
+        generatedBy.put("identifier", "urn:uuid:" + UUID.randomUUID());
+        generatedBy.put("atTime", Instant.now().toString());
+        ArrayNode attributedTo = body.putArray("wasAttributedTo");
+        attributedTo.addObject().put("type", PROV_PERSON).put("name", FEDORA_USER);
+        if (agent != null) {
+            attributedTo.addObject().put("type", SOFTWARE_AGENT).put("name", agent);
+        }
+
+        try {
+            synchronized (session) {
+                TextMessage message = session.createTextMessage(mapper.writeValueAsString(body));
+                message.setStringProperty(FCREPO_RESOURCE_TYPE, String.join(",", types));
+                message.setStringProperty(FCREPO_EVENT_TYPE, eventType);
+                producer.send(session.createQueue(queue), message);
+            }
+            published.incrementAndGet();
+        } catch (Exception e) {
+            LOG.warn(">>>> Unable to publish message for {} to queue '{}': {}", id, queue, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the number of messages published
+     */
+    public long published() {
+        return published.get();
+    }
+
+    @Override
+    public void close() throws Exception {
+        connection.close();
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates latency samples, in milliseconds, and answers percentiles over the recorded samples.
+ * <p>
+ * Samples are retained in full so that percentiles are exact; load tests are bounded in size, so the memory cost of
+ * retaining every sample is acceptable.  Instances are thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class LatencyStats {
+
+    private long[] samples = new long[1024];
+
+    private int count = 0;
+
+    private long sum = 0;
+
+    /**
+     * Records a sample.  Negative samples are ignored.
+     *
+     * @param millis the latency in milliseconds
+     */
+    public synchronized void record(long millis) {
+        if (millis < 0) {
+            return;
+        }
+
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+
+        samples[count++] = millis;
+        sum += millis;
+    }
+
+    /**
+     * @return the number of samples recorded
+     */
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * @return the arithmetic mean of the recorded samples, or {@code 0} if no samples have been recorded
+     */
+    public synchronized double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Answers the sample at the supplied percentile using the nearest-rank method.
+     *
+     * @param percentile a percentile in the range (0, 100]
+     * @return the sample at the percentile, or {@code 0} if no samples have been recorded
+     * @throws IllegalArgumentException if the percentile is out of range
+     */
+    public synchronized long percentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be in the range (0, 100]: " + percentile);
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil((percentile / 100) * count);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * @return the largest recorded sample, or {@code 0} if no samples have been recorded
+     */
+    public long max() {
+        return percentile(100);
+    }
+
+}
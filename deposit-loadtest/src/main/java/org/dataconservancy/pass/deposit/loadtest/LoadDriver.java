@@ -0,0 +1,249 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Seeds the {@link FedoraStub} with the resources a {@code Submission} links to, and publishes {@code Submission}s
+ * at a fixed rate.
+ * <p>
+ * Each {@code Submission} is published the way the PASS user interface does it: the {@code Submission} is created
+ * with {@code submitted = false}, its {@code File}s and their binaries are created, and then the {@code Submission}
+ * is updated with {@code submitted = true}.  The update emits the JMS message that Deposit Services acts on, and is
+ * the point in time that stage latencies are measured from.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class LoadDriver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadDriver.class);
+
+    /**
+     * The user agent credited with resources created by the driver; it must differ from {@code
+     * pass.deposit.http.agent}, otherwise Deposit Services will drop the resulting messages.
+     */
+    static final String AGENT = "pass-loadtest/driver";
+
+    private static final String METADATA = "[" +
+            "{\"id\": \"JScholarship\", \"data\": {\"embargo\": \"Load test license\", " +
+            "\"agreement-to-deposit\": \"true\"}}, " +
+            "{\"id\": \"common\", \"data\": {\"title\": \"Load test manuscript %1$d\", " +
+            "\"journal-title\": \"Load Test Journal\", \"abstract\": \"A manuscript submitted by the load test.\", " +
+            "\"authors\": [{\"author\": \"Load Tester\"}]}}, " +
+            "{\"id\": \"crossref\", \"data\": {\"doi\": \"10.5555/loadtest.%1$d\"}}, " +
+            "{\"id\": \"pmc\", \"data\": {\"nlmta\": \"Load Test J\"}}]";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    private final FedoraStub fedora;
+
+    private final StageRecorder recorder;
+
+    private final List<String> repositoryNames;
+
+    private final int filesPerSubmission;
+
+    private final int fileSizeBytes;
+
+    private final List<String> repositories = new ArrayList<>();
+
+    private String user;
+
+    private String publication;
+
+    private String grant;
+
+    /**
+     * @param fedora the repository stand-in
+     * @param recorder notified of each published {@code Submission}
+     * @param repositoryNames the names of the {@code Repository} resources each {@code Submission} is deposited to;
+     *                        each name must resolve to a {@code Packager}
+     * @param filesPerSubmission the number of {@code File}s attached to each {@code Submission}
+     * @param fileSizeBytes the size of each binary
+     */
+    public LoadDriver(FedoraStub fedora, StageRecorder recorder, List<String> repositoryNames,
+                      int filesPerSubmission, int fileSizeBytes) {
+        this.fedora = fedora;
+        this.recorder = recorder;
+        this.repositoryNames = repositoryNames;
+        this.filesPerSubmission = filesPerSubmission;
+        this.fileSizeBytes = fileSizeBytes;
+    }
+
+    /**
+     * Creates the resources shared by all {@code Submission}s: the submitter, the publication and its journal, a
+     * grant with its funders and policy, and the repositories.
+     */
+    public void seed() {
+        user = fedora.create("users", entity("User")
+                .put("username", "loadtester")
+                .put("firstName", "Load")
+                .put("lastName", "Tester")
+                .put("displayName", "Load Tester")
+                .put("email", "loadtester@example.org"), AGENT);
+
+        String publisher = fedora.create("publishers", entity("Publisher")
+                .put("name", "Load Test Press"), AGENT);
+
+        ObjectNode journal = entity("Journal")
+                .put("name", "Load Test Journal")
+                .put("nlmta", "Load Test J")
+                .put("pmcParticipation", "A")
+                .put("publisher", publisher);
+        journal.putArray("issns").add("0000-0000");
+        String journalId = fedora.create("journals", journal, AGENT);
+
+        publication = fedora.create("publications", entity("Publication")
+                .put("title", "Load test manuscript")
+                .put("doi", "10.5555/loadtest")
+                .put("journal", journalId), AGENT);
+
+        for (String name : repositoryNames) {
+            repositories.add(fedora.create("repositories", entity("Repository")
+                    .put("name", name)
+                    .put("description", "Load test repository " + name)
+                    .put("formSchema", "{}"), AGENT));
+        }
+
+        ObjectNode policy = entity("Policy")
+                .put("title", "Load test policy")
+                .put("description", "Deposit everything everywhere");
+        ArrayNode policyRepos = policy.putArray("repositories");
+        repositories.forEach(policyRepos::add);
+        String policyId = fedora.create("policies", policy, AGENT);
+
+        String funder = fedora.create("funders", entity("Funder")
+                .put("name", "Load Test Institute")
+                .put("localKey", "loadtest")
+                .put("policy", policyId), AGENT);
+
+        grant = fedora.create("grants", entity("Grant")
+                .put("awardNumber", "LT0000001")
+                .put("awardStatus", "active")
+                .put("localKey", "loadtest-grant")
+                .put("projectName", "Sizing Deposit Services")
+                .put("primaryFunder", funder)
+                .put("directFunder", funder)
+                .put("pi", user), AGENT);
+
+        LOG.info(">>>> Seeded shared resources; repositories: {}", repositories);
+    }
+
+    /**
+     * Publishes a single {@code Submission}.
+     *
+     * @return the identifier of the published {@code Submission}
+     */
+    public String publishOne() {
+        int n = sequence.incrementAndGet();
+
+        ObjectNode submission = entity("Submission")
+                .put("metadata", String.format(METADATA, n))
+                .put("source", "pass")
+                .put("submitted", false)
+                .put("aggregatedDepositStatus", "not-started")
+                .put("publication", publication)
+                .put("user", user);
+        ArrayNode repos = submission.putArray("repositories");
+        repositories.forEach(repos::add);
+        submission.putArray("grants").add(grant);
+
+        String submissionId = fedora.create("submissions", submission, AGENT);
+
+        for (int i = 0; i < filesPerSubmission; i++) {
+            byte[] content = new byte[fileSizeBytes];
+            ThreadLocalRandom.current().nextBytes(content);
+            String binary = fedora.createBinary("binaries", content, "application/pdf");
+            fedora.create("files", entity("File")
+                    .put("name", "manuscript-" + n + "-" + i + ".pdf")
+                    .put("uri", binary)
+                    .put("description", "Load test manuscript")
+                    .put("fileRole", i == 0 ? "manuscript" : "supplemental")
+                    .put("mimeType", "application/pdf")
+                    .put("submission", submissionId), AGENT);
+        }
+
+        ObjectNode submitted = fedora.read(submissionId);
+        submitted.put("submitted", true);
+        submitted.put("submittedDate", Instant.now().toString());
+
+        recorder.published(submissionId);
+        fedora.update(submissionId, submitted, AGENT);
+
+        return submissionId;
+    }
+
+    /**
+     * Publishes {@code count} {@code Submission}s at {@code ratePerSecond}, blocking until all have been published.
+     *
+     * @param ratePerSecond the number of {@code Submission}s to publish each second
+     * @param count the total number of {@code Submission}s to publish
+     * @throws InterruptedException if interrupted while waiting for publication to complete
+     */
+    public void run(double ratePerSecond, int count) throws InterruptedException {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + ratePerSecond);
+        }
+
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        CountDownLatch done = new CountDownLatch(count);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        scheduler.scheduleAtFixedRate(() -> {
+            if (done.getCount() == 0) {
+                return;
+            }
+            try {
+                publishOne();
+            } catch (Exception e) {
+                LOG.warn(">>>> Failed to publish submission: {}", e.getMessage(), e);
+            } finally {
+                done.countDown();
+            }
+        }, 0, Math.max(1, periodNanos), TimeUnit.NANOSECONDS);
+
+        try {
+            done.await();
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private ObjectNode entity(String type) {
+        ObjectNode entity = mapper.createObjectNode();
+        entity.put("@type", type);
+        return entity;
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * Renders the results of a load test as plain text.
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class LoadReport {
+
+    private static final String NL = System.lineSeparator();
+
+    private LoadReport() {
+        // no-op
+    }
+
+    /**
+     * Renders a report.
+     *
+     * @param recorder the stage recorder of the run
+     * @param fedora the repository stand-in
+     * @param sword the SWORD stand-in
+     * @param publisher the JMS stand-in
+     * @param targetRate the configured publication rate
+     * @param expectedDeposits the number of {@code Deposit}s expected to settle
+     * @param publishMillis the wall-clock time spent publishing
+     * @return the report
+     */
+    public static String render(StageRecorder recorder, FedoraStub fedora, SwordStub sword,
+                                JmsEventPublisher publisher, double targetRate, int expectedDeposits,
+                                long publishMillis) {
+        StringBuilder out = new StringBuilder();
+        int published = recorder.publishedCount();
+        int settled = recorder.settledCount();
+        long elapsed = Math.max(1, recorder.lastSettled() - recorder.firstPublished());
+
+        Map<String, Long> deposits = recorder.depositOutcomes();
+        long failed = deposits.getOrDefault("failed", 0L);
+
+        out.append("==== Deposit Services load test ====").append(NL);
+        out.append(format("Submissions published:   %d in %d ms (target %.2f/s, achieved %.2f/s)",
+                published, publishMillis, targetRate, published / (publishMillis / 1000.0))).append(NL);
+        out.append(format("Deposits settled:        %d of %d expected", settled, expectedDeposits)).append(NL);
+        out.append(format("Throughput:              %.2f deposits/s", settled / (elapsed / 1000.0))).append(NL);
+        out.append(format("Deposit transitions:     %s", deposits)).append(NL);
+        out.append(format("Submission outcomes:     %s", recorder.submissionOutcomes())).append(NL);
+        out.append(format("Deposit error rate:      %.2f%% (%d failed, %d unsettled)",
+                settled == 0 ? 0 : (100.0 * failed) / settled, failed, Math.max(0, expectedDeposits - settled)))
+                .append(NL);
+        out.append(format("Fedora:                  %d requests, %d conflicts (412), %d errors (5xx)",
+                fedora.requests(), fedora.conflicts(), fedora.errors())).append(NL);
+        out.append(format("SWORD:                   %d deposits, %d bytes", sword.deposits(),
+                sword.bytesReceived())).append(NL);
+        out.append(format("JMS:                     %d messages published", publisher.published())).append(NL);
+        out.append(NL);
+        out.append(format("%-52s %8s %10s %8s %8s %8s %8s", "Stage latency (ms)", "count", "mean", "p50", "p90",
+                "p99", "max")).append(NL);
+
+        for (StageRecorder.Stage stage : StageRecorder.Stage.values()) {
+            LatencyStats stats = recorder.stats(stage);
+            out.append(format("%-52s %8d %10.1f %8d %8d %8d %8d", stage.description(), stats.count(), stats.mean(),
+                    stats.percentile(50), stats.percentile(90), stats.percentile(99), stats.max())).append(NL);
+        }
+
+        return out.toString();
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import org.dataconservancy.pass.deposit.messaging.DepositApp;
+import org.dataconservancy.pass.deposit.messaging.runner.ListenerRunner;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Boots Deposit Services in {@code listen} mode against in-process stand-ins for the JMS broker, the Fedora
+ * repository, the NIHMS FTP server and the DSpace SWORDv2 endpoint, publishes {@code Submission}s at a configurable
+ * rate, and reports throughput, per-stage latency percentiles and error rates.
+ * <p>
+ * Everything runs on the loopback interface, so the test can be run on a single host without network access.  Vary
+ * {@code --workers} ({@code pass.deposit.workers.concurrency}) and {@code --jms-concurrency} ({@code
+ * spring.jms.listener.concurrency}) between runs to size them for a given load.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class LoadTestApp {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTestApp.class);
+
+    /**
+     * Must match the NIHMS transport credentials in {@code packagers.properties}
+     */
+    private static final String FTP_USER = "nihmsftpuser";
+
+    private static final String FTP_PASSWORD = "nihmsftppass";
+
+    private static final String FEDORA_USER = "fedoraAdmin";
+
+    private static final String FEDORA_PASSWORD = "moo";
+
+    @Option(name = "-n", aliases = { "--submissions" }, usage = "number of Submissions to publish")
+    int submissions = 100;
+
+    @Option(name = "-r", aliases = { "--rate" }, usage = "Submissions published per second")
+    double rate = 5;
+
+    @Option(name = "--repositories", usage = "comma-separated names of the Repositories each Submission is " +
+            "deposited to")
+    String repositories = "JScholarship,PubMed Central";
+
+    @Option(name = "--files", usage = "number of Files attached to each Submission")
+    int files = 1;
+
+    @Option(name = "--file-size", usage = "size in bytes of each File")
+    int fileSize = 64 * 1024;
+
+    @Option(name = "--workers", usage = "value of pass.deposit.workers.concurrency")
+    int workers = 4;
+
+    @Option(name = "--jms-concurrency", usage = "value of spring.jms.listener.concurrency, e.g. '4' or '2-8'")
+    String jmsConcurrency = "4";
+
+    @Option(name = "--sword-sleep-ms", usage = "value of pass.deposit.transport.swordv2.sleep-time-ms")
+    long swordSleepMs = 100;
+
+    @Option(name = "--sword-latency-ms", usage = "milliseconds the SWORD stand-in waits before answering a deposit")
+    long swordLatencyMs = 0;
+
+    @Option(name = "--sword-withdrawn-ratio", usage = "fraction of SWORD deposits reported as withdrawn")
+    double swordWithdrawnRatio = 0;
+
+    @Option(name = "--stub-threads", usage = "threads serving requests in each HTTP stand-in")
+    int stubThreads = 32;
+
+    @Option(name = "--ftp-passive-ports", usage = "passive data port range of the FTP stand-in")
+    String ftpPassivePorts = "31000-31200";
+
+    @Option(name = "--quiet-ms", usage = "after all deposits settle, milliseconds without repository writes " +
+            "before the run ends")
+    long quietMs = 5000;
+
+    @Option(name = "--drain-timeout-sec", usage = "seconds to wait for deposits to settle after publishing")
+    long drainTimeoutSec = 300;
+
+    @Option(name = "-h", aliases = { "--help" }, usage = "print help message")
+    boolean help = false;
+
+    public static void main(String[] args) throws Exception {
+        LoadTestApp app = new LoadTestApp();
+        CmdLineParser parser = new CmdLineParser(app);
+
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (app.help) {
+            parser.printUsage(System.err);
+            System.exit(0);
+        }
+
+        System.out.println(app.run());
+        System.exit(0);
+    }
+
+    /**
+     * Executes the load test.
+     *
+     * @return the rendered report
+     * @throws Exception if the stand-ins or Deposit Services cannot be started
+     */
+    String run() throws Exception {
+        List<String> repositoryNames = Arrays.stream(repositories.split(","))
+                .map(String::trim).filter(name -> !name.isEmpty()).collect(Collectors.toList());
+        File workDir = Files.createTempDirectory("deposit-loadtest").toFile();
+
+        try (EmbeddedBroker broker = new EmbeddedBroker(Ports.freePort())) {
+            broker.start();
+
+            try (JmsEventPublisher publisher = new JmsEventPublisher(broker.brokerUrl(), "submission", "deposit");
+                 FedoraStub fedora = new FedoraStub(Ports.freePort(), stubThreads, publisher);
+                 SwordStub sword = new SwordStub(Ports.freePort(), stubThreads, swordWithdrawnRatio, swordLatencyMs);
+                 EmbeddedFtpServer ftp = new EmbeddedFtpServer(Ports.freePort(), ftpPassivePorts,
+                         Math.max(64, workers * 4), FTP_USER, FTP_PASSWORD, new File(workDir, "ftp"))) {
+
+                fedora.start();
+                sword.start();
+                ftp.start();
+
+                StageRecorder recorder = new StageRecorder();
+                fedora.addListener(recorder);
+
+                LoadDriver driver = new LoadDriver(fedora, recorder, repositoryNames, files, fileSize);
+                driver.seed();
+
+                try (ConfigurableApplicationContext ignored = startDepositServices(broker, fedora, sword, ftp)) {
+                    long start = System.currentTimeMillis();
+                    driver.run(rate, submissions);
+                    long publishMillis = System.currentTimeMillis() - start;
+
+                    int expected = submissions * repositoryNames.size();
+                    drain(recorder, expected);
+
+                    return LoadReport.render(recorder, fedora, sword, publisher, rate, expected, publishMillis);
+                }
+            }
+        }
+    }
+
+    private ConfigurableApplicationContext startDepositServices(EmbeddedBroker broker, FedoraStub fedora,
+                                                                SwordStub sword, EmbeddedFtpServer ftp) {
+        // PassClientFactory is configured by system properties, and the PassJsonFedoraAdapter obtains its client
+        // from the factory, so these must be set before the application context is created.
+        System.setProperty("pass.fedora.baseurl", fedora.baseUrl());
+        System.setProperty("pass.fedora.user", FEDORA_USER);
+        System.setProperty("pass.fedora.password", FEDORA_PASSWORD);
+
+        // Command line arguments take precedence over application.properties
+        List<String> args = new ArrayList<>();
+        args.add("listen");
+        args.add("--spring.activemq.broker-url=" + broker.brokerUrl());
+        args.add("--pass.fedora.baseurl=" + fedora.baseUrl());
+        args.add("--pass.fedora.user=" + FEDORA_USER);
+        args.add("--pass.fedora.password=" + FEDORA_PASSWORD);
+        args.add("--ftp.host=localhost");
+        args.add("--ftp.port=" + ftp.port());
+        args.add("--dspace.host=localhost");
+        args.add("--dspace.port=" + sword.port());
+        args.add("--pass.deposit.workers.concurrency=" + workers);
+        args.add("--spring.jms.listener.concurrency=" + jmsConcurrency);
+        args.add("--pass.deposit.transport.swordv2.sleep-time-ms=" + swordSleepMs);
+
+        LOG.info(">>>> Starting Deposit Services with {}", args);
+
+        SpringApplication app = new SpringApplication(DepositApp.class, ListenerRunner.class);
+        return app.run(args.toArray(new String[0]));
+    }
+
+    /**
+     * Waits until the expected number of deposits have settled and the repository has been quiet for {@link
+     * #quietMs}, or until {@link #drainTimeoutSec} elapses.
+     */
+    private void drain(StageRecorder recorder, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + drainTimeoutSec * 1000;
+        while (System.currentTimeMillis() < deadline) {
+            long quietFor = System.currentTimeMillis() - recorder.lastWrite();
+            if (recorder.settledCount() >= expected && quietFor >= quietMs) {
+                return;
+            }
+            Thread.sleep(250);
+        }
+
+        LOG.warn(">>>> Timed out after {} s waiting for deposits to settle: {} of {} settled",
+                drainTimeoutSec, recorder.settledCount(), expected);
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+/**
+ * Allocates ephemeral ports on the loopback interface for the stand-in servers.
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+class Ports {
+
+    private Ports() {
+        // no-op
+    }
+
+    /**
+     * Answers a port on the loopback interface that was free at the time of invocation.
+     *
+     * @return a free port
+     * @throws RuntimeException if a port cannot be allocated
+     */
+    static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            socket.setReuseAddress(true);
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to allocate a free port: " + e.getMessage(), e);
+        }
+    }
+
+}
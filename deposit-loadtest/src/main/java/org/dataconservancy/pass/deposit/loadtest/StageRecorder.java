@@ -0,0 +1,247 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Observes writes to the {@link FedoraStub} and derives per-stage latencies and outcome counts for each {@code
+ * Submission} published by the {@link LoadDriver}.
+ * <p>
+ * A deposit is considered <em>settled</em> when its status is first set, whether that status is {@code submitted}
+ * (which is final for transports like FTP that provide no status reference), or one of the terminal statuses.
+ * Throughput is reported as settled deposits per second.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class StageRecorder implements FedoraStub.ResourceListener {
+
+    /**
+     * The stages of deposit processing whose latency is measured
+     */
+    public enum Stage {
+
+        SUBMISSION_ACCEPTED("submission published -> submission in-progress"),
+
+        DEPOSIT_CREATED("submission published -> deposit created"),
+
+        DEPOSIT_SUBMITTED("deposit created -> deposit submitted"),
+
+        DEPOSIT_TERMINAL("deposit created -> deposit terminal"),
+
+        SUBMISSION_TERMINAL("submission published -> submission terminal");
+
+        private final String description;
+
+        Stage(String description) {
+            this.description = description;
+        }
+
+        public String description() {
+            return description;
+        }
+
+    }
+
+    private static final String SUBMISSION = "Submission";
+
+    private static final String DEPOSIT = "Deposit";
+
+    private static final String AGGREGATED_STATUS = "aggregatedDepositStatus";
+
+    private static final String DEPOSIT_STATUS = "depositStatus";
+
+    private final Map<Stage, LatencyStats> stats = new EnumMap<>(Stage.class);
+
+    private final Map<String, Long> published = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> depositsCreated = new ConcurrentHashMap<>();
+
+    private final Set<String> settled = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, AtomicLong> depositOutcomes = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> submissionOutcomes = new ConcurrentHashMap<>();
+
+    private final AtomicLong firstPublished = new AtomicLong();
+
+    private final AtomicLong lastSettled = new AtomicLong();
+
+    private final AtomicLong lastWrite = new AtomicLong();
+
+    public StageRecorder() {
+        for (Stage stage : Stage.values()) {
+            stats.put(stage, new LatencyStats());
+        }
+    }
+
+    /**
+     * Records the time a {@code Submission} was published for processing.
+     *
+     * @param submissionId the identifier of the {@code Submission}
+     */
+    public void published(String submissionId) {
+        long now = System.currentTimeMillis();
+        firstPublished.compareAndSet(0, now);
+        published.put(submissionId, now);
+    }
+
+    @Override
+    public void written(String id, JsonNode before, JsonNode after) {
+        long now = System.currentTimeMillis();
+        lastWrite.set(now);
+
+        if (after == null) {
+            return;
+        }
+
+        String type = after.path("@type").asText();
+
+        if (SUBMISSION.equals(type)) {
+            String status = changed(before, after, AGGREGATED_STATUS);
+            Long publishedAt = published.get(id);
+            if (status == null || publishedAt == null) {
+                return;
+            }
+
+            if ("in-progress".equals(status)) {
+                stats.get(Stage.SUBMISSION_ACCEPTED).record(now - publishedAt);
+            } else if (isTerminal(status)) {
+                stats.get(Stage.SUBMISSION_TERMINAL).record(now - publishedAt);
+                submissionOutcomes.computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+            }
+
+            return;
+        }
+
+        if (!DEPOSIT.equals(type)) {
+            return;
+        }
+
+        if (before == null) {
+            depositsCreated.put(id, now);
+            Long publishedAt = published.get(after.path("submission").asText());
+            if (publishedAt != null) {
+                stats.get(Stage.DEPOSIT_CREATED).record(now - publishedAt);
+            }
+        }
+
+        String status = changed(before, after, DEPOSIT_STATUS);
+        Long createdAt = depositsCreated.get(id);
+        if (status == null || createdAt == null) {
+            return;
+        }
+
+        depositOutcomes.computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+
+        if ("submitted".equals(status)) {
+            stats.get(Stage.DEPOSIT_SUBMITTED).record(now - createdAt);
+        } else if (isTerminal(status)) {
+            stats.get(Stage.DEPOSIT_TERMINAL).record(now - createdAt);
+        }
+
+        if (settled.add(id)) {
+            lastSettled.set(now);
+        }
+    }
+
+    public LatencyStats stats(Stage stage) {
+        return stats.get(stage);
+    }
+
+    /**
+     * @return the number of {@code Submission}s published
+     */
+    public int publishedCount() {
+        return published.size();
+    }
+
+    /**
+     * @return the number of {@code Deposit}s that have been assigned a status
+     */
+    public int settledCount() {
+        return settled.size();
+    }
+
+    /**
+     * @return counts of each {@code Deposit} status transition observed, keyed by status
+     */
+    public Map<String, Long> depositOutcomes() {
+        return snapshot(depositOutcomes);
+    }
+
+    /**
+     * @return counts of each terminal aggregated {@code Submission} status observed, keyed by status
+     */
+    public Map<String, Long> submissionOutcomes() {
+        return snapshot(submissionOutcomes);
+    }
+
+    /**
+     * @return epoch millis of the first publication, or {@code 0} if nothing has been published
+     */
+    public long firstPublished() {
+        return firstPublished.get();
+    }
+
+    /**
+     * @return epoch millis of the most recently settled {@code Deposit}, or {@code 0} if none have settled
+     */
+    public long lastSettled() {
+        return lastSettled.get();
+    }
+
+    /**
+     * @return epoch millis of the most recent write to the repository, or {@code 0} if there have been none
+     */
+    public long lastWrite() {
+        return lastWrite.get();
+    }
+
+    private static boolean isTerminal(String status) {
+        return "accepted".equals(status) || "rejected".equals(status) || "failed".equals(status);
+    }
+
+    /**
+     * Answers the value of the field in {@code after}, lower-cased, if it differs from the value in {@code before}.
+     *
+     * @return the new value, or {@code null} if the value is absent or unchanged
+     */
+    private static String changed(JsonNode before, JsonNode after, String field) {
+        String now = after.path(field).asText(null);
+        if (now == null || now.isEmpty()) {
+            return null;
+        }
+        String then = before == null ? null : before.path(field).asText(null);
+        return now.equalsIgnoreCase(then) ? null : now.toLowerCase();
+    }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> counts) {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counts.forEach((k, v) -> snapshot.put(k, v.get()));
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+}
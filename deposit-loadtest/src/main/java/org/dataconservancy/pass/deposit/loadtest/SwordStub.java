@@ -0,0 +1,252 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.SWORD.SWORD_STATE;
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.SWORD.SWORD_STATE_ARCHIVED;
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.SWORD.SWORD_STATE_WD;
+
+/**
+ * A stand-in for a DSpace SWORDv2 endpoint.  It serves a service document advertising a single collection, accepts
+ * binary deposits to that collection, answers each deposit with a deposit receipt, and serves an Atom statement for
+ * each deposit carrying a {@code sword:state}.
+ * <p>
+ * The collection is advertised at {@code /swordv2/collection/123456789/2}, matching the {@code target-collection}
+ * of the JScholarship transport in {@code packagers.properties}, so the stub only requires {@code dspace.host} and
+ * {@code dspace.port} to be pointed at it.  A configurable fraction of deposits report a withdrawn state, and a
+ * configurable latency can be added to each deposit to approximate the time DSpace spends ingesting a package.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class SwordStub implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SwordStub.class);
+
+    static final String COLLECTION_PATH = "/swordv2/collection/123456789/2";
+
+    static final String SERVICE_DOC_PATH = "/swordv2/servicedocument";
+
+    private static final String STATEMENT_PATH = "/swordv2/statement/";
+
+    private static final String EDIT_PATH = "/swordv2/edit/";
+
+    private static final String STATEMENT_REL = "http://purl.org/net/sword/terms/statement";
+
+    private static final String ATOM_FEED = "application/atom+xml;type=feed";
+
+    private static final String ATOM_ENTRY = "application/atom+xml;type=entry";
+
+    private static final String SERVICE_DOC = "" +
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<service xmlns=\"http://www.w3.org/2007/app\" xmlns:atom=\"http://www.w3.org/2005/Atom\"\n" +
+            "         xmlns:sword=\"http://purl.org/net/sword/terms/\">\n" +
+            "  <sword:version>2.0</sword:version>\n" +
+            "  <workspace>\n" +
+            "    <atom:title>Load Test</atom:title>\n" +
+            "    <collection href=\"%s\">\n" +
+            "      <atom:title>Load Test Collection</atom:title>\n" +
+            "      <accept>*/*</accept>\n" +
+            "      <accept alternate=\"multipart-related\">*/*</accept>\n" +
+            "      <sword:acceptPackaging>http://purl.org/net/sword/package/METSDSpaceSIP</sword:acceptPackaging>\n" +
+            "      <sword:acceptPackaging>http://purl.org/net/sword/package/SimpleZip</sword:acceptPackaging>\n" +
+            "      <sword:acceptPackaging>http://purl.org/net/sword/package/Binary</sword:acceptPackaging>\n" +
+            "      <sword:mediation>true</sword:mediation>\n" +
+            "    </collection>\n" +
+            "  </workspace>\n" +
+            "</service>\n";
+
+    private static final String RECEIPT = "" +
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<entry xmlns=\"http://www.w3.org/2005/Atom\" xmlns:sword=\"http://purl.org/net/sword/terms/\">\n" +
+            "  <id>%1$s</id>\n" +
+            "  <title type=\"text\">Load test deposit %2$s</title>\n" +
+            "  <updated>%3$s</updated>\n" +
+            "  <link rel=\"edit\" href=\"%1$s\"/>\n" +
+            "  <link rel=\"http://purl.org/net/sword/terms/add\" href=\"%1$s\"/>\n" +
+            "  <link rel=\"alternate\" href=\"%4$s\"/>\n" +
+            "  <link rel=\"" + STATEMENT_REL + "\" type=\"" + ATOM_FEED + "\" href=\"%5$s\"/>\n" +
+            "  <sword:treatment>Load test</sword:treatment>\n" +
+            "</entry>\n";
+
+    private static final String STATEMENT = "" +
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<feed xmlns=\"http://www.w3.org/2005/Atom\">\n" +
+            "  <id>%1$s</id>\n" +
+            "  <link href=\"%1$s\" rel=\"self\"/>\n" +
+            "  <title type=\"text\">Load test deposit %2$s</title>\n" +
+            "  <author><name>Unknown</name></author>\n" +
+            "  <updated>%3$s</updated>\n" +
+            "  <category term=\"%4$s\" scheme=\"" + SWORD_STATE + "\" label=\"State\"/>\n" +
+            "</feed>\n";
+
+    private final Map<String, String> states = new ConcurrentHashMap<>();
+
+    private final AtomicLong deposits = new AtomicLong();
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final String baseUrl;
+
+    private final double withdrawnRatio;
+
+    private final long depositLatencyMs;
+
+    /**
+     * Creates a stub listening on the supplied port.  The stub is not started until {@link #start()} is invoked.
+     *
+     * @param port the port to listen on
+     * @param threads the number of threads serving requests
+     * @param withdrawnRatio the fraction, between 0 and 1, of deposits whose statement reports a withdrawn state
+     * @param depositLatencyMs milliseconds to wait before answering each deposit
+     * @throws IOException if the server cannot bind to the port
+     */
+    public SwordStub(int port, int threads, double withdrawnRatio, long depositLatencyMs) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 128);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server.setExecutor(executor);
+        this.server.createContext("/swordv2", this::handle);
+        this.baseUrl = "http://localhost:" + server.getAddress().getPort();
+        this.withdrawnRatio = withdrawnRatio;
+        this.depositLatencyMs = depositLatencyMs;
+    }
+
+    public void start() {
+        server.start();
+        LOG.info(">>>> SWORDv2 stand-in listening at {}", baseUrl + SERVICE_DOC_PATH);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the port the stub is listening on, suitable for {@code dspace.port}
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the number of deposits received
+     */
+    public long deposits() {
+        return deposits.get();
+    }
+
+    /**
+     * @return the number of package bytes received
+     */
+    public long bytesReceived() {
+        return bytesReceived.get();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            String path = ex.getRequestURI().getPath();
+            String method = ex.getRequestMethod();
+
+            if ("GET".equals(method) && path.equals(SERVICE_DOC_PATH)) {
+                respond(ex, 200, "application/atomsvc+xml", String.format(SERVICE_DOC, baseUrl + COLLECTION_PATH));
+            } else if ("POST".equals(method) && path.equals(COLLECTION_PATH)) {
+                doDeposit(ex);
+            } else if ("GET".equals(method) && path.startsWith(STATEMENT_PATH)) {
+                String depositId = path.substring(STATEMENT_PATH.length()).replace(".atom", "");
+                String state = states.get(depositId);
+                if (state == null) {
+                    respond(ex, 404, null, null);
+                    return;
+                }
+                respond(ex, 200, ATOM_FEED, String.format(STATEMENT, baseUrl + path, depositId,
+                        Instant.now().toString(), state));
+            } else {
+                respond(ex, 404, null, null);
+            }
+        } catch (Exception e) {
+            LOG.warn(">>>> Error serving {} {}: {}", ex.getRequestMethod(), ex.getRequestURI(), e.getMessage(), e);
+            respond(ex, 500, null, null);
+        } finally {
+            ex.close();
+        }
+    }
+
+    private void doDeposit(HttpExchange ex) throws IOException, InterruptedException {
+        long received = 0;
+        byte[] buf = new byte[8192];
+        try (InputStream in = ex.getRequestBody()) {
+            int read;
+            while ((read = in.read(buf)) > -1) {
+                received += read;
+            }
+        }
+        bytesReceived.addAndGet(received);
+
+        if (depositLatencyMs > 0) {
+            Thread.sleep(depositLatencyMs);
+        }
+
+        String depositId = UUID.randomUUID().toString();
+        boolean withdrawn = ThreadLocalRandom.current().nextDouble() < withdrawnRatio;
+        states.put(depositId, withdrawn ? SWORD_STATE_WD : SWORD_STATE_ARCHIVED);
+        deposits.incrementAndGet();
+
+        String editIri = baseUrl + EDIT_PATH + depositId;
+        ex.getResponseHeaders().set("Location", editIri);
+        respond(ex, 201, ATOM_ENTRY, String.format(RECEIPT, editIri, depositId, Instant.now().toString(),
+                baseUrl + "/xmlui/handle/123456789/" + deposits.get(), baseUrl + STATEMENT_PATH + depositId + ".atom"));
+    }
+
+    private static void respond(HttpExchange ex, int status, String contentType, String body) throws IOException {
+        if (contentType != null) {
+            ex.getResponseHeaders().set("Content-Type", contentType);
+        }
+        if (body == null) {
+            ex.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+}
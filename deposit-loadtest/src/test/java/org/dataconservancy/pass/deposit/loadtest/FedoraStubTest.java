@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class FedoraStubTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    private FedoraStub underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        underTest = new FedoraStub(Ports.freePort(), 2, null);
+        underTest.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        underTest.close();
+    }
+
+    @Test
+    public void testBaseUrlIsUp() throws Exception {
+        HttpURLConnection get = open(underTest.baseUrl(), "GET");
+        assertEquals(200, get.getResponseCode());
+    }
+
+    @Test
+    public void testCreateAndRead() throws Exception {
+        HttpURLConnection post = open(underTest.baseUrl() + "deposits", "POST");
+        post.setRequestProperty("Content-Type", "application/ld+json");
+        write(post, "{\"@type\":\"Deposit\",\"depositStatus\":\"submitted\"}");
+        assertEquals(201, post.getResponseCode());
+        String id = post.getHeaderField("Location");
+        assertTrue(id.startsWith(underTest.baseUrl() + "deposits/"));
+
+        HttpURLConnection get = open(id, "GET");
+        assertEquals(200, get.getResponseCode());
+        assertNotNull(get.getHeaderField("ETag"));
+        ObjectNode body = (ObjectNode) mapper.readTree(read(get));
+        assertEquals(id, body.get("@id").asText());
+        assertEquals("submitted", body.get("depositStatus").asText());
+    }
+
+    @Test
+    public void testStaleIfMatchIsRejected() throws Exception {
+        String id = underTest.create("deposits", mapper.createObjectNode().put("@type", "Deposit"), null);
+        String etag = open(id, "GET").getHeaderField("ETag");
+
+        underTest.update(id, underTest.read(id).put("depositStatus", "accepted"), null);
+
+        HttpURLConnection put = open(id, "PUT");
+        put.setRequestProperty("Content-Type", "application/ld+json");
+        put.setRequestProperty("If-Match", etag);
+        write(put, "{\"@type\":\"Deposit\",\"depositStatus\":\"failed\"}");
+
+        assertEquals(412, put.getResponseCode());
+        assertEquals(1, underTest.conflicts());
+        assertEquals("accepted", underTest.read(id).get("depositStatus").asText());
+    }
+
+    @Test
+    public void testCurrentIfMatchIsAccepted() throws Exception {
+        String id = underTest.create("deposits", mapper.createObjectNode().put("@type", "Deposit"), null);
+        String etag = open(id, "GET").getHeaderField("ETag");
+
+        HttpURLConnection put = open(id, "PUT");
+        put.setRequestProperty("Content-Type", "application/ld+json");
+        put.setRequestProperty("If-Match", etag);
+        write(put, "{\"@type\":\"Deposit\",\"depositStatus\":\"failed\"}");
+
+        assertEquals(204, put.getResponseCode());
+        assertEquals("failed", underTest.read(id).get("depositStatus").asText());
+        assertFalse(etag.equals(open(id, "GET").getHeaderField("ETag")));
+    }
+
+    @Test
+    public void testInboundReferencesAsNTriples() throws Exception {
+        String submission = underTest.create("submissions",
+                mapper.createObjectNode().put("@type", "Submission"), null);
+        String file = underTest.create("files",
+                mapper.createObjectNode().put("@type", "File").put("submission", submission), null);
+
+        HttpURLConnection get = open(submission, "GET");
+        get.setRequestProperty("Accept", "application/n-triples");
+        get.setRequestProperty("Prefer", "return=representation; " +
+                "include=\"http://fedora.info/definitions/v4/repository#InboundReferences\"");
+
+        String triples = read(get);
+        assertEquals("<" + file + "> <http://oapass.org/ns/pass#submission> <" + submission + "> .\n", triples);
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        byte[] content = "binary content".getBytes(StandardCharsets.UTF_8);
+        String id = underTest.createBinary("binaries", content, "text/plain");
+
+        HttpURLConnection get = open(id, "GET");
+        assertEquals(200, get.getResponseCode());
+        assertEquals("text/plain", get.getContentType());
+        assertEquals("binary content", read(get));
+    }
+
+    @Test
+    public void testListenersNotified() throws Exception {
+        List<String> written = new ArrayList<>();
+        underTest.addListener((id, before, after) -> written.add(before == null ? "created" : "updated"));
+
+        String id = underTest.create("deposits", mapper.createObjectNode().put("@type", "Deposit"), null);
+        underTest.update(id, underTest.read(id), null);
+
+        assertEquals(2, written.size());
+        assertEquals("created", written.get(0));
+        assertEquals("updated", written.get(1));
+    }
+
+    @Test
+    public void testMergePatch() throws Exception {
+        ObjectNode target = (ObjectNode) mapper.readTree("{\"a\":\"b\",\"c\":{\"d\":\"e\",\"f\":\"g\"}}");
+        ObjectNode patch = (ObjectNode) mapper.readTree("{\"a\":\"z\",\"c\":{\"f\":null}}");
+
+        FedoraStub.merge(target, patch);
+
+        assertEquals("z", target.get("a").asText());
+        assertEquals("e", target.get("c").get("d").asText());
+        assertNull(target.get("c").get("f"));
+    }
+
+    private static HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setRequestMethod(method);
+        return conn;
+    }
+
+    private static void write(HttpURLConnection conn, String body) throws IOException {
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String read(HttpURLConnection conn) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = conn.getInputStream()) {
+            byte[] buf = new byte[1024];
+            int read;
+            while ((read = in.read(buf)) > -1) {
+                out.write(buf, 0, read);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.loadtest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class LatencyStatsTest {
+
+    private LatencyStats underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        underTest = new LatencyStats();
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertEquals(0, underTest.count());
+        assertEquals(0, underTest.percentile(50));
+        assertEquals(0, underTest.max());
+        assertEquals(0, underTest.mean(), 0);
+    }
+
+    @Test
+    public void testNearestRankPercentiles() throws Exception {
+        // record 1..100 out of order
+        for (int i = 100; i > 0; i--) {
+            underTest.record(i);
+        }
+
+        assertEquals(100, underTest.count());
+        assertEquals(50, underTest.percentile(50));
+        assertEquals(90, underTest.percentile(90));
+        assertEquals(99, underTest.percentile(99));
+        assertEquals(100, underTest.max());
+        assertEquals(50.5, underTest.mean(), 0.001);
+    }
+
+    @Test
+    public void testGrowsBeyondInitialCapacity() throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            underTest.record(1);
+        }
+
+        assertEquals(5000, underTest.count());
+        assertEquals(1, underTest.percentile(99));
+    }
+
+    @Test
+    public void testNegativeSamplesIgnored() throws Exception {
+        underTest.record(-1);
+        assertEquals(0, underTest.count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPercentileOutOfRange() throws Exception {
+        underTest.percentile(0);
+    }
+
+}
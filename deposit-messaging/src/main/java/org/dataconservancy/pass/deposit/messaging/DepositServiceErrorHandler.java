@@ -31,6 +31,11 @@ import org.springframework.util.ErrorHandler;
  * DepositServiceRuntimeException#getResource() associated resource} is examined.  If the resource is a {@code Deposit}
  * or {@code Submission}, an attempt is made to contact the repository and mark the resource as failed.
  * </p>
+ * <p>
+ * Failures of {@code Deposit}s that are transient are retried by the {@link
+ * org.dataconservancy.pass.deposit.messaging.service.DepositRetryScheduler} before they reach this class, so a {@code
+ * Deposit} is only marked as failed once it has failed permanently, or its retries are exhausted.
+ * </p>
  *
  * @author Elliot Metsger (emetsger@jhu.edu)
  */
@@ -47,7 +52,8 @@ public class DepositServiceErrorHandler implements ErrorHandler {
 
     @Override
     public void handleError(Throwable t) {
-        Throwable cause = t.getCause();
+        // the exception may be handled directly (e.g. by the deposit workers), or wrapped (e.g. by a JMS listener)
+        Throwable cause = (t instanceof DepositServiceRuntimeException) ? t : t.getCause();
         if (!(cause instanceof DepositServiceRuntimeException)) {
             LOG.error("Unrecoverable error: {}", t.getMessage(), t);
             return;
@@ -15,6 +15,7 @@
  */
 package org.dataconservancy.pass.deposit.messaging.config;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -27,6 +28,7 @@ import org.dataconservancy.pass.deposit.assembler.assembler.nihmsnative.NihmsAss
 import org.dataconservancy.pass.deposit.builder.fs.FcrepoModelBuilder;
 import org.dataconservancy.pass.deposit.builder.fs.FilesystemModelBuilder;
 import org.dataconservancy.pass.deposit.transport.ftp.FtpTransport;
+import org.dataconservancy.pass.client.PassClient;
 import org.dataconservancy.pass.client.PassClientDefault;
 import org.dataconservancy.pass.client.adapter.PassJsonAdapterBasic;
 import org.dataconservancy.pass.deposit.assembler.dspace.mets.DspaceMetsAssembler;
@@ -36,34 +38,70 @@ import org.dataconservancy.pass.deposit.messaging.model.InMemoryMapRegistry;
 import org.dataconservancy.pass.deposit.messaging.model.Packager;
 import org.dataconservancy.pass.deposit.messaging.model.Registry;
 import org.dataconservancy.pass.deposit.messaging.policy.DirtyDepositPolicy;
+import org.dataconservancy.pass.deposit.messaging.policy.Policy;
+import org.dataconservancy.pass.deposit.messaging.service.AggregatedStatusTracker;
+import org.dataconservancy.pass.deposit.messaging.service.DepositCircuitBreakers;
+import org.dataconservancy.pass.deposit.messaging.service.DepositConcurrencyLimiter;
+import org.dataconservancy.pass.deposit.messaging.service.DepositRetryScheduler;
 import org.dataconservancy.pass.deposit.messaging.service.DepositTask;
+import org.dataconservancy.pass.deposit.messaging.service.DepositUtil;
+import org.dataconservancy.pass.deposit.messaging.service.DepositWatchdog;
+import org.dataconservancy.pass.deposit.messaging.service.TerminalResourceCache;
 import org.dataconservancy.pass.deposit.messaging.status.AbderaDepositStatusRefProcessor;
+import org.dataconservancy.pass.deposit.messaging.status.AbstractStatusMapper;
 import org.dataconservancy.pass.deposit.messaging.status.AtomFeedStatusMapper;
 import org.dataconservancy.pass.deposit.messaging.status.RepositoryCopyStatusMapper;
+import org.dataconservancy.pass.deposit.messaging.status.StatusMappingReloader;
 import org.dataconservancy.pass.deposit.messaging.status.SwordDspaceDepositStatusMapper;
+import org.dataconservancy.pass.deposit.messaging.support.BandwidthShaper;
+import org.dataconservancy.pass.deposit.messaging.support.CircuitBreaker;
+import org.dataconservancy.pass.deposit.messaging.support.CircuitBreakerPassClient;
+import org.dataconservancy.pass.deposit.messaging.support.Coalescer;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
+import org.dataconservancy.pass.deposit.messaging.support.FcrepoUnitOfWork;
+import org.dataconservancy.pass.deposit.messaging.support.FileLockProvider;
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter;
+import org.dataconservancy.pass.deposit.messaging.support.HedgedPassClient;
+import org.dataconservancy.pass.deposit.messaging.support.InMemoryLockProvider;
+import org.dataconservancy.pass.deposit.messaging.support.LeaseLockProvider;
+import org.dataconservancy.pass.deposit.messaging.support.PassClientUnitOfWork;
+import org.dataconservancy.pass.deposit.messaging.support.RateLimitedPassClient;
+import org.dataconservancy.pass.deposit.messaging.support.SingleFlightPassClient;
+import org.dataconservancy.pass.deposit.messaging.support.UnitOfWork;
+import org.dataconservancy.pass.deposit.messaging.support.VersionedResourceCache;
 import org.dataconservancy.pass.deposit.messaging.support.swordv2.AtomFeedStatusParser;
+import org.dataconservancy.pass.deposit.messaging.support.swordv2.SwordStatementReader;
+import org.dataconservancy.pass.deposit.transport.sword2.DefaultSword2ClientFactory;
 import org.dataconservancy.pass.deposit.transport.sword2.Sword2Transport;
+import org.dataconservancy.pass.model.Deposit;
+import org.dataconservancy.pass.model.Submission;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.web.client.RestTemplateAutoConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.annotation.Scope;
 import org.springframework.core.env.Environment;
 import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -106,11 +144,65 @@ public class DepositConfig {
     @Value("${pass.deposit.workers.concurrency}")
     private int depositWorkersConcurrency;
 
+    @Value("${pass.deposit.workers.limiter.enabled}")
+    private boolean limiterEnabled;
+
     @Value("${pass.deposit.http.agent}")
     private String passHttpAgent;
 
+    @Value("${pass.deposit.transport.swordv2.connect-timeout-ms}")
+    private int swordConnectTimeoutMs;
+
+    @Value("${pass.deposit.transport.swordv2.socket-timeout-ms}")
+    private int swordSocketTimeoutMs;
+
+    @Value("${pass.deposit.client.hedge.enabled}")
+    private boolean hedgeEnabled;
+
+    @Value("${pass.deposit.client.hedge.percentile}")
+    private double hedgePercentile;
+
+    @Value("${pass.deposit.client.hedge.budget}")
+    private double hedgeBudget;
+
+    @Value("${pass.deposit.client.hedge.window}")
+    private int hedgeWindow;
+
+    @Value("${pass.deposit.circuit.enabled}")
+    private boolean circuitEnabled;
+
+    @Value("${pass.deposit.circuit.window}")
+    private int circuitWindow;
+
+    @Value("${pass.deposit.circuit.min-calls}")
+    private int circuitMinCalls;
+
+    @Value("${pass.deposit.circuit.failure-rate}")
+    private double circuitFailureRate;
+
+    @Value("${pass.deposit.circuit.slow-call-rate}")
+    private double circuitSlowCallRate;
+
+    @Value("${pass.deposit.circuit.open-ms}")
+    private long circuitOpenMs;
+
+    @Value("${pass.deposit.circuit.fedora.slow-call-ms}")
+    private long fedoraSlowCallMs;
+
+    @Value("${pass.deposit.fedora.rate.live.permits-per-second}")
+    private double fedoraLiveRate;
+
+    @Value("${pass.deposit.fedora.rate.live.burst}")
+    private int fedoraLiveBurst;
+
+    @Value("${pass.deposit.fedora.rate.batch.permits-per-second}")
+    private double fedoraBatchRate;
+
+    @Value("${pass.deposit.fedora.rate.batch.burst}")
+    private int fedoraBatchBurst;
+
     @Bean
-    public PassClientDefault passClient() {
+    public PassClient passClient() {
 
         // PassClientDefault can't be injected with configuration; requires system properties be set.
         // If a system property is already set, allow it to override what is resolved by the Spring environment.
@@ -138,7 +230,40 @@ public class DepositConfig {
             System.setProperty("http.agent", passHttpAgent);
         }
 
-        return new PassClientDefault();
+        // Requests of Fedora are limited to the rate of the live or batch lane of the caller, each request of a
+        // hedged read taking its own permit
+        PassClient passClient = new RateLimitedPassClient(new PassClientDefault(), fedoraRateLimiter());
+
+        // Slow reads are hedged with a second request, within a budget
+        if (hedgeEnabled) {
+            passClient = new HedgedPassClient(passClient, hedgePercentile, hedgeBudget, hedgeWindow);
+        }
+
+        // Requests fail fast while the repository is failing
+        if (circuitEnabled) {
+            passClient = new CircuitBreakerPassClient(passClient, fedoraCircuitBreaker());
+        }
+
+        // Concurrent reads of the same resource share a single request
+        return new SingleFlightPassClient(passClient, passJsonAdapter());
+    }
+
+    @Bean
+    public CircuitBreaker fedoraCircuitBreaker() {
+        return new CircuitBreaker("Fedora " + fedoraBaseUrl, circuitWindow, circuitMinCalls, circuitFailureRate,
+                fedoraSlowCallMs, circuitSlowCallRate, circuitOpenMs);
+    }
+
+    @Bean
+    public FedoraRateLimiter fedoraRateLimiter() {
+        return new FedoraRateLimiter(fedoraLiveRate, fedoraLiveBurst, fedoraBatchRate, fedoraBatchBurst);
+    }
+
+    @Bean
+    public BandwidthShaper bandwidthShaper(@Value("${pass.deposit.transport.bandwidth.global-bytes-per-second}")
+                                                   long globalBytesPerSecond,
+                                           @Value("${pass.deposit.transport.bandwidth.limits}") String limits) {
+        return new BandwidthShaper(globalBytesPerSecond, BandwidthShaper.parseTransportLimits(limits));
     }
 
     @Bean
@@ -147,7 +272,6 @@ public class DepositConfig {
     }
 
     @Bean
-    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     public ObjectMapper objectMapper() {
         return new ObjectMapper();
     }
@@ -169,6 +293,21 @@ public class DepositConfig {
         String builderName = builder.getClass().getSimpleName();
         String builderHashcode = toHexString(identityHashCode(builder.getClass()));
 
+        LOG.trace(">>>> {}:{} adding Fedora rate limiting interceptor", builderName, builderHashcode);
+        FedoraRateLimiter rateLimiter = fedoraRateLimiter();
+        builder.addInterceptor((chain) -> {
+            Request request = chain.request();
+            if (request.url().toString().startsWith(fedoraBaseUrl)) {
+                try {
+                    rateLimiter.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting to make a request of Fedora");
+                }
+            }
+            return chain.proceed(request);
+        });
+
         if (fedoraUser != null) {
             LOG.trace(">>>> {}:{} adding Authorization interceptor", builderName, builderHashcode);
             builder.addInterceptor((chain) -> {
@@ -226,6 +365,9 @@ public class DepositConfig {
                                            NihmsAssembler nihmsAssembler, FtpTransport ftpTransport,
                                            Map<String, Map<String, String>> transportRegistries,
                                            AbderaDepositStatusRefProcessor abderaDepositStatusRefProcessor) {
+        // The SWORD client does not expose its HTTP clients, so their timeouts are the JVM-wide defaults, set once here
+        DefaultSword2ClientFactory.setTimeouts(swordConnectTimeoutMs, swordSocketTimeoutMs);
+
         Map<String, Packager> packagers = new HashMap<>();
         // TODO: transport registries looked up by hard-coded strings.  Need a more reliable way of discovering repositories, the packagers for those repositories, and their configuration
         packagers.put("JScholarship",
@@ -276,16 +418,27 @@ public class DepositConfig {
     }
 
     @Bean
-    public ThreadPoolTaskExecutor depositWorkers(DepositServiceErrorHandler errorHandler) {
+    public ThreadPoolTaskExecutor depositWorkers(DepositServiceErrorHandler errorHandler,
+                                                 ObjectProvider<DepositRetryScheduler> retryScheduler) {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setMaxPoolSize(depositWorkersConcurrency);
         executor.setQueueCapacity(10);
+        if (limiterEnabled) {
+            // The DepositConcurrencyLimiter bounds and queues the deposits admitted to the workers
+            executor.setCorePoolSize(depositWorkersConcurrency);
+            executor.setQueueCapacity(Integer.MAX_VALUE);
+        }
         executor.setRejectedExecutionHandler((rejectedTask, exe) -> {
             String msg = String.format(">>>> Task %s@%s rejected, will be retried later.",
                     rejectedTask.getClass().getSimpleName(), toHexString(identityHashCode(rejectedTask)));
             if (rejectedTask instanceof DepositTask && ((DepositTask)rejectedTask).getDepositWorkerContext() != null) {
-                DepositServiceRuntimeException ex = new DepositServiceRuntimeException(msg, ((DepositTask)
-                        rejectedTask).getDepositWorkerContext().deposit());
+                DepositTask depositTask = (DepositTask) rejectedTask;
+                DepositRetryScheduler scheduler = retryScheduler.getIfAvailable();
+                if (scheduler != null && scheduler.schedule(depositTask, new RejectedExecutionException(msg))) {
+                    return;
+                }
+                DepositServiceRuntimeException ex = new DepositServiceRuntimeException(msg,
+                        new RejectedExecutionException(msg), depositTask.getDepositWorkerContext().deposit());
                 errorHandler.handleError(ex);
             } else {
                 LOG.error(msg);
@@ -334,8 +487,14 @@ public class DepositConfig {
 
     @Bean
     public AtomFeedStatusParser atomFeedStatusParser(Map<String, Map<String, String>> transportRegistries,
-                                                     Parser abderaParser) {
-        AtomFeedStatusParser feedStatusParser = new AtomFeedStatusParser(abderaParser);
+                                                     SwordStatementReader swordStatementReader,
+                                                     @Value("${pass.deposit.status.sword.connect-timeout-ms}")
+                                                             int connectTimeoutMs,
+                                                     @Value("${pass.deposit.status.sword.read-timeout-ms}")
+                                                             int readTimeoutMs) {
+        AtomFeedStatusParser feedStatusParser = new AtomFeedStatusParser(swordStatementReader);
+        feedStatusParser.setConnectTimeoutMs(connectTimeoutMs);
+        feedStatusParser.setReadTimeoutMs(readTimeoutMs);
         feedStatusParser.setSwordUsername(transportRegistries.get("js").get(TRANSPORT_USERNAME));
         feedStatusParser.setSwordPassword(transportRegistries.get("js").get(TRANSPORT_PASSWORD));
         return feedStatusParser;
@@ -345,36 +504,36 @@ public class DepositConfig {
     public AtomFeedStatusMapper swordv2DspaceStatusMapper(@Value("${pass.deposit.status.mapping}")
                                                                Resource depositMappingResource,
                                                           ObjectMapper objectMapper) {
-        try {
-            return new AtomFeedStatusMapper(objectMapper.readTree(depositMappingResource.getInputStream()));
-        } catch (IOException e) {
-            throw new RuntimeException("Error reading deposit status map resource " + depositMappingResource + ": " +
-                    e.getMessage(), e);
-        }
+        return new AtomFeedStatusMapper(readStatusMapping(depositMappingResource, objectMapper));
     }
 
     @Bean
     public RepositoryCopyStatusMapper repoCopyv2StatusMapper(@Value("${pass.deposit.status.mapping}")
                                                                        Resource depositMappingResource,
                                                              ObjectMapper objectMapper) {
-        try {
-            return new RepositoryCopyStatusMapper(objectMapper.readTree(depositMappingResource.getInputStream()));
-        } catch (IOException e) {
-            throw new RuntimeException("Error reading deposit status map resource " + depositMappingResource + ": " +
-                    e.getMessage(), e);
-        }
+        return new RepositoryCopyStatusMapper(readStatusMapping(depositMappingResource, objectMapper));
     }
 
     @Bean
     public SwordDspaceDepositStatusMapper swordDspaceDepositStatusMapper(@Value("${pass.deposit.status.mapping}")
                                                                                      Resource depositMappingResource,
                                                                          ObjectMapper objectMapper) {
-        try {
-            return new SwordDspaceDepositStatusMapper(objectMapper.readTree(depositMappingResource.getInputStream()));
-        } catch (IOException e) {
-            throw new RuntimeException("Error reading deposit status map resource " + depositMappingResource + ": " +
-                    e.getMessage(), e);
+        return new SwordDspaceDepositStatusMapper(readStatusMapping(depositMappingResource, objectMapper));
+    }
+
+    @Bean(destroyMethod = "close")
+    public StatusMappingReloader statusMappingReloader(@Value("${pass.deposit.status.mapping}")
+                                                               Resource depositMappingResource,
+                                                       @Value("${pass.deposit.status.mapping.reload-interval-ms}")
+                                                               long reloadIntervalMs,
+                                                       ObjectMapper objectMapper,
+                                                       List<AbstractStatusMapper<?, ?>> statusMappers) {
+        StatusMappingReloader reloader =
+                new StatusMappingReloader(depositMappingResource, objectMapper, statusMappers);
+        if (reloadIntervalMs > 0) {
+            reloader.start(reloadIntervalMs);
         }
+        return reloader;
     }
 
     @Bean
@@ -382,6 +541,11 @@ public class DepositConfig {
         return new DirtyDepositPolicy();
     }
 
+    @Bean
+    SwordStatementReader swordStatementReader() {
+        return new SwordStatementReader();
+    }
+
     @Bean
     Parser abderaParser() {
         return new FOMParserFactory().getParser();
@@ -392,4 +556,120 @@ public class DepositConfig {
         return new DepositServiceErrorHandler(cri);
     }
 
+    @Bean
+    AggregatedStatusTracker aggregatedStatusTracker(Policy<Deposit.DepositStatus> terminalDepositStatusPolicy,
+                                                    @Value("${pass.deposit.aggregate.max-tracked-submissions}")
+                                                            int maxSubmissions) {
+        return new AggregatedStatusTracker(terminalDepositStatusPolicy, maxSubmissions);
+    }
+
+    @Bean
+    VersionedResourceCache versionedResourceCache(PassJsonAdapterBasic passJsonAdapter,
+                                                  @Value("${pass.deposit.critical.cache-size}") int maxSize) {
+        return new VersionedResourceCache(passJsonAdapter, maxSize);
+    }
+
+    @Bean
+    UnitOfWork.Factory unitOfWorkFactory(PassClient passClient, OkHttpClient okHttpClient,
+                                         PassJsonAdapterBasic passJsonAdapter,
+                                         @Value("${pass.deposit.critical.transactions.enabled}") boolean enabled) {
+        if (enabled) {
+            return () -> FcrepoUnitOfWork.begin(okHttpClient, passJsonAdapter, fedoraBaseUrl);
+        }
+        return () -> new PassClientUnitOfWork(passClient);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "pass.deposit.workers.limiter.enabled", havingValue = "true")
+    public DepositConcurrencyLimiter depositConcurrencyLimiter(
+            ThreadPoolTaskExecutor depositWorkers,
+            DepositServiceErrorHandler errorHandler,
+            @Value("${pass.deposit.workers.limiter.initial-limit}") int initialLimit,
+            @Value("${pass.deposit.workers.limiter.min-limit}") int minLimit,
+            @Value("${pass.deposit.workers.limiter.backoff-ratio}") double backoffRatio,
+            @Value("${pass.deposit.workers.limiter.latency-tolerance}") double latencyTolerance) {
+        return new DepositConcurrencyLimiter(depositWorkers, errorHandler::handleError, initialLimit, minLimit,
+                depositWorkersConcurrency, backoffRatio, latencyTolerance);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "pass.deposit.circuit.enabled", havingValue = "true")
+    public DepositCircuitBreakers depositCircuitBreakers(
+            ThreadPoolTaskExecutor depositWorkers,
+            ObjectProvider<DepositConcurrencyLimiter> limiter,
+            CircuitBreaker fedoraCircuitBreaker,
+            @Value("${pass.deposit.circuit.transport.slow-call-ms}") long slowCallMs,
+            @Value("${pass.deposit.circuit.probe-interval-ms}") long probeIntervalMs) {
+        TaskExecutor workers = limiter.getIfAvailable();
+        return new DepositCircuitBreakers(workers != null ? workers : depositWorkers, fedoraCircuitBreaker,
+                endpoint -> new CircuitBreaker(endpoint, circuitWindow, circuitMinCalls, circuitFailureRate,
+                        slowCallMs, circuitSlowCallRate, circuitOpenMs), probeIntervalMs);
+    }
+
+    @Bean(destroyMethod = "close")
+    public DepositRetryScheduler depositRetryScheduler(ThreadPoolTaskExecutor depositWorkers,
+                                                       ObjectProvider<DepositConcurrencyLimiter> limiter,
+                                                       DepositServiceErrorHandler errorHandler,
+                                                       @Value("${pass.deposit.retry.auto.max-attempts}")
+                                                               int maxAttempts,
+                                                       @Value("${pass.deposit.retry.auto.initial-backoff-ms}")
+                                                               long initialBackoffMs,
+                                                       @Value("${pass.deposit.retry.auto.max-backoff-ms}")
+                                                               long maxBackoffMs,
+                                                       @Value("${pass.deposit.retry.auto.capacity}") int capacity) {
+        // Retried deposits are subject to the concurrency limit as well
+        TaskExecutor workers = limiter.getIfAvailable();
+        return new DepositRetryScheduler(workers != null ? workers : depositWorkers, errorHandler, maxAttempts,
+                initialBackoffMs, maxBackoffMs, capacity);
+    }
+
+    @Bean(destroyMethod = "close")
+    public DepositWatchdog depositWatchdog(@Value("${pass.deposit.workers.watchdog-interval-ms}")
+                                                   long checkIntervalMs) {
+        return new DepositWatchdog(checkIntervalMs);
+    }
+
+    @Bean(destroyMethod = "close")
+    LeaseLockProvider lockProvider(@Value("${pass.deposit.critical.lock.provider}") String provider,
+                                   @Value("${pass.deposit.critical.lock.lease-ms}") long leaseMs,
+                                   @Value("${pass.deposit.critical.lock.acquire-timeout-ms}") long acquireTimeoutMs,
+                                   @Value("${pass.deposit.critical.lock.directory}") String directory,
+                                   @Value("${pass.deposit.critical.lock.owner}") String owner) {
+        switch (provider.trim().toLowerCase()) {
+            case "memory":
+                return new InMemoryLockProvider(leaseMs, acquireTimeoutMs);
+            case "file":
+                return new FileLockProvider(Paths.get(directory), owner, leaseMs, acquireTimeoutMs);
+            default:
+                throw new IllegalArgumentException("Unknown lock provider '" + provider + "', expected one of " +
+                        "'memory' or 'file'");
+        }
+    }
+
+    @Bean
+    TerminalResourceCache terminalResourceCache(Policy<Submission.AggregatedDepositStatus>
+                                                        terminalSubmissionStatusPolicy,
+                                                @Value("${pass.deposit.terminal-cache.max-size}") int maxSize,
+                                                @Value("${pass.deposit.terminal-cache.ttl-ms}") long ttlMs) {
+        return new TerminalResourceCache(terminalSubmissionStatusPolicy, maxSize, ttlMs);
+    }
+
+    @Bean(destroyMethod = "close")
+    Coalescer<URI, DepositUtil.MessageContext> submissionMessageCoalescer(
+            @Value("${pass.deposit.queue.submission.coalesce-window-ms}") long windowMs,
+            @Value("${pass.deposit.queue.submission.coalesce-threads}") int threads,
+            @Value("${pass.deposit.queue.submission.coalesce-report-interval-ms}") long reportIntervalMs,
+            DepositServiceErrorHandler errorHandler) {
+        return new Coalescer<>("submission", windowMs, threads, reportIntervalMs, errorHandler::handleError);
+    }
+
+    private static JsonNode readStatusMapping(Resource depositMappingResource, ObjectMapper objectMapper) {
+        try (InputStream in = depositMappingResource.getInputStream()) {
+            return objectMapper.readTree(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading deposit status map resource " + depositMappingResource + ": " +
+                    e.getMessage(), e);
+        }
+    }
+
 }
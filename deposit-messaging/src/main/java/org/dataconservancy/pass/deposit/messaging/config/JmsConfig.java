@@ -26,6 +26,15 @@ import javax.jms.ConnectionFactory;
 import javax.jms.Session;
 
 /**
+ * Configures the JMS listener containers.
+ * <p>
+ * The {@code jmsListenerContainerFactory} creates the containers of the listeners that consume the {@code submission}
+ * and {@code deposit} queues directly.  The {@code groupedListenerContainerFactory} creates the containers of the
+ * {@link org.dataconservancy.pass.deposit.messaging.service.MessageGroupRouter} and the {@link
+ * org.dataconservancy.pass.deposit.messaging.service.GroupedMessageListener}.  Only one of the two is started: the
+ * latter when scale-out mode ({@code pass.deposit.scale-out.enabled}) is enabled, the former otherwise.
+ * </p>
+ *
  * @author Elliot Metsger (emetsger@jhu.edu)
  */
 @Component
@@ -38,7 +47,27 @@ public class JmsConfig {
                                                                           String concurrency,
                                                                           @Value("${spring.jms.listener.auto-startup}")
                                                                           boolean autoStart,
+                                                                          @Value("${pass.deposit.scale-out.enabled}")
+                                                                          boolean scaleOut,
                                                                           ConnectionFactory connectionFactory) {
+        return listenerContainerFactory(errorHandler, concurrency, autoStart && !scaleOut, connectionFactory);
+    }
+
+    @Bean
+    public DefaultJmsListenerContainerFactory groupedListenerContainerFactory(DepositServiceErrorHandler errorHandler,
+                                                                              @Value("${spring.jms.listener.concurrency}")
+                                                                              String concurrency,
+                                                                              @Value("${spring.jms.listener.auto-startup}")
+                                                                              boolean autoStart,
+                                                                              @Value("${pass.deposit.scale-out.enabled}")
+                                                                              boolean scaleOut,
+                                                                              ConnectionFactory connectionFactory) {
+        return listenerContainerFactory(errorHandler, concurrency, autoStart && scaleOut, connectionFactory);
+    }
+
+    private static DefaultJmsListenerContainerFactory listenerContainerFactory(DepositServiceErrorHandler errorHandler,
+                                                                               String concurrency, boolean autoStart,
+                                                                               ConnectionFactory connectionFactory) {
         DefaultJmsListenerContainerFactory factory = new DefaultJmsListenerContainerFactory();
         factory.setSessionAcknowledgeMode(Session.CLIENT_ACKNOWLEDGE);
         factory.setErrorHandler(errorHandler);
@@ -15,18 +15,14 @@
  */
 package org.dataconservancy.pass.deposit.messaging.policy;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.dataconservancy.pass.deposit.messaging.service.DepositUtil;
 import org.dataconservancy.pass.deposit.messaging.support.Constants;
+import org.dataconservancy.pass.deposit.messaging.support.MessagePayload;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.io.IOException;
-import java.util.Iterator;
-
 /**
  * <em>Rejects</em> JMS messages that originate from the user agent supplied on construction.
  * <p>
@@ -42,61 +38,41 @@ public class AgentPolicy implements Policy<DepositUtil.MessageContext> {
 
     private static final Logger LOG = LoggerFactory.getLogger(AgentPolicy.class);
 
-    private ObjectMapper objectMapper;
-
     private String depositServicesUserAgent;
 
     /**
-     * Constructs a new policy using the supplied {@code ObjectMapper} for parsing the user agent from the JMS message.
+     * Constructs a new policy that rejects messages originating from the supplied user agent.
      *
-     * @param objectMapper parses the JMS message body
      * @param userAgent the user agent used by Deposit Services when interacting with the Fedora repository
      */
-    public AgentPolicy(ObjectMapper objectMapper, @Value("${pass.deposit.http.agent}") String userAgent) {
-        if (objectMapper == null) {
-            throw new IllegalArgumentException("ObjectMapper must not be null.");
-        }
+    public AgentPolicy(@Value("${pass.deposit.http.agent}") String userAgent) {
         if (userAgent == null || userAgent.trim().length() == 0) {
             throw new IllegalArgumentException("User Agent String must not be null or empty.");
         }
-        this.objectMapper = objectMapper;
         this.depositServicesUserAgent = userAgent;
     }
 
     /**
      * {@inheritDoc}
      * <h4>Implementation notes</h4>
-     * Attempts to parse the JMS message body for a value of the {@code http://www.w3.org/ns/prov#SoftwareAgent}
-     * property.  If the value is {@code null} or does <em>not</em> equal the user agent string supplied on
-     * construction, the message is <em>accepted</em>.  If the value is equal to the user agent string supplied on
-     * construction, this policy drops the message.
+     * Examines the {@link DepositUtil.MessageContext#payload() parsed JMS message body} for an attribution to a {@code
+     * http://www.w3.org/ns/prov#SoftwareAgent}.  If the name of the agent is {@code null} or does <em>not</em> equal
+     * the user agent string supplied on construction, the message is <em>accepted</em>.  If the name of the agent is
+     * equal to the user agent string supplied on construction, this policy drops the message.
      *
      * @param messageContext {@inheritDoc}
      * @return false if the JMS message user agent is equal to the user agent string supplied on construction
      */
     @Override
     public boolean accept(DepositUtil.MessageContext messageContext) {
-        JsonNode attribution = null;
-        try {
-            attribution = objectMapper.readTree(messageContext.message().getPayload().toString()).findValue
-                    ("wasAttributedTo");
-        } catch (IOException e) {
-            throw new RuntimeException("Unable to parse JMS message body: " + e.getMessage(), e);
-        }
-
-        if (attribution != null) {
-            for (Iterator<JsonNode> itr = attribution.elements(); itr.hasNext();) {
-                JsonNode node = itr.next();
-                if (node.has("type") && node.findValue("type").textValue()
-                        .equals(Constants.Prov.SOFTWARE_AGENT)) {
-                    if (node.has("name") && node.findValue("name").textValue()
-                            .equals(depositServicesUserAgent)) {
-                        LOG.trace(">>>> Dropping message that originated from this agent: {}",
-                                depositServicesUserAgent);
-                        return false;
-                    } else {
-                        return true;
-                    }
+        for (MessagePayload.Attribution attribution : messageContext.payload().attributions()) {
+            if (Constants.Prov.SOFTWARE_AGENT.equals(attribution.type())) {
+                if (depositServicesUserAgent.equals(attribution.name())) {
+                    LOG.trace(">>>> Dropping message that originated from this agent: {}",
+                            depositServicesUserAgent);
+                    return false;
+                } else {
+                    return true;
                 }
             }
         }
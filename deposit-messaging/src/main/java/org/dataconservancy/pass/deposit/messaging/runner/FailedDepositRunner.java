@@ -15,33 +15,36 @@
  */
 package org.dataconservancy.pass.deposit.messaging.runner;
 
-import org.dataconservancy.pass.deposit.builder.InvalidModel;
-import org.dataconservancy.pass.deposit.builder.SubmissionBuilder;
-import org.dataconservancy.pass.deposit.model.DepositFile;
-import org.dataconservancy.pass.deposit.model.DepositSubmission;
 import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.builder.SubmissionBuilder;
+import org.dataconservancy.pass.deposit.messaging.DepositServiceErrorHandler;
 import org.dataconservancy.pass.deposit.messaging.model.Packager;
 import org.dataconservancy.pass.deposit.messaging.model.Registry;
-import org.dataconservancy.pass.deposit.messaging.policy.TerminalDepositStatusPolicy;
+import org.dataconservancy.pass.deposit.messaging.service.DepositRetryEngine;
 import org.dataconservancy.pass.deposit.messaging.service.DepositTaskHelper;
+import org.dataconservancy.pass.deposit.messaging.support.Checkpoint;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
+import org.dataconservancy.pass.deposit.messaging.support.PagedUriIterator;
 import org.dataconservancy.pass.model.Deposit;
 import org.dataconservancy.pass.model.Repository;
 import org.dataconservancy.pass.model.Submission;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.io.IOException;
 import java.net.URI;
-import java.util.Collection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
 import java.util.stream.Collectors;
 
-import static java.lang.String.format;
-import static org.dataconservancy.pass.deposit.messaging.service.DepositTaskHelper.MISSING_PACKAGER;
 import static org.dataconservancy.pass.deposit.messaging.support.Constants.Indexer.DEPOSIT_STATUS;
 import static org.dataconservancy.pass.model.Deposit.DepositStatus.FAILED;
 
@@ -54,8 +57,8 @@ import static org.dataconservancy.pass.model.Deposit.DepositStatus.FAILED;
  * content of their {@code Submission} to a {@code Repository}.
  * </p>
  * <p>
- * Dirty deposits are simply re-queued for processing by a submission processor that implements {@code
- * BiConsumer<Submission, Deposit>}.
+ * Dirty deposits are retried by the {@link DepositRetryEngine}, which re-submits each deposit to its {@code
+ * Repository}.
  * </p>
  *
  * @author Elliot Metsger (emetsger@jhu.edu)
@@ -65,8 +68,6 @@ public class FailedDepositRunner {
 
     private static final Logger LOG = LoggerFactory.getLogger(FailedDepositRunner.class);
 
-    private static final String FAILED_TO_PROCESS = "Failed to process {}: {}";
-
     private enum MODE {
         SYNC,
         ASYNC
@@ -81,134 +82,107 @@ public class FailedDepositRunner {
     @Autowired
     private Registry<Packager> packagerRegistry;
 
-    @Autowired
-    private TerminalDepositStatusPolicy terminalDepositStatusPolicy;
-
     @Autowired
     private CriticalRepositoryInteraction cri;
 
     @Autowired
     private ThreadPoolTaskExecutor taskExecutor;
 
+    @Autowired
+    private DepositServiceErrorHandler errorHandler;
+
+    @Value("${pass.deposit.retry.checkpoint-file}")
+    private String checkpointFile;
+
+    @Value("${pass.deposit.discovery.page-size}")
+    private int pageSize;
+
     /**
-     * Answers a Spring {@link ApplicationRunner} that will process a {@code Collection} of URIs representing dirty
+     * Answers a Spring {@link ApplicationRunner} that will process the URIs representing dirty
      * deposits.  If no URIs are supplied on the command line, a search is performed for all dirty deposits.  The
-     * dirty deposits are then queued for processing by the provided {@code submissionProcessor}.
+     * dirty deposits are then retried in parallel by the {@code retryEngine}.
+     * <p>
+     * Retried deposits are recorded in a checkpoint file, and deposits recorded by an earlier, interrupted, retry are
+     * not retried again.  The checkpoint is deleted when the retry completes.  Supplying {@code --restart} discards
+     * the checkpoint of an earlier retry.  Deposits supplied with {@code --uris} are always retried: the checkpoint of
+     * an earlier retry is neither consulted nor modified.
+     * </p>
      *
      * @param passClient the client implementation used to resolve PASS entity uris and perform searches
+     * @param retryEngine retries the dirty deposits
      * @return the Spring {@code ApplicationRunner} which receives the command line arguments supplied to this application
      */
     @Bean
-    public ApplicationRunner retryDeposit(PassClient passClient) {
+    public ApplicationRunner retryDeposit(PassClient passClient, DepositRetryEngine retryEngine) {
         return (args) -> {
-            Collection<URI> deposits = depositsToUpdate(args, passClient);
-            deposits.forEach(depositUri -> {
+            MODE mode = getMode(args);
+            Iterable<URI> deposits = depositsToUpdate(args, passClient);
+
+            // explicitly supplied deposits are always retried, so they use a checkpoint of their own
+            boolean explicitUris = hasUris(args);
+            Path checkpointPath = explicitUris ?
+                    Files.createTempFile("pass-deposit-retry", ".checkpoint") : Paths.get(checkpointFile);
+            if (args.containsOption("restart") && !explicitUris) {
+                LOG.info(">>>> Discarding checkpoint {}", checkpointPath);
+                Files.deleteIfExists(checkpointPath);
+            }
+
+            Checkpoint checkpoint = Checkpoint.open(checkpointPath);
+
+            Runnable retry = () -> {
                 try {
-                    Deposit deposit = passClient.readResource(depositUri, Deposit.class);
-                    Submission submission = passClient.readResource(deposit.getSubmission(), Submission.class);
-                    Repository repo = passClient.readResource(deposit.getRepository(), Repository.class);
-
-                    final Packager[] packager = { null };
-                    final DepositSubmission[] depositSubmission = { null };
-
-                    CriticalRepositoryInteraction.CriticalResult<?, Deposit> cr =
-                        cri.performCritical(deposit.getId(), Deposit.class,
-
-                            /*
-                             * This pre-condition insists that:
-                             *   1. The Deposit must have a FAILED or null DepositStatus
-                             *   2. A Packager must exist for the Repository associated with the Deposit
-                             *   3. The DepositSubmission must be built successfully from the original Submission
-                             *   4. That the DepositSubmission must carry files, and each file must have a location URI
-                             *
-                             * The failure to satisfy a pre-condition is *not* considered exceptional, and no action is
-                             * taken on the Deposit or any other repository resource if one fails.
-                             */
-                            (d) -> {
-                                if (deposit.getDepositStatus() != FAILED && deposit.getDepositStatus() != null) {
-                                    LOG.info(FAILED_TO_PROCESS, deposit.getId(), "Deposit status must equal 'null' " +
-                                            "or '" + FAILED + "', but was '" + deposit.getDepositStatus() + "'");
-                                    return false;
-                                }
-
-                                packager[0] = packagerRegistry.get(repo.getName());
-                                if (packager[0] == null) {
-                                    LOG.info(MISSING_PACKAGER,
-                                            submission.getId(), repo.getId(), deposit.getId(), repo.getName());
-                                    return false;
-                                }
-
-                                try {
-                                    depositSubmission[0] =
-                                            submissionBuilder.build(submission.getId().toString());
-                                } catch (InvalidModel invalidModel) {
-                                    LOG.info(FAILED_TO_PROCESS, deposit.getId(),
-                                            "Failed to build the DepositSubmission model", invalidModel);
-                                    return false;
-                                }
-
-                                if (depositSubmission[0].getFiles() == null ||
-                                        depositSubmission[0].getFiles().size() < 1) {
-                                    LOG.info(FAILED_TO_PROCESS, deposit.getId(), "There are no files attached to " +
-                                            "the submission " + submission.getId());
-                                    return false;
-                                }
-
-                                // Each DepositFile must have a URI that links to its content
-                                String filesMissingLocations = depositSubmission[0].getFiles().stream()
-                                        .filter(df -> df.getLocation() == null || df.getLocation().trim().length() == 0)
-                                        .map(DepositFile::getName)
-                                        .collect(Collectors.joining(", "));
-
-                                if (filesMissingLocations != null && filesMissingLocations.length() > 0) {
-                                    String msg = "Update precondition failed for %s: the following DepositFiles are " +
-                                            "missing URIs referencing their binary content: %s";
-                                    LOG.info(FAILED_TO_PROCESS, deposit.getId(),
-                                            format(msg, submission.getId(), filesMissingLocations));
-                                }
-
-                                return true;
-                            },
-
-                            /*
-                             * The post condition does nothing, at least, it doesn't do anything right now.  In the
-                             * future, if the user wants to see the console in the foreground as things progress, this
-                             * post condition can track the progress of the retried Deposit.
-                             */
-                            (d) -> true,
-
-                            (d) -> {
-                                depositTaskHelper.submitDeposit(submission, depositSubmission[0], repo, deposit,
-                                        packager[0]);
-
-                                return null;
-                            }
-                    );
-
-                    if (!cr.success()) {
-                        if (cr.throwable().isPresent()) {
-                            LOG.warn(FAILED_TO_PROCESS, deposit.getId(), cr.throwable().get().getMessage(),
-                                    cr.throwable().get());
-                        } else {
-                            LOG.warn(FAILED_TO_PROCESS, deposit.getId(), "(no throwable present to log)");
-                        }
-                    }
+                    retryEngine.retry(deposits, checkpoint);
+                    checkpoint.delete();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.warn(">>>> Retry interrupted, resume from checkpoint {}", checkpointPath);
                 } catch (Exception e) {
-                    LOG.info(FAILED_TO_PROCESS, depositUri, e.getMessage(), e);
+                    LOG.warn(">>>> Retry failed, resume from checkpoint {}: {}", checkpointPath, e.getMessage(), e);
+                } finally {
+                    if (explicitUris) {
+                        deleteQuietly(checkpoint);
+                    }
+                    closeQuietly(checkpoint);
+                    taskExecutor.shutdown();
+                    taskExecutor.setAwaitTerminationSeconds(10);
                 }
-            });
-
-            taskExecutor.shutdown();
-            taskExecutor.setAwaitTerminationSeconds(10);
+            };
+
+            if (mode == MODE.SYNC) {
+                retry.run();
+            } else {
+                LOG.info(">>>> Retrying deposits in the background");
+                Thread t = new Thread(retry, "deposit-retry");
+                t.setDaemon(false);
+                t.start();
+            }
         };
     }
 
+    /**
+     * Answers the engine used to retry dirty deposits.
+     *
+     * @param passClient the client implementation used to resolve PASS entity uris
+     * @param concurrency the number of submissions processed at once
+     * @param progressIntervalMs the interval between progress reports, in milliseconds
+     * @return the retry engine
+     */
+    @Bean
+    public DepositRetryEngine retryEngine(PassClient passClient,
+                                          @Value("${pass.deposit.retry.concurrency}") int concurrency,
+                                          @Value("${pass.deposit.retry.progress-interval-ms}") long progressIntervalMs) {
+        return new DepositRetryEngine(passClient, submissionBuilder, depositTaskHelper, packagerRegistry, cri,
+                errorHandler, concurrency, progressIntervalMs);
+    }
+
     /**
      * Parses command line arguments for the URIs to update, or searches the index for URIs of dirty deposits.
      * <dl>
      *     <dt>--uris</dt>
      *     <dd>space-separated list of Deposit URIs to be processed.  If the URI does not specify a Deposit, it is
      *         skipped (implies {@code --sync}, but can be overridden by supplying {@code --async})</dd>
+     *     <dt>--restart</dt>
+     *     <dd>discards the checkpoint of an earlier, interrupted, retry</dd>
      *     <dt>--sync</dt>
      *     <dd>the console remains attached as each URI is processed, allowing the end-user to examine the results of
      *         updated Deposits as they happen</dd>
@@ -218,19 +192,16 @@ public class FailedDepositRunner {
      *
      * @param args the command line arguments
      * @param passClient used to search the index for dirty deposits
-     * @return a {@code Collection} of URIs representing dirty deposits
+     * @return the URIs of dirty deposits
      */
-    private Collection<URI> depositsToUpdate(ApplicationArguments args, PassClient passClient) {
-        if (args.containsOption("uris") && args.getOptionValues("uris").size() > 0) {
+    private Iterable<URI> depositsToUpdate(ApplicationArguments args, PassClient passClient) {
+        if (hasUris(args)) {
             // maintain the order of the uris as they were supplied on the CLI
             return args.getOptionValues("uris").stream().map(URI::create).collect(Collectors.toList());
         } else {
-            Collection<URI> uris = passClient.findAllByAttribute(Deposit.class, DEPOSIT_STATUS, FAILED);
-            uris.addAll(passClient.findAllByAttribute(Deposit.class, DEPOSIT_STATUS, null));
-            if (uris.size() < 1) {
-                throw new IllegalArgumentException("No URIs found to process.");
-            }
-            return uris;
+            return nonEmpty(PagedUriIterator.concat(
+                    PagedUriIterator.search(passClient, Deposit.class, DEPOSIT_STATUS, FAILED, pageSize),
+                    PagedUriIterator.search(passClient, Deposit.class, DEPOSIT_STATUS, null, pageSize)));
         }
     }
 
@@ -240,11 +211,11 @@ public class FailedDepositRunner {
      * If {@code --uris} are supplied, then {@code --sync} is implied.
      * </p>
      * <p>
-     * If no {@code --uris} are supplied, then {@cocde --async} is implied.
+     * If no {@code --uris} are supplied, then {@code --async} is implied.
      * </p>
      *
-     * @param args
-     * @return
+     * @param args the command line arguments
+     * @return the mode
      * @throws IllegalArgumentException if both {@code --sync} <em>and</em> {@code --async} are supplied
      */
     private MODE getMode(ApplicationArguments args) {
@@ -268,4 +239,41 @@ public class FailedDepositRunner {
         return MODE.ASYNC;
     }
 
+    private static boolean hasUris(ApplicationArguments args) {
+        return args.containsOption("uris") && args.getOptionValues("uris").size() > 0;
+    }
+
+    private static void deleteQuietly(Checkpoint checkpoint) {
+        try {
+            checkpoint.delete();
+        } catch (IOException e) {
+            LOG.warn(">>>> Unable to delete checkpoint {}: {}", checkpoint.getFile(), e.getMessage(), e);
+        }
+    }
+
+    private static void closeQuietly(Checkpoint checkpoint) {
+        try {
+            checkpoint.close();
+        } catch (IOException e) {
+            LOG.warn(">>>> Unable to close checkpoint {}: {}", checkpoint.getFile(), e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Answers the supplied URIs as a single-use {@code Iterable}, after insuring there is at least one.  Only the first
+     * page of a paged search is retrieved to do so.
+     *
+     * @param uris the URIs
+     * @return the URIs
+     * @throws IllegalArgumentException if there are no URIs
+     */
+    private static Iterable<URI> nonEmpty(Iterable<URI> uris) {
+        Iterator<URI> itr = uris.iterator();
+        if (!itr.hasNext()) {
+            throw new IllegalArgumentException("No URIs found to process.");
+        }
+        return () -> itr;
+    }
+
 }
@@ -18,8 +18,20 @@ package org.dataconservancy.pass.deposit.messaging.runner;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.builder.SubmissionBuilder;
+import org.dataconservancy.pass.deposit.messaging.DepositServiceErrorHandler;
 import org.dataconservancy.pass.deposit.messaging.config.JmsConfig;
 import org.dataconservancy.deposit.util.async.Condition;
+import org.dataconservancy.pass.deposit.messaging.model.Packager;
+import org.dataconservancy.pass.deposit.messaging.model.Registry;
+import org.dataconservancy.pass.deposit.messaging.service.DepositJournalReplayer;
+import org.dataconservancy.pass.deposit.messaging.service.DepositRetryEngine;
+import org.dataconservancy.pass.deposit.messaging.service.DepositStatusRefreshEngine;
+import org.dataconservancy.pass.deposit.messaging.service.DepositTaskHelper;
+import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
+import org.dataconservancy.pass.deposit.messaging.support.DepositJournal;
+import org.dataconservancy.pass.deposit.messaging.support.HostRateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -31,6 +43,10 @@ import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /**
  * @author Elliot Metsger (emetsger@jhu.edu)
  */
@@ -44,7 +60,8 @@ public class ListenerRunner implements ApplicationContextAware {
     private ApplicationContext appCtx;
 
     @Bean
-    ApplicationRunner runListeners(@Value("${pass.fedora.baseurl}") String fcrepoBaseUrl, OkHttpClient okHttpClient) {
+    ApplicationRunner runListeners(@Value("${pass.fedora.baseurl}") String fcrepoBaseUrl, OkHttpClient okHttpClient,
+                                   DepositJournalReplayer journalReplayer) {
         Condition<Integer> fcrepoUp = new Condition<>(() -> {
             Request get = new Request.Builder().get().url(fcrepoBaseUrl).build();
             LOG.trace(">>>> Executing GET {}", fcrepoBaseUrl);
@@ -62,9 +79,64 @@ public class ListenerRunner implements ApplicationContextAware {
             }
 
             LOG.info("Fedora repository is up at '{}'", fcrepoBaseUrl);
+
+            Thread replay = new Thread(() -> {
+                try {
+                    journalReplayer.replay();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.warn(">>>> Recovery of deposits in flight interrupted, it will resume on restart");
+                } catch (Exception e) {
+                    LOG.warn(">>>> Recovery of deposits in flight failed, it will resume on restart: {}",
+                            e.getMessage(), e);
+                }
+            }, "deposit-journal-replay");
+            replay.setDaemon(true);
+            replay.start();
         };
     }
 
+    /**
+     * Answers the journal recording the progress of the deposits performed by this process.
+     *
+     * @param file the journal file
+     * @param syncIntervalMs how often records are forced to disk, in milliseconds
+     * @param compactIntervalMs how often the journal is compacted, in milliseconds
+     * @return the journal
+     * @throws IOException if the journal cannot be opened
+     */
+    @Bean(destroyMethod = "close")
+    DepositJournal depositJournal(@Value("${pass.deposit.journal.file}") String file,
+                                  @Value("${pass.deposit.journal.sync-interval-ms}") long syncIntervalMs,
+                                  @Value("${pass.deposit.journal.compact-interval-ms}") long compactIntervalMs)
+            throws IOException {
+        return DepositJournal.open(Paths.get(file), syncIntervalMs, compactIntervalMs);
+    }
+
+    /**
+     * Answers the replayer that recovers the deposits left in flight when this process last stopped, using the
+     * concurrency of the {@code retry} and {@code refresh} commands.
+     */
+    @Bean
+    DepositJournalReplayer journalReplayer(DepositJournal depositJournal, PassClient passClient,
+                                           SubmissionBuilder submissionBuilder, DepositTaskHelper depositTaskHelper,
+                                           Registry<Packager> packagerRegistry, CriticalRepositoryInteraction cri,
+                                           DepositServiceErrorHandler errorHandler,
+                                           @Value("${pass.deposit.retry.concurrency}") int retryConcurrency,
+                                           @Value("${pass.deposit.refresh.concurrency}") int refreshConcurrency,
+                                           @Value("${pass.deposit.refresh.rate-limit-per-host}")
+                                                   double permitsPerSecond,
+                                           @Value("${pass.deposit.refresh.host-rate-limits}") String hostLimits) {
+        DepositRetryEngine retryEngine = new DepositRetryEngine(passClient, submissionBuilder, depositTaskHelper,
+                packagerRegistry, cri, errorHandler, retryConcurrency, 0);
+        DepositStatusRefreshEngine refreshEngine = new DepositStatusRefreshEngine(passClient, depositTaskHelper,
+                errorHandler, new HostRateLimiter(permitsPerSecond, HostRateLimiter.parseHostLimits(hostLimits)),
+                refreshConcurrency, 0);
+        Path checkpoint = depositJournal.getFile().resolveSibling(depositJournal.getFile().getFileName() +
+                ".checkpoint");
+        return new DepositJournalReplayer(depositJournal, retryEngine, refreshEngine, checkpoint);
+    }
+
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         this.appCtx = applicationContext;
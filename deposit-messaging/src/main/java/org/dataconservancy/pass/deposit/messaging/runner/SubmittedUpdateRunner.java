@@ -17,20 +17,24 @@ package org.dataconservancy.pass.deposit.messaging.runner;
 
 import org.dataconservancy.pass.client.PassClient;
 import org.dataconservancy.pass.deposit.messaging.DepositServiceErrorHandler;
+import org.dataconservancy.pass.deposit.messaging.service.DepositStatusRefreshEngine;
 import org.dataconservancy.pass.deposit.messaging.service.DepositTaskHelper;
+import org.dataconservancy.pass.deposit.messaging.support.HostRateLimiter;
+import org.dataconservancy.pass.deposit.messaging.support.PagedUriIterator;
 import org.dataconservancy.pass.model.Deposit;
 import org.dataconservancy.pass.model.Repository;
 import org.dataconservancy.pass.model.Submission;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.net.URI;
-import java.util.Collection;
+import java.util.Iterator;
 import java.util.stream.Collectors;
 
 import static org.dataconservancy.pass.deposit.messaging.support.Constants.Indexer.DEPOSIT_STATUS;
@@ -59,32 +63,56 @@ public class SubmittedUpdateRunner {
     @Autowired
     private DepositServiceErrorHandler errorHandler;
 
+    @Value("${pass.deposit.discovery.page-size}")
+    private int pageSize;
+
     /**
-     * Answers a Spring {@link ApplicationRunner} that will process a {@code Collection} of URIs representing submitted
+     * Answers a Spring {@link ApplicationRunner} that will process the URIs representing submitted
      * deposits.  If no URIs are supplied on the command line, a search is performed for all submitted deposits.  The
-     * submitted deposits are then queued for processing by the provided {@code processor}.
+     * submitted deposits are then refreshed in parallel by the {@code refreshEngine}.
      *
      * @param passClient the client implementation used to resolve PASS entity uris and perform searches
+     * @param refreshEngine refreshes the status of the submitted deposits
      * @return the Spring {@code ApplicationRunner} which receives the command line arguments supplied to this
      *         application
      */
     @Bean
-    public ApplicationRunner depositUpdate(PassClient passClient) {
+    public ApplicationRunner depositUpdate(PassClient passClient, DepositStatusRefreshEngine refreshEngine) {
         return (args) -> {
-            Collection<URI> deposits = depositsToUpdate(args, passClient);
-            deposits.forEach(depositUri -> {
-                try {
-                    depositTaskHelper.processDepositStatus(passClient.readResource(depositUri, Deposit.class));
-                } catch (Exception e) {
-                    errorHandler.handleError(e);
-                }
-            });
+            Iterable<URI> deposits = depositsToUpdate(args, passClient);
+            refreshEngine.refresh(deposits);
 
             taskExecutor.shutdown();
             taskExecutor.setAwaitTerminationSeconds(10);
         };
     }
 
+    /**
+     * Answers the engine used to refresh submitted deposits.
+     *
+     * @param passClient the client implementation used to resolve PASS entity uris
+     * @param concurrency the number of deposits refreshed at once
+     * @param permitsPerSecond the number of deposit status references that may be retrieved per second from any one
+     *                         host, or {@code <= 0} for no limit
+     * @param hostLimits per-host overrides of {@code permitsPerSecond}, of the form {@code host=rate[,host=rate...]}
+     * @param progressIntervalMs the interval between progress reports, in milliseconds
+     * @return the refresh engine
+     */
+    @Bean
+    public DepositStatusRefreshEngine refreshEngine(PassClient passClient,
+                                                    @Value("${pass.deposit.refresh.concurrency}") int concurrency,
+                                                    @Value("${pass.deposit.refresh.rate-limit-per-host}")
+                                                            double permitsPerSecond,
+                                                    @Value("${pass.deposit.refresh.host-rate-limits}")
+                                                            String hostLimits,
+                                                    @Value("${pass.deposit.refresh.progress-interval-ms}")
+                                                            long progressIntervalMs) {
+        HostRateLimiter rateLimiter = new HostRateLimiter(permitsPerSecond,
+                HostRateLimiter.parseHostLimits(hostLimits));
+        return new DepositStatusRefreshEngine(passClient, depositTaskHelper, errorHandler, rateLimiter, concurrency,
+                progressIntervalMs);
+    }
+
     /**
      * Parses command line arguments for the URIs to update, or searches the index for URIs of submitted deposits.
      * <dl>
@@ -96,19 +124,32 @@ public class SubmittedUpdateRunner {
      *
      * @param args the command line arguments
      * @param passClient used to search the index for dirty deposits
-     * @return a {@code Collection} of URIs representing dirty deposits
+     * @return the URIs of dirty deposits
      */
-    private Collection<URI> depositsToUpdate(ApplicationArguments args, PassClient passClient) {
+    private Iterable<URI> depositsToUpdate(ApplicationArguments args, PassClient passClient) {
         if (args.containsOption("uris") && args.getOptionValues("uris").size() > 0) {
             // maintain the order of the uris as they were supplied on the CLI
             return args.getOptionValues("uris").stream().map(URI::create).collect(Collectors.toList());
         } else {
-            Collection<URI> uris = passClient.findAllByAttribute(Deposit.class, DEPOSIT_STATUS, SUBMITTED);
-            if (uris.size() < 1) {
-                throw new IllegalArgumentException("No URIs found to process.");
-            }
-            return uris;
+            return nonEmpty(PagedUriIterator.search(passClient, Deposit.class, DEPOSIT_STATUS, SUBMITTED, pageSize));
+        }
+    }
+
+
+    /**
+     * Answers the supplied URIs as a single-use {@code Iterable}, after insuring there is at least one.  Only the first
+     * page of a paged search is retrieved to do so.
+     *
+     * @param uris the URIs
+     * @return the URIs
+     * @throws IllegalArgumentException if there are no URIs
+     */
+    private static Iterable<URI> nonEmpty(Iterable<URI> uris) {
+        Iterator<URI> itr = uris.iterator();
+        if (!itr.hasNext()) {
+            throw new IllegalArgumentException("No URIs found to process.");
         }
+        return () -> itr;
     }
 
 }
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.policy.Policy;
+import org.dataconservancy.pass.model.Deposit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.ACCEPTED;
+
+/**
+ * Tracks the status of the {@code Deposit}s belonging to each {@code Submission}, so that the aggregated deposit
+ * status of a {@code Submission} can be determined without re-reading all of its {@code Deposit}s each time one of them
+ * changes.
+ * <p>
+ * The first time a {@code Submission} is seen, its {@code Deposit}s are supplied by a <em>seed</em> (e.g. by resolving
+ * the incoming links of the {@code Submission}).  Afterwards, each {@code Deposit} status change is applied to the
+ * per-{@code Submission} counts of deposits by status, so that no further reads of the other {@code Deposit}s are
+ * required.  Because a {@code Deposit} may be created after its {@code Submission} was seeded, callers should {@link
+ * #reseed(URI, Collection) reseed} a {@code Submission} before finalizing it, unless it was seeded by the same update.
+ * </p>
+ * <p>
+ * At most {@code maxSubmissions} are tracked; the least recently updated {@code Submission} is forgotten when the limit
+ * is exceeded, and is seeded again when it is next updated.  Callers should {@link #forget(URI) forget} a {@code
+ * Submission} once its aggregated deposit status is terminal.
+ * </p>
+ * <p>
+ * Instances are thread-safe.  Updates to the same {@code Submission} are expected to be serialized by the caller (e.g.
+ * by performing them within a {@link org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction
+ * critical section} over the {@code Submission}).
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class AggregatedStatusTracker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AggregatedStatusTracker.class);
+
+    private final Policy<Deposit.DepositStatus> terminalDepositStatusPolicy;
+
+    private final Map<URI, Tracked> submissions;
+
+    /**
+     * @param terminalDepositStatusPolicy determines whether a {@code Deposit} status is terminal
+     * @param maxSubmissions the maximum number of {@code Submission}s tracked at once, must be positive
+     */
+    public AggregatedStatusTracker(Policy<Deposit.DepositStatus> terminalDepositStatusPolicy, int maxSubmissions) {
+        if (maxSubmissions < 1) {
+            throw new IllegalArgumentException("Maximum number of tracked submissions must be a positive integer, " +
+                    "was: " + maxSubmissions);
+        }
+        this.terminalDepositStatusPolicy = terminalDepositStatusPolicy;
+        this.submissions = new LinkedHashMap<URI, Tracked>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URI, Tracked> eldest) {
+                return size() > maxSubmissions;
+            }
+        };
+    }
+
+    /**
+     * Applies the status of {@code deposit} to its {@code Submission}.  If the {@code Submission} is not tracked, it is
+     * seeded from {@code seed} first.
+     *
+     * @param submissionUri the {@code Submission} the {@code deposit} belongs to
+     * @param deposit the {@code Deposit} whose status changed
+     * @param seed supplies all of the {@code Deposit}s of the {@code Submission}, invoked only if the {@code Submission}
+     *             is not tracked
+     * @return the counts of the {@code Submission}'s deposits after the update
+     */
+    public Counts update(URI submissionUri, Deposit deposit, Supplier<Collection<Deposit>> seed) {
+        Tracked tracked;
+        boolean seeded = false;
+
+        synchronized (submissions) {
+            tracked = submissions.get(submissionUri);
+        }
+
+        if (tracked == null) {
+            LOG.trace(">>>> Seeding aggregated status of {}", submissionUri);
+            tracked = new Tracked();
+            for (Deposit d : seed.get()) {
+                tracked.put(d.getId(), d.getDepositStatus());
+            }
+            seeded = true;
+            synchronized (submissions) {
+                submissions.put(submissionUri, tracked);
+            }
+        }
+
+        synchronized (tracked) {
+            tracked.put(deposit.getId(), deposit.getDepositStatus());
+            return tracked.counts(seeded);
+        }
+    }
+
+    /**
+     * Replaces the tracked {@code Deposit}s of a {@code Submission} with {@code deposits}.
+     *
+     * @param submissionUri the {@code Submission}
+     * @param deposits all of the {@code Deposit}s of the {@code Submission}
+     * @return the counts of the {@code Submission}'s deposits
+     */
+    public Counts reseed(URI submissionUri, Collection<Deposit> deposits) {
+        Tracked tracked = new Tracked();
+        for (Deposit d : deposits) {
+            tracked.put(d.getId(), d.getDepositStatus());
+        }
+
+        synchronized (submissions) {
+            submissions.put(submissionUri, tracked);
+        }
+
+        synchronized (tracked) {
+            return tracked.counts(true);
+        }
+    }
+
+    /**
+     * Stops tracking a {@code Submission}.
+     *
+     * @param submissionUri the {@code Submission}
+     */
+    public void forget(URI submissionUri) {
+        synchronized (submissions) {
+            submissions.remove(submissionUri);
+        }
+    }
+
+    /**
+     * @return the number of {@code Submission}s currently tracked
+     */
+    public int size() {
+        synchronized (submissions) {
+            return submissions.size();
+        }
+    }
+
+    /**
+     * The {@code Deposit}s of a tracked {@code Submission}, and their counts by status.
+     */
+    private class Tracked {
+
+        private final Map<URI, Deposit.DepositStatus> statuses = new HashMap<>();
+
+        private int terminal;
+
+        private int accepted;
+
+        private void put(URI depositUri, Deposit.DepositStatus status) {
+            if (statuses.containsKey(depositUri)) {
+                adjust(statuses.get(depositUri), -1);
+            }
+            statuses.put(depositUri, status);
+            adjust(status, 1);
+        }
+
+        private void adjust(Deposit.DepositStatus status, int delta) {
+            if (status != null && terminalDepositStatusPolicy.accept(status)) {
+                terminal += delta;
+            }
+            if (status == ACCEPTED) {
+                accepted += delta;
+            }
+        }
+
+        private Counts counts(boolean seeded) {
+            return new Counts(statuses.size(), terminal, accepted, seeded);
+        }
+    }
+
+    /**
+     * A snapshot of the counts of a {@code Submission}'s {@code Deposit}s.
+     */
+    public static class Counts {
+
+        private final int total;
+
+        private final int terminal;
+
+        private final int accepted;
+
+        private final boolean seeded;
+
+        Counts(int total, int terminal, int accepted, boolean seeded) {
+            this.total = total;
+            this.terminal = terminal;
+            this.accepted = accepted;
+            this.seeded = seeded;
+        }
+
+        /**
+         * @return the number of {@code Deposit}s
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return the number of {@code Deposit}s with a terminal status
+         */
+        public int getTerminal() {
+            return terminal;
+        }
+
+        /**
+         * @return the number of {@code ACCEPTED} {@code Deposit}s
+         */
+        public int getAccepted() {
+            return accepted;
+        }
+
+        /**
+         * @return {@code true} if the counts were seeded (or reseeded) by the operation that produced them
+         */
+        public boolean isSeeded() {
+            return seeded;
+        }
+
+        /**
+         * @return {@code true} if every {@code Deposit} has a terminal status
+         */
+        public boolean allTerminal() {
+            return terminal == total;
+        }
+
+        /**
+         * @return {@code true} if every {@code Deposit} is {@code ACCEPTED}
+         */
+        public boolean allAccepted() {
+            return accepted == total;
+        }
+
+        @Override
+        public String toString() {
+            return "Counts{total=" + total + ", terminal=" + terminal + ", accepted=" + accepted + ", seeded=" +
+                    seeded + '}';
+        }
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.model.Packager;
+import org.dataconservancy.pass.deposit.messaging.service.DepositUtil.DepositWorkerContext;
+import org.dataconservancy.pass.deposit.messaging.support.CircuitBreaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.dataconservancy.pass.deposit.transport.Transport.TRANSPORT_PROTOCOL;
+import static org.dataconservancy.pass.deposit.transport.Transport.TRANSPORT_SERVER_FQDN;
+import static org.dataconservancy.pass.deposit.transport.Transport.TRANSPORT_SERVER_PORT;
+
+/**
+ * Holds the {@link CircuitBreaker}s guarding the endpoints a {@link DepositTask} depends on: Fedora, and the transport
+ * endpoint of its {@code Packager}.  Endpoints are identified by the protocol, host, and port of the transport
+ * configuration of a {@code Packager}, so {@code Packager}s depositing to the same endpoint share a circuit breaker.
+ * <p>
+ * A task is {@link #admit(DepositTask) admitted} only if the circuits of both endpoints permit calls.  A task that is
+ * not admitted is deferred without being attempted, so no time is spent assembling a package that cannot be
+ * transported.  Deferred tasks are re-submitted to the deposit workers when the circuit they were deferred by closes.
+ * Every {@code probeIntervalMs}, a circuit that is due to be probed has one of its deferred tasks re-submitted, which
+ * probes the endpoint, so a circuit closes even if no other work reaches its endpoint.
+ * </p>
+ * <p>
+ * The transport endpoint circuit breakers are fed the outcome of the transport of each admitted task.  The Fedora
+ * circuit breaker is fed by the {@code PassClient}.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositCircuitBreakers implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DepositCircuitBreakers.class);
+
+    private final TaskExecutor workers;
+
+    private final CircuitBreaker fedora;
+
+    private final Function<String, CircuitBreaker> endpointBreakers;
+
+    private final ConcurrentHashMap<String, CircuitBreaker> endpoints = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<CircuitBreaker, Deque<DepositTask>> deferred = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService prober;
+
+    /**
+     * @param workers the deposit workers which deferred tasks are re-submitted to
+     * @param fedora the circuit breaker of the Fedora repository
+     * @param endpointBreakers creates the circuit breaker of a transport endpoint, given its name
+     * @param probeIntervalMs the interval between checks for circuits due to be probed, in milliseconds
+     */
+    public DepositCircuitBreakers(TaskExecutor workers, CircuitBreaker fedora,
+                                  Function<String, CircuitBreaker> endpointBreakers, long probeIntervalMs) {
+        this.workers = workers;
+        this.fedora = fedora;
+        this.endpointBreakers = endpointBreakers;
+        this.fedora.addCloseListener(() -> resubmitAll(fedora));
+        this.prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "deposit-circuit-prober");
+            t.setDaemon(true);
+            return t;
+        });
+        this.prober.scheduleWithFixedDelay(this::probe, probeIntervalMs, probeIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Admits {@code task} if the circuits of Fedora and of its transport endpoint permit calls, otherwise defers it
+     * until the circuit that denied it closes.  An admitted task must be {@link #complete(DepositTask) completed}.
+     *
+     * @param task the task about to be attempted
+     * @return {@code true} if the task may be attempted, {@code false} if it has been deferred
+     */
+    public boolean admit(DepositTask task) {
+        if (!fedora.isCallPermitted()) {
+            defer(fedora, task);
+            return false;
+        }
+
+        CircuitBreaker endpoint = endpointOf(task);
+        if (endpoint != null && !endpoint.tryAcquire()) {
+            defer(endpoint, task);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Records the outcome of the transport of an admitted {@code task} with the circuit breaker of its endpoint.
+     *
+     * @param task the task, which has been attempted
+     */
+    public void complete(DepositTask task) {
+        CircuitBreaker endpoint = endpointOf(task);
+        if (endpoint == null) {
+            return;
+        }
+
+        long nanos = task.getTransportNanos();
+        if (nanos < 0) {
+            endpoint.release();
+        } else if (task.isTransportFailed()) {
+            endpoint.onFailure(nanos);
+        } else {
+            endpoint.onSuccess(nanos);
+        }
+    }
+
+    /**
+     * @return the state of the circuit of Fedora, and of each transport endpoint that has been deposited to, keyed by
+     *         name
+     */
+    public Map<String, CircuitBreaker.State> getStates() {
+        Map<String, CircuitBreaker.State> states = new TreeMap<>();
+        states.put(fedora.getName(), fedora.getState());
+        endpoints.forEach((name, breaker) -> states.put(name, breaker.getState()));
+        return states;
+    }
+
+    /**
+     * @return the number of tasks deferred until a circuit closes
+     */
+    public int getDeferred() {
+        return deferred.values().stream().mapToInt(queue -> {
+            synchronized (queue) {
+                return queue.size();
+            }
+        }).sum();
+    }
+
+    /**
+     * Stops probing circuits.  Deferred tasks are discarded; their {@code Deposit}s remain in an intermediate state.
+     */
+    @Override
+    public void close() {
+        prober.shutdownNow();
+        int discarded = getDeferred();
+        if (discarded > 0) {
+            LOG.warn(">>>> Discarding {} deposits deferred by open circuits", discarded);
+        }
+    }
+
+    /**
+     * Identifies the transport endpoint of {@code packager}: the protocol, host and port of its transport
+     * configuration, or its name if its configuration has no host.
+     *
+     * @param packager the packager
+     * @return the name of its endpoint
+     */
+    static String endpointName(Packager packager) {
+        Map<String, String> config = packager.getConfiguration();
+        String host = config.get(TRANSPORT_SERVER_FQDN);
+        if (host == null || host.trim().isEmpty()) {
+            return packager.getName();
+        }
+        String port = config.get(TRANSPORT_SERVER_PORT);
+        return config.getOrDefault(TRANSPORT_PROTOCOL, "") + "://" + host.trim().toLowerCase() +
+                ((port == null || port.trim().isEmpty()) ? "" : ":" + port.trim());
+    }
+
+    private CircuitBreaker endpointOf(DepositTask task) {
+        DepositWorkerContext dc = task.getDepositWorkerContext();
+        if (dc == null || dc.packager() == null) {
+            return null;
+        }
+        return endpoints.computeIfAbsent(endpointName(dc.packager()), name -> {
+            CircuitBreaker breaker = endpointBreakers.apply(name);
+            breaker.addCloseListener(() -> resubmitAll(breaker));
+            return breaker;
+        });
+    }
+
+    private void defer(CircuitBreaker breaker, DepositTask task) {
+        Deque<DepositTask> queue = deferred.computeIfAbsent(breaker, b -> new ArrayDeque<>());
+        synchronized (queue) {
+            queue.add(task);
+        }
+        LOG.debug(">>>> Deferred {}: the circuit for {} is {}", depositOf(task), breaker.getName(),
+                breaker.getState());
+    }
+
+    /**
+     * Re-submits a deferred task of each circuit due to be probed, and any tasks deferred by a circuit that has since
+     * closed.
+     */
+    private void probe() {
+        try {
+            deferred.forEach((breaker, queue) -> {
+                if (breaker.getState() == CircuitBreaker.State.CLOSED) {
+                    resubmitAll(breaker);
+                } else if (breaker.isCallPermitted()) {
+                    DepositTask task;
+                    synchronized (queue) {
+                        task = queue.poll();
+                    }
+                    if (task != null) {
+                        LOG.debug(">>>> Probing {} with {}", breaker.getName(), depositOf(task));
+                        resubmit(breaker, task);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            LOG.warn(">>>> Error probing circuits: {}", e.getMessage(), e);
+        }
+    }
+
+    private void resubmitAll(CircuitBreaker breaker) {
+        Deque<DepositTask> queue = deferred.get(breaker);
+        if (queue == null) {
+            return;
+        }
+
+        List<DepositTask> tasks;
+        synchronized (queue) {
+            tasks = new ArrayList<>(queue);
+            queue.clear();
+        }
+
+        if (!tasks.isEmpty()) {
+            LOG.info(">>>> Circuit for {} closed, re-submitting {} deferred deposits", breaker.getName(),
+                    tasks.size());
+        }
+        tasks.forEach(task -> resubmit(breaker, task));
+    }
+
+    private void resubmit(CircuitBreaker breaker, DepositTask task) {
+        try {
+            workers.execute(task);
+        } catch (Exception e) {
+            LOG.warn(">>>> Unable to re-submit {}, deferring it again: {}", depositOf(task), e.getMessage());
+            defer(breaker, task);
+        }
+    }
+
+    private static Object depositOf(DepositTask task) {
+        DepositWorkerContext dc = task.getDepositWorkerContext();
+        return (dc == null || dc.deposit() == null) ? task : dc.deposit().getId();
+    }
+
+}
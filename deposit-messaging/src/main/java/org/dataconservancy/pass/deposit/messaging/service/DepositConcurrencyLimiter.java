@@ -0,0 +1,408 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.service.DepositUtil.DepositWorkerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.lang.Integer.toHexString;
+import static java.lang.System.identityHashCode;
+
+/**
+ * Limits the number of {@link DepositTask}s running concurrently for each {@code Packager}, adapting each limit to
+ * how well the remote repository the {@code Packager} deposits to is coping.  Tasks submitted beyond the limit of
+ * their {@code Packager} are queued, and run in the order they were submitted as running tasks complete.
+ * <p>
+ * Limits are adjusted by <em>additive increase, multiplicative decrease</em>: each time a task transports its package
+ * successfully, and at least half the limit was in use, the limit grows by {@code 1 / limit} (i.e. by one for each
+ * limit's worth of deposits); each time a task fails to transport its package, or transports it more slowly than
+ * {@code latencyTolerance} times the latency expected of a package of its size, the limit is multiplied by {@code
+ * backoffRatio}.  Limits are kept between {@code minLimit} and {@code maxLimit}.  Tasks that do not reach the
+ * transport of their package (e.g. because their {@code Deposit} is no longer in an intermediate state) do not affect
+ * the limit.
+ * </p>
+ * <p>
+ * The latency of a transport excludes the time it spent waiting to read the package (for it to be assembled, or paced
+ * by the {@code BandwidthShaper}), which says nothing of the remote repository.  The latency expected of a package is
+ * estimated by a weighted linear fit of the latencies of the recent transports of the {@code Packager} to the sizes of
+ * their packages, so that a large package is not considered slow for taking longer to send than a small one.  If the
+ * packages are all of a size, the expected latency is the average latency.
+ * </p>
+ * <p>
+ * Tasks are run by the underlying executor, which must be able to run {@code maxLimit} tasks for each {@code Packager}
+ * at once without rejecting any.  A thread that completes a task runs the next queued task of the same {@code
+ * Packager}, if the limit permits.  Other {@code Runnable}s are handed to the underlying executor as-is.  Errors thrown
+ * by a task are handed to the error handler.  Changes to a limit are logged, and the current limit, and the number of
+ * running and queued tasks, of each {@code Packager} are available.  Instances are thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositConcurrencyLimiter implements TaskExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DepositConcurrencyLimiter.class);
+
+    /**
+     * The weight of each transport in the fit of the latencies of a {@code Packager} to the sizes of its packages
+     */
+    private static final double SMOOTHING = 0.1;
+
+    private final TaskExecutor delegate;
+
+    private final Consumer<Throwable> errorHandler;
+
+    private final int initialLimit;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double backoffRatio;
+
+    private final double latencyTolerance;
+
+    private final ConcurrentHashMap<String, Limit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate runs the tasks admitted by this limiter
+     * @param errorHandler handles errors thrown by tasks
+     * @param initialLimit the limit of a {@code Packager} before any of its tasks complete
+     * @param minLimit the smallest limit of a {@code Packager}, must be positive
+     * @param maxLimit the largest limit of a {@code Packager}, must be at least {@code minLimit}
+     * @param backoffRatio the ratio a limit is multiplied by when a task fails or is slow, between {@code 0} and
+     *                     {@code 1}
+     * @param latencyTolerance the multiple of the transport latency expected of a package of its size after which a
+     *                         task is considered slow, must be greater than {@code 1}
+     */
+    public DepositConcurrencyLimiter(TaskExecutor delegate, Consumer<Throwable> errorHandler, int initialLimit,
+                                     int minLimit, int maxLimit, double backoffRatio, double latencyTolerance) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 0 < minLimit <= maxLimit, were: " + minLimit +
+                    ", " + maxLimit);
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Backoff ratio must be between 0 and 1, was: " + backoffRatio);
+        }
+        if (latencyTolerance <= 1) {
+            throw new IllegalArgumentException("Latency tolerance must be greater than 1, was: " + latencyTolerance);
+        }
+        this.delegate = delegate;
+        this.errorHandler = errorHandler;
+        this.initialLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * Runs {@code task}, if the limit of its {@code Packager} permits, otherwise queues it.
+     *
+     * @param task the task
+     */
+    @Override
+    public void execute(Runnable task) {
+        String packager = packagerOf(task);
+        if (packager == null) {
+            delegate.execute(task);
+            return;
+        }
+
+        DepositTask depositTask = (DepositTask) task;
+        Limit limit = limits.computeIfAbsent(packager, Limit::new);
+        if (!limit.admit(depositTask)) {
+            LOG.debug(">>>> Queued {}@{}: {}", task.getClass().getSimpleName(),
+                    toHexString(identityHashCode(task)), limit);
+            return;
+        }
+
+        try {
+            delegate.execute(() -> runLimited(limit, depositTask));
+        } catch (RuntimeException e) {
+            limit.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @param packager the name of a {@code Packager}
+     * @return the current limit of the {@code Packager}
+     */
+    public int getLimit(String packager) {
+        Limit limit = limits.get(packager);
+        return (limit == null) ? initialLimit : limit.current();
+    }
+
+    /**
+     * @return the current limit of each {@code Packager} that has been submitted a task, keyed by name
+     */
+    public Map<String, Integer> getLimits() {
+        Map<String, Integer> result = new TreeMap<>();
+        limits.forEach((packager, limit) -> result.put(packager, limit.current()));
+        return result;
+    }
+
+    /**
+     * @param packager the name of a {@code Packager}
+     * @return the number of tasks of the {@code Packager} that are running
+     */
+    public int getRunning(String packager) {
+        Limit limit = limits.get(packager);
+        return (limit == null) ? 0 : limit.running();
+    }
+
+    /**
+     * @param packager the name of a {@code Packager}
+     * @return the number of tasks of the {@code Packager} waiting to run
+     */
+    public int getQueued(String packager) {
+        Limit limit = limits.get(packager);
+        return (limit == null) ? 0 : limit.queued();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("DepositConcurrencyLimiter{");
+        new TreeMap<>(limits).values().forEach(limit -> sb.append(limit).append(", "));
+        if (!limits.isEmpty()) {
+            sb.setLength(sb.length() - 2);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Runs {@code task}, and then the queued tasks of the same {@code Packager} for as long as the limit permits.
+     */
+    private void runLimited(Limit limit, DepositTask task) {
+        DepositTask next = task;
+        while (next != null) {
+            try {
+                next.run();
+            } catch (Throwable t) {
+                errorHandler.accept(t);
+            }
+
+            List<DepositTask> admitted = new ArrayList<>();
+            next = limit.complete(next, admitted);
+            admitted.forEach(t -> dispatch(limit, t));
+        }
+    }
+
+    /**
+     * Hands a task admitted by a raised limit to the underlying executor.  Should the executor refuse it, the task is
+     * queued again, to be run when a running task completes.
+     */
+    private void dispatch(Limit limit, DepositTask task) {
+        try {
+            delegate.execute(() -> runLimited(limit, task));
+        } catch (RuntimeException e) {
+            LOG.warn(">>>> Unable to run {}@{}, it will be run when a running deposit completes: {}",
+                    task.getClass().getSimpleName(), toHexString(identityHashCode(task)), e.getMessage());
+            limit.requeue(task);
+        }
+    }
+
+    private static String packagerOf(Runnable task) {
+        if (!(task instanceof DepositTask)) {
+            return null;
+        }
+        DepositWorkerContext dc = ((DepositTask) task).getDepositWorkerContext();
+        if (dc == null || dc.packager() == null) {
+            return null;
+        }
+        return dc.packager().getName();
+    }
+
+    /**
+     * The limit of a single {@code Packager}, its running tasks, and its queue.
+     */
+    private class Limit {
+
+        private final String packager;
+
+        private final Deque<DepositTask> queue = new ArrayDeque<>();
+
+        private double limit = initialLimit;
+
+        private int running;
+
+        /**
+         * Whether any transport latency has been fitted
+         */
+        private boolean fitted;
+
+        /**
+         * The weighted mean size, in bytes, of the packages transported
+         */
+        private double meanBytes;
+
+        /**
+         * The weighted mean transport latency, in nanoseconds
+         */
+        private double meanNanos;
+
+        /**
+         * The weighted variance of the sizes of the packages transported
+         */
+        private double varianceBytes;
+
+        /**
+         * The weighted covariance of the sizes of the packages transported and their latencies
+         */
+        private double covariance;
+
+        private Limit(String packager) {
+            this.packager = packager;
+        }
+
+        private synchronized boolean admit(DepositTask task) {
+            if (queue.isEmpty() && running < current()) {
+                running++;
+                return true;
+            }
+            queue.add(task);
+            return false;
+        }
+
+        private synchronized void release() {
+            running--;
+        }
+
+        private synchronized void requeue(DepositTask task) {
+            running--;
+            queue.addFirst(task);
+        }
+
+        /**
+         * Adjusts the limit according to the outcome of {@code task}.
+         *
+         * @param task the completed task
+         * @param admitted receives the queued tasks admitted by a raised limit, which must be dispatched
+         * @return the queued task the completing thread should run next, or {@code null} if there is none, or the
+         *         limit does not permit it
+         */
+        private synchronized DepositTask complete(DepositTask task, List<DepositTask> admitted) {
+            observe(task);
+
+            if (queue.isEmpty() || running > current()) {
+                running--;
+                return null;
+            }
+
+            DepositTask next = queue.poll();
+            while (!queue.isEmpty() && running < current()) {
+                running++;
+                admitted.add(queue.poll());
+            }
+            return next;
+        }
+
+        private void observe(DepositTask task) {
+            if (task.getTransportNanos() < 0) {
+                return;
+            }
+            long nanos = Math.max(0, task.getTransportNanos() - task.getPackageReadNanos());
+            long bytes = task.getTransportBytes();
+
+            int before = current();
+            double expectedNanos = expectedNanos(bytes);
+            boolean slow = expectedNanos > 0 && nanos > latencyTolerance * expectedNanos;
+            if (task.isTransportFailed() || slow) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (running * 2 >= before) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+
+            if (!task.isTransportFailed()) {
+                fit(bytes, nanos);
+            }
+
+            if (current() != before) {
+                LOG.info(">>>> Concurrency limit of {} changed from {} to {} (transport of {} bytes {} in {} ms, " +
+                        "{} ms expected)", packager, before, current(), bytes,
+                        task.isTransportFailed() ? "failed" : "succeeded", TimeUnit.NANOSECONDS.toMillis(nanos),
+                        TimeUnit.NANOSECONDS.toMillis((long) expectedNanos));
+            }
+        }
+
+        /**
+         * Answers the latency expected of the transport of a package of {@code bytes}, in nanoseconds, or {@code 0} if
+         * none can be expected.  A larger package is never expected to be faster than a smaller one.  Until packages of
+         * different sizes have been transported, latency is expected to be proportional to size.
+         */
+        private double expectedNanos(long bytes) {
+            if (!fitted) {
+                return 0;
+            }
+            double slope;
+            if (varianceBytes > 0) {
+                slope = Math.max(0, covariance / varianceBytes);
+            } else {
+                slope = (meanBytes > 0) ? meanNanos / meanBytes : 0;
+            }
+            return Math.max(0, meanNanos + slope * (bytes - meanBytes));
+        }
+
+        /**
+         * Adds the transport of a package of {@code bytes} in {@code nanos} to the exponentially weighted fit of
+         * latency to size.
+         */
+        private void fit(long bytes, long nanos) {
+            if (!fitted) {
+                fitted = true;
+                meanBytes = bytes;
+                meanNanos = nanos;
+                return;
+            }
+            double dBytes = bytes - meanBytes;
+            double dNanos = nanos - meanNanos;
+            meanBytes += SMOOTHING * dBytes;
+            meanNanos += SMOOTHING * dNanos;
+            varianceBytes = (1 - SMOOTHING) * (varianceBytes + SMOOTHING * dBytes * dBytes);
+            covariance = (1 - SMOOTHING) * (covariance + SMOOTHING * dBytes * dNanos);
+        }
+
+        private synchronized int current() {
+            return (int) limit;
+        }
+
+        private synchronized int running() {
+            return running;
+        }
+
+        private synchronized int queued() {
+            return queue.size();
+        }
+
+        @Override
+        public synchronized String toString() {
+            return packager + "=[limit=" + current() + ", running=" + running + ", queued=" + queue.size() + "]";
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.support.Checkpoint;
+import org.dataconservancy.pass.deposit.messaging.support.DepositJournal;
+import org.dataconservancy.pass.deposit.messaging.support.DepositJournal.Stage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recovers the deposits left in flight by a process that died, as recorded in its {@link DepositJournal}, and
+ * {@link DepositJournal#getRecovered() recovered} when the journal was opened by this process.  The cost of
+ * recovery is proportional to the number of deposits that were in flight, rather than the number of deposits in the
+ * index.
+ * <p>
+ * Each deposit is recovered according to the last stage recorded for it:
+ * </p>
+ * <ul>
+ *     <li>{@link Stage#ACCEPTED} or {@link Stage#ASSEMBLING}: the package may not have been received by the remote
+ *         repository, so the deposit is retried by the {@link DepositRetryEngine} (which only retries deposits whose
+ *         status is {@code null} or {@code FAILED})</li>
+ *     <li>{@link Stage#AWAITING_STATUS}: the status of the deposit is refreshed by the {@link
+ *         DepositStatusRefreshEngine} (which only refreshes deposits whose status is {@code SUBMITTED})</li>
+ *     <li>{@link Stage#TRANSPORTING}: the package may have been received, so the deposit is not retried: it cannot be
+ *         recovered automatically, and is logged for manual review</li>
+ *     <li>{@link Stage#TRANSPORTED}: the package was received, but its deposit status reference was not recorded, so
+ *         the deposit cannot be recovered automatically, and is logged</li>
+ * </ul>
+ * <p>
+ * Deposits are retried using a {@link Checkpoint}, so a recovery that is itself interrupted resumes where it stopped.
+ * Once recovered, each deposit is recorded as {@link Stage#DONE} in the journal.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositJournalReplayer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DepositJournalReplayer.class);
+
+    private final DepositJournal journal;
+
+    private final DepositRetryEngine retryEngine;
+
+    private final DepositStatusRefreshEngine refreshEngine;
+
+    private final Path checkpointFile;
+
+    /**
+     * @param journal the journal of the deposits in flight
+     * @param retryEngine retries deposits that may not have been transported
+     * @param refreshEngine refreshes the status of deposits that were transported
+     * @param checkpointFile records the deposits retried by an interrupted recovery
+     */
+    public DepositJournalReplayer(DepositJournal journal, DepositRetryEngine retryEngine,
+                                  DepositStatusRefreshEngine refreshEngine, Path checkpointFile) {
+        this.journal = journal;
+        this.retryEngine = retryEngine;
+        this.refreshEngine = refreshEngine;
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Recovers the deposits left in flight, blocking until every deposit has been recovered.
+     *
+     * @return the number of deposits recovered
+     * @throws InterruptedException if interrupted while waiting for recovery to complete
+     * @throws IOException if the checkpoint cannot be read or written
+     */
+    public int replay() throws InterruptedException, IOException {
+        Map<URI, Stage> inFlight = journal.getRecovered();
+        if (inFlight.isEmpty()) {
+            LOG.info(">>>> No deposits in flight in journal {}", journal.getFile());
+            return 0;
+        }
+
+        List<URI> toRetry = new ArrayList<>();
+        List<URI> toRefresh = new ArrayList<>();
+        inFlight.forEach((depositUri, stage) -> {
+            switch (stage) {
+                case ACCEPTED:
+                case ASSEMBLING:
+                    toRetry.add(depositUri);
+                    break;
+                case AWAITING_STATUS:
+                    toRefresh.add(depositUri);
+                    break;
+                case TRANSPORTING:
+                    LOG.warn(">>>> Deposit {} was being transported, and its package may have been received: it " +
+                            "will not be retried, and its status must be determined manually", depositUri);
+                    break;
+                default:
+                    LOG.warn(">>>> Deposit {} was transported, but its deposit status reference was not recorded: " +
+                            "its status must be determined manually", depositUri);
+            }
+        });
+
+        LOG.info(">>>> Recovering {} deposits in flight in journal {}: {} to retry, {} to refresh",
+                inFlight.size(), journal.getFile(), toRetry.size(), toRefresh.size());
+
+        if (!toRetry.isEmpty()) {
+            try (Checkpoint checkpoint = Checkpoint.open(checkpointFile)) {
+                retryEngine.retry(toRetry, checkpoint);
+                checkpoint.delete();
+            }
+        }
+
+        if (!toRefresh.isEmpty()) {
+            refreshEngine.refresh(toRefresh);
+        }
+
+        inFlight.keySet().forEach(depositUri -> journal.record(depositUri, Stage.DONE));
+        journal.sync();
+
+        LOG.info(">>>> Recovered {} deposits in flight in journal {}", inFlight.size(), journal.getFile());
+        return inFlight.size();
+    }
+
+}
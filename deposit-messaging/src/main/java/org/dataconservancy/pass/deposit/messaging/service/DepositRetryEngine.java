@@ -0,0 +1,426 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.builder.InvalidModel;
+import org.dataconservancy.pass.deposit.builder.SubmissionBuilder;
+import org.dataconservancy.pass.deposit.messaging.DepositServiceErrorHandler;
+import org.dataconservancy.pass.deposit.messaging.model.Packager;
+import org.dataconservancy.pass.deposit.messaging.model.Registry;
+import org.dataconservancy.pass.deposit.messaging.support.Checkpoint;
+import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
+import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.CriticalResult;
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter.Lane;
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter.Scope;
+import org.dataconservancy.pass.deposit.model.DepositFile;
+import org.dataconservancy.pass.deposit.model.DepositSubmission;
+import org.dataconservancy.pass.model.Deposit;
+import org.dataconservancy.pass.model.Repository;
+import org.dataconservancy.pass.model.Submission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.dataconservancy.pass.deposit.messaging.service.DepositTaskHelper.MISSING_PACKAGER;
+import static org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.idempotent;
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.FAILED;
+
+/**
+ * Retries {@code FAILED} (or {@code null} status) {@link Deposit}s in parallel.
+ * <p>
+ * The {@code Deposit}s are consumed lazily, {@link #BATCH_SIZE a batch} at a time, so that they may be supplied by a
+ * paged search without being held in memory all at once.  The {@code Deposit}s of a batch are grouped by their {@link
+ * Submission}, so that the {@link DepositSubmission} model for each {@code Submission} is built once, no matter how
+ * many of its {@code Deposit}s are retried.  Up to {@code concurrency} {@code Submission}s are processed at once; the
+ * {@code Deposit}s of a single {@code Submission} are retried in turn on the same thread.  Each {@code Deposit} is
+ * retried by running a {@link DepositTask} on the retrying thread, rather than handing it off to the deposit worker
+ * pool.  When every thread is busy, the caller blocks until a thread is free, so no {@code Deposit} is ever rejected
+ * for lack of capacity.
+ * </p>
+ * <p>
+ * Every {@code Deposit} that has been retried, or skipped, is recorded in a {@link Checkpoint}; a {@code Deposit} whose
+ * {@link Outcome} is {@link Outcome#FAILED} is not.  {@code Deposit}s already recorded in the checkpoint are not
+ * retried, so a retry that is interrupted can be resumed where it stopped by retrying the same {@code Deposit}s with
+ * the same checkpoint, and the {@code Deposit}s that failed are retried again.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositRetryEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DepositRetryEngine.class);
+
+    private static final String FAILED_TO_PROCESS = ">>>> Failed to process {}: {}";
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
+
+    /**
+     * The number of {@code Deposit}s read and grouped by {@code Submission} at a time
+     */
+    static final int BATCH_SIZE = 100;
+
+    /**
+     * The outcome of retrying a single {@code Deposit}
+     */
+    public enum Outcome {
+
+        /**
+         * The deposit was re-submitted to its {@code Repository}
+         */
+        SUBMITTED,
+
+        /**
+         * A pre-condition for retrying the deposit was not met, and the deposit was not retried
+         */
+        SKIPPED,
+
+        /**
+         * The deposit could not be retried
+         */
+        FAILED
+    }
+
+    private final PassClient passClient;
+
+    private final SubmissionBuilder submissionBuilder;
+
+    private final DepositTaskHelper depositTaskHelper;
+
+    private final Registry<Packager> packagerRegistry;
+
+    private final CriticalRepositoryInteraction cri;
+
+    private final DepositServiceErrorHandler errorHandler;
+
+    private final int concurrency;
+
+    private final long progressIntervalMs;
+
+    /**
+     * @param passClient used to read {@code Deposit}, {@code Submission}, and {@code Repository} resources
+     * @param submissionBuilder builds the {@code DepositSubmission} for each {@code Submission}
+     * @param depositTaskHelper composes the {@code DepositTask} for each {@code Deposit}
+     * @param packagerRegistry supplies the {@code Packager} for each {@code Repository}
+     * @param cri used to verify the status of each {@code Deposit} before it is retried
+     * @param errorHandler handles errors encountered retrying a {@code Deposit}
+     * @param concurrency the number of {@code Submission}s processed at once, must be positive
+     * @param progressIntervalMs the interval between progress reports, in milliseconds, or {@code <= 0} to disable
+     *                           progress reports
+     */
+    public DepositRetryEngine(PassClient passClient, SubmissionBuilder submissionBuilder,
+                              DepositTaskHelper depositTaskHelper, Registry<Packager> packagerRegistry,
+                              CriticalRepositoryInteraction cri, DepositServiceErrorHandler errorHandler,
+                              int concurrency, long progressIntervalMs) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be a positive integer, was: " + concurrency);
+        }
+        this.passClient = passClient;
+        this.submissionBuilder = submissionBuilder;
+        this.depositTaskHelper = depositTaskHelper;
+        this.packagerRegistry = packagerRegistry;
+        this.cri = cri;
+        this.errorHandler = errorHandler;
+        this.concurrency = concurrency;
+        this.progressIntervalMs = progressIntervalMs;
+    }
+
+    /**
+     * Retries the supplied deposits, blocking until every deposit not already recorded in the {@code checkpoint} has
+     * been retried.
+     *
+     * @param depositUris the URIs of the deposits to retry
+     * @param checkpoint records the deposits that have been retried
+     * @return a summary of the outcome of the retry
+     * @throws InterruptedException if interrupted while waiting for the retry to complete
+     */
+    public OutcomeSummary<Outcome> retry(Iterable<URI> depositUris, Checkpoint checkpoint)
+            throws InterruptedException {
+        OutcomeSummary<Outcome> summary = new OutcomeSummary<>(Outcome.class);
+        Map<URI, Repository> repositories = new ConcurrentHashMap<>();
+        Semaphore permits = new Semaphore(concurrency);
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(Lane.BATCH.wrap(r), "deposit-retry-" + THREAD_COUNTER.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        ScheduledExecutorService progress = null;
+        if (progressIntervalMs > 0) {
+            progress = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "deposit-retry-progress");
+                t.setDaemon(true);
+                return t;
+            });
+            progress.scheduleAtFixedRate(() -> LOG.info(">>>> Retry progress: {}", summary), progressIntervalMs,
+                    progressIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        LOG.info(">>>> Retrying deposits using {} threads", concurrency);
+
+        // requests of Fedora made by this thread and the workers are in the batch lane
+        Scope lane = Lane.BATCH.enter();
+
+        int alreadyComplete = 0;
+        List<URI> batch = new ArrayList<>(BATCH_SIZE);
+
+        try {
+            for (URI depositUri : depositUris) {
+                if (checkpoint.isComplete(depositUri)) {
+                    alreadyComplete++;
+                    continue;
+                }
+
+                summary.discovered();
+                batch.add(depositUri);
+
+                if (batch.size() == BATCH_SIZE) {
+                    retry(batch, workers, permits, repositories, summary, checkpoint);
+                    batch.clear();
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                retry(batch, workers, permits, repositories, summary, checkpoint);
+            }
+
+            // Wait for the in-flight submissions to finish
+            permits.acquire(concurrency);
+        } finally {
+            workers.shutdownNow();
+            if (progress != null) {
+                progress.shutdownNow();
+            }
+            summary.finish();
+            lane.close();
+        }
+
+        if (alreadyComplete > 0) {
+            LOG.info(">>>> Skipped {} deposits already recorded in checkpoint {}", alreadyComplete,
+                    checkpoint.getFile());
+        }
+
+        LOG.info(">>>> Retry complete: {}", summary);
+        return summary;
+    }
+
+    /**
+     * Reads a batch of deposits, and hands each group of deposits belonging to the same {@code Submission} to a worker.
+     * Blocks until a worker is free: back-pressure rather than rejection.
+     */
+    private void retry(List<URI> batch, ExecutorService workers, Semaphore permits, Map<URI, Repository> repositories,
+                       OutcomeSummary<Outcome> summary, Checkpoint checkpoint) throws InterruptedException {
+        Map<URI, List<Deposit>> bySubmission = readDeposits(batch, workers, summary, checkpoint);
+
+        LOG.debug(">>>> Retrying {} deposits of {} submissions", batch.size(), bySubmission.size());
+
+        for (Map.Entry<URI, List<Deposit>> group : bySubmission.entrySet()) {
+            permits.acquire();
+            try {
+                workers.execute(() -> {
+                    try {
+                        retry(group.getKey(), group.getValue(), repositories, summary, checkpoint);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads the pending deposits in parallel, and groups them by their {@code Submission}, preserving the order of the
+     * supplied URIs.  A deposit that cannot be read is recorded as {@link Outcome#FAILED}.
+     */
+    private Map<URI, List<Deposit>> readDeposits(List<URI> pending, ExecutorService workers,
+                                                 OutcomeSummary<Outcome> summary, Checkpoint checkpoint)
+            throws InterruptedException {
+        List<CompletableFuture<Deposit>> reads = pending.stream()
+                .map(uri -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return passClient.readResource(uri, Deposit.class);
+                    } catch (Exception e) {
+                        LOG.warn(FAILED_TO_PROCESS, uri, e.getMessage(), e);
+                        complete(uri, Outcome.FAILED, summary, checkpoint);
+                        return null;
+                    }
+                }, workers))
+                .collect(Collectors.toList());
+
+        Map<URI, List<Deposit>> bySubmission = new LinkedHashMap<>();
+        for (int i = 0; i < reads.size(); i++) {
+            Deposit deposit;
+            try {
+                deposit = reads.get(i).get();
+            } catch (ExecutionException e) {
+                // not expected, the read catches its own exceptions
+                LOG.warn(FAILED_TO_PROCESS, pending.get(i), e.getMessage(), e);
+                complete(pending.get(i), Outcome.FAILED, summary, checkpoint);
+                continue;
+            }
+
+            if (deposit == null) {
+                continue;
+            }
+
+            if (deposit.getSubmission() == null) {
+                LOG.info(FAILED_TO_PROCESS, deposit.getId(), "Deposit has a 'null' Submission");
+                complete(deposit.getId(), Outcome.SKIPPED, summary, checkpoint);
+                continue;
+            }
+
+            bySubmission.computeIfAbsent(deposit.getSubmission(), s -> new ArrayList<>()).add(deposit);
+        }
+
+        return bySubmission;
+    }
+
+    /**
+     * Builds the {@code DepositSubmission} for {@code submissionUri} once, and retries each of its {@code deposits} in
+     * turn.
+     */
+    void retry(URI submissionUri, List<Deposit> deposits, Map<URI, Repository> repositories,
+               OutcomeSummary<Outcome> summary, Checkpoint checkpoint) {
+        Submission submission;
+        DepositSubmission depositSubmission;
+
+        try {
+            submission = passClient.readResource(submissionUri, Submission.class);
+            depositSubmission = submissionBuilder.build(submissionUri.toString());
+        } catch (InvalidModel e) {
+            deposits.forEach(deposit -> {
+                LOG.info(FAILED_TO_PROCESS, deposit.getId(), "Failed to build the DepositSubmission model", e);
+                complete(deposit.getId(), Outcome.SKIPPED, summary, checkpoint);
+            });
+            return;
+        } catch (Exception e) {
+            deposits.forEach(deposit -> {
+                LOG.warn(FAILED_TO_PROCESS, deposit.getId(), e.getMessage(), e);
+                complete(deposit.getId(), Outcome.FAILED, summary, checkpoint);
+            });
+            return;
+        }
+
+        if (depositSubmission.getFiles() == null || depositSubmission.getFiles().size() < 1) {
+            deposits.forEach(deposit -> {
+                LOG.info(FAILED_TO_PROCESS, deposit.getId(), "There are no files attached to the submission " +
+                        submissionUri);
+                complete(deposit.getId(), Outcome.SKIPPED, summary, checkpoint);
+            });
+            return;
+        }
+
+        // Each DepositFile must have a URI that links to its content
+        String filesMissingLocations = depositSubmission.getFiles().stream()
+                .filter(df -> df.getLocation() == null || df.getLocation().trim().length() == 0)
+                .map(DepositFile::getName)
+                .collect(Collectors.joining(", "));
+
+        if (filesMissingLocations.length() > 0) {
+            LOG.info(">>>> The following DepositFiles of {} are missing URIs referencing their binary content: {}",
+                    submissionUri, filesMissingLocations);
+        }
+
+        for (Deposit deposit : deposits) {
+            if (Thread.currentThread().isInterrupted()) {
+                // leave the remaining deposits out of the checkpoint, so they are retried on resume
+                LOG.warn(">>>> Interrupted while retrying the deposits of {}", submissionUri);
+                return;
+            }
+
+            complete(deposit.getId(), retry(submission, depositSubmission, deposit, repositories), summary,
+                    checkpoint);
+        }
+    }
+
+    /**
+     * Retries a single deposit.
+     */
+    private Outcome retry(Submission submission, DepositSubmission depositSubmission, Deposit deposit,
+                          Map<URI, Repository> repositories) {
+        try {
+            Repository repo = repositories.computeIfAbsent(deposit.getRepository(),
+                    uri -> passClient.readResource(uri, Repository.class));
+
+            Packager packager = packagerRegistry.get(repo.getName());
+            if (packager == null) {
+                LOG.info(MISSING_PACKAGER, submission.getId(), repo.getId(), deposit.getId(), repo.getName());
+                return Outcome.SKIPPED;
+            }
+
+            /*
+             * The Deposit must have a FAILED or null DepositStatus.  The failure to satisfy the pre-condition is *not*
+             * considered exceptional, and no action is taken on the Deposit if it fails.
+             */
+            CriticalResult<Deposit, Deposit> cr = cri.performCritical(deposit.getId(), Deposit.class,
+                    (criDeposit) -> {
+                        if (criDeposit.getDepositStatus() != FAILED && criDeposit.getDepositStatus() != null) {
+                            LOG.info(FAILED_TO_PROCESS, criDeposit.getId(), "Deposit status must equal 'null' or '" +
+                                    FAILED + "', but was '" + criDeposit.getDepositStatus() + "'");
+                            return false;
+                        }
+                        return true;
+                    },
+                    (criDeposit) -> true,
+                    idempotent((criDeposit) -> criDeposit));
+
+            if (!cr.success()) {
+                if (cr.throwable().isPresent()) {
+                    LOG.warn(FAILED_TO_PROCESS, deposit.getId(), cr.throwable().get().getMessage(),
+                            cr.throwable().get());
+                    return Outcome.FAILED;
+                }
+                return Outcome.SKIPPED;
+            }
+
+            depositTaskHelper.newDepositTask(submission, depositSubmission, repo, cr.resource().orElse(deposit),
+                    packager).run();
+
+            return Outcome.SUBMITTED;
+        } catch (Exception e) {
+            errorHandler.handleError(e);
+            return Outcome.FAILED;
+        }
+    }
+
+    private static void complete(URI depositUri, Outcome outcome, OutcomeSummary<Outcome> summary,
+                                 Checkpoint checkpoint) {
+        summary.record(outcome);
+        if (outcome != Outcome.FAILED) {
+            checkpoint.complete(depositUri);
+        }
+    }
+
+}
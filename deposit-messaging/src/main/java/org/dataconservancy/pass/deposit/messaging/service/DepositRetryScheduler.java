@@ -0,0 +1,287 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.DepositServiceErrorHandler;
+import org.dataconservancy.pass.deposit.messaging.DepositServiceRuntimeException;
+import org.dataconservancy.pass.deposit.messaging.support.CircuitOpenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+import org.swordapp.client.SWORDError;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Re-submits {@link DepositTask}s that failed for a transient reason to the deposit workers after a delay, so that a
+ * short outage of a remote repository (or of the deposit workers themselves) does not leave {@code Deposit}s {@code
+ * FAILED} until an operator retries them.
+ * <p>
+ * A failure is <em>transient</em> if its cause chain includes an {@code IOException} (e.g. a connect or read timeout),
+ * a {@code RejectedExecutionException} (the deposit workers were saturated), a {@code CircuitOpenException} (an
+ * endpoint is known to be failing), or a {@code SWORDError} with a {@code 5xx} status.  Any other failure is
+ * <em>permanent</em>, and is not retried.  A {@code DepositTask} only asks for a retry if none of its package was sent:
+ * a failure after some of it was sent, even a read timeout, may have been received by the remote repository, and is
+ * left for manual review rather than risk depositing the package twice.
+ * </p>
+ * <p>
+ * Each task is attempted at most {@code maxAttempts} times, including its first attempt.  Before each retry the task
+ * waits for a random interval (full jitter) bounded by an exponential back-off: {@code initialBackoffMs} doubling with
+ * each retry, up to {@code maxBackoffMs}.  At most {@code capacity} tasks may be waiting to be retried at once.  A task
+ * that may not be retried, because its failure is permanent, its attempts are exhausted, or there is no room to hold
+ * it, is handed to the {@link DepositServiceErrorHandler}, which marks the {@code Deposit} as {@code FAILED}.
+ * </p>
+ * <p>
+ * Tasks waiting to be retried are held in memory; should the process stop, they are recovered from the {@link
+ * org.dataconservancy.pass.deposit.messaging.support.DepositJournal deposit journal} when it restarts.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositRetryScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DepositRetryScheduler.class);
+
+    private final TaskExecutor taskExecutor;
+
+    private final DepositServiceErrorHandler errorHandler;
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMs;
+
+    private final long maxBackoffMs;
+
+    private final int capacity;
+
+    private final ScheduledExecutorService delayQueue;
+
+    private final DoubleSupplier random;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final AtomicLong scheduled = new AtomicLong();
+
+    private final AtomicLong permanent = new AtomicLong();
+
+    private final AtomicLong exhausted = new AtomicLong();
+
+    private final AtomicLong overflowed = new AtomicLong();
+
+    /**
+     * @param taskExecutor the deposit workers which retried tasks are submitted to
+     * @param errorHandler handles the failure of tasks that may not be retried
+     * @param maxAttempts the maximum number of attempts made for each task, including its first, must be positive
+     * @param initialBackoffMs the upper bound of the delay preceding the first retry, in milliseconds
+     * @param maxBackoffMs the upper bound of the delay preceding any retry, in milliseconds
+     * @param capacity the maximum number of tasks waiting to be retried, must be positive
+     */
+    public DepositRetryScheduler(TaskExecutor taskExecutor, DepositServiceErrorHandler errorHandler,
+                                 int maxAttempts, long initialBackoffMs, long maxBackoffMs, int capacity) {
+        this(taskExecutor, errorHandler, maxAttempts, initialBackoffMs, maxBackoffMs, capacity,
+                Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "deposit-retry-scheduler");
+                    t.setDaemon(true);
+                    return t;
+                }), () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    DepositRetryScheduler(TaskExecutor taskExecutor, DepositServiceErrorHandler errorHandler, int maxAttempts,
+                          long initialBackoffMs, long maxBackoffMs, int capacity, ScheduledExecutorService delayQueue,
+                          DoubleSupplier random) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Maximum attempts must be a positive integer, was: " + maxAttempts);
+        }
+        if (initialBackoffMs < 0 || maxBackoffMs < 0) {
+            throw new IllegalArgumentException("Back-off must not be negative, was: " + initialBackoffMs + ", " +
+                    maxBackoffMs);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be a positive integer, was: " + capacity);
+        }
+        this.taskExecutor = taskExecutor;
+        this.errorHandler = errorHandler;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.capacity = capacity;
+        this.delayQueue = delayQueue;
+        this.random = random;
+    }
+
+    /**
+     * Schedules {@code task} to be re-submitted to the deposit workers after a delay, if {@code failure} is transient,
+     * the attempts of the task are not exhausted, and there is room to hold it.
+     *
+     * @param task the task that failed
+     * @param failure the reason the task failed
+     * @return {@code true} if the task will be retried, {@code false} if the caller is responsible for its failure
+     */
+    public boolean schedule(DepositTask task, Throwable failure) {
+        String depositUri = String.valueOf(task.getDepositWorkerContext().deposit().getId());
+
+        if (!isTransient(failure)) {
+            permanent.incrementAndGet();
+            LOG.debug(">>>> Not retrying {}, failure is permanent: {}", depositUri, failure.getMessage());
+            return false;
+        }
+
+        int attempt = task.getAttempts();
+        if (attempt >= maxAttempts) {
+            exhausted.incrementAndGet();
+            LOG.warn(">>>> Not retrying {}, {} attempts are exhausted: {}", depositUri, attempt, failure.getMessage());
+            return false;
+        }
+
+        if (waiting.incrementAndGet() > capacity) {
+            waiting.decrementAndGet();
+            overflowed.incrementAndGet();
+            LOG.warn(">>>> Not retrying {}, {} deposits are already waiting to be retried: {}", depositUri, capacity,
+                    failure.getMessage());
+            return false;
+        }
+
+        long delayMs = backOff(attempt);
+        task.setAttempts(attempt + 1);
+        try {
+            delayQueue.schedule(() -> resubmit(task), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            waiting.decrementAndGet();
+            LOG.warn(">>>> Not retrying {}, the retry scheduler is closed", depositUri);
+            return false;
+        }
+
+        scheduled.incrementAndGet();
+        LOG.info(">>>> Retrying {} in {} ms (attempt {} of {}) after a transient failure: {}", depositUri, delayMs,
+                attempt + 1, maxAttempts, failure.getMessage());
+        return true;
+    }
+
+    /**
+     * Answers whether the cause chain of {@code failure} indicates a transient failure, which may succeed if retried.
+     * The failure is assumed to have occurred before any of the package was sent.
+     *
+     * @param failure the failure
+     * @return {@code true} if the failure is transient
+     */
+    public static boolean isTransient(Throwable failure) {
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Throwable t = failure; t != null && seen.add(t); t = t.getCause()) {
+            if (t instanceof IOException || t instanceof RejectedExecutionException ||
+                    t instanceof CircuitOpenException) {
+                return true;
+            }
+            if (t instanceof SWORDError && ((SWORDError) t).getStatus() >= 500) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of tasks waiting to be retried
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * @return the number of retries scheduled
+     */
+    public long getScheduled() {
+        return scheduled.get();
+    }
+
+    /**
+     * @return the number of failures not retried because they were permanent
+     */
+    public long getPermanent() {
+        return permanent.get();
+    }
+
+    /**
+     * @return the number of failures not retried because the attempts of the task were exhausted
+     */
+    public long getExhausted() {
+        return exhausted.get();
+    }
+
+    /**
+     * @return the number of failures not retried because too many tasks were waiting to be retried
+     */
+    public long getOverflowed() {
+        return overflowed.get();
+    }
+
+    /**
+     * Stops retrying tasks.  Tasks waiting to be retried are abandoned.
+     */
+    public void close() {
+        int abandoned = delayQueue.shutdownNow().size();
+        if (abandoned > 0) {
+            LOG.warn(">>>> Abandoned {} deposits waiting to be retried", abandoned);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DepositRetryScheduler{waiting=%s, scheduled=%s, permanent=%s, exhausted=%s, " +
+                "overflowed=%s}", waiting.get(), scheduled.get(), permanent.get(), exhausted.get(), overflowed.get());
+    }
+
+    /**
+     * Answers a random interval bounded by the exponential back-off preceding retry number {@code retry}.
+     */
+    private long backOff(int retry) {
+        if (initialBackoffMs == 0) {
+            return 0;
+        }
+        long bound = initialBackoffMs << Math.min(retry - 1, 30);
+        if (bound <= 0 || bound > maxBackoffMs) {
+            bound = maxBackoffMs;
+        }
+        return (long) (random.getAsDouble() * bound);
+    }
+
+    /**
+     * Submits a task whose delay has elapsed to the deposit workers.  Should the workers reject the task, their
+     * rejection handler may schedule it again.
+     */
+    private void resubmit(DepositTask task) {
+        waiting.decrementAndGet();
+        try {
+            taskExecutor.execute(task);
+        } catch (Exception e) {
+            if (!schedule(task, e)) {
+                errorHandler.handleError(new DepositServiceRuntimeException("Unable to retry " +
+                        task.getDepositWorkerContext().deposit().getId() + ": " + e.getMessage(), e,
+                        task.getDepositWorkerContext().deposit()));
+            }
+        }
+    }
+
+}
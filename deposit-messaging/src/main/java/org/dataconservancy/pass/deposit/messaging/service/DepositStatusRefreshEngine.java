@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.messaging.DepositServiceErrorHandler;
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter.Lane;
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter.Scope;
+import org.dataconservancy.pass.deposit.messaging.support.HostRateLimiter;
+import org.dataconservancy.pass.model.Deposit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.SUBMITTED;
+
+/**
+ * Refreshes the status of {@code SUBMITTED} {@link Deposit}s in parallel.
+ * <p>
+ * Each {@code Deposit} is read from the repository and handed to {@link DepositTaskHelper#processDepositStatus(Deposit)},
+ * which retrieves the deposit status reference from the remote repository and updates the {@code Deposit} and its
+ * {@code RepositoryCopy}.  Up to {@code concurrency} deposits are refreshed at once.  Retrieval of deposit status
+ * references is rate limited per remote host by a {@link HostRateLimiter}, so that increasing the concurrency does not
+ * overwhelm any one downstream repository.
+ * </p>
+ * <p>
+ * Progress is logged every {@code progressIntervalMs}, and the {@link OutcomeSummary outcome} of every {@code
+ * Deposit} is tallied and returned when the refresh completes.  A {@code Deposit} that is no longer {@code SUBMITTED}
+ * when it is read is skipped.  Errors are handed to the {@link DepositServiceErrorHandler}, and do not stop the refresh.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositStatusRefreshEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DepositStatusRefreshEngine.class);
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
+
+    /**
+     * The outcome of refreshing a single {@code Deposit}
+     */
+    public enum Outcome {
+
+        /**
+         * The remote repository accepted the deposit
+         */
+        ACCEPTED,
+
+        /**
+         * The remote repository rejected the deposit
+         */
+        REJECTED,
+
+        /**
+         * The deposit remains {@code SUBMITTED}; its terminal status is not yet known
+         */
+        UNCHANGED,
+
+        /**
+         * The deposit was not {@code SUBMITTED} when it was read, and was not refreshed
+         */
+        SKIPPED,
+
+        /**
+         * The deposit could not be refreshed
+         */
+        FAILED
+    }
+
+    private final PassClient passClient;
+
+    private final DepositTaskHelper depositTaskHelper;
+
+    private final DepositServiceErrorHandler errorHandler;
+
+    private final HostRateLimiter rateLimiter;
+
+    private final int concurrency;
+
+    private final long progressIntervalMs;
+
+    /**
+     * @param passClient used to read {@code Deposit} resources
+     * @param depositTaskHelper refreshes the status of a {@code Deposit}
+     * @param errorHandler handles errors encountered refreshing a {@code Deposit}
+     * @param rateLimiter limits the rate of requests for deposit status references, per host
+     * @param concurrency the number of {@code Deposit}s refreshed at once, must be positive
+     * @param progressIntervalMs the interval between progress reports, in milliseconds, or {@code <= 0} to disable
+     *                           progress reports
+     */
+    public DepositStatusRefreshEngine(PassClient passClient, DepositTaskHelper depositTaskHelper,
+                                      DepositServiceErrorHandler errorHandler, HostRateLimiter rateLimiter,
+                                      int concurrency, long progressIntervalMs) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be a positive integer, was: " + concurrency);
+        }
+        this.passClient = passClient;
+        this.depositTaskHelper = depositTaskHelper;
+        this.errorHandler = errorHandler;
+        this.rateLimiter = rateLimiter;
+        this.concurrency = concurrency;
+        this.progressIntervalMs = progressIntervalMs;
+    }
+
+    /**
+     * Refreshes the supplied deposits, blocking until every deposit has been refreshed.  The deposits are consumed
+     * lazily: no more than {@code concurrency} deposits are taken from {@code depositUris} ahead of the threads
+     * refreshing them, so {@code depositUris} may be backed by a paged search.
+     *
+     * @param depositUris the URIs of the deposits to refresh
+     * @return a summary of the outcome of the refresh
+     * @throws InterruptedException if interrupted while waiting for the refresh to complete
+     */
+    public OutcomeSummary<Outcome> refresh(Iterable<URI> depositUris) throws InterruptedException {
+        OutcomeSummary<Outcome> summary = new OutcomeSummary<>(Outcome.class);
+        Semaphore permits = new Semaphore(concurrency);
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(Lane.BATCH.wrap(r), "deposit-refresh-" + THREAD_COUNTER.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        ScheduledExecutorService progress = null;
+        if (progressIntervalMs > 0) {
+            progress = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "deposit-refresh-progress");
+                t.setDaemon(true);
+                return t;
+            });
+            progress.scheduleAtFixedRate(() -> LOG.info(">>>> Refresh progress: {}", summary), progressIntervalMs,
+                    progressIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        LOG.info(">>>> Refreshing deposits using {} threads", concurrency);
+
+        // requests of Fedora made by this thread and the workers are in the batch lane
+        Scope lane = Lane.BATCH.enter();
+
+        try {
+            for (URI depositUri : depositUris) {
+                summary.discovered();
+                // Blocks until a thread is free, so undiscovered deposits are not buffered
+                permits.acquire();
+                try {
+                    workers.execute(() -> {
+                        try {
+                            summary.record(refresh(depositUri));
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+
+            // Wait for the in-flight deposits to finish
+            permits.acquire(concurrency);
+        } finally {
+            workers.shutdownNow();
+            if (progress != null) {
+                progress.shutdownNow();
+            }
+            summary.finish();
+            lane.close();
+        }
+
+        LOG.info(">>>> Refresh complete: {}", summary);
+        return summary;
+    }
+
+    /**
+     * Refreshes a single deposit.
+     *
+     * @param depositUri the URI of the deposit
+     * @return the outcome
+     */
+    Outcome refresh(URI depositUri) {
+        try {
+            Deposit deposit = passClient.readResource(depositUri, Deposit.class);
+            if (deposit.getDepositStatus() != SUBMITTED) {
+                LOG.debug(">>>> Skipping {}: expected Deposit.DepositStatus = {}, but was '{}'", depositUri,
+                        SUBMITTED, deposit.getDepositStatus());
+                return Outcome.SKIPPED;
+            }
+
+            rateLimiter.acquire(HostRateLimiter.hostOf(deposit.getDepositStatusRef()));
+
+            Deposit.DepositStatus status = depositTaskHelper.processDepositStatus(deposit);
+            if (status == Deposit.DepositStatus.ACCEPTED) {
+                return Outcome.ACCEPTED;
+            }
+            if (status == Deposit.DepositStatus.REJECTED) {
+                return Outcome.REJECTED;
+            }
+            return Outcome.UNCHANGED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn(">>>> Interrupted while refreshing {}", depositUri);
+            return Outcome.FAILED;
+        } catch (Exception e) {
+            errorHandler.handleError(e);
+            return Outcome.FAILED;
+        }
+    }
+
+}
@@ -23,8 +23,13 @@ import org.dataconservancy.pass.deposit.messaging.DepositServiceRuntimeException
 import org.dataconservancy.pass.deposit.messaging.model.Packager;
 import org.dataconservancy.pass.deposit.messaging.policy.Policy;
 import org.dataconservancy.pass.deposit.messaging.service.DepositUtil.DepositWorkerContext;
+import org.dataconservancy.pass.deposit.messaging.support.BandwidthShaper;
+import org.dataconservancy.pass.deposit.messaging.support.CountingPackageStream;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.CriticalResult;
+import org.dataconservancy.pass.deposit.messaging.support.DepositJournal;
+import org.dataconservancy.pass.deposit.messaging.support.DepositJournal.Stage;
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter;
 import org.dataconservancy.pass.deposit.transport.sword2.Sword2DepositReceiptResponse;
 import org.dataconservancy.pass.model.Deposit;
 import org.dataconservancy.pass.model.RepositoryCopy;
@@ -36,6 +41,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.TimeoutException;
 
 import static java.lang.Integer.toHexString;
 import static java.lang.String.format;
@@ -83,6 +89,61 @@ public class DepositTask implements Runnable {
     // e.g. https://jscholarship.library.jhu.edu/swordv2
     private String replacementPrefix;
 
+    private DepositJournal journal;
+
+    private DepositRetryScheduler retryScheduler;
+
+    /**
+     * The number of times this task has been attempted, including the current attempt
+     */
+    private int attempts = 1;
+
+    /**
+     * Whether the package has been received by the remote repository, after which this task is never retried.  Set as
+     * soon as the transport reports success, before the {@code Deposit} is updated, so that a failure to update the
+     * {@code Deposit} does not cause the package to be sent again.
+     */
+    private boolean transported;
+
+    /**
+     * The package of the current attempt, counting the bytes read by the transport, or {@code null} if the transport
+     * has not been given one.  Once any of it has been read the package may have been received, so a failed attempt is
+     * not retried: e.g. a read timeout may occur while the remote repository is still ingesting the package.
+     */
+    private volatile CountingPackageStream sentPackage;
+
+    private DepositWatchdog watchdog;
+
+    /**
+     * The time allowed for each attempt of this task, in milliseconds, or {@code 0} for no limit
+     */
+    private long deadlineMs;
+
+    /**
+     * The watch kept over the current attempt of this task by the {@link #watchdog}, if any
+     */
+    private DepositWatchdog.Watch watch;
+
+    /**
+     * How long the current attempt of this task spent transporting its package, in nanoseconds, or {@code -1} if it
+     * has not transported one
+     */
+    private long transportNanos = -1;
+
+    /**
+     * Whether the current attempt of this task failed to transport its package
+     */
+    private boolean transportFailed;
+
+    private DepositCircuitBreakers circuitBreakers;
+
+    /**
+     * The lane in which this task makes requests of Fedora, whichever thread runs it
+     */
+    private FedoraRateLimiter.Lane lane = FedoraRateLimiter.Lane.LIVE;
+
+    private BandwidthShaper bandwidthShaper;
+
     public DepositTask(DepositWorkerContext dc,
                        PassClient passClient,
                        Policy<Deposit.DepositStatus> intermediateDepositStatusPolicy,
@@ -97,6 +158,64 @@ public class DepositTask implements Runnable {
 
     @Override
     public void run() {
+        transportNanos = -1;
+        transportFailed = false;
+        sentPackage = null;
+
+        // the task is deferred, rather than attempted, while an endpoint it depends on is failing
+        if (circuitBreakers != null && !circuitBreakers.admit(this)) {
+            return;
+        }
+
+        FedoraRateLimiter.Scope scope = lane.enter();
+        try {
+            attempt();
+        } finally {
+            scope.close();
+            if (circuitBreakers != null) {
+                circuitBreakers.complete(this);
+            }
+        }
+    }
+
+    private void attempt() {
+        journal(Stage.ASSEMBLING);
+        startWatch();
+        boolean retrying = false;
+        try {
+            deposit();
+        } catch (RuntimeException e) {
+            if (watch != null && watch.isCancelled()) {
+                // the deposit may have been received when its deadline passed, so it is not retried
+                throw timedOut(e);
+            }
+            // a package that may have been received is never re-sent; one none of which was sent may be
+            if (!transported && !packageSent()) {
+                if (retryScheduler != null && retryScheduler.schedule(this, e)) {
+                    retrying = true;
+                    return;
+                }
+            } else if (!transported) {
+                LOG.warn(">>>> Deposit {} failed after {} bytes of its package were sent, and its package may have " +
+                        "been received: it will not be retried, and its status must be determined manually: {}",
+                        dc.deposit().getId(), sentPackage.getBytes(), e.getMessage());
+            }
+            throw e;
+        } finally {
+            stopWatch();
+            journal(retrying ? Stage.ACCEPTED : Stage.DONE);
+        }
+    }
+
+    /**
+     * @return whether any of the package of the current attempt has been read by the transport
+     */
+    private boolean packageSent() {
+        CountingPackageStream sent = sentPackage;
+        return sent != null && sent.getBytes() > 0;
+    }
+
+    private void deposit() {
 
         LOG.debug(">>>> Running {}@{}", DepositTask.class.getSimpleName(), toHexString(identityHashCode(this)));
 
@@ -139,14 +258,33 @@ public class DepositTask implements Runnable {
                 (deposit) -> {
                     Packager packager = dc.packager();
                     PackageStream packageStream = packager.getAssembler().assemble(dc.depositSubmission());
+                    if (bandwidthShaper != null) {
+                        packageStream = bandwidthShaper.shape(packager.getName(), packageStream);
+                    }
+                    CountingPackageStream counted = new CountingPackageStream(packageStream);
+                    sentPackage = counted;
                     Map<String, String> packagerConfig = packager.getConfiguration();
+                    watchStage(DepositWatchdog.Stage.TRANSPORT);
+                    // from here on the package may be received, so the stage is forced to disk before it is sent
+                    journal(Stage.TRANSPORTING);
+                    syncJournal();
+                    long start = System.nanoTime();
+                    transportFailed = true;
                     try (TransportSession transport = packager.getTransport().open(packagerConfig)) {
-                        TransportResponse tr = transport.send(packageStream, packagerConfig);
+                        if (watch != null) {
+                            // closing the session closes its sockets, unblocking the worker and the package writer
+                            watch.onCancel(transport);
+                        }
+                        TransportResponse tr = transport.send(counted, packagerConfig);
+                        transportFailed = !tr.success();
+                        transported = !transportFailed;
                         deposit.setDepositStatus(SUBMITTED);
                         return tr;
                     } catch (Exception e) {
                         throw new RuntimeException("Error closing transport session for deposit " +
                                 dc.deposit().getId() + ": " + e.getMessage(), e);
+                    } finally {
+                        transportNanos = System.nanoTime() - start;
                     }
                 });
 
@@ -161,6 +299,15 @@ public class DepositTask implements Runnable {
                 throw new DepositServiceRuntimeException(msg, t, dc.deposit());
             }
 
+            // the transport may have failed, in which case its error is the cause
+            Throwable transportError = result.result().map(TransportResponse::error).orElse(null);
+            if (transportError != null) {
+                String msg = String.format("Failed to perform deposit for tuple [%s, %s, %s]: %s",
+                        dc.submission().getId(), dc.repository().getId(), dc.deposit().getId(),
+                        transportError.getMessage());
+                throw new DepositServiceRuntimeException(msg, transportError, dc.deposit());
+            }
+
             String msg = String.format("Failed to perform deposit for tuple [%s, %s, %s]",
                     dc.submission().getId(), dc.repository().getId(), dc.deposit().getId());
             throw new DepositServiceRuntimeException(msg, dc.deposit());
@@ -174,6 +321,8 @@ public class DepositTask implements Runnable {
                 new DepositServiceRuntimeException("Missing TransportResponse for " +
                         dc.deposit().getId(), dc.deposit()));
 
+        journal(Stage.TRANSPORTED);
+
         // Determine *logical* success: was the Deposit accepted by the remote system?
 
         // TODO: response handlers should be decoupled, this will require an update the the TransportResponse interface; e.g. is the response terminal, or should it be polled?
@@ -187,6 +336,8 @@ public class DepositTask implements Runnable {
             // If we don't have a Sword2DepositReceiptResponse, then there is nothing we can do to determine logical
             // success.  All we know is that the deposit has been submitted.
         } else {
+            watchStage(DepositWatchdog.Stage.STATUS);
+
             // Deposits for JScholarship are practically synchronous even though the API is asyc.
             // TODO: abstract out a configurable timer.
             // Sleep here for a bit, let DSpace do its thing, and then we ought to be able to parse a deposit status
@@ -197,6 +348,10 @@ public class DepositTask implements Runnable {
                 LOG.debug(">>>> DepositTask {}@{} interrupted!",
                         DepositTask.class.getSimpleName(), toHexString(identityHashCode(this)));
                 Thread.interrupted();
+                if (watch != null && watch.isCancelled()) {
+                    throw new DepositServiceRuntimeException("Interrupted while awaiting the status of " +
+                            dc.deposit().getId(), e, dc.deposit());
+                }
             }
 
             String statementUri = null;
@@ -237,11 +392,92 @@ public class DepositTask implements Runnable {
 
             // Determine the logical success or failure of the Deposit, and persist the Deposit and RepositoryCopy in
             // the Fedora repository
+            journal(Stage.AWAITING_STATUS);
             depositHelper.processDepositStatus(dc.submission(), dc.repository(), dc.repoCopy(), dc.deposit());
         }
 
     }
 
+    /**
+     * Starts watching this attempt of the task, if there is a watchdog and a deadline.
+     */
+    private void startWatch() {
+        watch = null;
+        if (watchdog == null || deadlineMs <= 0 || dc.deposit() == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + deadlineMs;
+        dc.deadline(deadline);
+        watch = watchdog.watch(dc.deposit().getId(), deadline);
+    }
+
+    /**
+     * Stops watching this attempt of the task.  Clears any interrupt delivered by the watchdog, so it is not seen by
+     * the next task run by this thread.
+     */
+    private void stopWatch() {
+        if (watch == null) {
+            return;
+        }
+        watch.close();
+        if (watch.isCancelled()) {
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Records the stage this attempt of the task has reached, failing the attempt if its deadline has already passed.
+     */
+    private void watchStage(DepositWatchdog.Stage stage) {
+        if (watch == null) {
+            return;
+        }
+        if (watch.isCancelled()) {
+            throw new DepositServiceRuntimeException("Deadline passed before " + stage + " of " +
+                    dc.deposit().getId(), dc.deposit());
+        }
+        watch.stage(stage);
+    }
+
+    private DepositServiceRuntimeException timedOut(RuntimeException cause) {
+        String msg = format("Deadline of %s ms for deposit %s passed during %s, deposit cancelled", deadlineMs,
+                dc.deposit().getId(), watch.getStage());
+        DepositServiceRuntimeException e = new DepositServiceRuntimeException(msg, new TimeoutException(msg),
+                dc.deposit());
+        e.addSuppressed(cause);
+        return e;
+    }
+
+    /**
+     * Records the progress of this task in the journal, if there is one.  A failure to record progress does not fail
+     * the deposit.
+     */
+    private void journal(Stage stage) {
+        if (journal == null || dc.deposit() == null || dc.deposit().getId() == null) {
+            return;
+        }
+        try {
+            journal.record(dc.deposit().getId(), stage);
+        } catch (Exception e) {
+            LOG.warn(">>>> Unable to record stage {} of {} in the journal: {}", stage, dc.deposit().getId(),
+                    e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Forces the records of the journal to disk, if there is one.  A failure to do so does not fail the deposit.
+     */
+    private void syncJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.sync();
+        } catch (Exception e) {
+            LOG.warn(">>>> Unable to sync the journal: {}", e.getMessage(), e);
+        }
+    }
+
     /**
      * Creates a new instance of a {@code RepositoryCopy}.  The initial state of the repository copy returned from this
      * method is:
@@ -297,6 +533,125 @@ public class DepositTask implements Runnable {
         return dc;
     }
 
+    public DepositJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @param journal records the progress of this task, may be {@code null}
+     */
+    public void setJournal(DepositJournal journal) {
+        this.journal = journal;
+    }
+
+    public DepositRetryScheduler getRetryScheduler() {
+        return retryScheduler;
+    }
+
+    /**
+     * @param retryScheduler retries this task should it fail for a transient reason before its package is
+     *                       transported, may be {@code null}
+     */
+    public void setRetryScheduler(DepositRetryScheduler retryScheduler) {
+        this.retryScheduler = retryScheduler;
+    }
+
+    /**
+     * @return how long the last attempt of this task spent transporting its package, in nanoseconds, or {@code -1} if
+     *         it did not transport one
+     */
+    public long getTransportNanos() {
+        return transportNanos;
+    }
+
+    /**
+     * @return the number of bytes of its package the transport read in the last attempt of this task
+     */
+    public long getTransportBytes() {
+        CountingPackageStream sent = sentPackage;
+        return (sent == null) ? 0 : sent.getBytes();
+    }
+
+    /**
+     * @return how long, in nanoseconds, the transport spent blocked reading the package in the last attempt of this
+     *         task, waiting for it to be assembled, or paced by the {@link BandwidthShaper}, rather than sending it
+     */
+    public long getPackageReadNanos() {
+        CountingPackageStream sent = sentPackage;
+        return (sent == null) ? 0 : sent.getReadNanos();
+    }
+
+    /**
+     * @return whether the last attempt of this task failed to transport its package
+     */
+    public boolean isTransportFailed() {
+        return transportFailed;
+    }
+
+    public DepositCircuitBreakers getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * @param circuitBreakers defers this task while an endpoint it depends on is failing, may be {@code null}
+     */
+    public void setCircuitBreakers(DepositCircuitBreakers circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    public FedoraRateLimiter.Lane getLane() {
+        return lane;
+    }
+
+    /**
+     * @param lane the lane in which this task makes requests of Fedora
+     */
+    public void setLane(FedoraRateLimiter.Lane lane) {
+        this.lane = lane;
+    }
+
+    public BandwidthShaper getBandwidthShaper() {
+        return bandwidthShaper;
+    }
+
+    /**
+     * @param bandwidthShaper limits the bandwidth consumed by the upload of the package, may be {@code null}
+     */
+    public void setBandwidthShaper(BandwidthShaper bandwidthShaper) {
+        this.bandwidthShaper = bandwidthShaper;
+    }
+
+    public DepositWatchdog getWatchdog() {
+        return watchdog;
+    }
+
+    /**
+     * @param watchdog cancels an attempt of this task that exceeds {@link #setDeadlineMs(long) its deadline}, may be
+     *                 {@code null}
+     */
+    public void setWatchdog(DepositWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    /**
+     * @param deadlineMs the time allowed for each attempt of this task, in milliseconds, or {@code 0} for no limit
+     */
+    public void setDeadlineMs(long deadlineMs) {
+        this.deadlineMs = deadlineMs;
+    }
+
+    int getAttempts() {
+        return attempts;
+    }
+
+    void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
     public long getSwordSleepTimeMs() {
         return swordSleepTimeMs;
     }
@@ -23,8 +23,12 @@ import org.dataconservancy.pass.deposit.messaging.model.Packager;
 import org.dataconservancy.pass.deposit.messaging.model.Registry;
 import org.dataconservancy.pass.deposit.messaging.policy.Policy;
 import org.dataconservancy.pass.deposit.messaging.service.DepositUtil.DepositWorkerContext;
+import org.dataconservancy.pass.deposit.messaging.support.BandwidthShaper;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.CriticalResult;
+import org.dataconservancy.pass.deposit.messaging.support.DepositJournal;
+import org.dataconservancy.pass.deposit.messaging.support.DepositJournal.Stage;
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter;
 import org.dataconservancy.pass.model.Deposit;
 import org.dataconservancy.pass.model.Repository;
 import org.dataconservancy.pass.model.RepositoryCopy;
@@ -92,6 +96,21 @@ public class DepositTaskHelper {
 
     private Registry<Packager> packagerRegistry;
 
+    private DepositJournal depositJournal;
+
+    private DepositRetryScheduler retryScheduler;
+
+    @Value("${pass.deposit.workers.deadline-ms}")
+    private long depositDeadlineMs;
+
+    private DepositWatchdog depositWatchdog;
+
+    private DepositConcurrencyLimiter concurrencyLimiter;
+
+    private DepositCircuitBreakers circuitBreakers;
+
+    private BandwidthShaper bandwidthShaper;
+
     @Autowired
     public DepositTaskHelper(PassClient passClient,
                              TaskExecutor taskExecutor,
@@ -116,6 +135,14 @@ public class DepositTaskHelper {
      * DepositServiceRuntimeException}, which will attempt to mark the {@code Deposit} as FAILED.
      * </p>
      * <p>
+     * Should the {@code DepositTask} fail for a transient reason, it is retried by the {@link DepositRetryScheduler},
+     * if there is one, and the {@code Deposit} is only marked as FAILED once its retries are exhausted.
+     * </p>
+     * <p>
+     * If there is a {@link DepositConcurrencyLimiter}, the {@code DepositTask} is submitted to it rather than to the
+     * {@code TaskExecutor}, and may be queued until the limit of its {@code Packager} permits it to run.
+     * </p>
+     * <p>
      * The {@code DepositTask} composed by this helper method will only accept {@code Deposit} resources with
      * <em>intermediate</em> state.
      * </p>
@@ -130,18 +157,20 @@ public class DepositTaskHelper {
     public void submitDeposit(Submission submission, DepositSubmission depositSubmission, Repository repo, Deposit deposit,
                        Packager packager) {
         try {
-            DepositWorkerContext dc = toDepositWorkerContext(
-                    deposit, submission, depositSubmission, repo, packager);
-            DepositTask depositTask = new DepositTask(dc, passClient, intermediateDepositStatusPolicy, cri, this);
-            depositTask.setSwordSleepTimeMs(swordDepositSleepTimeMs);
-            depositTask.setPrefixToMatch(statementUriPrefix);
-            depositTask.setReplacementPrefix(statementUriReplacement);
+            DepositTask depositTask = newDepositTask(submission, depositSubmission, repo, deposit, packager);
+            depositTask.setRetryScheduler(retryScheduler);
 
             LOG.debug(">>>> Submitting task ({}@{}) for tuple [{}, {}, {}]",
                     depositTask.getClass().getSimpleName(), toHexString(identityHashCode(depositTask)),
                     submission.getId(), repo.getId(), deposit.getId());
-            taskExecutor.execute(depositTask);
+            journal(deposit, Stage.ACCEPTED);
+            if (concurrencyLimiter != null) {
+                concurrencyLimiter.execute(depositTask);
+            } else {
+                taskExecutor.execute(depositTask);
+            }
         } catch (Exception e) {
+            journal(deposit, Stage.DONE);
             // For example, if the task isn't accepted by the taskExecutor
             String msg = format(FAILED_TO_PROCESS_DEPOSIT, submission.getId(), repo.getId(),
                     (deposit == null) ? "null" : deposit.getId(), e.getMessage());
@@ -149,14 +178,51 @@ public class DepositTaskHelper {
         }
     }
 
-    public void processDepositStatus(Deposit deposit) {
-       processDepositStatus(
+    /**
+     * Composes a {@link DepositTask} from the supplied arguments, without submitting it to the {@code TaskExecutor}.
+     * The caller is responsible for running the task.  The task makes requests of Fedora in the lane of the calling
+     * thread.
+     *
+     * @param submission the submission that the {@code deposit} belongs to
+     * @param depositSubmission the submission in the Deposit Services' model
+     * @param repo the {@code Repository} that is the target of the {@code Deposit}
+     * @param deposit the {@code Deposit} that is being submitted
+     * @param packager the Packager for the {@code repo}
+     * @return the task
+     */
+    DepositTask newDepositTask(Submission submission, DepositSubmission depositSubmission, Repository repo,
+                               Deposit deposit, Packager packager) {
+        DepositWorkerContext dc = toDepositWorkerContext(deposit, submission, depositSubmission, repo, packager);
+        DepositTask depositTask = new DepositTask(dc, passClient, intermediateDepositStatusPolicy, cri, this);
+        depositTask.setSwordSleepTimeMs(swordDepositSleepTimeMs);
+        depositTask.setPrefixToMatch(statementUriPrefix);
+        depositTask.setReplacementPrefix(statementUriReplacement);
+        depositTask.setJournal(depositJournal);
+        depositTask.setWatchdog(depositWatchdog);
+        depositTask.setDeadlineMs(depositDeadlineMs);
+        depositTask.setCircuitBreakers(circuitBreakers);
+        depositTask.setLane(FedoraRateLimiter.Lane.current());
+        depositTask.setBandwidthShaper(bandwidthShaper);
+        return depositTask;
+    }
+
+    /**
+     * Resolves the {@code Submission}, {@code Repository}, and {@code RepositoryCopy} of the supplied {@code Deposit},
+     * and updates the status of the {@code Deposit} from its deposit status reference.
+     *
+     * @param deposit a {@code Deposit} in the {@code SUBMITTED} state
+     * @return the status of the {@code Deposit} after it has been updated
+     * @throws DepositServiceRuntimeException if the {@code Deposit} could not be updated
+     */
+    public Deposit.DepositStatus processDepositStatus(Deposit deposit) {
+       return processDepositStatus(
                 passClient.readResource(deposit.getSubmission(), Submission.class),
                 passClient.readResource(deposit.getRepository(), Repository.class),
                 passClient.readResource(deposit.getRepositoryCopy(), RepositoryCopy.class), deposit);
     }
 
-    void processDepositStatus(Submission submission, Repository repo, RepositoryCopy repoCopy, Deposit deposit) {
+    Deposit.DepositStatus processDepositStatus(Submission submission, Repository repo, RepositoryCopy repoCopy,
+                                               Deposit deposit) {
 
         // Subtle issue to be aware of:
         //
@@ -170,7 +236,7 @@ public class DepositTaskHelper {
         // the CRI, the field is copied in the "critical update" lambda below.  This insures if a conflict arises,
         // the ConflictHandler will retry the critical update, including the copy of the depositStatusRef.
 
-        CriticalResult<RepositoryCopy, Deposit> cr = cri.performCritical(deposit.getId(), Deposit.class,
+        CriticalResult<RepositoryCopy, Deposit> cr = cri.performCriticalUnitOfWork(deposit.getId(), Deposit.class,
 
                 /*
                  * Preconditions:
@@ -271,7 +337,7 @@ public class DepositTaskHelper {
                     return true;
                 },
 
-                (criDeposit) -> {
+                (criDeposit, work) -> {
                     Deposit.DepositStatus status;
 
                     criDeposit.setDepositStatusRef(deposit.getDepositStatusRef());
@@ -315,11 +381,11 @@ public class DepositTaskHelper {
 
                     try {
                         // If the repoCopy passed into this method doesn't exist in the repository, create it.
-                        // Otherwise update it.
+                        // Otherwise update it.  The Deposit is updated in the same unit of work.
                         if (repoCopy.getId() == null) {
-                            criRepoCopy = passClient.createAndReadResource(repoCopy, RepositoryCopy.class);
+                            criRepoCopy = work.create(repoCopy, RepositoryCopy.class);
                         } else {
-                            criRepoCopy = passClient.updateAndReadResource(repoCopy, RepositoryCopy.class);
+                            criRepoCopy = work.update(repoCopy, RepositoryCopy.class);
                         }
 
                         // Insure the Deposit resource carries the URI of the repository copy.
@@ -343,6 +409,90 @@ public class DepositTaskHelper {
 
             throw new DepositServiceRuntimeException(msg, deposit);
         }
+
+        return cr.resource().map(Deposit::getDepositStatus).orElse(null);
+    }
+
+    DepositJournal getDepositJournal() {
+        return depositJournal;
+    }
+
+    /**
+     * @param depositJournal records the progress of each deposit submitted by this helper, may be {@code null}
+     */
+    @Autowired(required = false)
+    void setDepositJournal(DepositJournal depositJournal) {
+        this.depositJournal = depositJournal;
+    }
+
+    DepositRetryScheduler getRetryScheduler() {
+        return retryScheduler;
+    }
+
+    /**
+     * @param retryScheduler retries deposits submitted by this helper that fail for a transient reason, may be {@code
+     *                       null}
+     */
+    @Autowired(required = false)
+    void setRetryScheduler(DepositRetryScheduler retryScheduler) {
+        this.retryScheduler = retryScheduler;
+    }
+
+    DepositWatchdog getDepositWatchdog() {
+        return depositWatchdog;
+    }
+
+    /**
+     * @param depositWatchdog cancels deposits that exceed their deadline, may be {@code null}
+     */
+    @Autowired(required = false)
+    void setDepositWatchdog(DepositWatchdog depositWatchdog) {
+        this.depositWatchdog = depositWatchdog;
+    }
+
+    DepositConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * @param concurrencyLimiter limits the number of deposits running at once for each {@code Packager}, may be {@code
+     *                           null}
+     */
+    @Autowired(required = false)
+    void setConcurrencyLimiter(DepositConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    DepositCircuitBreakers getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * @param circuitBreakers defers deposits while an endpoint they depend on is failing, may be {@code null}
+     */
+    @Autowired(required = false)
+    void setCircuitBreakers(DepositCircuitBreakers circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    BandwidthShaper getBandwidthShaper() {
+        return bandwidthShaper;
+    }
+
+    /**
+     * @param bandwidthShaper limits the bandwidth consumed by the upload of packages, may be {@code null}
+     */
+    @Autowired(required = false)
+    void setBandwidthShaper(BandwidthShaper bandwidthShaper) {
+        this.bandwidthShaper = bandwidthShaper;
+    }
+
+    long getDepositDeadlineMs() {
+        return depositDeadlineMs;
+    }
+
+    void setDepositDeadlineMs(long depositDeadlineMs) {
+        this.depositDeadlineMs = depositDeadlineMs;
     }
 
     String getStatementUriPrefix() {
@@ -361,6 +511,18 @@ public class DepositTaskHelper {
         this.statementUriReplacement = statementUriReplacement;
     }
 
+    private void journal(Deposit deposit, Stage stage) {
+        if (depositJournal == null || deposit == null || deposit.getId() == null) {
+            return;
+        }
+        try {
+            depositJournal.record(deposit.getId(), stage);
+        } catch (Exception e) {
+            LOG.warn(">>>> Unable to record stage {} of {} in the journal: {}", stage, deposit.getId(),
+                    e.getMessage(), e);
+        }
+    }
+
     private static boolean verifyNullityAndLinks(Submission s, Repository r, RepositoryCopy rc, Deposit d) {
         if (d.getDepositStatus() != SUBMITTED) {
             LOG.warn(PRECONDITION_FAILED + " expected DepositStatus = '{}', but was '{}'",
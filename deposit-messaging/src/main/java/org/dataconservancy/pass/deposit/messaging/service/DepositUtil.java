@@ -23,6 +23,7 @@ import org.dataconservancy.pass.deposit.messaging.status.DepositStatusEvaluator;
 import org.dataconservancy.pass.deposit.messaging.status.SubmissionStatusEvaluator;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.CriticalResult;
+import org.dataconservancy.pass.deposit.messaging.support.MessagePayload;
 import org.dataconservancy.pass.model.Deposit;
 import org.dataconservancy.pass.model.Repository;
 import org.dataconservancy.pass.model.RepositoryCopy;
@@ -40,6 +41,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.stream.Stream;
 
 import static java.time.Instant.ofEpochMilli;
+import static org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.idempotent;
 import static org.dataconservancy.pass.model.Submission.AggregatedDepositStatus.FAILED;
 
 /**
@@ -224,10 +226,10 @@ public class DepositUtil {
         CriticalResult<Submission, Submission> updateResult = cri.performCritical(submissionUri, Submission.class,
                 (submission) -> !TERMINAL_SUBMISSION_STATUS_POLICY.accept(submission.getAggregatedDepositStatus()),
                 (submission) -> submission.getAggregatedDepositStatus() == FAILED,
-                (submission) -> {
+                idempotent((submission) -> {
                     submission.setAggregatedDepositStatus(FAILED);
                     return submission;
-                });
+                }));
 
         if (!updateResult.success()) {
             LOG.info("Updating status of {} to {} failed: {}", submissionUri, FAILED, updateResult.throwable()
@@ -255,10 +257,10 @@ public class DepositUtil {
         CriticalResult<Deposit, Deposit> updateResult = cri.performCritical(depositUri, Deposit.class,
                 (deposit) -> !TERMINAL_DEPOSIT_STATUS_POLICY.accept(deposit.getDepositStatus()),
                 (deposit) -> deposit.getDepositStatus() == Deposit.DepositStatus.FAILED,
-                (deposit) -> {
+                idempotent((deposit) -> {
                     deposit.setDepositStatus(Deposit.DepositStatus.FAILED);
                     return deposit;
-                });
+                }));
 
         if (!updateResult.success()) {
             LOG.info("Updating status of {} to {} failed: {}", depositUri, Deposit.DepositStatus.FAILED,
@@ -285,6 +287,7 @@ public class DepositUtil {
         private Session session;
         private Message<String> message;
         private javax.jms.Message jmsMessage;
+        private volatile MessagePayload payload;
 
         /**
          * The type of the resource in Fedora, comma-delimited multi-value
@@ -366,6 +369,21 @@ public class DepositUtil {
         public javax.jms.Message jmsMessage() {
             return jmsMessage;
         }
+
+        /**
+         * The well-known values of the message body, parsed on first use and shared by all subsequent callers
+         *
+         * @return the parsed message body
+         * @throws RuntimeException if the message body cannot be parsed
+         */
+        public MessagePayload payload() {
+            MessagePayload result = payload;
+            if (result == null) {
+                result = MessagePayload.parse(message.getPayload());
+                payload = result;
+            }
+            return result;
+        }
     }
 
     /**
@@ -379,6 +397,7 @@ public class DepositUtil {
         private Packager packager;
         private RepositoryCopy repoCopy;
         private String statusUri;
+        private long deadline;
 
         /**
          * the {@code Deposit} itself
@@ -454,6 +473,20 @@ public class DepositUtil {
             this.statusUri = statusUri;
         }
 
+        /**
+         * the time, in milliseconds since the epoch, by which the current attempt of the deposit must complete, or
+         * {@code 0} if there is no deadline
+         *
+         * @return
+         */
+        public long deadline() {
+            return deadline;
+        }
+
+        public void deadline(long deadline) {
+            this.deadline = deadline;
+        }
+
         @Override
         public String toString() {
             return "DepositWorkerContext{" +
@@ -464,6 +497,7 @@ public class DepositUtil {
                     ", packager=" + packager +
                     ", repoCopy=" + repoCopy +
                     ", statusUri='" + statusUri + '\'' +
+                    ", deadline=" + deadline +
                     '}';
         }
     }
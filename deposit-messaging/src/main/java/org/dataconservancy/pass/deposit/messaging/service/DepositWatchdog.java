@@ -0,0 +1,294 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Enforces the deadline of each {@link DepositTask}, so that a deposit that hangs (e.g. on an endpoint that accepts a
+ * connection but never replies, or on a package that nobody reads) cannot hold a deposit worker forever.
+ * <p>
+ * A task {@link #watch(URI, long) is watched} while it runs, recording the {@link Stage} it has reached, and the
+ * resources that must be closed to cancel it (e.g. its {@code TransportSession}).  Every {@code checkIntervalMs}, the
+ * watches whose deadline has passed are cancelled: the resources registered with the watch are closed (closing the
+ * sockets of the transport, which in turn closes the package stream and interrupts the thread writing the package),
+ * and the thread running the task is interrupted, freeing it for another deposit.  A task determines whether it has
+ * been cancelled from {@link Watch#isCancelled()}.
+ * </p>
+ * <p>
+ * The number of deposits cancelled in each stage is counted.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositWatchdog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DepositWatchdog.class);
+
+    /**
+     * The stages of a deposit that may time out
+     */
+    public enum Stage {
+
+        /**
+         * The package is being assembled
+         */
+        ASSEMBLY,
+
+        /**
+         * The package is being streamed to the remote repository
+         */
+        TRANSPORT,
+
+        /**
+         * The status of the deposit is being determined
+         */
+        STATUS
+    }
+
+    private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+
+    private final Map<Stage, AtomicLong> timeouts = new EnumMap<>(Stage.class);
+
+    private final LongSupplier clock;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param checkIntervalMs how often deadlines are checked, in milliseconds, must be positive
+     */
+    public DepositWatchdog(long checkIntervalMs) {
+        this(System::currentTimeMillis);
+        if (checkIntervalMs < 1) {
+            throw new IllegalArgumentException("Check interval must be a positive integer, was: " + checkIntervalMs);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "deposit-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a watchdog that checks deadlines only when {@link #check()} is invoked.
+     *
+     * @param clock supplies the current time, in milliseconds since the epoch
+     */
+    DepositWatchdog(LongSupplier clock) {
+        this.clock = clock;
+        for (Stage stage : Stage.values()) {
+            timeouts.put(stage, new AtomicLong());
+        }
+    }
+
+    /**
+     * Watches the calling thread while it performs the deposit {@code depositUri}, cancelling it if it is still being
+     * watched at {@code deadline}.  The caller must {@link Watch#close() close} the watch when the deposit completes.
+     *
+     * @param depositUri the URI of the {@code Deposit}
+     * @param deadline the time, in milliseconds since the epoch, by which the deposit must complete
+     * @return the watch
+     */
+    public Watch watch(URI depositUri, long deadline) {
+        Watch watch = new Watch(depositUri, deadline, Thread.currentThread());
+        watches.add(watch);
+        return watch;
+    }
+
+    /**
+     * Cancels the watches whose deadline has passed.
+     */
+    void check() {
+        long now = clock.getAsLong();
+        for (Watch watch : watches) {
+            if (now >= watch.deadline) {
+                try {
+                    watch.cancel();
+                } catch (Exception e) {
+                    LOG.warn(">>>> Error cancelling deposit {}: {}", watch.depositUri, e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param stage the stage
+     * @return the number of deposits cancelled in {@code stage}
+     */
+    public long getTimeouts(Stage stage) {
+        return timeouts.get(stage).get();
+    }
+
+    /**
+     * @return the number of deposits cancelled in each stage
+     */
+    public Map<Stage, Long> getTimeouts() {
+        Map<Stage, Long> result = new EnumMap<>(Stage.class);
+        timeouts.forEach((stage, count) -> result.put(stage, count.get()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return the number of deposits being watched
+     */
+    public int getWatched() {
+        return watches.size();
+    }
+
+    /**
+     * Stops checking deadlines.
+     */
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DepositWatchdog{watched=" + watches.size() + ", timeouts=" + getTimeouts() + '}';
+    }
+
+    /**
+     * The watch kept over a single attempt of a deposit.
+     */
+    public class Watch implements AutoCloseable {
+
+        private final URI depositUri;
+
+        private final long deadline;
+
+        private final Thread worker;
+
+        private final List<AutoCloseable> cancellables = new ArrayList<>();
+
+        private volatile Stage stage = Stage.ASSEMBLY;
+
+        private volatile boolean cancelled;
+
+        private boolean closed;
+
+        private Watch(URI depositUri, long deadline, Thread worker) {
+            this.depositUri = depositUri;
+            this.deadline = deadline;
+            this.worker = worker;
+        }
+
+        /**
+         * Records the stage the deposit has reached.
+         *
+         * @param stage the stage
+         */
+        public void stage(Stage stage) {
+            this.stage = stage;
+        }
+
+        /**
+         * @return the stage the deposit has reached
+         */
+        public Stage getStage() {
+            return stage;
+        }
+
+        /**
+         * Registers a resource to be closed should the deposit be cancelled.  If the deposit has already been
+         * cancelled, the resource is closed immediately.
+         *
+         * @param cancellable the resource
+         */
+        public void onCancel(AutoCloseable cancellable) {
+            synchronized (this) {
+                if (!cancelled) {
+                    cancellables.add(cancellable);
+                    return;
+                }
+            }
+            closeQuietly(cancellable);
+        }
+
+        /**
+         * @return {@code true} if the deadline of the deposit passed, and it was cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return the time, in milliseconds since the epoch, by which the deposit must complete
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Stops watching the deposit.  Once closed, the thread that performed the deposit is never interrupted by this
+         * watch.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                closed = true;
+                cancellables.clear();
+            }
+            watches.remove(this);
+        }
+
+        private void cancel() {
+            List<AutoCloseable> toClose;
+            synchronized (this) {
+                if (closed || cancelled) {
+                    return;
+                }
+                cancelled = true;
+                toClose = new ArrayList<>(cancellables);
+                cancellables.clear();
+                watches.remove(this);
+                timeouts.get(stage).incrementAndGet();
+                // interrupt while holding the monitor, so a watch that has been closed never interrupts its worker
+                worker.interrupt();
+            }
+
+            LOG.warn(">>>> Deadline of deposit {} passed during {}, cancelling it", depositUri, stage);
+            toClose.forEach(this::closeQuietly);
+        }
+
+        private void closeQuietly(AutoCloseable cancellable) {
+            try {
+                cancellable.close();
+            } catch (Exception e) {
+                LOG.debug(">>>> Error closing {} while cancelling deposit {}: {}", cancellable, depositUri,
+                        e.getMessage(), e);
+            }
+        }
+    }
+
+}
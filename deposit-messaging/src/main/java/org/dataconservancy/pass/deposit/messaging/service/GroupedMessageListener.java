@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.support.Constants;
+import org.dataconservancy.pass.deposit.messaging.support.Constants.JmsDepositHeader;
+import org.dataconservancy.pass.deposit.messaging.support.Constants.JmsDepositOrigin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jms.annotation.JmsListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.stereotype.Component;
+
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+/**
+ * Processes the messages routed to the grouped queue by the {@link MessageGroupRouter}, handing each to the processor
+ * of the queue it was originally received from.  The original {@code JMSMessageID} and {@code JMSTimestamp} of the
+ * message are supplied to the processor in place of those of the routed message.
+ * <p>
+ * Listens only when the {@code groupedListenerContainerFactory} is started, i.e. when scale-out mode is enabled.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+@Component
+public class GroupedMessageListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GroupedMessageListener.class);
+
+    private JmsSubmissionProcessor submissionProcessor;
+
+    private JmsDepositProcessor depositProcessor;
+
+    @Autowired
+    public GroupedMessageListener(JmsSubmissionProcessor submissionProcessor, JmsDepositProcessor depositProcessor) {
+        this.submissionProcessor = submissionProcessor;
+        this.depositProcessor = depositProcessor;
+    }
+
+    @JmsListener(destination = "${pass.deposit.queue.grouped.name}",
+            containerFactory = "groupedListenerContainerFactory")
+    public void processMessage(@Header(Constants.JmsFcrepoHeader.FCREPO_RESOURCE_TYPE) String resourceType,
+                               @Header(Constants.JmsFcrepoHeader.FCREPO_EVENT_TYPE) String eventType,
+                               @Header(JmsDepositHeader.ORIGIN) String origin,
+                               @Header(JmsDepositHeader.ORIGINAL_TIMESTAMP) long timeStamp,
+                               @Header(JmsDepositHeader.ORIGINAL_MESSAGE_ID) String id,
+                               Session session,
+                               Message<String> message,
+                               javax.jms.Message jmsMessage) throws JMSException {
+
+        switch (origin) {
+            case JmsDepositOrigin.SUBMISSION:
+                submissionProcessor.processMessage(resourceType, eventType, timeStamp, id, session, message,
+                        jmsMessage);
+                break;
+            case JmsDepositOrigin.DEPOSIT:
+                depositProcessor.processMessage(resourceType, eventType, timeStamp, id, session, message,
+                        jmsMessage);
+                break;
+            default:
+                LOG.warn(">>>> Dropping message {} routed from unknown origin '{}'", id, origin);
+                jmsMessage.acknowledge();
+        }
+    }
+
+}
@@ -16,14 +16,15 @@
 
 package org.dataconservancy.pass.deposit.messaging.service;
 
-import com.fasterxml.jackson.databind.exc.InvalidTypeIdException;
 import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.builder.fs.IncomingLinkResolver;
 import org.dataconservancy.pass.deposit.messaging.policy.JmsMessagePolicy;
 import org.dataconservancy.pass.deposit.messaging.policy.Policy;
 import org.dataconservancy.pass.deposit.messaging.support.Constants;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
-import org.dataconservancy.pass.deposit.messaging.support.JsonParser;
+import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.CriticalResult;
 import org.dataconservancy.pass.model.Deposit;
+import org.dataconservancy.pass.model.File;
 import org.dataconservancy.pass.model.Submission;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,11 +38,8 @@ import org.springframework.stereotype.Component;
 
 import javax.jms.Session;
 import java.net.URI;
-import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Objects;
-import java.util.stream.Collectors;
 
 import static org.dataconservancy.pass.deposit.messaging.service.DepositUtil.ackMessage;
 import static org.dataconservancy.pass.deposit.messaging.service.DepositUtil.toMessageContext;
@@ -58,23 +56,30 @@ public class JmsDepositProcessor {
 
     private Policy<Submission.AggregatedDepositStatus> terminalSubmissionStatusPolicy;
 
-    private JsonParser jsonParser;
-
     private CriticalRepositoryInteraction critical;
 
     private PassClient passClient;
 
+    private AggregatedStatusTracker statusTracker;
+
+    private TerminalResourceCache terminalResourceCache;
+
+    private IncomingLinkResolver incomingLinkResolver;
+
     @Autowired
     public JmsDepositProcessor(@Qualifier("depositMessagePolicy") JmsMessagePolicy messagePolicy,
                                Policy<Deposit.DepositStatus> terminalDepositStatusPolicy,
                                Policy<Submission.AggregatedDepositStatus> terminalSubmissionStatusPolicy,
-                               JsonParser jsonParser, CriticalRepositoryInteraction critical, PassClient passClient) {
+                               CriticalRepositoryInteraction critical, PassClient passClient,
+                               AggregatedStatusTracker statusTracker, TerminalResourceCache terminalResourceCache) {
         this.messagePolicy = messagePolicy;
         this.terminalDepositStatusPolicy = terminalDepositStatusPolicy;
         this.terminalSubmissionStatusPolicy  = terminalSubmissionStatusPolicy;
-        this.jsonParser = jsonParser;
         this.critical = critical;
         this.passClient = passClient;
+        this.statusTracker = statusTracker;
+        this.terminalResourceCache = terminalResourceCache;
+        this.incomingLinkResolver = new IncomingLinkResolver(passClient);
     }
 
     @JmsListener(destination = "${pass.deposit.queue.deposit.name}")
@@ -98,17 +103,29 @@ public class JmsDepositProcessor {
         }
 
         // Parse the identity of the Deposit and Submission from the message
+        Deposit deposit;
         URI submissionUri;
         try {
-            byte[] payload = mc.message().getPayload().getBytes(Charset.forName("UTF-8"));
-            URI depositUri = URI.create(jsonParser.parseId(payload));
+            URI depositUri = URI.create(mc.payload().id());
+
+            // The Deposit and its Submission are known to be terminal, there's nothing left to do
+            if (terminalResourceCache.isTerminal(depositUri)) {
+                return;
+            }
+
+            deposit = passClient.readResource(depositUri, Deposit.class);
 
             // If the status of the incoming Deposit is not terminal, then there's no point in continuing.
             // *All* Deposit resources for a Submission must be terminal before proceeding
-            if (! terminalDepositStatusPolicy.accept(passClient.readResource(depositUri, Deposit.class).getDepositStatus())) {
+            if (! terminalDepositStatusPolicy.accept(deposit.getDepositStatus())) {
+                return;
+            }
+            submissionUri = deposit.getSubmission();
+
+            // The aggregated deposit status of the Submission has already been decided
+            if (terminalResourceCache.isTerminal(submissionUri)) {
                 return;
             }
-            submissionUri = passClient.readResource(depositUri, Deposit.class).getSubmission();
         } catch (Exception e) {
             LOG.error("Error parsing deposit URI from message: {}", e.getMessage(), e);
             return;
@@ -117,7 +134,7 @@ public class JmsDepositProcessor {
         }
 
         // obtain a critical over the submission
-        critical.performCritical(submissionUri, Submission.class,
+        CriticalResult<Submission, Submission> cr = critical.performCritical(submissionUri, Submission.class,
 
                 /*
                  * The Submission must not be in a terminal state in order for us to update its status
@@ -130,31 +147,25 @@ public class JmsDepositProcessor {
                 (submission) -> true,
 
                 /*
-                 * Update the status of the Submission only if all of its Deposits are in a terminal state
+                 * Update the status of the Submission only if all of its Deposits are in a terminal state.  The
+                 * statuses of the Submission's Deposits are tracked incrementally: the Deposits are only read when
+                 * the Submission is first seen, and again before the Submission is finalized, in case a Deposit was
+                 * created after the Submission was first seen.
                  */
                 (submission) -> {
-                    Collection<Deposit> deposits = passClient.getIncoming(submission.getId())
-                        .getOrDefault("submission", Collections.emptySet()).stream()
-                        .map((uri) -> {
-                            try {
-                                return passClient.readResource(uri, Deposit.class);
-                            } catch (RuntimeException e) {
-                                // ignore exceptions whose cause is related to type coercion of JSON objects
-                                if (!(e.getCause() instanceof InvalidTypeIdException)) {
-                                    throw e;
-                                }
-
-                                return null;
-                            }
-                        })
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toList());
+                    AggregatedStatusTracker.Counts counts = statusTracker.update(submission.getId(), deposit,
+                            () -> readDeposits(submission.getId()));
+
+                    if (counts.allTerminal() && !counts.isSeeded()) {
+                        counts = statusTracker.reseed(submission.getId(), readDeposits(submission.getId()));
+                    }
+
+                    LOG.trace(">>>> Deposit status counts for {}: {}", submission.getId(), counts);
 
                     // If all the statuses are terminal, then we can update the aggregated deposit status of
                     // the submission
-                    if (deposits.stream().allMatch((deposit) ->
-                            terminalDepositStatusPolicy.accept(deposit.getDepositStatus()))) {
-                        if (deposits.stream().allMatch((deposit) -> deposit.getDepositStatus() == ACCEPTED)) {
+                    if (counts.allTerminal()) {
+                        if (counts.allAccepted()) {
                             submission.setAggregatedDepositStatus(Submission.AggregatedDepositStatus.ACCEPTED);
                             LOG.trace(">>>> Updating {} aggregated deposit status to {}", submission.getId(), ACCEPTED);
                         } else {
@@ -167,5 +178,20 @@ public class JmsDepositProcessor {
                 return submission;
         });
 
+        // Terminal submissions will not be updated again
+        cr.resource()
+                .filter(submission -> terminalResourceCache.record(deposit.getId(), submission))
+                .ifPresent(submission -> statusTracker.forget(submission.getId()));
+    }
+
+    /**
+     * Reads all of the {@code Deposit}s that link to the {@code Submission}.
+     *
+     * @param submissionUri the {@code Submission}
+     * @return its {@code Deposit}s
+     */
+    private Collection<Deposit> readDeposits(URI submissionUri) {
+        return incomingLinkResolver.readIncoming(submissionUri, "submission", Deposit.class,
+                Collections.singleton(File.class));
     }
 }
@@ -26,6 +26,7 @@ import org.dataconservancy.pass.deposit.messaging.policy.SubmissionPolicy;
 import org.dataconservancy.pass.deposit.messaging.status.DepositStatusMapper;
 import org.dataconservancy.pass.deposit.messaging.status.DepositStatusParser;
 import org.dataconservancy.pass.deposit.messaging.status.SwordDspaceDepositStatus;
+import org.dataconservancy.pass.deposit.messaging.support.Coalescer;
 import org.dataconservancy.pass.deposit.messaging.support.Constants;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
 import org.dataconservancy.pass.deposit.messaging.support.JsonParser;
@@ -41,7 +42,7 @@ import org.springframework.stereotype.Component;
 
 import javax.jms.Session;
 import java.net.URI;
-import java.nio.charset.Charset;
+import java.util.List;
 
 import static org.dataconservancy.pass.deposit.messaging.service.DepositUtil.ackMessage;
 import static org.dataconservancy.pass.deposit.messaging.service.DepositUtil.toMessageContext;
@@ -56,6 +57,9 @@ public class JmsSubmissionProcessor extends SubmissionProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(JmsSubmissionProcessor.class);
 
+    private Coalescer<URI, DepositUtil.MessageContext> submissionMessageCoalescer;
+
+    private TerminalResourceCache terminalResourceCache;
 
     /**
      * Processes incoming JMS messages from the "deposit" queue, which describe the creation or updating of
@@ -73,6 +77,8 @@ public class JmsSubmissionProcessor extends SubmissionProcessor {
      * @param depositStatusMapper maps the status of a {@code Deposit} as an <em>intermediate</em> or <em>terminal</em>
      *                            status
      * @param atomStatusParser used to parse Atom feeds that result from SWORD deposits
+     * @param submissionMessageCoalescer collapses messages for the same {@code Submission} that arrive close together
+     * @param terminalResourceCache remembers {@code Submission}s that are known to be terminal
      */
     public JmsSubmissionProcessor(PassClient passClient, JsonParser jsonParser,
                                   SubmissionBuilder fcrepoModelBuilder,
@@ -84,11 +90,15 @@ public class JmsSubmissionProcessor extends SubmissionProcessor {
                                   DepositTaskHelper depositTaskHelper,
                                   DepositStatusMapper<SwordDspaceDepositStatus> depositStatusMapper,
                                   DepositStatusParser<URI, SwordDspaceDepositStatus> atomStatusParser,
-                                  CriticalRepositoryInteraction critical) {
+                                  CriticalRepositoryInteraction critical,
+                                  Coalescer<URI, DepositUtil.MessageContext> submissionMessageCoalescer,
+                                  TerminalResourceCache terminalResourceCache) {
 
         super(passClient, jsonParser, fcrepoModelBuilder, packagerRegistry, passUserSubmittedPolicy,
                 dirtyDepositPolicy, submissionMessagePolicy, terminalDepositStatusPolicy, depositTaskHelper, depositStatusMapper, atomStatusParser, critical);
 
+        this.submissionMessageCoalescer = submissionMessageCoalescer;
+        this.terminalResourceCache = terminalResourceCache;
     }
 
     @JmsListener(destination = "${pass.deposit.queue.submission.name}")
@@ -119,16 +129,40 @@ public class JmsSubmissionProcessor extends SubmissionProcessor {
 
         URI submissionUri;
         try {
-            byte[] payload = mc.message().getPayload().getBytes(Charset.forName("UTF-8"));
-            submissionUri = URI.create(jsonParser.parseId(payload));
+            submissionUri = URI.create(mc.payload().id());
         } catch (Exception e) {
             LOG.error("Error parsing submission URI from message: {}", e.getMessage(), e);
+            ackMessage(mc);
             return;
-        } finally {
+        }
+
+        // Terminal Submissions will not be processed, so don't bother reading them
+        if (terminalResourceCache.isTerminal(submissionUri)) {
             ackMessage(mc);
+            return;
+        }
+
+        // Fedora emits several messages for a single update of a Submission; they are processed once, together
+        submissionMessageCoalescer.offer(submissionUri, mc, this::processCoalesced);
+    }
+
+    /**
+     * Processes the {@code Submission} that the coalesced messages concern.  The messages are not acknowledged here:
+     * they were acknowledged by the listener container on the listener thread when {@link #processMessage} returned,
+     * and JMS sessions may not be used by the coalescer's threads.
+     *
+     * @param submissionUri the URI of the {@code Submission}
+     * @param messages the messages for the {@code Submission}
+     */
+    void processCoalesced(URI submissionUri, List<DepositUtil.MessageContext> messages) {
+        Submission submission = passClient.readResource(submissionUri, Submission.class);
+        if (terminalResourceCache.record(submission)) {
+            LOG.debug(">>>> Submission {} will not be accepted for processing: status = {}", submissionUri,
+                    submission.getAggregatedDepositStatus());
+            return;
         }
 
-        accept(passClient.readResource(submissionUri, Submission.class));
+        accept(submission);
     }
 
 }
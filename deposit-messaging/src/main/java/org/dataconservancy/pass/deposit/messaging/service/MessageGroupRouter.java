@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.messaging.support.Constants.JmsDepositHeader;
+import org.dataconservancy.pass.deposit.messaging.support.Constants.JmsDepositOrigin;
+import org.dataconservancy.pass.deposit.messaging.support.MessagePayload;
+import org.dataconservancy.pass.model.Deposit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jms.annotation.JmsListener;
+import org.springframework.stereotype.Component;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.net.URI;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Re-routes the messages emitted by Fedora from the {@code submission} and {@code deposit} queues to a single grouped
+ * queue, setting the {@code JMSXGroupID} of each message to the URI of the {@code Submission} it concerns.  The broker
+ * delivers every message in a group to the same consumer, so when several Deposit Services nodes consume the grouped
+ * queue, all of the messages for a {@code Submission} and its {@code Deposit}s are processed by the same node, where
+ * the JVM-local locks of the {@link org.dataconservancy.pass.deposit.messaging.support.CriticalPath} apply.
+ * <p>
+ * The URI of the {@code Submission} is parsed from the body of a {@code submission} message.  The URI of the {@code
+ * Submission} a {@code Deposit} belongs to is read from the repository, and remembered, because it never changes; at
+ * most {@code maxCachedDeposits} are remembered.  A message whose {@code Submission} cannot be determined is routed
+ * without a group, and may be processed by any node.
+ * </p>
+ * <p>
+ * The body and properties of the routed message are copied from the original message.  The queue the message was
+ * received from, and its original {@code JMSMessageID} and {@code JMSTimestamp}, are recorded as {@link
+ * JmsDepositHeader} properties for the {@link GroupedMessageListener}.  The original message is acknowledged once the
+ * routed message is sent, so a message may be routed twice, but never lost.
+ * </p>
+ * <p>
+ * Listens only when the {@code groupedListenerContainerFactory} is started, i.e. when scale-out mode is enabled.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+@Component
+public class MessageGroupRouter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageGroupRouter.class);
+
+    private PassClient passClient;
+
+    private String groupedQueueName;
+
+    private final Map<URI, URI> depositSubmissions;
+
+    @Autowired
+    public MessageGroupRouter(PassClient passClient,
+                              @Value("${pass.deposit.queue.grouped.name}") String groupedQueueName,
+                              @Value("${pass.deposit.queue.grouped.max-cached-deposits}") int maxCachedDeposits) {
+        this.passClient = passClient;
+        this.groupedQueueName = groupedQueueName;
+        this.depositSubmissions = new LinkedHashMap<URI, URI>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URI, URI> eldest) {
+                return size() > maxCachedDeposits;
+            }
+        };
+    }
+
+    @JmsListener(destination = "${pass.deposit.queue.submission.name}",
+            containerFactory = "groupedListenerContainerFactory")
+    public void routeSubmissionMessage(Session session, Message message) throws JMSException {
+        String body = ((TextMessage) message).getText();
+        route(session, message, JmsDepositOrigin.SUBMISSION, submissionOf(body));
+    }
+
+    @JmsListener(destination = "${pass.deposit.queue.deposit.name}",
+            containerFactory = "groupedListenerContainerFactory")
+    public void routeDepositMessage(Session session, Message message) throws JMSException {
+        String body = ((TextMessage) message).getText();
+        route(session, message, JmsDepositOrigin.DEPOSIT, submissionOfDeposit(body));
+    }
+
+    /**
+     * Sends a copy of {@code message} to the grouped queue.
+     *
+     * @param session the session {@code message} was received on
+     * @param message the message
+     * @param origin the {@link JmsDepositOrigin} of the message
+     * @param submissionUri the {@code Submission} the message concerns, or {@code null} if it is not known
+     * @throws JMSException if the message cannot be sent
+     */
+    void route(Session session, Message message, String origin, URI submissionUri) throws JMSException {
+        TextMessage routed = session.createTextMessage(((TextMessage) message).getText());
+
+        Enumeration<?> names = message.getPropertyNames();
+        while (names.hasMoreElements()) {
+            String name = (String) names.nextElement();
+            // JMS-defined properties are set by the provider
+            if (!name.startsWith("JMSX")) {
+                routed.setObjectProperty(name, message.getObjectProperty(name));
+            }
+        }
+
+        routed.setStringProperty(JmsDepositHeader.ORIGIN, origin);
+        routed.setStringProperty(JmsDepositHeader.ORIGINAL_MESSAGE_ID, message.getJMSMessageID());
+        routed.setLongProperty(JmsDepositHeader.ORIGINAL_TIMESTAMP, message.getJMSTimestamp());
+        if (submissionUri != null) {
+            routed.setStringProperty(JmsDepositHeader.JMSX_GROUP_ID, submissionUri.toString());
+        }
+
+        MessageProducer producer = session.createProducer(session.createQueue(groupedQueueName));
+        try {
+            producer.send(routed, message.getJMSDeliveryMode(), message.getJMSPriority(),
+                    Message.DEFAULT_TIME_TO_LIVE);
+        } finally {
+            producer.close();
+        }
+
+        LOG.trace(">>>> Routed {} message {} to {} (group {})", origin, message.getJMSMessageID(),
+                groupedQueueName, submissionUri);
+    }
+
+    /**
+     * @return the number of {@code Deposit}s whose {@code Submission} is remembered
+     */
+    public int getCachedDeposits() {
+        synchronized (depositSubmissions) {
+            return depositSubmissions.size();
+        }
+    }
+
+    /**
+     * Parses the URI of the resource from the body of a message.
+     *
+     * @return the URI, or {@code null} if it cannot be parsed
+     */
+    private static URI submissionOf(String body) {
+        try {
+            return URI.create(MessagePayload.parse(body).id());
+        } catch (Exception e) {
+            LOG.debug(">>>> Unable to parse resource URI from message, routing it without a group: {}",
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Resolves the URI of the {@code Submission} of the {@code Deposit} in the body of a message.
+     *
+     * @return the URI, or {@code null} if it cannot be resolved
+     */
+    private URI submissionOfDeposit(String body) {
+        URI depositUri = submissionOf(body);
+        if (depositUri == null) {
+            return null;
+        }
+
+        synchronized (depositSubmissions) {
+            URI submissionUri = depositSubmissions.get(depositUri);
+            if (submissionUri != null) {
+                return submissionUri;
+            }
+        }
+
+        URI submissionUri;
+        try {
+            submissionUri = passClient.readResource(depositUri, Deposit.class).getSubmission();
+        } catch (Exception e) {
+            LOG.debug(">>>> Unable to resolve the Submission of {}, routing it without a group: {}", depositUri,
+                    e.getMessage());
+            return null;
+        }
+
+        if (submissionUri != null) {
+            synchronized (depositSubmissions) {
+                depositSubmissions.put(depositUri, submissionUri);
+            }
+        }
+
+        return submissionUri;
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tallies the outcome of processing a batch of {@code Deposit}s, e.g. by the {@link DepositStatusRefreshEngine} or the
+ * {@link DepositRetryEngine}.  Instances are thread-safe, and may be inspected while the batch is in progress.
+ * <p>
+ * Deposits may be discovered while the batch is in progress, so the {@link #getTotal() total} is the number of
+ * deposits discovered so far.
+ * </p>
+ *
+ * @param <E> the type of outcome
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class OutcomeSummary<E extends Enum<E>> {
+
+    private final Class<E> outcomeType;
+
+    private final AtomicInteger total = new AtomicInteger();
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong finishNanos = new AtomicLong();
+
+    private final Map<E, AtomicLong> counts;
+
+    OutcomeSummary(Class<E> outcomeType) {
+        this.outcomeType = outcomeType;
+        this.counts = new EnumMap<>(outcomeType);
+        for (E outcome : outcomeType.getEnumConstants()) {
+            counts.put(outcome, new AtomicLong());
+        }
+    }
+
+    void discovered() {
+        total.incrementAndGet();
+    }
+
+    void record(E outcome) {
+        counts.get(outcome).incrementAndGet();
+    }
+
+    void finish() {
+        finishNanos.compareAndSet(0, System.nanoTime());
+    }
+
+    /**
+     * @return the number of deposits discovered so far
+     */
+    public int getTotal() {
+        return total.get();
+    }
+
+    /**
+     * @return the number of deposits processed so far, regardless of outcome
+     */
+    public long getProcessed() {
+        return counts.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    /**
+     * @param outcome the outcome
+     * @return the number of deposits with the supplied outcome
+     */
+    public long getCount(E outcome) {
+        return counts.get(outcome).get();
+    }
+
+    /**
+     * @return the number of deposits with each outcome
+     */
+    public Map<E, Long> getCounts() {
+        Map<E, Long> result = new EnumMap<>(outcomeType);
+        counts.forEach((outcome, count) -> result.put(outcome, count.get()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return the elapsed time of the batch, in milliseconds
+     */
+    public long getElapsedMs() {
+        long finish = finishNanos.get();
+        return TimeUnit.NANOSECONDS.toMillis((finish == 0 ? System.nanoTime() : finish) - startNanos);
+    }
+
+    @Override
+    public String toString() {
+        long elapsedMs = getElapsedMs();
+        long processed = getProcessed();
+        return String.format("%d/%d deposits in %d ms (%.2f/s) %s", processed, total.get(), elapsedMs,
+                elapsedMs == 0 ? 0.0 : processed * 1000.0 / elapsedMs, getCounts());
+    }
+
+}
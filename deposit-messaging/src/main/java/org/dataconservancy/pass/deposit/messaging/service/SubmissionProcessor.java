@@ -32,6 +32,8 @@ import org.dataconservancy.pass.deposit.messaging.status.SwordDspaceDepositStatu
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.CriticalResult;
 import org.dataconservancy.pass.deposit.messaging.support.JsonParser;
+import org.dataconservancy.pass.deposit.messaging.support.PassClientUnitOfWork;
+import org.dataconservancy.pass.deposit.messaging.support.UnitOfWork;
 import org.dataconservancy.pass.model.Deposit;
 import org.dataconservancy.pass.model.Repository;
 import org.dataconservancy.pass.model.Submission;
@@ -41,10 +43,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static java.lang.String.format;
+import static org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.idempotent;
 import static org.dataconservancy.pass.model.Submission.AggregatedDepositStatus.IN_PROGRESS;
 
 /**
@@ -83,6 +88,8 @@ public class SubmissionProcessor implements Consumer<Submission> {
 
     protected DepositTaskHelper depositTaskHelper;
 
+    protected UnitOfWork.Factory unitOfWorkFactory;
+
     @Autowired
     public SubmissionProcessor(PassClient passClient, JsonParser jsonParser, SubmissionBuilder fcrepoModelBuilder,
                                Registry<Packager> packagerRegistry,
@@ -107,6 +114,7 @@ public class SubmissionProcessor implements Consumer<Submission> {
         this.terminalDepositStatusPolicy = terminalDepositStatusPolicy;
         this.critical = critical;
         this.depositTaskHelper = depositTaskHelper;
+        this.unitOfWorkFactory = () -> new PassClientUnitOfWork(passClient);
     }
 
     public void accept(Submission submission) {
@@ -149,7 +157,7 @@ public class SubmissionProcessor implements Consumer<Submission> {
 
                     return true;
                 },
-                (s) -> {
+                idempotent((s) -> {
                     DepositSubmission ds = null;
                     try {
                         ds = fcrepoModelBuilder.build(s.getId().toString());
@@ -158,7 +166,7 @@ public class SubmissionProcessor implements Consumer<Submission> {
                     }
                     s.setAggregatedDepositStatus(IN_PROGRESS);
                     return ds;
-                });
+                }));
 
         if (!result.success()) {
 
@@ -185,27 +193,58 @@ public class SubmissionProcessor implements Consumer<Submission> {
 
         LOG.debug(">>>> Processing Submission {}", submission.getId());
 
-        updatedS.getRepositories().stream().map(repoUri -> passClient.readResource(repoUri, Repository.class))
-                .forEach(repo -> {
-                    Deposit deposit = null;
-                    Packager packager = null;
-                    try {
-                        deposit = createDeposit(updatedS, repo);
-                        packager = packagerRegistry.get(repo.getName());
-                        if (packager == null) {
-                            throw new NullPointerException(format("No Packager found for tuple [%s, %s, %s]: " +
-                                            "Missing Packager for Repository named '%s'",
-                                    updatedS.getId(), deposit.getId(), repo.getId(), repo.getName()));
-                        }
-                        deposit = passClient.createAndReadResource(deposit, Deposit.class);
-                    } catch (Exception e) {
-                        String msg = format(FAILED_TO_PROCESS_DEPOSIT, updatedS.getId(), repo.getId(),
-                                (deposit == null) ? "null" : deposit.getId(), e.getMessage());
-                        throw new DepositServiceRuntimeException(msg, e, deposit);
+        List<Repository> repos = updatedS.getRepositories().stream()
+                .map(repoUri -> passClient.readResource(repoUri, Repository.class))
+                .collect(Collectors.toList());
+
+        // Create the Deposits in a single unit of work, so that if it is transactional, they are committed together.
+        // Should the creation of a Deposit fail, the Deposits created before it are still submitted.
+
+        List<PendingDeposit> pending = new ArrayList<>();
+        DepositServiceRuntimeException failure = null;
+
+        try (UnitOfWork work = unitOfWorkFactory.begin()) {
+            for (Repository repo : repos) {
+                Deposit deposit = null;
+                try {
+                    deposit = createDeposit(updatedS, repo);
+                    Packager packager = packagerRegistry.get(repo.getName());
+                    if (packager == null) {
+                        throw new NullPointerException(format("No Packager found for tuple [%s, %s, %s]: " +
+                                        "Missing Packager for Repository named '%s'",
+                                updatedS.getId(), deposit.getId(), repo.getId(), repo.getName()));
                     }
+                    pending.add(new PendingDeposit(repo, work.create(deposit, Deposit.class), packager));
+                } catch (Exception e) {
+                    String msg = format(FAILED_TO_PROCESS_DEPOSIT, updatedS.getId(), repo.getId(),
+                            (deposit == null) ? "null" : deposit.getId(), e.getMessage());
+                    failure = new DepositServiceRuntimeException(msg, e, deposit);
+                    break;
+                }
+            }
 
-                    depositTaskHelper.submitDeposit(updatedS, depositSubmission, repo, deposit, packager);
-                });
+            try {
+                work.commit();
+            } catch (Exception e) {
+                String msg = format("Failed to commit the Deposits of %s: %s", updatedS.getId(), e.getMessage());
+                throw new DepositServiceRuntimeException(msg, e, updatedS);
+            }
+        }
+
+        pending.forEach(p ->
+                depositTaskHelper.submitDeposit(updatedS, depositSubmission, p.repo, p.deposit, p.packager));
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @param unitOfWorkFactory begins the unit of work the {@code Deposit}s of a {@code Submission} are created in
+     */
+    @Autowired(required = false)
+    public void setUnitOfWorkFactory(UnitOfWork.Factory unitOfWorkFactory) {
+        this.unitOfWorkFactory = unitOfWorkFactory;
     }
 
     private Deposit createDeposit(Submission submission, Repository repo) {
@@ -216,4 +255,22 @@ public class SubmissionProcessor implements Consumer<Submission> {
         return deposit;
     }
 
+    /**
+     * A {@code Deposit} that has been created, and is yet to be submitted.
+     */
+    private static class PendingDeposit {
+
+        private final Repository repo;
+
+        private final Deposit deposit;
+
+        private final Packager packager;
+
+        private PendingDeposit(Repository repo, Deposit deposit, Packager packager) {
+            this.repo = repo;
+            this.deposit = deposit;
+            this.packager = packager;
+        }
+    }
+
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.policy.Policy;
+import org.dataconservancy.pass.model.Submission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers the URIs of resources that no longer need to be processed, so that messages concerning them can be dropped
+ * without reading them from the repository.
+ * <p>
+ * A {@code Submission} is remembered once its aggregated deposit status is found to be terminal, according to the
+ * {@code terminalSubmissionStatusPolicy}.  A {@code Deposit} is remembered once the {@code Submission} it belongs to
+ * is found to be terminal: at that point the {@code Deposit} is terminal as well, and the aggregated deposit status of
+ * its {@code Submission} has been decided, so nothing remains to be done for the {@code Deposit}.  (A {@code Deposit}
+ * that is merely terminal is not remembered, because the message announcing its terminal status is what triggers the
+ * update of its {@code Submission}.)
+ * </p>
+ * <p>
+ * At most {@code maxSize} URIs are remembered; the least recently used URI is forgotten when the limit is exceeded.
+ * URIs are forgotten {@code ttlMs} after they are remembered, so that a resource whose terminal status is reset (e.g.
+ * by an administrator) is eventually processed again.  Instances are thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class TerminalResourceCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TerminalResourceCache.class);
+
+    private final Policy<Submission.AggregatedDepositStatus> terminalSubmissionStatusPolicy;
+
+    private final long ttlNanos;
+
+    private final LongSupplier nanoClock;
+
+    private final Map<URI, Long> expiries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param terminalSubmissionStatusPolicy determines whether a {@code Submission} status is terminal
+     * @param maxSize the maximum number of URIs remembered, must be positive
+     * @param ttlMs how long a URI is remembered, in milliseconds, must be positive
+     */
+    public TerminalResourceCache(Policy<Submission.AggregatedDepositStatus> terminalSubmissionStatusPolicy,
+                                 int maxSize, long ttlMs) {
+        this(terminalSubmissionStatusPolicy, maxSize, ttlMs, System::nanoTime);
+    }
+
+    TerminalResourceCache(Policy<Submission.AggregatedDepositStatus> terminalSubmissionStatusPolicy, int maxSize,
+                          long ttlMs, LongSupplier nanoClock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be a positive integer, was: " + maxSize);
+        }
+        if (ttlMs < 1) {
+            throw new IllegalArgumentException("Time-to-live must be a positive integer, was: " + ttlMs);
+        }
+        this.terminalSubmissionStatusPolicy = terminalSubmissionStatusPolicy;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.nanoClock = nanoClock;
+        this.expiries = new LinkedHashMap<URI, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URI, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Answers whether the resource identified by {@code uri} is known to need no further processing.  Each call is
+     * counted as a hit or a miss.
+     *
+     * @param uri the URI of a {@code Submission} or {@code Deposit}
+     * @return {@code true} if the resource is known to need no further processing
+     */
+    public boolean isTerminal(URI uri) {
+        boolean terminal;
+        synchronized (expiries) {
+            Long expiry = expiries.get(uri);
+            terminal = expiry != null && expiry - nanoClock.getAsLong() > 0;
+            if (expiry != null && !terminal) {
+                expiries.remove(uri);
+            }
+        }
+
+        if (terminal) {
+            hits.incrementAndGet();
+            LOG.trace(">>>> {} is known to be terminal", uri);
+        } else {
+            misses.incrementAndGet();
+        }
+
+        return terminal;
+    }
+
+    /**
+     * Remembers {@code submission} if its aggregated deposit status is terminal.
+     *
+     * @param submission the {@code Submission}
+     * @return {@code true} if the {@code Submission} is terminal
+     */
+    public boolean record(Submission submission) {
+        if (!terminalSubmissionStatusPolicy.accept(submission.getAggregatedDepositStatus())) {
+            return false;
+        }
+        remember(submission.getId());
+        return true;
+    }
+
+    /**
+     * Remembers {@code submission}, and the {@code Deposit} identified by {@code depositUri}, if the aggregated deposit
+     * status of {@code submission} is terminal.
+     *
+     * @param depositUri the URI of a {@code Deposit} belonging to {@code submission}
+     * @param submission the {@code Submission}
+     * @return {@code true} if the {@code Submission} is terminal
+     */
+    public boolean record(URI depositUri, Submission submission) {
+        if (!record(submission)) {
+            return false;
+        }
+        remember(depositUri);
+        return true;
+    }
+
+    /**
+     * @return the number of times a URI was found to be terminal
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of times a URI was not found to be terminal
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of URIs remembered, including those that have expired but have not yet been forgotten
+     */
+    public int size() {
+        synchronized (expiries) {
+            return expiries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TerminalResourceCache{size=" + size() + ", hits=" + hits.get() + ", misses=" + misses.get() + '}';
+    }
+
+    private void remember(URI uri) {
+        synchronized (expiries) {
+            expiries.put(uri, nanoClock.getAsLong() + ttlNanos);
+        }
+    }
+
+}
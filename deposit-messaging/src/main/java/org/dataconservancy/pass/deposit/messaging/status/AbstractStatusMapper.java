@@ -56,14 +56,19 @@ import static org.dataconservancy.pass.model.Deposit.*;
  * }
  * </pre>
  * <p>
- * Mappings can be updated at runtime by editing this file.  However, adding a top-level key (i.e. a sibling of
- * {@code RepositoryCopyv2} or {@code SWORDv2DspaceStatement}) will also require implementing an instance of this
+ * The mapping for this mapper's {@link #getConfigurationKey() configuration key} is compiled into a {@link
+ * StatusMappingTable} when the mapper is constructed, which validates the configuration and resolves the wildcard
+ * mapping up front.  Mappings can be updated at runtime by editing this file: a {@link StatusMappingReloader}
+ * {@link #reload(JsonNode) reloads} each mapper when the file changes.  However, adding a top-level key (i.e. a sibling
+ * of {@code RepositoryCopyv2} or {@code SWORDv2DspaceStatement}) will also require implementing an instance of this
  * abstract class that answers to the new key.
  * </p>
  *
+ * @param <T> the type of object whose status is mapped
+ * @param <S> the enum representing the "domain" status of {@code T}
  * @author Elliot Metsger (emetsger@jhu.edu)
  */
-public abstract class AbstractStatusMapper<T> implements DepositStatusMapper<T> {
+public abstract class AbstractStatusMapper<T, S extends Enum<S>> implements DepositStatusMapper<T> {
 
     /**
      * The key identifying the mapping configuration for this mapper
@@ -73,62 +78,91 @@ public abstract class AbstractStatusMapper<T> implements DepositStatusMapper<T>
     public static final String AGG_SUBMISSION_STATUS_MAPPING_KEY = "SubmissionAggregatedStatusv2";
 
     /**
-     * The JSON containing the status mapping, as documented above
+     * The domain status enum
      */
-    protected JsonNode statusMap;
+    private final Class<S> statusType;
+
+    /**
+     * The status mapping compiled from the JSON, replaced wholesale when the mapping is reloaded
+     */
+    private volatile StatusMappingTable<S> table;
 
     /**
      * Construct an abstract status mapper that is able to parse its configuration from the supplied JSON.
      *
      * @param statusMap the JSON representing the status mapping as documented above
+     * @param statusType the domain status enum
+     * @throws IllegalArgumentException if the mapping for this mapper is invalid
+     */
+    public AbstractStatusMapper(JsonNode statusMap, Class<S> statusType) {
+        this.statusType = statusType;
+        this.table = compile(statusMap);
+    }
+
+    /**
+     * Map the notion of status from one domain into the notion of status used by {@link DepositStatus}.
+     *
+     * @param statusToMap the status from another domain, may be {@code null}
+     * @return the {@link DepositStatus} {@code statusToMap} represents, or {@code null} if no mapping could be made
      */
-    public AbstractStatusMapper(JsonNode statusMap) {
-        this.statusMap = statusMap;
+    protected DepositStatus mapStatus(S statusToMap) {
+        return table.map(statusToMap);
     }
 
     /**
      * Map the notion of status from one domain into the notion of status used by {@link DepositStatus}.
      *
-     * @param statusToMap the status from another domain
+     * @param statusToMap the name of the status from another domain
      * @return the {@link DepositStatus} {@code statusToMap} represents, or {@code null} if no mapping could be made
      */
     public DepositStatus mapInternal(String statusToMap) {
+        return table.map(statusToMap);
+    }
+
+    /**
+     * Replaces the mapping used by this mapper with the mapping for this mapper's {@link #getConfigurationKey() key} in
+     * the supplied JSON.  If the supplied mapping is invalid, the current mapping remains in effect.
+     *
+     * @param statusMap the JSON representing the status mapping as documented above
+     * @throws IllegalArgumentException if the mapping for this mapper is invalid
+     */
+    public void reload(JsonNode statusMap) {
+        install(compile(statusMap));
+    }
+
+    /**
+     * Compiles, but does not install, the mapping for this mapper's {@link #getConfigurationKey() key} in the supplied
+     * JSON.
+     *
+     * @param statusMap the JSON representing the status mapping as documented above
+     * @return the compiled mapping
+     * @throws IllegalArgumentException if the mapping for this mapper is invalid
+     */
+    StatusMappingTable<S> compile(JsonNode statusMap) {
         String configurationKey = getConfigurationKey();
         if (configurationKey == null) {
             throw new IllegalStateException("Configuration key must not be null!");
         }
-        JsonNode mapping = statusMap.findValue(configurationKey);
-        if (mapping == null) {
-            return null;
-        }
-
-        if (statusToMap == null) {
-            return wildCardMapping(mapping);
-        }
-
-        JsonNode mappedValue = mapping.findValue(statusToMap.toUpperCase());
-        if (mappedValue != null) {
-            return DepositStatus.valueOf(mappedValue.asText());
-        }
 
-        return wildCardMapping(mapping);
+        return StatusMappingTable.compile(statusMap, configurationKey, statusType);
     }
 
     /**
-     * General implementation that parses the supplied {@code node} for the special key {@code *}, that represents the
-     * wildcard mapping.  The {@code node} supplied here must be a subset of the {@link #statusMap} that represents
-     * <em>only</em> the mapping for the {@link #getConfigurationKey() key}.
+     * Installs a previously {@link #compile(JsonNode) compiled} mapping.
      *
-     * @param node the JSON representing the configuration for this {@link #getConfigurationKey() configuration key}
-     * @return the status, or {@code null} if a wildcard mapping does not exist.
+     * @param table the mapping
      */
-    protected DepositStatus wildCardMapping(JsonNode node) {
-        JsonNode wc = node.findValue("*");
-        if (wc == null) {
-            return null;
-        }
+    void install(StatusMappingTable<S> table) {
+        this.table = table;
+    }
 
-        return DepositStatus.valueOf(wc.textValue().toUpperCase());
+    /**
+     * The mapping currently used by this mapper.
+     *
+     * @return the compiled mapping
+     */
+    public StatusMappingTable<S> getStatusMappingTable() {
+        return table;
     }
 
     /**
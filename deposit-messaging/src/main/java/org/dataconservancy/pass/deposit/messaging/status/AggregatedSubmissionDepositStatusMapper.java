@@ -22,10 +22,11 @@ import org.dataconservancy.pass.model.Submission;
 /**
  * @author Elliot Metsger (emetsger@jhu.edu)
  */
-public class AggregatedSubmissionDepositStatusMapper extends AbstractStatusMapper<Submission.AggregatedDepositStatus> {
+public class AggregatedSubmissionDepositStatusMapper extends AbstractStatusMapper<Submission.AggregatedDepositStatus,
+        Submission.AggregatedDepositStatus> {
 
     public AggregatedSubmissionDepositStatusMapper(JsonNode statusMap) {
-        super(statusMap);
+        super(statusMap, Submission.AggregatedDepositStatus.class);
     }
 
     @Override
@@ -39,6 +40,6 @@ public class AggregatedSubmissionDepositStatusMapper extends AbstractStatusMappe
             return Deposit.DepositStatus.SUBMITTED;
         }
 
-        return super.mapInternal(statusToMap.name());
+        return mapStatus(statusToMap);
     }
 }
@@ -29,10 +29,10 @@ import org.dataconservancy.pass.model.Deposit;
  * @author Elliot Metsger (emetsger@jhu.edu)
  * @see <a href="http://swordapp.github.io/SWORDv2-Profile/SWORDProfile.html#statement">SWORD v2 Profile §11</a>
  */
-public class AtomFeedStatusMapper extends AbstractStatusMapper<Document<Feed>> {
+public class AtomFeedStatusMapper extends AbstractStatusMapper<Document<Feed>, SwordDspaceDepositStatus> {
 
     public AtomFeedStatusMapper(JsonNode statusMap) {
-        super(statusMap);
+        super(statusMap, SwordDspaceDepositStatus.class);
     }
 
     @Override
@@ -42,11 +42,7 @@ public class AtomFeedStatusMapper extends AbstractStatusMapper<Document<Feed>> {
 
     @Override
     public Deposit.DepositStatus map(Document<Feed> statusToMap) {
-        SwordDspaceDepositStatus status = AtomUtil.parseAtomStatement(statusToMap);
-        if (status != null) {
-            return mapInternal(status.name());
-        }
-
-        return mapInternal(null);
+        // a null status is mapped using the wildcard
+        return mapStatus(AtomUtil.parseAtomStatement(statusToMap));
     }
 }
@@ -25,10 +25,11 @@ import org.dataconservancy.pass.model.RepositoryCopy;
  *
  * @author Elliot Metsger (emetsger@jhu.edu)
  */
-public class RepositoryCopyStatusMapper extends AbstractStatusMapper<RepositoryCopy.CopyStatus> {
+public class RepositoryCopyStatusMapper extends AbstractStatusMapper<RepositoryCopy.CopyStatus,
+        RepositoryCopy.CopyStatus> {
 
     public RepositoryCopyStatusMapper(JsonNode statusMap) {
-        super(statusMap);
+        super(statusMap, RepositoryCopy.CopyStatus.class);
     }
 
     @Override
@@ -47,6 +48,6 @@ public class RepositoryCopyStatusMapper extends AbstractStatusMapper<RepositoryC
         if (statusToMap == null) {
             return null;
         }
-        return mapInternal(statusToMap.name());
+        return mapStatus(statusToMap);
     }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.status;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reloads the status mapping used by a set of {@link AbstractStatusMapper}s when the resource it was read from (i.e.
+ * the resource identified by {@code pass.deposit.status.mapping}) is modified.
+ * <p>
+ * A reload is all-or-nothing: the mapping for every mapper is compiled and validated before any mapper is updated.  If
+ * the modified resource cannot be read, or contains an invalid mapping for any mapper, the error is logged and every
+ * mapper continues to use its current mapping.
+ * </p>
+ * <p>
+ * Modification is detected using {@link Resource#lastModified()}.  Resources that cannot report their modification
+ * time (e.g. resources within a jar file) are never reloaded.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class StatusMappingReloader implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StatusMappingReloader.class);
+
+    private final Resource mappingResource;
+
+    private final ObjectMapper objectMapper;
+
+    private final Collection<AbstractStatusMapper<?, ?>> mappers;
+
+    private final AtomicLong reloadCount = new AtomicLong();
+
+    private volatile long lastModified;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a reloader for the supplied mappers.  The mappers are presumed to have been constructed using the
+     * current content of {@code mappingResource}.
+     *
+     * @param mappingResource the resource containing the status mapping JSON
+     * @param objectMapper used to parse the status mapping JSON
+     * @param mappers the mappers to reload
+     */
+    public StatusMappingReloader(Resource mappingResource, ObjectMapper objectMapper,
+                                 Collection<AbstractStatusMapper<?, ?>> mappers) {
+        this.mappingResource = mappingResource;
+        this.objectMapper = objectMapper;
+        this.mappers = mappers;
+        this.lastModified = lastModified();
+    }
+
+    /**
+     * Reloads the mapping if the resource has been modified since it was last loaded.
+     *
+     * @return {@code true} if the mapping was reloaded
+     */
+    public boolean reloadIfModified() {
+        long modified = lastModified();
+        if (modified <= 0 || modified == lastModified) {
+            return false;
+        }
+
+        LOG.info(">>>> Status mapping resource {} was modified, reloading.", mappingResource);
+        if (reload()) {
+            lastModified = modified;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Unconditionally reloads the mapping from the resource.
+     *
+     * @return {@code true} if the mapping was reloaded, {@code false} if the resource could not be read or contained an
+     *         invalid mapping
+     */
+    public boolean reload() {
+        JsonNode statusMap;
+        try (InputStream in = mappingResource.getInputStream()) {
+            statusMap = objectMapper.readTree(in);
+        } catch (IOException e) {
+            LOG.error(">>>> Unable to read status mapping resource {}, retaining the current mapping: {}",
+                    mappingResource, e.getMessage(), e);
+            return false;
+        }
+
+        List<Runnable> installs = new ArrayList<>(mappers.size());
+        try {
+            mappers.forEach(mapper -> installs.add(prepare(mapper, statusMap)));
+        } catch (RuntimeException e) {
+            LOG.error(">>>> Invalid status mapping resource {}, retaining the current mapping: {}",
+                    mappingResource, e.getMessage(), e);
+            return false;
+        }
+
+        installs.forEach(Runnable::run);
+        reloadCount.incrementAndGet();
+        LOG.info(">>>> Reloaded status mapping for {} mappers from {}", mappers.size(), mappingResource);
+        return true;
+    }
+
+    /**
+     * Checks the resource for modifications every {@code intervalMs} milliseconds, until this reloader is {@link
+     * #close() closed}.
+     *
+     * @param intervalMs the interval between checks, in milliseconds; must be positive
+     */
+    public synchronized void start(long intervalMs) {
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("Reload interval must be a positive number of milliseconds.");
+        }
+
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "status-mapping-reloader");
+            t.setDaemon(true);
+            return t;
+        });
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reloadIfModified();
+            } catch (Exception e) {
+                LOG.warn(">>>> Error checking status mapping resource {} for modifications: {}", mappingResource,
+                        e.getMessage(), e);
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+
+        LOG.debug(">>>> Checking status mapping resource {} for modifications every {} ms", mappingResource,
+                intervalMs);
+    }
+
+    /**
+     * Stops checking the resource for modifications.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * The number of times the mapping has been successfully reloaded.
+     *
+     * @return the number of reloads
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    private long lastModified() {
+        try {
+            return mappingResource.lastModified();
+        } catch (IOException e) {
+            LOG.trace(">>>> Unable to determine the modification time of {}: {}", mappingResource, e.getMessage());
+            return 0;
+        }
+    }
+
+    private static <S extends Enum<S>> Runnable prepare(AbstractStatusMapper<?, S> mapper, JsonNode statusMap) {
+        StatusMappingTable<S> table = mapper.compile(statusMap);
+        return () -> mapper.install(table);
+    }
+
+}
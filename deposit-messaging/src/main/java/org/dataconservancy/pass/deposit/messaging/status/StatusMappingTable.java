@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.status;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.dataconservancy.pass.model.Deposit.DepositStatus;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * An immutable lookup table, compiled from one top-level entry of the status mapping JSON (documented on {@link
+ * AbstractStatusMapper}), that maps each constant of a "domain" status enum to a {@link DepositStatus}.
+ * <p>
+ * The table is resolved completely when it is compiled: every constant of the domain enum is present in the table,
+ * either because it was mapped explicitly, or because it fell back to the wildcard ({@code *}) mapping.  Constants
+ * that are neither mapped explicitly nor covered by a wildcard map to {@code null}.  Looking up a status is therefore
+ * a single array access, rather than a search of the JSON tree.
+ * </p>
+ * <p>
+ * Compilation validates the configuration: keys must name a constant of the domain enum (or be the wildcard), and
+ * values must name a {@code DepositStatus}.  Invalid configuration results in an {@code IllegalArgumentException},
+ * so that errors are surfaced when the mapping is loaded rather than when a status is first mapped.
+ * </p>
+ *
+ * @param <S> the domain status enum
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public final class StatusMappingTable<S extends Enum<S>> {
+
+    /**
+     * The key used in the status mapping JSON to identify the wildcard mapping
+     */
+    public static final String WILDCARD = "*";
+
+    private final String configurationKey;
+
+    private final Class<S> statusType;
+
+    private final Map<S, DepositStatus> table;
+
+    private final DepositStatus wildcard;
+
+    private StatusMappingTable(String configurationKey, Class<S> statusType, Map<S, DepositStatus> table,
+                               DepositStatus wildcard) {
+        this.configurationKey = configurationKey;
+        this.statusType = statusType;
+        this.table = table;
+        this.wildcard = wildcard;
+    }
+
+    /**
+     * Compiles the mapping identified by {@code configurationKey} from the supplied status mapping JSON.  If the JSON
+     * does not contain the key, the resulting table maps every status to {@code null}.
+     *
+     * @param statusMap the status mapping JSON
+     * @param configurationKey the top-level key of the mapping to compile
+     * @param statusType the domain status enum
+     * @param <S> the domain status enum
+     * @return the compiled table
+     * @throws IllegalArgumentException if the mapping is not a JSON object, or contains an unknown key or value
+     */
+    public static <S extends Enum<S>> StatusMappingTable<S> compile(JsonNode statusMap, String configurationKey,
+                                                                    Class<S> statusType) {
+        if (statusMap == null) {
+            throw new IllegalArgumentException("Status mapping must not be null.");
+        }
+
+        if (configurationKey == null) {
+            throw new IllegalArgumentException("Configuration key must not be null.");
+        }
+
+        JsonNode mapping = statusMap.get(configurationKey);
+        if (mapping == null || mapping.isNull()) {
+            return new StatusMappingTable<>(configurationKey, statusType,
+                    Collections.unmodifiableMap(new EnumMap<>(statusType)), null);
+        }
+
+        if (!mapping.isObject()) {
+            throw new IllegalArgumentException(String.format(
+                    "Status mapping '%s' must be a JSON object, but was: %s", configurationKey, mapping));
+        }
+
+        EnumMap<S, DepositStatus> explicit = new EnumMap<>(statusType);
+        DepositStatus wildcard = null;
+
+        Iterator<Map.Entry<String, JsonNode>> fields = mapping.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            DepositStatus target = parseDepositStatus(configurationKey, field.getKey(), field.getValue());
+            if (WILDCARD.equals(field.getKey())) {
+                wildcard = target;
+            } else {
+                explicit.put(parseStatus(configurationKey, field.getKey(), statusType), target);
+            }
+        }
+
+        EnumMap<S, DepositStatus> table = new EnumMap<>(statusType);
+        for (S status : statusType.getEnumConstants()) {
+            DepositStatus target = explicit.getOrDefault(status, wildcard);
+            if (target != null) {
+                table.put(status, target);
+            }
+        }
+
+        return new StatusMappingTable<>(configurationKey, statusType, Collections.unmodifiableMap(table), wildcard);
+    }
+
+    /**
+     * Maps the supplied status.  A {@code null} status is mapped using the wildcard.
+     *
+     * @param status the domain status, may be {@code null}
+     * @return the corresponding {@code DepositStatus}, or {@code null} if no mapping exists
+     */
+    public DepositStatus map(S status) {
+        if (status == null) {
+            return wildcard;
+        }
+
+        return table.get(status);
+    }
+
+    /**
+     * Maps the supplied status by name, ignoring case.  A {@code null} name, or a name that does not identify a
+     * constant of the domain enum, is mapped using the wildcard.
+     *
+     * @param statusName the name of the domain status, may be {@code null}
+     * @return the corresponding {@code DepositStatus}, or {@code null} if no mapping exists
+     */
+    public DepositStatus map(String statusName) {
+        if (statusName == null) {
+            return wildcard;
+        }
+
+        try {
+            return map(Enum.valueOf(statusType, statusName.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            return wildcard;
+        }
+    }
+
+    /**
+     * The wildcard mapping.
+     *
+     * @return the {@code DepositStatus} mapped by the wildcard, or {@code null} if there is no wildcard mapping
+     */
+    public DepositStatus wildcard() {
+        return wildcard;
+    }
+
+    /**
+     * The top-level key of the status mapping JSON this table was compiled from.
+     *
+     * @return the configuration key
+     */
+    public String configurationKey() {
+        return configurationKey;
+    }
+
+    /**
+     * The resolved table: every domain status that has a mapping, explicit or wildcard.
+     *
+     * @return an unmodifiable view of the table
+     */
+    public Map<S, DepositStatus> asMap() {
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        return "StatusMappingTable{" + "configurationKey='" + configurationKey + '\'' + ", table=" + table +
+                ", wildcard=" + wildcard + '}';
+    }
+
+    private static <S extends Enum<S>> S parseStatus(String configurationKey, String key, Class<S> statusType) {
+        try {
+            return Enum.valueOf(statusType, key.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format(
+                    "Status mapping '%s' contains unknown %s '%s'", configurationKey, statusType.getSimpleName(),
+                    key), e);
+        }
+    }
+
+    private static DepositStatus parseDepositStatus(String configurationKey, String key, JsonNode value) {
+        if (value == null || !value.isTextual()) {
+            throw new IllegalArgumentException(String.format(
+                    "Status mapping '%s' must map '%s' to a DepositStatus string, but was: %s", configurationKey,
+                    key, value));
+        }
+
+        try {
+            return DepositStatus.valueOf(value.textValue().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format(
+                    "Status mapping '%s' maps '%s' to unknown DepositStatus '%s'", configurationKey, key,
+                    value.textValue()), e);
+        }
+    }
+}
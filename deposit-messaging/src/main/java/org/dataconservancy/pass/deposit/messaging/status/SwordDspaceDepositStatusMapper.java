@@ -23,10 +23,11 @@ import org.dataconservancy.pass.model.Deposit;
  *
  * @author Elliot Metsger (emetsger@jhu.edu)
  */
-public class SwordDspaceDepositStatusMapper extends AbstractStatusMapper<SwordDspaceDepositStatus> {
+public class SwordDspaceDepositStatusMapper extends AbstractStatusMapper<SwordDspaceDepositStatus,
+        SwordDspaceDepositStatus> {
 
     public SwordDspaceDepositStatusMapper(JsonNode statusMap) {
-        super(statusMap);
+        super(statusMap, SwordDspaceDepositStatus.class);
     }
 
     @Override
@@ -45,6 +46,6 @@ public class SwordDspaceDepositStatusMapper extends AbstractStatusMapper<SwordDs
         if (statusToMap == null) {
             return null;
         }
-        return mapInternal(statusToMap.name());
+        return mapStatus(statusToMap);
     }
 }
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.deposit.assembler.PackageStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Limits the bandwidth consumed by the upload of packages, so that a large upload does not saturate the uplink shared
+ * with other deposits and with requests of Fedora.
+ * <p>
+ * The {@link #shape(String, PackageStream) shaped} package stream of an upload is read no faster than its share of the
+ * limits that apply to it: the global limit, in bytes per second, is shared equally among all the uploads in progress,
+ * and the limit of a transport (identified by the name of its {@code Packager}) is shared equally among the uploads in
+ * progress using that transport.  An upload reads at the lesser of its two shares, which are recalculated as it reads,
+ * so uploads speed up as others finish, and changes to the limits take effect immediately.  A limit less than or equal
+ * to zero means no limit.
+ * </p>
+ * <p>
+ * The achieved throughput of each upload in progress is available from {@link #getUploads()}, and is logged once the
+ * upload completes.  Instances are thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+@ManagedResource(description = "Limits the bandwidth consumed by the upload of packages")
+public class BandwidthShaper {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BandwidthShaper.class);
+
+    /**
+     * The most bytes read at once, so that the pace of an upload is adjusted frequently
+     */
+    private static final int MAX_CHUNK = 64 * 1024;
+
+    /**
+     * The fewest bytes read at once, so that slow uploads aren't paced byte by byte
+     */
+    private static final int MIN_CHUNK = 1024;
+
+    private final Set<Upload> uploads = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<String, Integer> uploadsByTransport = new ConcurrentHashMap<>();
+
+    private volatile long globalBytesPerSecond;
+
+    private volatile Map<String, Long> transportBytesPerSecond;
+
+    /**
+     * @param globalBytesPerSecond the bandwidth shared by all uploads, or {@code <= 0} for no limit
+     * @param transportBytesPerSecond the bandwidth shared by the uploads of each transport, keyed by the name of its
+     *                                {@code Packager}
+     */
+    public BandwidthShaper(long globalBytesPerSecond, Map<String, Long> transportBytesPerSecond) {
+        this.globalBytesPerSecond = globalBytesPerSecond;
+        this.transportBytesPerSecond = lowerCase(transportBytesPerSecond);
+    }
+
+    /**
+     * Parses per-transport limits of the form {@code packager=bytesPerSecond[,packager=bytesPerSecond...]}, e.g. {@code
+     * nihms=1048576,JScholarship=4194304}.  Blank input results in an empty map.
+     *
+     * @param limits the per-transport limits
+     * @return the limits, keyed by the name of the {@code Packager}
+     * @throws IllegalArgumentException if an entry is not of the form {@code packager=bytesPerSecond}
+     */
+    public static Map<String, Long> parseTransportLimits(String limits) {
+        Map<String, Long> result = new HashMap<>();
+        if (limits == null || limits.trim().isEmpty()) {
+            return result;
+        }
+
+        for (String entry : limits.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2 || parts[0].trim().isEmpty()) {
+                throw new IllegalArgumentException("Transport bandwidth limit must be of the form " +
+                        "'packager=bytesPerSecond', but was '" + entry.trim() + "'");
+            }
+            try {
+                result.put(parts[0].trim(), Long.parseLong(parts[1].trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Transport bandwidth limit for '" + parts[0].trim() +
+                        "' must be a whole number, but was '" + parts[1].trim() + "'", e);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Shapes the upload of {@code packageStream}: the stream returned by its {@link PackageStream#open()} is read no
+     * faster than its share of the limits.  The upload is in progress from the time the stream is opened until it is
+     * closed or read to its end.
+     *
+     * @param transport the name of the {@code Packager} uploading the package
+     * @param packageStream the package
+     * @return the shaped package
+     */
+    public PackageStream shape(String transport, PackageStream packageStream) {
+        return new ShapedPackageStream(transport, packageStream);
+    }
+
+    /**
+     * @return the uploads in progress
+     */
+    public List<Upload> getUploads() {
+        return Collections.unmodifiableList(new ArrayList<>(uploads));
+    }
+
+    @ManagedAttribute(description = "Uploads in progress, and their achieved throughput")
+    public String[] getUploadThroughput() {
+        return uploads.stream().map(Upload::toString).toArray(String[]::new);
+    }
+
+    @ManagedAttribute(description = "Bytes per second shared by all uploads, or <= 0 for no limit")
+    public long getGlobalBytesPerSecond() {
+        return globalBytesPerSecond;
+    }
+
+    @ManagedAttribute
+    public void setGlobalBytesPerSecond(long globalBytesPerSecond) {
+        this.globalBytesPerSecond = globalBytesPerSecond;
+        LOG.info(">>>> Package uploads limited to {} bytes per second",
+                globalBytesPerSecond > 0 ? globalBytesPerSecond : "unlimited");
+    }
+
+    @ManagedAttribute(description = "Bytes per second shared by the uploads of each transport, as " +
+            "packager=bytesPerSecond[,packager=bytesPerSecond...]")
+    public String getTransportLimits() {
+        return transportBytesPerSecond.entrySet().stream()
+                .map(limit -> limit.getKey() + "=" + limit.getValue())
+                .collect(Collectors.joining(","));
+    }
+
+    @ManagedAttribute
+    public void setTransportLimits(String limits) {
+        this.transportBytesPerSecond = lowerCase(parseTransportLimits(limits));
+        LOG.info(">>>> Package uploads limited per transport to {}", getTransportLimits());
+    }
+
+    /**
+     * The number of bytes per second {@code upload} may read, given the uploads in progress.
+     *
+     * @param upload the upload
+     * @return bytes per second, or {@code <= 0} if the upload is not limited
+     */
+    long shareOf(Upload upload) {
+        long share = 0;
+
+        long global = globalBytesPerSecond;
+        if (global > 0) {
+            share = Math.max(1, global / Math.max(1, uploads.size()));
+        }
+
+        long transport = transportBytesPerSecond.getOrDefault(upload.transport.toLowerCase(), 0L);
+        if (transport > 0) {
+            long transportShare = Math.max(1, transport / Math.max(1, uploadsByTransport.getOrDefault(
+                    upload.transport.toLowerCase(), 1)));
+            share = (share > 0) ? Math.min(share, transportShare) : transportShare;
+        }
+
+        return share;
+    }
+
+    private void start(Upload upload) {
+        uploads.add(upload);
+        uploadsByTransport.merge(upload.transport.toLowerCase(), 1, Integer::sum);
+    }
+
+    private void finish(Upload upload) {
+        if (!uploads.remove(upload)) {
+            return;
+        }
+        uploadsByTransport.computeIfPresent(upload.transport.toLowerCase(), (t, count) -> count > 1 ? count - 1 : null);
+        LOG.info(">>>> Uploaded {} bytes of {} using {} in {} ms ({} bytes per second)", upload.getBytes(),
+                upload.packageName, upload.transport, upload.getElapsedMs(), upload.getBytesPerSecond());
+    }
+
+    private static Map<String, Long> lowerCase(Map<String, Long> limits) {
+        Map<String, Long> result = new HashMap<>();
+        limits.forEach((transport, limit) -> result.put(transport.toLowerCase(), limit));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * The upload of a package, from the time its stream is opened.
+     */
+    public static class Upload {
+
+        private final String transport;
+
+        private final String packageName;
+
+        private final long startNanos = System.nanoTime();
+
+        private volatile long bytes;
+
+        private Upload(String transport, String packageName) {
+            this.transport = transport;
+            this.packageName = packageName;
+        }
+
+        /**
+         * @return the name of the {@code Packager} uploading the package
+         */
+        public String getTransport() {
+            return transport;
+        }
+
+        public String getPackageName() {
+            return packageName;
+        }
+
+        /**
+         * @return the number of bytes read so far
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedMs() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * @return the achieved throughput of the upload so far
+         */
+        public long getBytesPerSecond() {
+            long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+            return (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return transport + " " + packageName + ": " + bytes + " bytes in " + getElapsedMs() + " ms (" +
+                    getBytesPerSecond() + " bytes per second)";
+        }
+    }
+
+    private class ShapedPackageStream implements PackageStream {
+
+        private final String transport;
+
+        private final PackageStream delegate;
+
+        private ShapedPackageStream(String transport, PackageStream delegate) {
+            this.transport = transport;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public InputStream open() {
+            Metadata metadata = delegate.metadata();
+            Upload upload = new Upload(transport, (metadata == null) ? null : metadata.name());
+            InputStream in = delegate.open();
+            start(upload);
+            return new ShapedInputStream(in, upload);
+        }
+
+        @Override
+        public InputStream open(String packageResource) {
+            return delegate.open(packageResource);
+        }
+
+        @Override
+        public Iterator<Resource> resources() {
+            return delegate.resources();
+        }
+
+        @Override
+        public Metadata metadata() {
+            return delegate.metadata();
+        }
+    }
+
+    /**
+     * Paces the reads of an upload: each read is due once the bytes read before it would have been read at the share
+     * of the upload.
+     */
+    private class ShapedInputStream extends FilterInputStream {
+
+        private final Upload upload;
+
+        private long dueNanos = System.nanoTime();
+
+        private ShapedInputStream(InputStream in, Upload upload) {
+            super(in);
+            this.upload = upload;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return (read < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long share = shareOf(upload);
+            int chunk = (share > 0) ? (int) Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, share / 10)) : len;
+
+            int read = super.read(b, off, Math.min(len, chunk));
+            if (read < 0) {
+                finish(upload);
+                return read;
+            }
+
+            upload.bytes += read;
+            pace(read, share);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(n, MAX_CHUNK)];
+            int read = read(skipped, 0, skipped.length);
+            return Math.max(0, read);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                finish(upload);
+            }
+        }
+
+        private void pace(int read, long share) throws InterruptedIOException {
+            long now = System.nanoTime();
+            if (share <= 0) {
+                dueNanos = now;
+                return;
+            }
+
+            // an upload which has been idle does not earn a burst
+            dueNanos = Math.max(dueNanos, now) + (long) (read * (double) TimeUnit.SECONDS.toNanos(1) / share);
+            long waitNanos = dueNanos - now;
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted uploading " + upload.packageName);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the URIs of resources that have been processed by a long-running batch, so that an interrupted batch can be
+ * resumed without re-processing them.
+ * <p>
+ * The checkpoint is a text file containing one URI per line.  Each URI is appended and flushed as soon as it is
+ * {@link #complete(URI) completed}, so the file survives the process being killed.  A batch that runs to completion
+ * should {@link #delete() delete} its checkpoint, so the next batch starts afresh.
+ * </p>
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class Checkpoint implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Checkpoint.class);
+
+    private final Path file;
+
+    private final Set<URI> completed = ConcurrentHashMap.newKeySet();
+
+    private BufferedWriter writer;
+
+    private Checkpoint(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the checkpoint stored in {@code file}, loading any URIs recorded by a previous batch.  The file is created
+     * if it does not exist.
+     *
+     * @param file the checkpoint file
+     * @return the checkpoint
+     * @throws IOException if the file cannot be read or created
+     */
+    public static Checkpoint open(Path file) throws IOException {
+        Checkpoint checkpoint = new Checkpoint(file);
+
+        if (Files.exists(file)) {
+            Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty())
+                    .map(URI::create)
+                    .forEach(checkpoint.completed::add);
+            LOG.info(">>>> Resuming from checkpoint {}: {} resources already processed", file,
+                    checkpoint.completed.size());
+        } else if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        checkpoint.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+
+        return checkpoint;
+    }
+
+    /**
+     * @param uri the URI of a resource
+     * @return {@code true} if the resource was completed by this or a previous batch
+     */
+    public boolean isComplete(URI uri) {
+        return completed.contains(uri);
+    }
+
+    /**
+     * Records the resource as completed.  Completing a resource more than once has no effect.
+     *
+     * @param uri the URI of a resource
+     * @throws UncheckedIOException if the checkpoint cannot be written
+     */
+    public synchronized void complete(URI uri) {
+        if (writer == null) {
+            throw new IllegalStateException("Checkpoint " + file + " is closed.");
+        }
+
+        if (!completed.add(uri)) {
+            return;
+        }
+
+        try {
+            writer.write(uri.toString());
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write checkpoint " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the URIs of completed resources
+     */
+    public Set<URI> getCompleted() {
+        return Collections.unmodifiableSet(new HashSet<>(completed));
+    }
+
+    /**
+     * @return the checkpoint file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Closes and deletes the checkpoint file.
+     *
+     * @throws IOException if the file cannot be deleted
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+}
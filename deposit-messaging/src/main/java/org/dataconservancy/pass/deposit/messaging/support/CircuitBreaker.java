@@ -0,0 +1,301 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calls to a remote endpoint (e.g. a downstream repository, or Fedora) while it is failing, so that callers fail
+ * fast rather than waiting on doomed requests.
+ * <p>
+ * The outcomes of the last {@code window} calls are recorded.  Once at least {@code minCalls} outcomes are recorded,
+ * the circuit <em>opens</em> if the proportion of failed calls reaches {@code failureRate}, or the proportion of calls
+ * slower than {@code slowCallMs} reaches {@code slowCallRate}.  While the circuit is open, {@link #tryAcquire()} denies
+ * calls.  Once it has been open for {@code openMs}, the circuit is <em>half-open</em>: a single call is permitted as a
+ * probe.  If the probe succeeds the circuit <em>closes</em>, forgetting the outcomes recorded before it opened, and
+ * its listeners are notified; if the probe fails, the circuit opens again.
+ * </p>
+ * <p>
+ * A caller that acquires permission to call must report the outcome of the call by {@link #onSuccess(long)} or {@link
+ * #onFailure(long)}, or {@link #release()} it if the call was not made.  Instances are thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final byte SUCCESS = 0;
+
+    private static final byte FAILURE = 1;
+
+    private static final byte SLOW = 2;
+
+    public enum State {
+
+        /**
+         * Calls are permitted
+         */
+        CLOSED,
+
+        /**
+         * Calls are denied
+         */
+        OPEN,
+
+        /**
+         * A single call is permitted, which decides whether the circuit closes or opens again
+         */
+        HALF_OPEN
+    }
+
+    private final String name;
+
+    private final byte[] outcomes;
+
+    private final int minCalls;
+
+    private final double failureRate;
+
+    private final long slowCallNanos;
+
+    private final double slowCallRate;
+
+    private final long openNanos;
+
+    private final LongSupplier clock;
+
+    private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong denied = new AtomicLong();
+
+    private State state = State.CLOSED;
+
+    private int next;
+
+    private int recorded;
+
+    private int failures;
+
+    private int slowCalls;
+
+    private long openedAt;
+
+    private boolean probing;
+
+    /**
+     * @param name identifies the endpoint in log messages
+     * @param window the number of recent outcomes considered, must be positive
+     * @param minCalls the number of outcomes recorded before the circuit may open
+     * @param failureRate the proportion of failed calls at which the circuit opens, between {@code 0} and {@code 1}
+     * @param slowCallMs the latency after which a call is slow, in milliseconds, or {@code <= 0} if no call is slow
+     * @param slowCallRate the proportion of slow calls at which the circuit opens, between {@code 0} and {@code 1}
+     * @param openMs how long the circuit stays open before a probe is permitted, in milliseconds
+     */
+    public CircuitBreaker(String name, int window, int minCalls, double failureRate, long slowCallMs,
+                          double slowCallRate, long openMs) {
+        this(name, window, minCalls, failureRate, slowCallMs, slowCallRate, openMs, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, int window, int minCalls, double failureRate, long slowCallMs, double slowCallRate,
+                   long openMs, LongSupplier clock) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be a positive integer, was: " + window);
+        }
+        if (failureRate <= 0 || failureRate > 1) {
+            throw new IllegalArgumentException("Failure rate must be greater than 0, and at most 1, was: " +
+                    failureRate);
+        }
+        if (slowCallRate <= 0 || slowCallRate > 1) {
+            throw new IllegalArgumentException("Slow call rate must be greater than 0, and at most 1, was: " +
+                    slowCallRate);
+        }
+        this.name = name;
+        this.outcomes = new byte[window];
+        this.minCalls = Math.max(1, Math.min(minCalls, window));
+        this.failureRate = failureRate;
+        this.slowCallNanos = (slowCallMs <= 0) ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+        this.slowCallRate = slowCallRate;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+        this.clock = clock;
+    }
+
+    /**
+     * Asks permission to call the endpoint.  Permission is granted while the circuit is closed, and to a single probe
+     * once the circuit is half-open.
+     *
+     * @return {@code true} if the call may be made, in which case its outcome must be reported
+     */
+    public synchronized boolean tryAcquire() {
+        if (isCallPermitted()) {
+            if (state != State.CLOSED) {
+                state = State.HALF_OPEN;
+                probing = true;
+                LOG.info(">>>> Circuit for {} is half-open, probing", name);
+            }
+            return true;
+        }
+        denied.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Answers whether {@link #tryAcquire()} would permit a call, without acquiring permission.
+     *
+     * @return {@code true} if a call would be permitted
+     */
+    public synchronized boolean isCallPermitted() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return clock.getAsLong() - openedAt >= openNanos;
+            default:
+                return !probing;
+        }
+    }
+
+    /**
+     * Records a successful call.
+     *
+     * @param latencyNanos how long the call took, in nanoseconds
+     */
+    public void onSuccess(long latencyNanos) {
+        record(latencyNanos >= slowCallNanos ? SLOW : SUCCESS);
+    }
+
+    /**
+     * Records a failed call.
+     *
+     * @param latencyNanos how long the call took, in nanoseconds
+     */
+    public void onFailure(long latencyNanos) {
+        record(FAILURE);
+    }
+
+    /**
+     * Gives up permission to call, without a call having been made.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    /**
+     * @param listener notified, by the thread reporting the successful probe, each time the circuit closes
+     */
+    public void addCloseListener(Runnable listener) {
+        closeListeners.add(listener);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of calls denied by this circuit breaker
+     */
+    public long getDenied() {
+        return denied.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{name='" + name + "', state=" + state + ", failures=" + failures + ", slowCalls=" +
+                slowCalls + ", recorded=" + recorded + ", denied=" + denied.get() + '}';
+    }
+
+    private void record(byte outcome) {
+        boolean closed = false;
+        synchronized (this) {
+            if (state == State.HALF_OPEN && probing) {
+                probing = false;
+                if (outcome == FAILURE) {
+                    open("probe failed");
+                    return;
+                }
+                // the probe succeeded, so the endpoint has recovered, even if it is still slow
+                reset();
+                state = State.CLOSED;
+                closed = true;
+                LOG.info(">>>> Circuit for {} closed", name);
+            } else if (state == State.CLOSED) {
+                add(outcome);
+                if (recorded >= minCalls) {
+                    if (failures >= failureRate * recorded) {
+                        open(failures + " of the last " + recorded + " calls failed");
+                    } else if (slowCalls >= slowCallRate * recorded) {
+                        open(slowCalls + " of the last " + recorded + " calls were slow");
+                    }
+                }
+            }
+        }
+
+        if (closed) {
+            closeListeners.forEach(Runnable::run);
+        }
+    }
+
+    private void add(byte outcome) {
+        if (recorded == outcomes.length) {
+            remove(outcomes[next]);
+        } else {
+            recorded++;
+        }
+        outcomes[next] = outcome;
+        next = (next + 1) % outcomes.length;
+        if (outcome == FAILURE) {
+            failures++;
+        } else if (outcome == SLOW) {
+            slowCalls++;
+        }
+    }
+
+    private void remove(byte outcome) {
+        if (outcome == FAILURE) {
+            failures--;
+        } else if (outcome == SLOW) {
+            slowCalls--;
+        }
+    }
+
+    private void open(String reason) {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        LOG.warn(">>>> Circuit for {} opened for {} ms: {}", name, TimeUnit.NANOSECONDS.toMillis(openNanos), reason);
+    }
+
+    private void reset() {
+        next = 0;
+        recorded = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.model.PassEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * A {@link PassClient} which stops making requests of the repository while it is failing, according to a {@link
+ * CircuitBreaker}.  While the circuit is open, every operation fails immediately with a {@link
+ * CircuitOpenException}.
+ * <p>
+ * An operation fails, as far as the circuit breaker is concerned, if the repository could not be reached or did not
+ * respond: i.e. an {@code IOException} is among the causes of the exception it threw.  Other exceptions (e.g. an
+ * update conflict, or a missing resource) are answers from a working repository, and count as successes.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class CircuitBreakerPassClient implements PassClient {
+
+    private final PassClient delegate;
+
+    private final CircuitBreaker breaker;
+
+    /**
+     * @param delegate the client which performs requests of the repository
+     * @param breaker the circuit breaker of the repository
+     */
+    public CircuitBreakerPassClient(PassClient delegate, CircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public URI createResource(PassEntity modelObj) {
+        return call(() -> delegate.createResource(modelObj));
+    }
+
+    @Override
+    public <T extends PassEntity> T createAndReadResource(T modelObj, Class<T> modelClass) {
+        return call(() -> delegate.createAndReadResource(modelObj, modelClass));
+    }
+
+    @Override
+    public void updateResource(PassEntity modelObj) {
+        call(() -> {
+            delegate.updateResource(modelObj);
+            return null;
+        });
+    }
+
+    @Override
+    public <T extends PassEntity> T updateAndReadResource(T modelObj, Class<T> modelClass) {
+        return call(() -> delegate.updateAndReadResource(modelObj, modelClass));
+    }
+
+    @Override
+    public <T extends PassEntity> T readResource(URI uri, Class<T> modelClass) {
+        return call(() -> delegate.readResource(uri, modelClass));
+    }
+
+    @Override
+    public void deleteResource(URI uri) {
+        call(() -> {
+            delegate.deleteResource(uri);
+            return null;
+        });
+    }
+
+    @Override
+    public <T extends PassEntity> URI findByAttribute(Class<T> modelClass, String attribute, Object value) {
+        return call(() -> delegate.findByAttribute(modelClass, attribute, value));
+    }
+
+    @Override
+    public <T extends PassEntity> Set<URI> findAllByAttribute(Class<T> modelClass, String attribute, Object value) {
+        return call(() -> delegate.findAllByAttribute(modelClass, attribute, value));
+    }
+
+    @Override
+    public <T extends PassEntity> Set<URI> findAllByAttribute(Class<T> modelClass, String attribute, Object value,
+                                                             int limit, int offset) {
+        return call(() -> delegate.findAllByAttribute(modelClass, attribute, value, limit, offset));
+    }
+
+    @Override
+    public <T extends PassEntity> Set<URI> findAllByAttributes(Class<T> modelClass, Map<String, Object> valueAttributes) {
+        return call(() -> delegate.findAllByAttributes(modelClass, valueAttributes));
+    }
+
+    @Override
+    public Map<String, Collection<URI>> getIncoming(URI passEntityUri) {
+        return call(() -> delegate.getIncoming(passEntityUri));
+    }
+
+    @Override
+    public URI upload(URI entityUri, InputStream content, Map<String, ?> params) {
+        return call(() -> delegate.upload(entityUri, content, params));
+    }
+
+    private <T> T call(Supplier<T> operation) {
+        if (!breaker.tryAcquire()) {
+            throw new CircuitOpenException(breaker.getName());
+        }
+
+        long start = System.nanoTime();
+        try {
+            T result = operation.get();
+            breaker.onSuccess(System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            if (isUnreachable(e)) {
+                breaker.onFailure(System.nanoTime() - start);
+            } else {
+                breaker.onSuccess(System.nanoTime() - start);
+            }
+            throw e;
+        } catch (Error e) {
+            breaker.release();
+            throw e;
+        }
+    }
+
+    private static boolean isUnreachable(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+/**
+ * Thrown in place of a call to an endpoint whose {@link CircuitBreaker} is open.
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    /**
+     * @param endpoint the name of the endpoint
+     */
+    public CircuitOpenException(String endpoint) {
+        super("Circuit for " + endpoint + " is open, the call was not made");
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Collapses messages that concern the same key (e.g. the URI of a Fedora resource) and arrive within a short window
+ * into a single group, so that the work triggered by the messages is performed once per group rather than once per
+ * message.
+ * <p>
+ * The first message {@link #offer(Object, Object, BiConsumer) offered} for a key opens a group, which is handed to the
+ * handler supplied with that message {@code windowMs} later, along with every message offered for the same key in the
+ * meantime.  The window is not extended by subsequent messages, so a steady stream of messages for one key is handled
+ * at least once per window.  A message offered while the group for its key is being handled opens a new group.
+ * </p>
+ * <p>
+ * Groups are handled by a pool of {@code threads}, and errors thrown by a handler are passed to the {@code
+ * errorHandler}.  If {@code windowMs} is not positive, coalescing is disabled: each message is handled as a group of
+ * one, immediately, by the thread that offered it.  The number of messages received and groups handled are reported
+ * every {@code reportIntervalMs}.
+ * </p>
+ * <p>
+ * Offered messages may already have been acknowledged by their sender (e.g. a JMS listener container acknowledges a
+ * message when its listener returns), so no group is discarded: when the coalescer is {@link #close() closed}, open
+ * groups are handled immediately, without waiting for their windows to close, and messages offered after it is closed
+ * are handled as though coalescing were disabled.
+ * </p>
+ *
+ * @param <K> the type of key messages are coalesced by
+ * @param <M> the type of message
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class Coalescer<K, M> implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Coalescer.class);
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
+
+    /**
+     * How long {@link #close()} waits for the groups being handled by the pool
+     */
+    static final long SHUTDOWN_TIMEOUT_MS = 30_000;
+
+    private final String name;
+
+    private final long windowMs;
+
+    private final Consumer<Throwable> errorHandler;
+
+    private final Map<K, Group<K, M>> pending = new HashMap<>();
+
+    private final AtomicLong received = new AtomicLong();
+
+    private final AtomicLong handled = new AtomicLong();
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private volatile boolean closed;
+
+    /**
+     * @param name identifies this coalescer in thread names and log messages
+     * @param windowMs the length of time a group is held open, in milliseconds, or {@code <= 0} to disable coalescing
+     * @param threads the number of threads handling groups, must be positive
+     * @param reportIntervalMs the interval between reports of the coalescing ratio, in milliseconds, or {@code <= 0}
+     *                         to disable reports
+     * @param errorHandler handles errors thrown while handling a group
+     */
+    public Coalescer(String name, long windowMs, int threads, long reportIntervalMs,
+                     Consumer<Throwable> errorHandler) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be a positive integer, was: " + threads);
+        }
+        this.name = name;
+        this.windowMs = windowMs;
+        this.errorHandler = errorHandler;
+        this.scheduler = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread t = new Thread(r, name + "-coalescer-" + THREAD_COUNTER.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        // open groups are handled by close(), rather than when their windows close
+        this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        if (reportIntervalMs > 0) {
+            AtomicLong lastReported = new AtomicLong(-1);
+            scheduler.scheduleAtFixedRate(() -> {
+                if (lastReported.getAndSet(received.get()) != received.get()) {
+                    LOG.info(">>>> {}", this);
+                }
+            }, reportIntervalMs, reportIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Adds {@code message} to the open group for {@code key}, opening a group if there isn't one.
+     *
+     * @param key the key of the message
+     * @param message the message
+     * @param handler handles the group, if this message opens it
+     */
+    public void offer(K key, M message, BiConsumer<K, List<M>> handler) {
+        received.incrementAndGet();
+
+        if (windowMs <= 0) {
+            handle(key, Collections.singletonList(message), handler);
+            return;
+        }
+
+        synchronized (pending) {
+            if (!closed) {
+                Group<K, M> group = pending.get(key);
+                if (group != null) {
+                    group.messages.add(message);
+                    LOG.trace(">>>> {}: coalesced message for {} ({} pending)", name, key, group.messages.size());
+                    return;
+                }
+                pending.put(key, new Group<>(message, handler));
+                scheduler.schedule(() -> {
+                    Group<K, M> closing;
+                    synchronized (pending) {
+                        closing = pending.remove(key);
+                    }
+                    // the group may have been handled by close()
+                    if (closing != null) {
+                        handle(key, closing.messages, closing.handler);
+                    }
+                }, windowMs, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+
+        handle(key, Collections.singletonList(message), handler);
+    }
+
+    /**
+     * @return the number of messages received
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * @return the number of groups handled, including any being handled
+     */
+    public long getHandled() {
+        return handled.get();
+    }
+
+    /**
+     * @return the average number of messages in each group handled, or {@code 0} if no groups have been handled
+     */
+    public double getRatio() {
+        long groups = handled.get();
+        return groups == 0 ? 0 : (double) (received.get() - getPending()) / groups;
+    }
+
+    /**
+     * @return the number of messages waiting for their group to be handled
+     */
+    public int getPending() {
+        synchronized (pending) {
+            return pending.values().stream().mapToInt(group -> group.messages.size()).sum();
+        }
+    }
+
+    /**
+     * Stops coalescing messages.  Open groups are handled by the calling thread without waiting for their windows to
+     * close, and groups being handled by the pool are given up to {@link #SHUTDOWN_TIMEOUT_MS} to complete.
+     */
+    @Override
+    public void close() {
+        List<Entry<K, Group<K, M>>> open;
+        synchronized (pending) {
+            closed = true;
+            open = new ArrayList<>(pending.entrySet());
+            pending.clear();
+        }
+        scheduler.shutdown();
+
+        if (!open.isEmpty()) {
+            LOG.info(">>>> {}: handling {} open groups before closing", name, open.size());
+            open.forEach(entry -> handle(entry.getKey(), entry.getValue().messages, entry.getValue().handler));
+        }
+
+        try {
+            if (!scheduler.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                LOG.warn(">>>> {}: groups still being handled after {} ms", name, SHUTDOWN_TIMEOUT_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d messages coalesced into %d groups (ratio %.2f)", name, received.get(),
+                handled.get(), getRatio());
+    }
+
+    private void handle(K key, List<M> group, BiConsumer<K, List<M>> handler) {
+        handled.incrementAndGet();
+        LOG.trace(">>>> {}: handling {} messages for {}", name, group.size(), key);
+        try {
+            handler.accept(key, group);
+        } catch (Throwable t) {
+            errorHandler.accept(t);
+        }
+    }
+
+    /**
+     * The messages of an open group, and the handler supplied with the message that opened it.
+     */
+    private static class Group<K, M> {
+
+        private final List<M> messages = new ArrayList<>();
+
+        private final BiConsumer<K, List<M>> handler;
+
+        private Group(M first, BiConsumer<K, List<M>> handler) {
+            this.messages.add(first);
+            this.handler = handler;
+        }
+    }
+
+}
@@ -56,4 +56,48 @@ public interface ConflictHandler {
     <T extends PassEntity, R> R handleConflict(T conflictedResource, Class<T> resourceClass,
                                                Predicate<T> preCondition, Function<T, R> criticalUpdate);
 
+    /**
+     * Invoked before the {@code criticalUpdate} is applied to {@code resource}, allowing implementations to retain a
+     * copy of the state that the update is based on.  The copy is supplied to {@link #handleConflict(PassEntity,
+     * PassEntity, Object, Class, Predicate, Function)} if the update conflicts, allowing implementations to determine
+     * which fields were modified by the {@code criticalUpdate}.
+     * <p>
+     * The default implementation answers {@code null}.
+     * </p>
+     *
+     * @param resource the resource, before the {@code criticalUpdate} is applied
+     * @param <T> the type of resource
+     * @return a copy of {@code resource}, or {@code null} if implementations do not make use of it
+     */
+    default <T extends PassEntity> T snapshot(T resource) {
+        return null;
+    }
+
+    /**
+     * Invoked when a {@code 412 Precondition Failed} is returned from a {@code PATCH} request to the repository,
+     * supplying the state of the resource prior to the {@code criticalUpdate}, and the return from the {@code
+     * criticalUpdate}, in addition to the parameters of {@link #handleConflict(PassEntity, Class, Predicate,
+     * Function)}.
+     * <p>
+     * The default implementation ignores {@code original} and {@code result}, and invokes {@link
+     * #handleConflict(PassEntity, Class, Predicate, Function)}.
+     * </p>
+     *
+     * @param original the resource before the {@code criticalUpdate} was applied, as answered by {@link
+     *                 #snapshot(PassEntity)}, may be {@code null}
+     * @param conflictedResource the resource with the state to be updated
+     * @param result the return from the {@code criticalUpdate} when it was applied to {@code conflictedResource}
+     * @param resourceClass the runtime class of the resource
+     * @param preCondition the precondition that must be satisfied in order for the {@code criticalUpdate} to be applied
+     * @param criticalUpdate the update to be applied to the resource
+     * @param <T> the type of resource
+     * @param <R> the type of the response returned by the {@code criticalUpdate}
+     * @return the return from the {@code criticalUpdate}
+     */
+    default <T extends PassEntity, R> R handleConflict(T original, T conflictedResource, R result,
+                                                       Class<T> resourceClass, Predicate<T> preCondition,
+                                                       Function<T, R> criticalUpdate) {
+        return handleConflict(conflictedResource, resourceClass, preCondition, criticalUpdate);
+    }
+
 }
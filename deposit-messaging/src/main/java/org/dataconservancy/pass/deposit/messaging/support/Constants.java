@@ -44,6 +44,44 @@ public class Constants {
 
     }
 
+    /**
+     * JMS header names used by Deposit Services when routing messages to the grouped queue
+     */
+    public static class JmsDepositHeader {
+
+        /**
+         * The JMS-defined header that identifies the message group a message belongs to
+         */
+        public static final String JMSX_GROUP_ID = "JMSXGroupID";
+
+        /**
+         * The queue the message was originally received from, one of the {@link JmsDepositOrigin} values
+         */
+        public static final String ORIGIN = "PassDepositOrigin";
+
+        /**
+         * The {@code JMSMessageID} of the message as originally received
+         */
+        public static final String ORIGINAL_MESSAGE_ID = "PassDepositOriginalMessageId";
+
+        /**
+         * The {@code JMSTimestamp} of the message as originally received
+         */
+        public static final String ORIGINAL_TIMESTAMP = "PassDepositOriginalTimestamp";
+
+    }
+
+    /**
+     * Values of the {@link JmsDepositHeader#ORIGIN} header.
+     */
+    public static class JmsDepositOrigin {
+
+        public static final String SUBMISSION = "submission";
+
+        public static final String DEPOSIT = "deposit";
+
+    }
+
     /**
      * Values of the {@link JmsFcrepoHeader#FCREPO_EVENT_TYPE} header.
      */
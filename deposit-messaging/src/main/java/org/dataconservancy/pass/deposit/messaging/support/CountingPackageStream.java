@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.deposit.assembler.PackageStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the bytes of a package read by a transport, i.e. the bytes of the package that may have been sent to the
+ * remote repository, and the time the transport spent blocked reading them.  A package none of which was read was
+ * certainly not received.  The time spent reading includes the time the package took to be assembled, and the time a
+ * {@link BandwidthShaper shaped} package was paced, rather than time spent sending it.
+ * <p>
+ * Only the streams returned by {@link #open()} are counted.  Instances are thread-safe: a transport may read the
+ * package on a thread of its own.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class CountingPackageStream implements PackageStream {
+
+    private final PackageStream delegate;
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong readNanos = new AtomicLong();
+
+    /**
+     * @param delegate the package stream read by the transport
+     */
+    public CountingPackageStream(PackageStream delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return the number of bytes of the package read so far
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return the time, in nanoseconds, spent blocked reading the package so far
+     */
+    public long getReadNanos() {
+        return readNanos.get();
+    }
+
+    @Override
+    public InputStream open() {
+        return new FilterInputStream(delegate.open()) {
+
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                try {
+                    int b = super.read();
+                    if (b >= 0) {
+                        bytes.incrementAndGet();
+                    }
+                    return b;
+                } finally {
+                    readNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        bytes.addAndGet(read);
+                    }
+                    return read;
+                } finally {
+                    readNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    long skipped = super.skip(n);
+                    if (skipped > 0) {
+                        bytes.addAndGet(skipped);
+                    }
+                    return skipped;
+                } finally {
+                    readNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream open(String packageResource) {
+        return delegate.open(packageResource);
+    }
+
+    @Override
+    public Iterator<Resource> resources() {
+        return delegate.resources();
+    }
+
+    @Override
+    public Metadata metadata() {
+        return delegate.metadata();
+    }
+
+}
@@ -20,9 +20,12 @@ import org.dataconservancy.pass.client.fedora.UpdateConflictException;
 import org.dataconservancy.pass.model.PassEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -44,9 +47,49 @@ public class CriticalPath implements CriticalRepositoryInteraction {
 
     private ConflictHandler conflictHandler;
 
+    private VersionedResourceCache resourceCache;
+
+    private LockProvider lockProvider;
+
+    private UnitOfWork.Factory unitOfWorkFactory;
+
+    private final AtomicLong updates = new AtomicLong();
+
+    private final AtomicLong conflicts = new AtomicLong();
+
     public CriticalPath(PassClient passClient, ConflictHandler conflictHandler) {
+        this(passClient, conflictHandler, null);
+    }
+
+    /**
+     * Creates a {@code CriticalPath} that begins each {@link CriticalRepositoryInteraction.Idempotent idempotent}
+     * interaction with the last known state of the resource, if it is present in {@code resourceCache}, rather than
+     * reading the resource from the repository.
+     *
+     * @param passClient used to read and update resources
+     * @param conflictHandler resolves conflicting updates
+     * @param resourceCache the last known state of resources updated by this {@code CriticalPath}, may be {@code null}
+     */
+    public CriticalPath(PassClient passClient, ConflictHandler conflictHandler, VersionedResourceCache resourceCache) {
+        this(passClient, conflictHandler, resourceCache, null);
+    }
+
+    /**
+     * Creates a {@code CriticalPath} that obtains the lock over a resource as a {@link Lease} from {@code
+     * lockProvider}, which may provide exclusion between JVMs, rather than locking the resource in this JVM only.
+     *
+     * @param passClient used to read and update resources
+     * @param conflictHandler resolves conflicting updates
+     * @param resourceCache the last known state of resources updated by this {@code CriticalPath}, may be {@code null}
+     * @param lockProvider provides leases over resources, may be {@code null}
+     */
+    @Autowired
+    public CriticalPath(PassClient passClient, ConflictHandler conflictHandler, VersionedResourceCache resourceCache,
+                        LockProvider lockProvider) {
         this.passClient = passClient;
         this.conflictHandler = conflictHandler;
+        this.resourceCache = resourceCache;
+        this.lockProvider = lockProvider;
     }
 
     /**
@@ -104,6 +147,24 @@ public class CriticalPath implements CriticalRepositoryInteraction {
      *         the interaction is short-circuited, and a {@code CriticalResult} returned.</li>
      *     <li>Apply the post-condition {@code BiPredicate} and returns {@code CriticalResult}</li>
      * </ol>
+     * If a {@link VersionedResourceCache} was supplied on construction, and the {@code critical} interaction is {@link
+     * CriticalRepositoryInteraction.Idempotent idempotent}, the last known state of the resource is used in place of
+     * reading it in step 2.  The cached state may be stale, so if it does not satisfy the pre-condition, the resource
+     * is read from the repository and the pre-condition applied again.  A stale state that does satisfy the
+     * pre-condition results in a conflicting update in step 5, which is resolved by the {@code ConflictHandler} against
+     * the latest state of the resource, performing the {@code critical} interaction a second time.  Interactions that
+     * are not idempotent always begin with the state read from the repository.  The state of the resource after step 5
+     * is cached.
+     * <p>
+     * If a {@link LockProvider} was supplied on construction, the lock in step 1 is a {@link Lease} obtained from it,
+     * and the interaction fails if the lease cannot be obtained.  The lease is checked before the update in step 5: if
+     * it has expired or been lost to another holder, the update is abandoned and the interaction fails.
+     * </p>
+     * <p>
+     * The state of the resource prior to step 4 is {@link ConflictHandler#snapshot(PassEntity) snapshotted} by the
+     * {@code ConflictHandler}, and supplied to it along with the return from the {@code critical} interaction if the
+     * update in step 5 conflicts.
+     * </p>
      * @param uri the uri of the {@code PassEntity} which is the subject of the {@code critical} pathv
      * @param clazz the concrete {@code Class} of the {@code PassEntity} represented by {@code uri}
      * @param precondition precondition that must evaluate to {@code true} for the {@code critical} path to execute
@@ -116,92 +177,274 @@ public class CriticalPath implements CriticalRepositoryInteraction {
      *         any exception thrown, and the overall success as determined by the post-condition
      */
     @Override
-    @SuppressWarnings("unchecked")
     public <R, T extends PassEntity> CriticalResult<R, T> performCritical(URI uri, Class<T> clazz,
                                                                           Predicate<T> precondition,
                                                                           BiPredicate<T, R> postcondition,
                                                                           Function<T, R> critical) {
+        return performCritical(uri, clazz, precondition, postcondition, (resource, work) -> critical.apply(resource),
+                this::immediately, critical instanceof Idempotent, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <h4>Implementation notes</h4>
+     * Executes as {@link #performCritical(URI, Class, Predicate, BiPredicate, Function) performCritical}, except that
+     * in step 4 the {@code critical} interaction is supplied a {@link UnitOfWork} begun by the {@link
+     * UnitOfWork.Factory} supplied to {@link #setUnitOfWorkFactory(UnitOfWork.Factory)}, and in step 5 the update of
+     * the resource is made in the same unit of work, which is then committed.  If the update conflicts, the unit of
+     * work is closed (discarding its writes, if it is transactional) before the conflict is supplied to the {@code
+     * ConflictHandler}, which performs the {@code critical} interaction again with a {@link PassClientUnitOfWork}.
+     * The {@code ConflictHandler} is not supplied a snapshot of the resource, so it never merges the fields modified
+     * by the discarded interaction onto the latest state of the resource: they may refer to resources (e.g. a {@code
+     * RepositoryCopy}) whose creation was discarded with the unit of work.  The {@code critical} interaction writes
+     * other resources, so it is never idempotent: the resource is always read from the repository in step 2.
+     * <p>
+     * If the unit of work does not know the version tag of the updated resource, the resource is not re-read: the
+     * post-condition is applied to the state that was written.
+     * </p>
+     */
+    @Override
+    public <R, T extends PassEntity> CriticalResult<R, T> performCriticalUnitOfWork(
+            URI uri, Class<T> clazz, Predicate<T> precondition, BiPredicate<T, R> postcondition,
+            BiFunction<T, UnitOfWork, R> critical) {
+        return performCritical(uri, clazz, precondition, postcondition, critical,
+                (unitOfWorkFactory == null) ? this::immediately : unitOfWorkFactory, false, false);
+    }
 
-        CriticalResult<R, T> cr = null;
+    /**
+     * @param unitOfWorkFactory begins the units of work supplied to {@link #performCriticalUnitOfWork(URI, Class,
+     *                          Predicate, BiPredicate, BiFunction) critical interactions}; if {@code null}, writes are
+     *                          performed immediately
+     */
+    @Autowired(required = false)
+    public void setUnitOfWorkFactory(UnitOfWork.Factory unitOfWorkFactory) {
+        this.unitOfWorkFactory = unitOfWorkFactory;
+    }
+
+    private <R, T extends PassEntity> CriticalResult<R, T> performCritical(URI uri, Class<T> clazz,
+                                                                           Predicate<T> precondition,
+                                                                           BiPredicate<T, R> postcondition,
+                                                                           BiFunction<T, UnitOfWork, R> critical,
+                                                                           UnitOfWork.Factory work,
+                                                                           boolean idempotent, boolean mergeable) {
 
         // 1. Obtain a lock over the repository resource URI, then enter the critical section
 
-        synchronized (uri.toString().intern()) {
+        if (lockProvider == null) {
+            synchronized (uri.toString().intern()) {
+                return performCriticalLocked(uri, clazz, precondition, postcondition, critical, work, idempotent,
+                        mergeable, null);
+            }
+        }
+
+        Lease lease;
+        try {
+            lease = lockProvider.acquire(uri);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new CriticalResult<>(null, null, false, e);
+        } catch (Exception e) {
+            return new CriticalResult<>(null, null, false, e);
+        }
+
+        if (lease == null) {
+            return new CriticalResult<>(null, null, false,
+                    new RuntimeException(format("Unable to acquire the lease over %s", uri)));
+        }
+
+        try (Lease held = lease) {
+            return performCriticalLocked(uri, clazz, precondition, postcondition, critical, work, idempotent,
+                    mergeable, held);
+        }
+    }
+
+    /**
+     * Executes steps 2 through 6 of the critical path, having obtained the lock over {@code uri}.
+     *
+     * @param work begins the unit of work the critical interaction and the update of the resource are performed in
+     * @param idempotent whether the critical interaction may begin with the last known state of the resource
+     * @param mergeable whether the writes of the critical interaction survive a conflict, so that the fields it
+     *                  modified may be merged by the {@code ConflictHandler} rather than performing it again
+     * @param lease the lease over {@code uri}, or {@code null} if the lock is local to this JVM
+     */
+    @SuppressWarnings("unchecked")
+    private <R, T extends PassEntity> CriticalResult<R, T> performCriticalLocked(URI uri, Class<T> clazz,
+                                                                                 Predicate<T> precondition,
+                                                                                 BiPredicate<T, R> postcondition,
+                                                                                 BiFunction<T, UnitOfWork, R> critical,
+                                                                                 UnitOfWork.Factory work,
+                                                                                 boolean idempotent,
+                                                                                 boolean mergeable,
+                                                                                 Lease lease) {
 
-            // 2. Read the resource from the repository
+        // 2. Read the resource from the repository
+        //    (or, if the critical interaction is idempotent, use its last known state, which is confirmed by the
+        //    conditional update in step 5)
 
-            T resource = null;
+        T resource = (resourceCache == null || !idempotent) ? null : resourceCache.get(uri, clazz);
+        boolean cached = resource != null;
+        if (!cached) {
             try {
                 resource = passClient.readResource(uri, clazz);
             } catch (Exception e) {
                 return new CriticalResult<>(null, null,false, e);
             }
+        }
 
-            // 3. Verify that the state of the resource is what is expected from the caller.  If not, return indicating
-            //    failure, with a copy of the resource.
+        // 3. Verify that the state of the resource is what is expected from the caller.  If not, return indicating
+        //    failure, with a copy of the resource.  A cached state may be stale, so it must be confirmed by
+        //    reading the resource before failing.
 
+        if (cached && !testQuietly(precondition, resource)) {
+            LOG.debug("Precondition for applying the critical path on cached resource {} (version {}) failed, " +
+                    "re-reading it.", uri, resource.getVersionTag());
+            resourceCache.evict(uri);
             try {
-                if (!precondition.test(resource)) {
-                    LOG.debug("Precondition for applying the critical path on resource {} failed.", resource.getId());
-                    return new CriticalResult<>(null, resource, false);
-                }
+                resource = passClient.readResource(uri, clazz);
             } catch (Exception e) {
-                return new CriticalResult<>(null, resource, false, e);
+                return new CriticalResult<>(null, null,false, e);
             }
+        }
+
+        try {
+            if (!precondition.test(resource)) {
+                LOG.debug("Precondition for applying the critical path on resource {} failed.", resource.getId());
+                return new CriticalResult<>(null, resource, false);
+            }
+        } catch (Exception e) {
+            return new CriticalResult<>(null, resource, false, e);
+        }
 
-            // 4.  Apply the critical update to the resource.
+        // 4.  Apply the critical update to the resource.
 
-            R updateResult = null;
+        T original = mergeable ? conflictHandler.snapshot(resource) : null;
+        R updateResult = null;
+        boolean conflicted = false;
+        try (UnitOfWork unitOfWork = work.begin()) {
             try {
-                updateResult = critical.apply(resource);
+                updateResult = critical.apply(resource, unitOfWork);
             } catch (Exception e) {
-                return new CriticalResult<>(updateResult, resource,false, e);
+                return new CriticalResult<>(updateResult, resource, false, e);
             }
 
             // 5. Attempt to update the resource, knowing that another process may have modified the state of the
             //    resource in the interim.  Any conflicts are handled by the ConflictHandler
             // TODO: update this class to allow the ConflictHandler to be pluggable
 
+            if (lease != null && !lease.isValid()) {
+                LOG.warn(">>>> Lost the lease over {} (fencing token {}) before updating it, abandoning the update.",
+                        uri, lease.getFencingToken());
+                return new CriticalResult<>(updateResult, resource, false, new RuntimeException(
+                        format("Lost the lease over %s (fencing token %s) before updating it", uri,
+                                lease.getFencingToken())));
+            }
+
             try {
-                resource = passClient.updateAndReadResource(resource, (Class<T>)resource.getClass());
+                updates.incrementAndGet();
+                resource = unitOfWork.update(resource, (Class<T>)resource.getClass());
+                unitOfWork.commit();
+                cache(resource);
             } catch (UpdateConflictException e) {
-                try {
-                    // If the ConflictHandler is successful, the resource with its updated state is returned
-                    // (presumably a merge of the state in the repository with the state from the critical function)
-                    updateResult = conflictHandler.handleConflict(resource, clazz, precondition, critical);
-
-                    if (updateResult == null) {
-                        // Do not include the exception on the CriticalResult, because a UpdateConflictException is not
-                        // a reason to fail a Submission or Deposit (another thread may successfully process the update)
-                        return new CriticalResult<>(null, resource, false);
-                    }
-
-                    // Get the latest version of the resource after the conflict has been resolved
-                    resource = passClient.readResource(resource.getId(), (Class<T>)resource.getClass());
-                } catch (Exception handlerE) {
-                    return new CriticalResult<>(updateResult, resource, false, handlerE);
-                }
+                conflicts.incrementAndGet();
+                evict(uri);
+                // the writes of the critical interaction are discarded when the unit of work is closed, and are
+                // performed again by the ConflictHandler
+                conflicted = true;
             } catch (Exception e) {
+                evict(uri);
                 return new CriticalResult<>(updateResult, resource, false, e);
             }
+        } catch (Exception e) {
+            // the unit of work could not be begun or closed
+            return new CriticalResult<>(updateResult, resource, false, e);
+        }
 
-            // 6. Verify the expected end state, and create the result.  Note that the success or failure of a
-            //    critical path rests entirely on the verification of this final state: the caller wants to know:
-            //    "Did the update I perform result in the state I expected?"
-
+        if (conflicted) {
             try {
-                if (!postcondition.test(resource, updateResult)) {
-                    LOG.debug("Postcondition over resource {} and result {} failed.", resource.getId(), updateResult);
-                    return new CriticalResult<>(updateResult, resource, false);
+                // If the ConflictHandler is successful, the resource with its updated state is returned
+                // (presumably a merge of the state in the repository with the state from the critical function)
+                UnitOfWork retry = immediately();
+                updateResult = conflictHandler.handleConflict(original, resource, updateResult, clazz,
+                        precondition, (t) -> critical.apply(t, retry));
+
+                if (updateResult == null) {
+                    // Do not include the exception on the CriticalResult, because a UpdateConflictException is
+                    // not a reason to fail a Submission or Deposit (another thread may successfully process the
+                    // update)
+                    return new CriticalResult<>(null, resource, false);
                 }
-            } catch (Exception e) {
-                return new CriticalResult<>(updateResult, resource, false, e);
+
+                // Get the latest version of the resource after the conflict has been resolved
+                resource = passClient.readResource(resource.getId(), (Class<T>)resource.getClass());
+                cache(resource);
+            } catch (Exception handlerE) {
+                return new CriticalResult<>(updateResult, resource, false, handlerE);
             }
+        }
+
+        // 6. Verify the expected end state, and create the result.  Note that the success or failure of a
+        //    critical path rests entirely on the verification of this final state: the caller wants to know:
+        //    "Did the update I perform result in the state I expected?"
 
-            cr = new CriticalResult<>(updateResult, resource, true);
+        try {
+            if (!postcondition.test(resource, updateResult)) {
+                LOG.debug("Postcondition over resource {} and result {} failed.", resource.getId(), updateResult);
+                return new CriticalResult<>(updateResult, resource, false);
+            }
+        } catch (Exception e) {
+            return new CriticalResult<>(updateResult, resource, false, e);
         }
 
-        return cr;
+        return new CriticalResult<>(updateResult, resource, true);
+    }
+
+    /**
+     * @return the number of updates attempted, excluding those made by the {@code ConflictHandler}
+     */
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    /**
+     * @return the number of updates that conflicted, and were supplied to the {@code ConflictHandler}
+     */
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * @return the proportion of updates that conflicted, or {@code 0} if no updates were attempted
+     */
+    public double getConflictRate() {
+        long u = updates.get();
+        return u == 0 ? 0 : (double) conflicts.get() / u;
+    }
+
+    /**
+     * Tests {@code resource}, treating an {@code Exception} as failure of the {@code precondition}.
+     */
+    private static <T> boolean testQuietly(Predicate<T> precondition, T resource) {
+        try {
+            return precondition.test(resource);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private UnitOfWork immediately() {
+        return new PassClientUnitOfWork(passClient);
+    }
+
+    private void cache(PassEntity resource) {
+        if (resourceCache != null) {
+            resourceCache.put(resource);
+        }
+    }
+
+    private void evict(URI uri) {
+        if (resourceCache != null) {
+            resourceCache.evict(uri);
+        }
     }
 
 
@@ -19,6 +19,7 @@ import org.dataconservancy.pass.model.PassEntity;
 
 import java.net.URI;
 import java.util.Optional;
+import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -35,7 +36,8 @@ import java.util.function.Predicate;
  * </p>
  * <p>
  * Clients of this interface must understand that while the boilerplate for interacting with the repository is provided
- * by an implementation, there are no atomicity or transactional guarantees provided.
+ * by an implementation, there are no atomicity or transactional guarantees provided, other than those of the {@link
+ * UnitOfWork} supplied to {@link #performCriticalUnitOfWork(URI, Class, Predicate, BiPredicate, BiFunction)}.
  * </p>
  * <h4>Example usage</h4>
  * The following example demonstrates how the critical path of building the {@code DepositSubmission} model is insulated
@@ -131,6 +133,56 @@ public interface CriticalRepositoryInteraction {
     <R, T extends PassEntity> CriticalResult<R, T> performCritical(
             URI uri, Class<T> clazz, Predicate<T> precondition, BiPredicate<T, R> postcondition, Function<T, R> critical);
 
+    /**
+     * Execute a critical interaction with the repository, subject to {@code precondition}, in a {@link UnitOfWork}.
+     * Success of the interaction depends on the evaluation of {@code postcondition}.
+     * <p>
+     * The {@code critical} interaction is supplied the unit of work, which it uses to write resources related to the
+     * {@code PassEntity} (e.g. the {@code RepositoryCopy} of a {@code Deposit}).  The update of the {@code PassEntity}
+     * is made in the same unit of work, and the unit of work committed, so that if the unit of work is transactional,
+     * the related writes and the update are committed together.
+     * </p>
+     *
+     * @param uri the uri of the {@code PassEntity} which is the subject of the {@code critical} path
+     * @param clazz the concrete {@code Class} of the {@code PassEntity} represented by {@code uri}
+     * @param precondition precondition that must evaluate to {@code true} for the {@code critical} path to execute
+     * @param postcondition postcondition that must evaluate to {@code true} for the {@code CriticalResult} to be
+     *                      considered successful
+     * @param critical the critical interaction with the repository, which may return a result of type {@code R}
+     * @param <T> the type of {@code PassEntity}
+     * @param <R> the type of the result returned by {@code critical}
+     * @return a {@code CriticalResult} recording the success or failure of the interaction, and any results.
+     */
+    <R, T extends PassEntity> CriticalResult<R, T> performCriticalUnitOfWork(
+            URI uri, Class<T> clazz, Predicate<T> precondition, BiPredicate<T, R> postcondition,
+            BiFunction<T, UnitOfWork, R> critical);
+
+    /**
+     * Marks a {@code critical} interaction as idempotent: its only effect is to modify the {@code PassEntity} it is
+     * supplied, so performing it on a stale state of the resource, and again when the resulting update conflicts, is
+     * harmless.  Implementations may begin an idempotent interaction with the last known state of the resource rather
+     * than reading it from the repository.  Interactions with other effects (e.g. transferring a package to a remote
+     * repository, or creating a {@code RepositoryCopy}) must not be marked.
+     *
+     * @param <T> the type of {@code PassEntity}
+     * @param <R> the type of the result returned by the interaction
+     */
+    interface Idempotent<T, R> extends Function<T, R> {
+
+    }
+
+    /**
+     * Marks {@code critical} as {@link Idempotent idempotent}.
+     *
+     * @param critical a critical interaction whose only effect is to modify the {@code PassEntity} it is supplied
+     * @param <T> the type of {@code PassEntity}
+     * @param <R> the type of the result returned by {@code critical}
+     * @return the idempotent interaction
+     */
+    static <T, R> Idempotent<T, R> idempotent(Function<T, R> critical) {
+        return critical::apply;
+    }
+
     /**
      * Encapsulates the result of a critical interaction with the repository.
      *
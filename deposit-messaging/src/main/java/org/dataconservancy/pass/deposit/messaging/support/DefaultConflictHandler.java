@@ -15,18 +15,52 @@
  */
 package org.dataconservancy.pass.deposit.messaging.support;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.client.PassJsonAdapter;
+import org.dataconservancy.pass.client.fedora.UpdateConflictException;
 import org.dataconservancy.pass.model.PassEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
 import java.util.function.Predicate;
 
 /**
  * Resolves {@code 412 Precondition Failed} responses by re-retrieving the latest state of the resource from the
  * repository, insuring the pre-condition for applying the update still holds, and then applying the update.
+ * <p>
+ * Resolution is attempted up to {@code maxAttempts} times, because the update applied to the latest state of the
+ * resource may itself conflict with an update made by another process.  Each attempt is preceded by a back-off,
+ * chosen at random between zero and {@code initialBackoffMs} doubled for each preceding attempt (capped at {@code
+ * maxBackoffMs}), so that competing processes do not retry in lock-step.
+ * </p>
+ * <p>
+ * If {@code mergeFields} are supplied, and the critical update modified only those fields, the modified fields are
+ * copied onto the latest state of the resource rather than applying the critical update again, provided that another
+ * process has not modified the same fields to different values.  This avoids repeating work performed by the critical
+ * update (e.g. reading a deposit status reference, or creating a repository copy).  Field names are those of the JSON
+ * representation of the resource.
+ * </p>
+ * <p>
+ * The number of conflicts handled, attempts made, conflicts resolved (and of those, merged), and conflicts abandoned
+ * are counted.
+ * </p>
  *
  * @author Elliot Metsger (emetsger@jhu.edu)
  */
@@ -35,10 +69,84 @@ public class DefaultConflictHandler implements ConflictHandler {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultConflictHandler.class);
 
+    private static final String JSON_CONTEXT = "@context";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     private PassClient passClient;
 
+    private PassJsonAdapter jsonAdapter;
+
+    private int maxAttempts;
+
+    private long initialBackoffMs;
+
+    private long maxBackoffMs;
+
+    private Set<String> mergeFields;
+
+    private LongConsumer sleeper;
+
+    private DoubleSupplier random;
+
+    private final AtomicLong conflicts = new AtomicLong();
+
+    private final AtomicLong attempts = new AtomicLong();
+
+    private final AtomicLong resolved = new AtomicLong();
+
+    private final AtomicLong merged = new AtomicLong();
+
+    private final AtomicLong abandoned = new AtomicLong();
+
+    /**
+     * Creates a {@code DefaultConflictHandler} that makes a single attempt to resolve a conflict, without backing off
+     * or merging.
+     *
+     * @param passClient used to read and update resources
+     */
     public DefaultConflictHandler(PassClient passClient) {
+        this(passClient, null, 1, 0, 0, new String[] {});
+    }
+
+    /**
+     * @param passClient used to read and update resources
+     * @param jsonAdapter used to copy and merge resources, may be {@code null} if {@code mergeFields} is empty
+     * @param maxAttempts the maximum number of attempts to resolve a conflict, must be positive
+     * @param initialBackoffMs the upper bound of the back-off preceding the first attempt, in milliseconds
+     * @param maxBackoffMs the upper bound of the back-off preceding any attempt, in milliseconds
+     * @param mergeFields the fields which may be merged onto the latest state of a resource
+     */
+    @Autowired
+    public DefaultConflictHandler(PassClient passClient, PassJsonAdapter jsonAdapter,
+                                  @Value("${pass.deposit.critical.conflict.max-attempts}") int maxAttempts,
+                                  @Value("${pass.deposit.critical.conflict.initial-backoff-ms}") long initialBackoffMs,
+                                  @Value("${pass.deposit.critical.conflict.max-backoff-ms}") long maxBackoffMs,
+                                  @Value("${pass.deposit.critical.conflict.merge-fields}") String[] mergeFields) {
+        this(passClient, jsonAdapter, maxAttempts, initialBackoffMs, maxBackoffMs, mergeFields,
+                DefaultConflictHandler::sleep, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    DefaultConflictHandler(PassClient passClient, PassJsonAdapter jsonAdapter, int maxAttempts, long initialBackoffMs,
+                           long maxBackoffMs, String[] mergeFields, LongConsumer sleeper, DoubleSupplier random) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Maximum attempts must be a positive integer, was: " + maxAttempts);
+        }
+        if (initialBackoffMs < 0 || maxBackoffMs < 0) {
+            throw new IllegalArgumentException("Back-off must not be negative, was: " + initialBackoffMs + ", " +
+                    maxBackoffMs);
+        }
         this.passClient = passClient;
+        this.jsonAdapter = jsonAdapter;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.mergeFields = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(mergeFields)));
+        this.sleeper = sleeper;
+        this.random = random;
+        if (!this.mergeFields.isEmpty() && jsonAdapter == null) {
+            throw new IllegalArgumentException("A PassJsonAdapter is required to merge fields " + this.mergeFields);
+        }
     }
 
     /**
@@ -58,36 +166,246 @@ public class DefaultConflictHandler implements ConflictHandler {
     @Override
     public <T extends PassEntity, R> R handleConflict(T conflictedResource, Class<T> resourceClass, Predicate<T>
             preCondition, Function<T, R> criticalUpdate) {
+        return handleConflict(null, conflictedResource, null, resourceClass, preCondition, criticalUpdate);
+    }
 
-        LOG.debug(">>>> Retrying update for {}, version {}",
-                conflictedResource.getId(), conflictedResource.getVersionTag());
+    /**
+     * {@inheritDoc}
+     * <h4>Implementation notes</h4>
+     * Answers a copy of {@code resource} if merge fields are configured, otherwise {@code null}.
+     *
+     * @param resource {@inheritDoc}
+     * @param <T> {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public <T extends PassEntity> T snapshot(T resource) {
+        return mergeFields.isEmpty() ? null : copy(resource);
+    }
 
-        T toUpdate = null;
-        try {
-            toUpdate = passClient.readResource(conflictedResource.getId(), resourceClass);
-        } catch (Exception e) {
-            String msg = String.format("Update retry failed for %s (version %s): Unable to successfully re-read the " +
-                            "latest version of the resource when retrying: %s", conflictedResource.getId(),
-                    conflictedResource.getVersionTag(), e.getMessage());
-            LOG.info(msg, e);
-        }
+    /**
+     * {@inheritDoc}
+     * <h4>Implementation notes</h4>
+     * Each attempt re-retrieves the latest state of the resource from the repository, and insures the pre-condition
+     * still holds.  If the fields modified by the {@code criticalUpdate} (determined by comparing {@code original} and
+     * {@code conflictedResource}) may be merged, they are copied onto the latest state, and {@code result} is
+     * returned.  Otherwise the {@code criticalUpdate} is applied to the latest state, and its return is returned.
+     * Resolution is abandoned, answering {@code null}, when the pre-condition fails, any error other than a conflict
+     * occurs, or {@code maxAttempts} have been made.
+     *
+     * @param original {@inheritDoc}
+     * @param conflictedResource {@inheritDoc}
+     * @param result {@inheritDoc}
+     * @param resourceClass {@inheritDoc}
+     * @param preCondition {@inheritDoc}
+     * @param criticalUpdate {@inheritDoc}
+     * @param <T> {@inheritDoc}
+     * @param <R> {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public <T extends PassEntity, R> R handleConflict(T original, T conflictedResource, R result,
+                                                      Class<T> resourceClass, Predicate<T> preCondition,
+                                                      Function<T, R> criticalUpdate) {
+        conflicts.incrementAndGet();
 
-        try {
-            if (!preCondition.test(toUpdate)) {
-                String msg = String.format("Update retry failed for %s (version %s to %s): does "
-                        + "not the satisfy the precondition for update.",
+        T base = original;
+        T ours = conflictedResource;
+        R ourResult = result;
+
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (!backOff(attempt)) {
+                LOG.info(">>>> Update retry for {} (version {}) interrupted", ours.getId(), ours.getVersionTag());
+                break;
+            }
+
+            attempts.incrementAndGet();
+            LOG.debug(">>>> Retrying update for {}, version {} (attempt {} of {})",
+                    ours.getId(), ours.getVersionTag(), attempt, maxAttempts);
+
+            T toUpdate;
+            try {
+                toUpdate = passClient.readResource(conflictedResource.getId(), resourceClass);
+            } catch (Exception e) {
+                String msg = String.format("Update retry failed for %s (version %s): Unable to successfully re-read " +
+                                "the latest version of the resource when retrying: %s", conflictedResource.getId(),
+                        ours.getVersionTag(), e.getMessage());
+                LOG.info(msg, e);
+                break;
+            }
+
+            try {
+                if (!preCondition.test(toUpdate)) {
+                    LOG.info(">>>> Update retry failed for {} (version {} to {}): does not satisfy the " +
+                            "precondition for update.", ours.getId(), ours.getVersionTag(), toUpdate.getVersionTag());
+                    break;
+                }
+
+                T mergedResource = merge(base, ours, toUpdate, resourceClass);
+                if (mergedResource != null) {
+                    passClient.updateResource(mergedResource);
+                    resolved.incrementAndGet();
+                    merged.incrementAndGet();
+                    return ourResult;
+                }
+
+                base = snapshot(toUpdate);
+                ourResult = criticalUpdate.apply(toUpdate);
+                ours = toUpdate;
+                passClient.updateResource(toUpdate);
+                resolved.incrementAndGet();
+                return ourResult;
+            } catch (UpdateConflictException e) {
+                LOG.debug(">>>> Update retry for {} (version {}) conflicted", ours.getId(), toUpdate.getVersionTag());
+            } catch (Exception e) {
+                String msg = String.format("Update retry failed for %s (version %s to %s)",
                         conflictedResource.getId(), conflictedResource.getVersionTag(), toUpdate.getVersionTag());
-                throw new RuntimeException(msg);
+                LOG.info(msg, e);
+                break;
             }
-            R toReturn = criticalUpdate.apply(toUpdate);
-            passClient.updateResource(toUpdate);
-            return toReturn;
-        } catch (Exception e) {
-            String msg = String.format("Update retry failed for %s (version %s to %s)",
-                    conflictedResource.getId(), conflictedResource.getVersionTag(), toUpdate.getVersionTag());
-            LOG.info(msg, e);
         }
 
+        abandoned.incrementAndGet();
+        LOG.info(">>>> Abandoned update of {}: {}", conflictedResource.getId(), this);
         return null;
     }
+
+    /**
+     * @return the number of conflicts handled
+     */
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * @return the number of attempts made to resolve conflicts
+     */
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    /**
+     * @return the number of conflicts resolved, including those resolved by merging
+     */
+    public long getResolved() {
+        return resolved.get();
+    }
+
+    /**
+     * @return the number of conflicts resolved by merging
+     */
+    public long getMerged() {
+        return merged.get();
+    }
+
+    /**
+     * @return the number of conflicts that were not resolved
+     */
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    /**
+     * @return the average number of attempts made for each conflict resolved, or {@code 0} if none were resolved
+     */
+    public double getAttemptsPerResolution() {
+        long r = resolved.get();
+        return r == 0 ? 0 : (double) attempts.get() / r;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DefaultConflictHandler{conflicts=%d, attempts=%d, resolved=%d, merged=%d, " +
+                        "abandoned=%d, attemptsPerResolution=%.2f}", conflicts.get(), attempts.get(), resolved.get(),
+                merged.get(), abandoned.get(), getAttemptsPerResolution());
+    }
+
+    /**
+     * Sleeps for a random interval bounded by the exponential back-off for {@code attempt}.
+     *
+     * @return {@code false} if the thread was interrupted
+     */
+    private boolean backOff(int attempt) {
+        if (initialBackoffMs > 0) {
+            long bound = initialBackoffMs << Math.min(attempt - 1, 30);
+            if (bound <= 0 || bound > maxBackoffMs) {
+                bound = maxBackoffMs;
+            }
+            sleeper.accept((long) (random.getAsDouble() * bound));
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Answers the latest state of the resource ({@code theirs}), with the fields modified by the critical update
+     * ({@code ours} relative to {@code base}) copied onto it.  Answers {@code null} if the critical update modified
+     * a field that may not be merged, or modified a field that was also modified to a different value in {@code
+     * theirs}.
+     */
+    private <T extends PassEntity> T merge(T base, T ours, T theirs, Class<T> resourceClass) {
+        if (base == null || mergeFields.isEmpty()) {
+            return null;
+        }
+
+        try {
+            JsonNode baseJson = MAPPER.readTree(jsonAdapter.toJson(base, false));
+            JsonNode ourJson = MAPPER.readTree(jsonAdapter.toJson(ours, false));
+            ObjectNode theirJson = (ObjectNode) MAPPER.readTree(jsonAdapter.toJson(theirs, false));
+
+            Set<String> fields = new HashSet<>();
+            baseJson.fieldNames().forEachRemaining(fields::add);
+            ourJson.fieldNames().forEachRemaining(fields::add);
+            fields.remove(JSON_CONTEXT);
+
+            boolean modified = false;
+            for (String field : fields) {
+                JsonNode ourValue = ourJson.get(field);
+                JsonNode baseValue = baseJson.get(field);
+                if (Objects.equals(ourValue, baseValue)) {
+                    continue;
+                }
+
+                JsonNode theirValue = theirJson.get(field);
+                if (!mergeFields.contains(field) ||
+                        !(Objects.equals(theirValue, baseValue) || Objects.equals(theirValue, ourValue))) {
+                    LOG.debug(">>>> Unable to merge field '{}' of {}", field, ours.getId());
+                    return null;
+                }
+
+                modified = true;
+                if (ourValue == null) {
+                    theirJson.remove(field);
+                } else {
+                    theirJson.set(field, ourValue);
+                }
+            }
+
+            if (!modified) {
+                return null;
+            }
+
+            T mergedResource = jsonAdapter.toModel(MAPPER.writeValueAsBytes(theirJson), resourceClass);
+            mergedResource.setVersionTag(theirs.getVersionTag());
+            return mergedResource;
+        } catch (IOException e) {
+            LOG.debug(">>>> Unable to merge {}: {}", ours.getId(), e.getMessage(), e);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends PassEntity> T copy(T resource) {
+        T copy = (T) jsonAdapter.toModel(jsonAdapter.toJson(resource, false), resource.getClass());
+        copy.setVersionTag(resource.getVersionTag());
+        return copy;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
 }
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only journal of the progress of the deposits being performed by this process, so that the deposits that
+ * were in flight when the process died can be recovered when it restarts, without searching for every deposit that
+ * may need attention.
+ * <p>
+ * Each {@link #record(URI, Stage) record} appends a line of the form {@code <millis> <stage> <deposit uri>} to the
+ * journal file.  Records are buffered, and written and forced to disk together every {@code syncIntervalMs}, so that
+ * the cost of a {@code fsync} is shared by every record made in the interval (an interval of {@code 0} forces each
+ * record to disk before {@code record} returns).  A record that has not been synced when the process dies is lost;
+ * the deposit is then recovered from its previous stage, or not at all if it was never synced.
+ * </p>
+ * <p>
+ * A deposit is <em>in flight</em> from its first record until it is recorded as {@link Stage#DONE}.  The journal is
+ * {@link #compact() compacted} every {@code compactIntervalMs} by rewriting it with the last record of each in-flight
+ * deposit, so its size is proportional to the number of deposits in flight, not to the number of deposits performed.
+ * </p>
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositJournal implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DepositJournal.class);
+
+    /**
+     * The stages of a deposit recorded in the journal, in the order they are reached
+     */
+    public enum Stage {
+
+        /**
+         * The deposit was created, and handed to the deposit workers
+         */
+        ACCEPTED,
+
+        /**
+         * A deposit worker is assembling and transporting the package
+         */
+        ASSEMBLING,
+
+        /**
+         * The package is being sent to the remote repository, and may have been received
+         */
+        TRANSPORTING,
+
+        /**
+         * The package was received by the remote repository, and the {@code Deposit} is {@code SUBMITTED}
+         */
+        TRANSPORTED,
+
+        /**
+         * The status of the deposit is being determined from its deposit status reference
+         */
+        AWAITING_STATUS,
+
+        /**
+         * The deposit worker has finished with the deposit, successfully or not
+         */
+        DONE
+    }
+
+    private final Path file;
+
+    /**
+     * The last stage recorded for each in-flight deposit, guarded by {@code this}
+     */
+    private final Map<URI, Entry> inFlight = new LinkedHashMap<>();
+
+    /**
+     * Records not yet written to the journal file, guarded by {@code this}
+     */
+    private StringBuilder pending = new StringBuilder();
+
+    /**
+     * The last stage recorded for each deposit left in flight by a previous process
+     */
+    private Map<URI, Stage> recovered = Collections.emptyMap();
+
+    /**
+     * Guards the journal file: held while writing, forcing, or compacting it
+     */
+    private final Object fileLock = new Object();
+
+    private FileChannel channel;
+
+    private ScheduledExecutorService scheduler;
+
+    private boolean syncEachRecord;
+
+    private long records;
+
+    private DepositJournal(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the journal stored in {@code file}, loading the deposits left in flight by a previous process.  The file
+     * is created if it does not exist.  A partially written record at the end of the file (left by a process that died
+     * while writing it) is ignored.
+     *
+     * @param file the journal file
+     * @param syncIntervalMs how often buffered records are forced to disk, in milliseconds, or {@code 0} to force each
+     *                       record as it is made
+     * @param compactIntervalMs how often the journal is compacted, in milliseconds, or {@code 0} to disable compaction
+     * @return the journal
+     * @throws IOException if the file cannot be read or created
+     */
+    public static DepositJournal open(Path file, long syncIntervalMs, long compactIntervalMs) throws IOException {
+        DepositJournal journal = new DepositJournal(file);
+
+        long validLength = 0;
+        if (Files.exists(file)) {
+            byte[] content = Files.readAllBytes(file);
+            // a record is complete once its newline is written; anything after the last newline is a torn record
+            int end = content.length;
+            while (end > 0 && content[end - 1] != '\n') {
+                end--;
+            }
+            if (end < content.length) {
+                LOG.warn(">>>> Ignoring partially written record at the end of journal {}: '{}'", file,
+                        new String(content, end, content.length - end, StandardCharsets.UTF_8));
+            }
+            validLength = end;
+
+            String[] lines = new String(content, 0, end, StandardCharsets.UTF_8).split("\n");
+            for (int i = 0; i < lines.length; i++) {
+                String line = lines[i].trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    journal.apply(Entry.parse(line));
+                } catch (RuntimeException e) {
+                    LOG.warn(">>>> Ignoring malformed record on line {} of journal {}: '{}'", i + 1, file, line);
+                }
+            }
+            journal.recovered = journal.getInFlight();
+            LOG.info(">>>> Opened journal {}: {} deposits in flight", file, journal.recovered.size());
+        } else if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        journal.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        // discard a torn record, so the next record starts on a line of its own
+        journal.channel.truncate(validLength);
+        journal.syncEachRecord = syncIntervalMs <= 0;
+
+        if (syncIntervalMs > 0 || compactIntervalMs > 0) {
+            journal.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "deposit-journal");
+                t.setDaemon(true);
+                return t;
+            });
+            if (syncIntervalMs > 0) {
+                journal.scheduler.scheduleWithFixedDelay(journal::syncQuietly, syncIntervalMs, syncIntervalMs,
+                        TimeUnit.MILLISECONDS);
+            }
+            if (compactIntervalMs > 0) {
+                journal.scheduler.scheduleWithFixedDelay(journal::compactQuietly, compactIntervalMs,
+                        compactIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        return journal;
+    }
+
+    /**
+     * Records that {@code depositUri} has reached {@code stage}.
+     *
+     * @param depositUri the URI of the {@code Deposit}
+     * @param stage the stage reached
+     * @throws UncheckedIOException if the record is forced to disk immediately, and cannot be written
+     */
+    public void record(URI depositUri, Stage stage) {
+        Entry entry = new Entry(System.currentTimeMillis(), stage, depositUri);
+        synchronized (this) {
+            if (channel == null) {
+                throw new IllegalStateException("Journal " + file + " is closed.");
+            }
+            apply(entry);
+            pending.append(entry).append('\n');
+            records++;
+        }
+
+        if (syncEachRecord) {
+            sync();
+        }
+    }
+
+    /**
+     * @return the last stage recorded for each deposit in flight, in the order the deposits were first recorded
+     */
+    public synchronized Map<URI, Stage> getInFlight() {
+        Map<URI, Stage> result = new LinkedHashMap<>();
+        inFlight.forEach((uri, entry) -> result.put(uri, entry.stage));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return the last stage recorded for each deposit left in flight by a previous process, when the journal was
+     *         opened
+     */
+    public Map<URI, Stage> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * @return the number of records made since the journal was opened
+     */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the journal file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Writes the buffered records to the journal file, and forces them to disk.
+     *
+     * @throws UncheckedIOException if the records cannot be written
+     */
+    public void sync() {
+        synchronized (fileLock) {
+            String toWrite;
+            synchronized (this) {
+                if (pending.length() == 0 || channel == null) {
+                    return;
+                }
+                toWrite = pending.toString();
+                pending = new StringBuilder();
+            }
+
+            try {
+                write(channel, toWrite);
+                channel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write journal " + file + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal file with the last record of each deposit in flight, replacing the file atomically so that
+     * a process dying during compaction leaves either the old or the new journal intact.
+     *
+     * @throws IOException if the journal cannot be rewritten
+     */
+    public void compact() throws IOException {
+        synchronized (fileLock) {
+            StringBuilder compacted = new StringBuilder();
+            int before;
+            synchronized (this) {
+                if (channel == null) {
+                    return;
+                }
+                inFlight.values().forEach(entry -> compacted.append(entry).append('\n'));
+                before = inFlight.size();
+                // the buffered records are superseded by the compacted journal
+                pending = new StringBuilder();
+            }
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".compact");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(out, compacted.toString());
+                out.force(true);
+            }
+
+            channel.close();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+
+            LOG.debug(">>>> Compacted journal {}: {} deposits in flight", file, before);
+        }
+    }
+
+    /**
+     * Stops syncing and compacting, writes and forces any buffered records, and closes the journal file.
+     *
+     * @throws IOException if the journal file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+
+        synchronized (fileLock) {
+            sync();
+            synchronized (this) {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the in-flight deposits with {@code entry}.  Must be invoked while holding the monitor of this journal.
+     */
+    private void apply(Entry entry) {
+        if (entry.stage == Stage.DONE) {
+            inFlight.remove(entry.depositUri);
+        } else {
+            inFlight.put(entry.depositUri, entry);
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (Exception e) {
+            LOG.warn(">>>> Unable to sync journal {}: {}", file, e.getMessage(), e);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            LOG.warn(">>>> Unable to compact journal {}: {}", file, e.getMessage(), e);
+        }
+    }
+
+    private static void write(FileChannel channel, String records) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    private static class Entry {
+
+        private final long timestamp;
+
+        private final Stage stage;
+
+        private final URI depositUri;
+
+        private Entry(long timestamp, Stage stage, URI depositUri) {
+            this.timestamp = timestamp;
+            this.stage = stage;
+            this.depositUri = depositUri;
+        }
+
+        private static Entry parse(String line) {
+            String[] fields = line.split(" ", 3);
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Expected 3 fields, found " + fields.length);
+            }
+            return new Entry(Long.parseLong(fields[0]), Stage.valueOf(fields[1]), URI.create(fields[2]));
+        }
+
+        @Override
+        public String toString() {
+            return timestamp + " " + stage + " " + depositUri;
+        }
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.dataconservancy.pass.client.PassJsonAdapter;
+import org.dataconservancy.pass.client.fedora.UpdateConflictException;
+import org.dataconservancy.pass.model.Deposit;
+import org.dataconservancy.pass.model.File;
+import org.dataconservancy.pass.model.Funder;
+import org.dataconservancy.pass.model.Grant;
+import org.dataconservancy.pass.model.Journal;
+import org.dataconservancy.pass.model.PassEntity;
+import org.dataconservancy.pass.model.Policy;
+import org.dataconservancy.pass.model.Publication;
+import org.dataconservancy.pass.model.Publisher;
+import org.dataconservancy.pass.model.Repository;
+import org.dataconservancy.pass.model.RepositoryCopy;
+import org.dataconservancy.pass.model.Submission;
+import org.dataconservancy.pass.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link UnitOfWork} performed in a Fedora transaction: its writes are made within the transaction, and become
+ * visible to other clients of the repository only once the transaction is committed.  Closing the unit of work without
+ * committing it rolls back the transaction.
+ * <p>
+ * Each write is a single request: a created resource is {@code POST}ed to the container for its type (e.g. {@code
+ * Deposit}s to {@code deposits}, {@code RepositoryCopy}s to {@code repositoryCopies}), and an updated resource is
+ * {@code PUT}, conditional on its version tag.  Resources are not re-read once written, so the state answered for a
+ * written resource is the state that was written, without a version tag.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class FcrepoUnitOfWork implements UnitOfWork {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FcrepoUnitOfWork.class);
+
+    private static final MediaType JSON_LD = MediaType.parse("application/ld+json");
+
+    private static final String PREFER_LENIENT = "handling=lenient; received=\"minimal\"";
+
+    private static final String TX_ENDPOINT = "fcr:tx";
+
+    /**
+     * The containers, relative to the base URL of the repository, that resources of each type are created in
+     */
+    private static final Map<Class<? extends PassEntity>, String> CONTAINERS;
+
+    static {
+        Map<Class<? extends PassEntity>, String> containers = new HashMap<>();
+        containers.put(Deposit.class, "deposits");
+        containers.put(File.class, "files");
+        containers.put(Funder.class, "funders");
+        containers.put(Grant.class, "grants");
+        containers.put(Journal.class, "journals");
+        containers.put(Policy.class, "policies");
+        containers.put(Publication.class, "publications");
+        containers.put(Publisher.class, "publishers");
+        containers.put(Repository.class, "repositories");
+        containers.put(RepositoryCopy.class, "repositoryCopies");
+        containers.put(Submission.class, "submissions");
+        containers.put(User.class, "users");
+        CONTAINERS = Collections.unmodifiableMap(containers);
+    }
+
+    private final OkHttpClient okHttpClient;
+
+    private final PassJsonAdapter jsonAdapter;
+
+    private final String baseUrl;
+
+    private final String txUrl;
+
+    private boolean committed;
+
+    private boolean closed;
+
+    private FcrepoUnitOfWork(OkHttpClient okHttpClient, PassJsonAdapter jsonAdapter, String baseUrl, String txUrl) {
+        this.okHttpClient = okHttpClient;
+        this.jsonAdapter = jsonAdapter;
+        this.baseUrl = baseUrl;
+        this.txUrl = txUrl;
+    }
+
+    /**
+     * Begins a unit of work by opening a transaction with the Fedora repository at {@code baseUrl}.
+     *
+     * @param okHttpClient used to make requests of the repository
+     * @param jsonAdapter used to serialize resources
+     * @param baseUrl the base URL of the repository, e.g. {@code http://localhost:8080/fcrepo/rest/}
+     * @return the unit of work
+     */
+    public static FcrepoUnitOfWork begin(OkHttpClient okHttpClient, PassJsonAdapter jsonAdapter, String baseUrl) {
+        String base = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        Request req = new Request.Builder()
+                .post(RequestBody.create(null, new byte[0]))
+                .url(base + TX_ENDPOINT)
+                .build();
+
+        try (Response res = execute(okHttpClient, req)) {
+            String location = res.header("Location");
+            if (location == null) {
+                throw new RuntimeException("Missing Location of the transaction from " + req.method() + " " +
+                        req.url());
+            }
+            LOG.trace(">>>> Began transaction {}", location);
+            return new FcrepoUnitOfWork(okHttpClient, jsonAdapter, base,
+                    location.endsWith("/") ? location.substring(0, location.length() - 1) : location);
+        }
+    }
+
+    @Override
+    public <T extends PassEntity> T create(T resource, Class<T> clazz) {
+        if (resource.getId() != null) {
+            throw new IllegalArgumentException("Resource to be created must not have a URI, but had " +
+                    resource.getId());
+        }
+
+        byte[] json = jsonAdapter.toJson(resource, true);
+        Request req = new Request.Builder()
+                .post(RequestBody.create(JSON_LD, json))
+                .url(txUrl + "/" + container(clazz))
+                .build();
+
+        URI created;
+        try (Response res = execute(okHttpClient, req)) {
+            String location = res.header("Location");
+            if (location == null) {
+                throw new RuntimeException("Missing Location of the created resource from " + req.method() + " " +
+                        req.url());
+            }
+            created = URI.create(outsideTx(location));
+        }
+
+        T copy = jsonAdapter.toModel(json, clazz);
+        copy.setId(created);
+        copy.setVersionTag(null);
+        return copy;
+    }
+
+    @Override
+    public <T extends PassEntity> T update(T resource, Class<T> clazz) {
+        byte[] json = jsonAdapter.toJson(resource, true);
+        Request.Builder builder = new Request.Builder()
+                .put(RequestBody.create(JSON_LD, json))
+                .url(inTx(resource.getId()))
+                .header("Prefer", PREFER_LENIENT);
+        if (resource.getVersionTag() != null) {
+            builder.header("If-Match", resource.getVersionTag());
+        }
+        Request req = builder.build();
+
+        try (Response res = okHttpClient.newCall(req).execute()) {
+            if (res.code() == 412) {
+                throw new UpdateConflictException("Version " + resource.getVersionTag() + " of " + resource.getId() +
+                        " is out of date");
+            }
+            verify(req, res);
+        } catch (IOException e) {
+            throw new RuntimeException("Error executing request " + req + ": " + e.getMessage(), e);
+        }
+
+        T copy = jsonAdapter.toModel(json, clazz);
+        copy.setId(resource.getId());
+        copy.setVersionTag(null);
+        return copy;
+    }
+
+    @Override
+    public void commit() {
+        if (closed) {
+            throw new IllegalStateException("Transaction " + txUrl + " is closed");
+        }
+        execute(okHttpClient, txRequest("fcr:commit")).close();
+        committed = true;
+        LOG.trace(">>>> Committed transaction {}", txUrl);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (committed) {
+            return;
+        }
+
+        try {
+            execute(okHttpClient, txRequest("fcr:rollback")).close();
+            LOG.trace(">>>> Rolled back transaction {}", txUrl);
+        } catch (Exception e) {
+            // an abandoned transaction expires
+            LOG.warn(">>>> Unable to roll back transaction {}: {}", txUrl, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FcrepoUnitOfWork{txUrl='" + txUrl + "', committed=" + committed + ", closed=" + closed + '}';
+    }
+
+    /**
+     * Answers the name of the container resources of type {@code clazz} are created in, e.g. {@code repositoryCopies}
+     * for {@code RepositoryCopy}.
+     *
+     * @throws IllegalArgumentException if {@code clazz} is not a type of resource in the PASS model
+     */
+    static String container(Class<?> clazz) {
+        String container = CONTAINERS.get(clazz);
+        if (container == null) {
+            throw new IllegalArgumentException("No container is known for resources of type " + clazz.getName());
+        }
+        return container;
+    }
+
+    private String inTx(URI resource) {
+        String uri = resource.toString();
+        if (!uri.startsWith(baseUrl)) {
+            throw new IllegalArgumentException("Resource " + uri + " is not in the repository at " + baseUrl);
+        }
+        return txUrl + "/" + uri.substring(baseUrl.length());
+    }
+
+    private String outsideTx(String location) {
+        return location.startsWith(txUrl + "/") ? baseUrl + location.substring(txUrl.length() + 1) : location;
+    }
+
+    private Request txRequest(String action) {
+        return new Request.Builder()
+                .post(RequestBody.create(null, new byte[0]))
+                .url(txUrl + "/" + TX_ENDPOINT + "/" + action)
+                .build();
+    }
+
+    private static Response execute(OkHttpClient okHttpClient, Request req) {
+        Response res;
+        try {
+            res = okHttpClient.newCall(req).execute();
+        } catch (IOException e) {
+            throw new RuntimeException("Error executing request " + req + ": " + e.getMessage(), e);
+        }
+
+        try {
+            verify(req, res);
+        } catch (RuntimeException e) {
+            res.close();
+            throw e;
+        }
+
+        return res;
+    }
+
+    private static void verify(Request req, Response res) {
+        if (res.code() < 200 || res.code() > 299) {
+            throw new RuntimeException("Unexpected response code " + res.code() + " from " + req.method() + " " +
+                    req.url());
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of requests made of Fedora, which deposit services shares with interactive users of PASS.
+ * <p>
+ * Requests are made in one of two {@link Lane lanes}: {@link Lane#LIVE} for the processing of JMS messages, and {@link
+ * Lane#BATCH} for the runners and engines which sweep over many deposits.  Each lane has its own token bucket, which
+ * holds up to {@code burst} permits and is refilled at {@code permitsPerSecond}; a caller that {@link #acquire()
+ * acquires} a permit from an empty bucket blocks until its permit is due.  A rate less than or equal to zero means that
+ * the lane is not limited.  The live lane has priority: while a live request is waiting for a permit, batch requests
+ * wait for the live requests to proceed, so batch work runs at its full rate only when it does not compete with live
+ * work.
+ * </p>
+ * <p>
+ * The lane of a request is the {@link Lane#current() current lane} of the thread making it, which is {@code LIVE}
+ * unless the thread has {@link Lane#enter() entered} another.  The rates and bursts may be changed at runtime, e.g. over
+ * JMX, and the number of throttled requests and the time they spent waiting are counted per lane.  Instances are
+ * thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+@ManagedResource(description = "Limits the rate of requests made of Fedora")
+public class FedoraRateLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FedoraRateLimiter.class);
+
+    private static final ThreadLocal<Lane> CURRENT = ThreadLocal.withInitial(() -> Lane.LIVE);
+
+    /**
+     * How long a batch request waits before checking again whether live requests are still waiting
+     */
+    private static final long YIELD_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    public enum Lane {
+
+        /**
+         * Requests made while processing JMS messages
+         */
+        LIVE,
+
+        /**
+         * Requests made by runners and engines sweeping over many deposits
+         */
+        BATCH;
+
+        /**
+         * @return the lane of requests made by the current thread
+         */
+        public static Lane current() {
+            return CURRENT.get();
+        }
+
+        /**
+         * Makes this the lane of requests made by the current thread, until the returned scope is closed.
+         *
+         * @return a scope which restores the previous lane of the current thread when closed
+         */
+        public Scope enter() {
+            Lane previous = CURRENT.get();
+            CURRENT.set(this);
+            return new Scope(previous);
+        }
+
+        /**
+         * Wraps {@code runnable} so that it runs in this lane, whichever thread runs it.
+         *
+         * @param runnable the runnable
+         * @return the wrapped runnable
+         */
+        public Runnable wrap(Runnable runnable) {
+            return () -> {
+                Scope scope = enter();
+                try {
+                    runnable.run();
+                } finally {
+                    scope.close();
+                }
+            };
+        }
+    }
+
+    /**
+     * Restores the previous lane of a thread when closed.
+     */
+    public static final class Scope implements AutoCloseable {
+
+        private final Lane previous;
+
+        private Scope(Lane previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            CURRENT.set(previous);
+        }
+    }
+
+    private final Map<Lane, Bucket> buckets = new EnumMap<>(Lane.class);
+
+    private final AtomicInteger liveWaiting = new AtomicInteger();
+
+    /**
+     * @param livePermitsPerSecond requests per second allowed in the live lane, or {@code <= 0} for no limit
+     * @param liveBurst the number of requests in the live lane that may be made at once after a quiet period
+     * @param batchPermitsPerSecond requests per second allowed in the batch lane, or {@code <= 0} for no limit
+     * @param batchBurst the number of requests in the batch lane that may be made at once after a quiet period
+     */
+    public FedoraRateLimiter(double livePermitsPerSecond, int liveBurst, double batchPermitsPerSecond,
+                             int batchBurst) {
+        buckets.put(Lane.LIVE, new Bucket(livePermitsPerSecond, liveBurst));
+        buckets.put(Lane.BATCH, new Bucket(batchPermitsPerSecond, batchBurst));
+    }
+
+    /**
+     * Blocks until a request may be made in the {@link Lane#current() current lane}.
+     *
+     * @return the number of milliseconds the caller was blocked
+     * @throws InterruptedException if the caller is interrupted while blocked
+     */
+    public long acquire() throws InterruptedException {
+        return acquire(Lane.current());
+    }
+
+    /**
+     * Blocks until a request may be made in {@code lane}.
+     *
+     * @param lane the lane of the request
+     * @return the number of milliseconds the caller was blocked
+     * @throws InterruptedException if the caller is interrupted while blocked
+     */
+    public long acquire(Lane lane) throws InterruptedException {
+        Bucket bucket = buckets.get(lane);
+        long start = System.nanoTime();
+        boolean delayed = false;
+
+        if (lane == Lane.BATCH) {
+            while (liveWaiting.get() > 0) {
+                delayed = true;
+                TimeUnit.NANOSECONDS.sleep(YIELD_NANOS);
+            }
+        }
+
+        long waitNanos = bucket.reserve();
+        if (waitNanos > 0) {
+            delayed = true;
+            if (lane == Lane.LIVE) {
+                liveWaiting.incrementAndGet();
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } finally {
+                if (lane == Lane.LIVE) {
+                    liveWaiting.decrementAndGet();
+                }
+            }
+        }
+
+        long blockedNanos = System.nanoTime() - start;
+        bucket.acquired.incrementAndGet();
+        if (delayed) {
+            bucket.throttled.incrementAndGet();
+            bucket.delayNanos.addAndGet(blockedNanos);
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos);
+    }
+
+    @ManagedAttribute(description = "Requests per second allowed in the live lane, or <= 0 for no limit")
+    public double getLivePermitsPerSecond() {
+        return buckets.get(Lane.LIVE).getRate();
+    }
+
+    @ManagedAttribute
+    public void setLivePermitsPerSecond(double permitsPerSecond) {
+        setRate(Lane.LIVE, permitsPerSecond);
+    }
+
+    @ManagedAttribute(description = "Requests per second allowed in the batch lane, or <= 0 for no limit")
+    public double getBatchPermitsPerSecond() {
+        return buckets.get(Lane.BATCH).getRate();
+    }
+
+    @ManagedAttribute
+    public void setBatchPermitsPerSecond(double permitsPerSecond) {
+        setRate(Lane.BATCH, permitsPerSecond);
+    }
+
+    @ManagedAttribute(description = "Requests in the live lane that may be made at once after a quiet period")
+    public int getLiveBurst() {
+        return buckets.get(Lane.LIVE).getBurst();
+    }
+
+    @ManagedAttribute
+    public void setLiveBurst(int burst) {
+        buckets.get(Lane.LIVE).setBurst(burst);
+    }
+
+    @ManagedAttribute(description = "Requests in the batch lane that may be made at once after a quiet period")
+    public int getBatchBurst() {
+        return buckets.get(Lane.BATCH).getBurst();
+    }
+
+    @ManagedAttribute
+    public void setBatchBurst(int burst) {
+        buckets.get(Lane.BATCH).setBurst(burst);
+    }
+
+    @ManagedAttribute(description = "Requests made in the live lane")
+    public long getLiveAcquired() {
+        return buckets.get(Lane.LIVE).acquired.get();
+    }
+
+    @ManagedAttribute(description = "Requests made in the batch lane")
+    public long getBatchAcquired() {
+        return buckets.get(Lane.BATCH).acquired.get();
+    }
+
+    @ManagedAttribute(description = "Requests in the live lane which were delayed")
+    public long getLiveThrottled() {
+        return buckets.get(Lane.LIVE).throttled.get();
+    }
+
+    @ManagedAttribute(description = "Requests in the batch lane which were delayed")
+    public long getBatchThrottled() {
+        return buckets.get(Lane.BATCH).throttled.get();
+    }
+
+    @ManagedAttribute(description = "Milliseconds spent delaying requests in the live lane")
+    public long getLiveDelayMs() {
+        return TimeUnit.NANOSECONDS.toMillis(buckets.get(Lane.LIVE).delayNanos.get());
+    }
+
+    @ManagedAttribute(description = "Milliseconds spent delaying requests in the batch lane")
+    public long getBatchDelayMs() {
+        return TimeUnit.NANOSECONDS.toMillis(buckets.get(Lane.BATCH).delayNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "FedoraRateLimiter{live=" + buckets.get(Lane.LIVE) + ", batch=" + buckets.get(Lane.BATCH) + '}';
+    }
+
+    private void setRate(Lane lane, double permitsPerSecond) {
+        buckets.get(lane).setRate(permitsPerSecond);
+        LOG.info(">>>> Fedora requests in the {} lane limited to {} per second", lane,
+                permitsPerSecond > 0 ? permitsPerSecond : "unlimited");
+    }
+
+    /**
+     * A token bucket.  Permits may be reserved from an empty bucket, in which case the bucket goes into debt, so
+     * callers waiting for permits are served in the order they reserved them.
+     */
+    private static class Bucket {
+
+        private final AtomicLong acquired = new AtomicLong();
+
+        private final AtomicLong throttled = new AtomicLong();
+
+        private final AtomicLong delayNanos = new AtomicLong();
+
+        private double rate;
+
+        private int burst;
+
+        private double permits;
+
+        private long refilledAt = System.nanoTime();
+
+        private Bucket(double rate, int burst) {
+            this.rate = rate;
+            this.burst = Math.max(1, burst);
+            this.permits = this.burst;
+        }
+
+        /**
+         * Reserves a permit.
+         *
+         * @return the number of nanoseconds until the reserved permit is due
+         */
+        private synchronized long reserve() {
+            if (rate <= 0) {
+                return 0;
+            }
+            refill();
+            permits -= 1;
+            return permits >= 0 ? 0 : (long) (-permits / rate * TimeUnit.SECONDS.toNanos(1));
+        }
+
+        private synchronized double getRate() {
+            return rate;
+        }
+
+        private synchronized void setRate(double rate) {
+            refill();
+            if (this.rate <= 0) {
+                // no debt is owed by a bucket which wasn't limited
+                permits = burst;
+            }
+            this.rate = rate;
+        }
+
+        private synchronized int getBurst() {
+            return burst;
+        }
+
+        private synchronized void setBurst(int burst) {
+            refill();
+            this.burst = Math.max(1, burst);
+            permits = Math.min(permits, this.burst);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            if (rate > 0) {
+                permits = Math.min(burst, permits + (now - refilledAt) * rate / TimeUnit.SECONDS.toNanos(1));
+            }
+            refilledAt = now;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "{rate=" + rate + ", burst=" + burst + ", acquired=" + acquired + ", throttled=" + throttled +
+                    ", delayMs=" + TimeUnit.NANOSECONDS.toMillis(delayNanos.get()) + '}';
+        }
+    }
+
+}
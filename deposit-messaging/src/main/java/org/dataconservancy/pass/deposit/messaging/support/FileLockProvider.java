@@ -0,0 +1,311 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link LeaseLockProvider} that records leases in files in a directory shared by the JVMs that contend for
+ * resources (e.g. a directory on the local host, or on a shared file system that supports file locks).
+ * <p>
+ * The lease over a resource is recorded in a file named by the SHA-256 digest of its URI, containing the fencing token,
+ * the owner, and the expiry time of the lease.  The file is read and written while holding an exclusive file lock, so
+ * that acquisition, renewal and release are atomic between JVMs.  Expiry times are wall-clock times, so the clocks of
+ * the hosts sharing the directory must be synchronized to well within the lease period.
+ * </p>
+ * <p>
+ * Lease files are {@link #sweep() swept} every {@code sweepIntervalMs}: the file of a resource whose lease was released
+ * or expired more than a lease period ago is removed, so the directory does not grow with every resource ever leased.
+ * A fencing token is never less than the time it was issued at, so the first token issued after the file of a resource
+ * is removed is still greater than any token issued before.  A swept file is marked as removed before it is deleted,
+ * and a JVM that finds the mark after locking a file it had already opened opens the file again.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class FileLockProvider extends LeaseLockProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileLockProvider.class);
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
+
+    private static final String SUFFIX = ".lease";
+
+    /**
+     * The fencing token recorded in a lease file that has been swept
+     */
+    private static final long REMOVED = 0;
+
+    /**
+     * A file lock is held on behalf of the whole JVM, so threads of this JVM (even those of different providers) must
+     * not lock the same file concurrently
+     */
+    private static final Object FILE_LOCK_MONITOR = new Object();
+
+    private final Path directory;
+
+    private final String owner;
+
+    private final long leaseMs;
+
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * @param directory the directory containing the lease files, created if it does not exist
+     * @param owner identifies this JVM in the lease files, or {@code null} to generate an identifier
+     * @param leaseMs how long a lease is issued for, in milliseconds, must be positive
+     * @param acquireTimeoutMs how long to wait to acquire a lease, in milliseconds
+     */
+    public FileLockProvider(Path directory, String owner, long leaseMs, long acquireTimeoutMs) {
+        this(directory, owner, leaseMs, acquireTimeoutMs, leaseMs / 3, leaseMs, System::currentTimeMillis);
+    }
+
+    FileLockProvider(Path directory, String owner, long leaseMs, long acquireTimeoutMs, long renewalIntervalMs,
+                     long sweepIntervalMs, LongSupplier clock) {
+        super(leaseMs, acquireTimeoutMs, renewalIntervalMs, clock);
+        this.directory = directory;
+        this.leaseMs = leaseMs;
+        this.owner = (owner == null || owner.trim().isEmpty()) ?
+                ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID() : owner.trim();
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create lease directory " + directory + ": " + e.getMessage(), e);
+        }
+
+        if (sweepIntervalMs > 0) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "lease-sweeper-" + THREAD_COUNTER.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            sweeper = null;
+        }
+    }
+
+    /**
+     * @return identifies this JVM in the lease files
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    @Override
+    protected long tryAcquire(URI resource, long expiresAt) {
+        return withLeaseFile(resource, (channel, record) -> {
+            if (record != null && record.expiresAt > now()) {
+                return -1L;
+            }
+            long token = Math.max((record == null ? 0 : record.token) + 1, now());
+            write(channel, new Record(token, owner, expiresAt));
+            return token;
+        });
+    }
+
+    @Override
+    protected boolean renew(URI resource, long token, long expiresAt) {
+        return withLeaseFile(resource, (channel, record) -> {
+            if (record == null || record.token != token) {
+                return false;
+            }
+            write(channel, new Record(token, owner, expiresAt));
+            return true;
+        });
+    }
+
+    @Override
+    protected void release(URI resource, long token) {
+        withLeaseFile(resource, (channel, record) -> {
+            if (record != null && record.token == token) {
+                // expired as of now, so the file is swept a lease period from now
+                write(channel, new Record(token, owner, now()));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Stops sweeping lease files, and renewing leases.
+     */
+    @Override
+    public void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        super.close();
+    }
+
+    /**
+     * Removes the lease files of resources whose leases were released or expired more than a lease period ago.
+     *
+     * @return the number of lease files removed
+     */
+    int sweep() {
+        long sweepBefore = now() - leaseMs;
+        int removed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    Boolean swept = withLeaseFile(file, false, (channel, record) -> {
+                        if (record != null && record.expiresAt >= sweepBefore) {
+                            return false;
+                        }
+                        write(channel, new Record(REMOVED, owner, 0));
+                        Files.delete(file);
+                        return true;
+                    });
+                    if (Boolean.TRUE.equals(swept)) {
+                        removed++;
+                    }
+                } catch (IOException e) {
+                    LOG.warn(">>>> Unable to sweep lease file {}: {}", file, e.getMessage(), e);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn(">>>> Unable to sweep lease directory {}: {}", directory, e.getMessage(), e);
+        }
+
+        if (removed > 0) {
+            LOG.debug(">>>> Swept {} lease files from {}", removed, directory);
+        }
+        return removed;
+    }
+
+    /**
+     * Opens and locks the lease file of {@code resource}, and applies {@code operation} to it.
+     */
+    private <R> R withLeaseFile(URI resource, LeaseFileOperation<R> operation) {
+        Path file = directory.resolve(digest(resource) + SUFFIX);
+        try {
+            return withLeaseFile(file, true, operation);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to access lease file " + file + " for " + resource + ": " +
+                    e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Opens and locks {@code file}, and applies {@code operation} to it.  If the file was swept after it was opened,
+     * it is opened again if {@code create} is {@code true}; otherwise {@code operation} is not applied, and {@code
+     * null} is returned, as it is if the file does not exist.
+     */
+    private <R> R withLeaseFile(Path file, boolean create, LeaseFileOperation<R> operation) throws IOException {
+        synchronized (FILE_LOCK_MONITOR) {
+            do {
+                try (FileChannel channel = create ?
+                        FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                StandardOpenOption.WRITE) :
+                        FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    // the lock is released when the channel is closed
+                    channel.lock();
+                    Record record = read(channel);
+                    if (record == null || record.token != REMOVED) {
+                        return operation.apply(channel, record);
+                    }
+                } catch (NoSuchFileException e) {
+                    if (create) {
+                        throw e;
+                    }
+                }
+            } while (create);
+            return null;
+        }
+    }
+
+    private static Record read(FileChannel channel) throws IOException {
+        if (channel.size() == 0) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+        while (buf.hasRemaining() && channel.read(buf, buf.position()) > 0) {
+            // keep reading
+        }
+        String[] fields = new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8).split("\n");
+        try {
+            return new Record(Long.parseLong(fields[0]), fields[1], Long.parseLong(fields[2]));
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed lease file: " + e.getMessage(), e);
+        }
+    }
+
+    private static void write(FileChannel channel, Record record) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap((record.token + "\n" + record.owner + "\n" + record.expiresAt + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        channel.truncate(0);
+        while (buf.hasRemaining()) {
+            channel.write(buf, buf.position());
+        }
+    }
+
+    private static String digest(URI resource) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(resource.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface LeaseFileOperation<R> {
+        R apply(FileChannel channel, Record record) throws IOException;
+    }
+
+    private static class Record {
+
+        private final long token;
+
+        private final String owner;
+
+        private final long expiresAt;
+
+        private Record(long token, String owner, long expiresAt) {
+            this.token = token;
+            this.owner = owner;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
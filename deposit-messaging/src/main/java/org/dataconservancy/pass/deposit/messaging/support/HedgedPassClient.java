@@ -0,0 +1,388 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter.Lane;
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter.Scope;
+import org.dataconservancy.pass.model.PassEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link PassClient} which hedges reads of resources: if a read has not completed within a threshold, a second,
+ * identical read is issued, the first response to arrive is answered, and the other read is cancelled.  This bounds the
+ * latency of a read (e.g. performed while a {@link CriticalPath} holds the lock of a resource) by the latency of the
+ * faster of two requests, rather than by the occasional slow request.
+ * <p>
+ * The threshold is the {@code percentile} of the latencies of the last {@code window} reads, estimated continuously.
+ * The latencies of both reads of a hedged read are observed: a read which is cancelled because the other answered is
+ * observed as the time it had run, so that the estimate is not drawn from the faster reads alone.  No read is hedged until enough latencies have been observed to estimate it.  Hedges are limited by a budget, so that
+ * hedging cannot amplify the load on a repository that is slow because it is overloaded: each read earns {@code budget}
+ * hedges (e.g. {@code 0.05} permits hedging one read in twenty), and a read is hedged only if a whole hedge has been
+ * earned.  Earned hedges accumulate up to {@code budget * window}.
+ * </p>
+ * <p>
+ * Only reads are hedged, because they are idempotent; all other operations are delegated to the underlying client
+ * as-is.  Reads are performed by threads owned by this client, in the {@link Lane} of the calling thread, while the
+ * calling thread waits.  The number of reads, hedged reads, and hedged reads answered by the hedge are counted.
+ * Instances are thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class HedgedPassClient implements PassClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HedgedPassClient.class);
+
+    /**
+     * The minimum number of latencies observed before the threshold is estimated
+     */
+    private static final int MIN_SAMPLES = 100;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final PassClient delegate;
+
+    private final double percentile;
+
+    private final double budget;
+
+    private final ExecutorService readers;
+
+    private final long[] latencies;
+
+    private final int minSamples;
+
+    private final double maxTokens;
+
+    private final AtomicLong reads = new AtomicLong();
+
+    private final AtomicLong hedged = new AtomicLong();
+
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    private int next;
+
+    private int observed;
+
+    private int sinceEstimate;
+
+    private double tokens;
+
+    private volatile long thresholdNanos = -1;
+
+    /**
+     * @param delegate the client which performs requests of the repository
+     * @param percentile the percentile of read latency after which a read is hedged, between {@code 0} and {@code 1}
+     * @param budget the number of hedges earned by each read, between {@code 0} and {@code 1}
+     * @param window the number of recent read latencies the percentile is estimated from, must be positive
+     */
+    public HedgedPassClient(PassClient delegate, double percentile, double budget, int window) {
+        this(delegate, percentile, budget, window, Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "pass-client-read-" + THREADS.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    HedgedPassClient(PassClient delegate, double percentile, double budget, int window, ExecutorService readers) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1, was: " + percentile);
+        }
+        if (budget < 0 || budget > 1) {
+            throw new IllegalArgumentException("Budget must be between 0 and 1, was: " + budget);
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be a positive integer, was: " + window);
+        }
+        this.delegate = delegate;
+        this.percentile = percentile;
+        this.budget = budget;
+        this.readers = readers;
+        this.latencies = new long[window];
+        this.minSamples = Math.min(MIN_SAMPLES, window);
+        this.maxTokens = Math.max(1, budget * window);
+    }
+
+    @Override
+    public <T extends PassEntity> T readResource(URI uri, Class<T> clazz) {
+        reads.incrementAndGet();
+        earn();
+
+        Lane lane = Lane.current();
+        CompletionService<Read<T>> completion = new ExecutorCompletionService<>(readers);
+        long primaryStart = System.nanoTime();
+        Future<Read<T>> primary = completion.submit(() -> read(uri, clazz, lane, false));
+        Future<Read<T>> hedge = null;
+        long hedgeStart = 0;
+        Future<Read<T>> answered = null;
+
+        try {
+            Future<Read<T>> first;
+            long threshold = thresholdNanos;
+            if (threshold < 0) {
+                first = completion.take();
+            } else {
+                first = completion.poll(threshold, TimeUnit.NANOSECONDS);
+                if (first == null && spend()) {
+                    hedged.incrementAndGet();
+                    LOG.debug(">>>> Read of {} exceeded {} ms, hedging it", uri,
+                            TimeUnit.NANOSECONDS.toMillis(threshold));
+                    hedgeStart = System.nanoTime();
+                    hedge = completion.submit(() -> read(uri, clazz, lane, true));
+                }
+                if (first == null) {
+                    first = completion.take();
+                }
+            }
+
+            try {
+                T resource = answer(first.get());
+                answered = first;
+                return resource;
+            } catch (ExecutionException e) {
+                if (hedge == null) {
+                    throw e;
+                }
+                // the first read failed, so answer the other one
+                Future<Read<T>> other = completion.take();
+                T resource = answer(other.get());
+                answered = other;
+                return resource;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted reading " + uri, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            if (answered != primary) {
+                cancel(primary, primaryStart, answered != null);
+            }
+            if (hedge != null && answered != hedge) {
+                cancel(hedge, hedgeStart, answered != null);
+            }
+        }
+    }
+
+    @Override
+    public URI createResource(PassEntity modelObj) {
+        return delegate.createResource(modelObj);
+    }
+
+    @Override
+    public <T extends PassEntity> T createAndReadResource(T modelObj, Class<T> modelClass) {
+        return delegate.createAndReadResource(modelObj, modelClass);
+    }
+
+    @Override
+    public void updateResource(PassEntity modelObj) {
+        delegate.updateResource(modelObj);
+    }
+
+    @Override
+    public <T extends PassEntity> T updateAndReadResource(T modelObj, Class<T> modelClass) {
+        return delegate.updateAndReadResource(modelObj, modelClass);
+    }
+
+    @Override
+    public void deleteResource(URI uri) {
+        delegate.deleteResource(uri);
+    }
+
+    @Override
+    public <T extends PassEntity> URI findByAttribute(Class<T> modelClass, String attribute, Object value) {
+        return delegate.findByAttribute(modelClass, attribute, value);
+    }
+
+    @Override
+    public <T extends PassEntity> Set<URI> findAllByAttribute(Class<T> modelClass, String attribute, Object value) {
+        return delegate.findAllByAttribute(modelClass, attribute, value);
+    }
+
+    @Override
+    public <T extends PassEntity> Set<URI> findAllByAttribute(Class<T> modelClass, String attribute, Object value,
+                                                             int limit, int offset) {
+        return delegate.findAllByAttribute(modelClass, attribute, value, limit, offset);
+    }
+
+    @Override
+    public <T extends PassEntity> Set<URI> findAllByAttributes(Class<T> modelClass, Map<String, Object> valueAttributes) {
+        return delegate.findAllByAttributes(modelClass, valueAttributes);
+    }
+
+    @Override
+    public Map<String, Collection<URI>> getIncoming(URI passEntityUri) {
+        return delegate.getIncoming(passEntityUri);
+    }
+
+    @Override
+    public URI upload(URI entityUri, InputStream content, Map<String, ?> params) {
+        return delegate.upload(entityUri, content, params);
+    }
+
+    /**
+     * @return the number of resources read through this client
+     */
+    public long getReads() {
+        return reads.get();
+    }
+
+    /**
+     * @return the number of reads that were hedged
+     */
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    /**
+     * @return the number of hedged reads answered by the hedge, rather than by the original read
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * @return the current threshold after which a read is hedged, in milliseconds, or {@code -1} if it has not yet
+     *         been estimated
+     */
+    public long getThresholdMs() {
+        long threshold = thresholdNanos;
+        return (threshold < 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(threshold);
+    }
+
+    /**
+     * Stops the threads performing reads.
+     */
+    public void close() {
+        readers.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "HedgedPassClient{thresholdMs=" + getThresholdMs() + ", reads=" + reads.get() + ", hedged=" +
+                hedged.get() + ", hedgeWins=" + hedgeWins.get() + '}';
+    }
+
+    private <T extends PassEntity> Read<T> read(URI uri, Class<T> clazz, Lane lane, boolean isHedge) {
+        Scope scope = lane.enter();
+        try {
+            long start = System.nanoTime();
+            T resource = delegate.readResource(uri, clazz);
+            return new Read<>(resource, System.nanoTime() - start, isHedge);
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Cancels a read which did not answer the caller.  If another read answered, the latency of this read is observed:
+     * its latency if it had completed, or the time it had run if it was cancelled.  Failed reads are not observed.
+     */
+    private <T> void cancel(Future<Read<T>> read, long startNanos, boolean observe) {
+        if (read.cancel(true)) {
+            if (observe) {
+                observe(System.nanoTime() - startNanos);
+            }
+            return;
+        }
+
+        if (observe) {
+            try {
+                observe(read.get().latencyNanos);
+            } catch (ExecutionException | InterruptedException e) {
+                // the read failed
+            }
+        }
+    }
+
+    private <T extends PassEntity> T answer(Read<T> read) {
+        if (read.isHedge) {
+            hedgeWins.incrementAndGet();
+        }
+        observe(read.latencyNanos);
+        return read.resource;
+    }
+
+    /**
+     * Records the latency of a read, re-estimating the threshold once a tenth of the window has been replaced.
+     */
+    private synchronized void observe(long latencyNanos) {
+        latencies[next] = latencyNanos;
+        next = (next + 1) % latencies.length;
+        observed = Math.min(observed + 1, latencies.length);
+
+        if (observed < minSamples || ++sinceEstimate < Math.max(1, latencies.length / 10)) {
+            return;
+        }
+
+        sinceEstimate = 0;
+        long[] sorted = Arrays.copyOf(latencies, observed);
+        Arrays.sort(sorted);
+        thresholdNanos = sorted[Math.min(observed - 1, (int) Math.ceil(percentile * observed) - 1)];
+    }
+
+    private synchronized void earn() {
+        tokens = Math.min(maxTokens, tokens + budget);
+    }
+
+    private synchronized boolean spend() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * The result of a single read, and how long it took.
+     */
+    private static class Read<T> {
+
+        private final T resource;
+
+        private final long latencyNanos;
+
+        private final boolean isHedge;
+
+        private Read(T resource, long latencyNanos, boolean isHedge) {
+            this.resource = resource;
+            this.latencyNanos = latencyNanos;
+            this.isHedge = isHedge;
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which requests are made to remote hosts, independently for each host.
+ * <p>
+ * Each host is allowed a number of requests per second: either a per-host limit, or the default limit.  Requests to a
+ * host are spaced evenly: a caller that {@link #acquire(String) acquires} a permit sooner than {@code 1 / rate} seconds
+ * after the previous permit for the same host blocks until that time.  Requests to different hosts never block each
+ * other.  A rate less than or equal to zero means that requests to the host are not limited.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class HostRateLimiter {
+
+    private final double defaultPermitsPerSecond;
+
+    private final Map<String, Double> hostPermitsPerSecond;
+
+    private final ConcurrentHashMap<String, Schedule> schedules = new ConcurrentHashMap<>();
+
+    /**
+     * Limits every host to {@code defaultPermitsPerSecond}.
+     *
+     * @param defaultPermitsPerSecond requests per second allowed for each host, or {@code <= 0} for no limit
+     */
+    public HostRateLimiter(double defaultPermitsPerSecond) {
+        this(defaultPermitsPerSecond, Collections.emptyMap());
+    }
+
+    /**
+     * Limits the hosts in {@code hostPermitsPerSecond} to their respective rates, and all other hosts to {@code
+     * defaultPermitsPerSecond}.
+     *
+     * @param defaultPermitsPerSecond requests per second allowed for hosts without their own limit, or {@code <= 0}
+     *                                for no limit
+     * @param hostPermitsPerSecond requests per second allowed for specific hosts, keyed by host name
+     */
+    public HostRateLimiter(double defaultPermitsPerSecond, Map<String, Double> hostPermitsPerSecond) {
+        this.defaultPermitsPerSecond = defaultPermitsPerSecond;
+        Map<String, Double> limits = new HashMap<>();
+        hostPermitsPerSecond.forEach((host, rate) -> limits.put(host.toLowerCase(), rate));
+        this.hostPermitsPerSecond = Collections.unmodifiableMap(limits);
+    }
+
+    /**
+     * Parses per-host limits of the form {@code host=rate[,host=rate...]}, e.g. {@code
+     * jscholarship.library.jhu.edu=2,localhost=0.5}.  Blank input results in an empty map.
+     *
+     * @param limits the per-host limits
+     * @return the rates, keyed by host
+     * @throws IllegalArgumentException if an entry is not of the form {@code host=rate}
+     */
+    public static Map<String, Double> parseHostLimits(String limits) {
+        Map<String, Double> result = new HashMap<>();
+        if (limits == null || limits.trim().isEmpty()) {
+            return result;
+        }
+
+        for (String entry : limits.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2 || parts[0].trim().isEmpty()) {
+                throw new IllegalArgumentException("Host rate limit must be of the form 'host=rate', but was '" +
+                        entry.trim() + "'");
+            }
+            try {
+                result.put(parts[0].trim().toLowerCase(), Double.parseDouble(parts[1].trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Host rate limit for '" + parts[0].trim() +
+                        "' must be a number, but was '" + parts[1].trim() + "'", e);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The host that a request for {@code uri} is limited by.
+     *
+     * @param uri the URI, may be {@code null}
+     * @return the lower-cased host, or {@code null} if {@code uri} is {@code null} or has no host
+     */
+    public static String hostOf(String uri) {
+        if (uri == null) {
+            return null;
+        }
+
+        try {
+            String host = URI.create(uri).getHost();
+            return host == null ? null : host.toLowerCase();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Blocks until a request may be made to {@code host}.  A {@code null} host is never limited.
+     *
+     * @param host the host, may be {@code null}
+     * @return the number of milliseconds the caller was blocked
+     * @throws InterruptedException if the caller is interrupted while blocked
+     */
+    public long acquire(String host) throws InterruptedException {
+        if (host == null) {
+            return 0;
+        }
+
+        String key = host.toLowerCase();
+        double rate = hostPermitsPerSecond.getOrDefault(key, defaultPermitsPerSecond);
+        if (rate <= 0) {
+            return 0;
+        }
+
+        long waitNanos = schedules.computeIfAbsent(key, h -> new Schedule((long) (TimeUnit.SECONDS.toNanos(1) / rate)))
+                .reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    /**
+     * The permitted rate for {@code host}.
+     *
+     * @param host the host
+     * @return requests per second, or {@code <= 0} if requests to the host are not limited
+     */
+    public double rateFor(String host) {
+        return hostPermitsPerSecond.getOrDefault(host.toLowerCase(), defaultPermitsPerSecond);
+    }
+
+    /**
+     * The time at which the next request to a host may be made.
+     */
+    private static class Schedule {
+
+        private final long intervalNanos;
+
+        private long nextFreeNanos = System.nanoTime();
+
+        private Schedule(long intervalNanos) {
+            this.intervalNanos = intervalNanos;
+        }
+
+        /**
+         * Reserves the next free slot.
+         *
+         * @return the number of nanoseconds until the reserved slot
+         */
+        private synchronized long reserve() {
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextFreeNanos);
+            nextFreeNanos = slot + intervalNanos;
+            return slot - now;
+        }
+    }
+
+}
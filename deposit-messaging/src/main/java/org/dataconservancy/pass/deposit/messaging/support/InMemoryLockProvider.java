@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link LeaseLockProvider} that records leases in memory, providing exclusion between the threads of a single JVM
+ * only.  Fencing tokens are drawn from a single sequence shared by all resources.
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class InMemoryLockProvider extends LeaseLockProvider {
+
+    private final Map<URI, long[]> leases = new HashMap<>();
+
+    private long lastToken;
+
+    /**
+     * @param leaseMs how long a lease is issued for, in milliseconds, must be positive
+     * @param acquireTimeoutMs how long to wait to acquire a lease, in milliseconds
+     */
+    public InMemoryLockProvider(long leaseMs, long acquireTimeoutMs) {
+        this(leaseMs, acquireTimeoutMs, leaseMs / 3, System::currentTimeMillis);
+    }
+
+    InMemoryLockProvider(long leaseMs, long acquireTimeoutMs, long renewalIntervalMs, LongSupplier clock) {
+        super(leaseMs, acquireTimeoutMs, renewalIntervalMs, clock);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Leases are recorded as {@code [token, expiresAt]}.
+     * </p>
+     */
+    @Override
+    protected synchronized long tryAcquire(URI resource, long expiresAt) {
+        long[] lease = leases.get(resource);
+        if (lease != null && lease[1] > now()) {
+            return -1;
+        }
+        leases.put(resource, new long[] {++lastToken, expiresAt});
+        return lastToken;
+    }
+
+    @Override
+    protected synchronized boolean renew(URI resource, long token, long expiresAt) {
+        long[] lease = leases.get(resource);
+        if (lease == null || lease[0] != token) {
+            return false;
+        }
+        lease[1] = expiresAt;
+        return true;
+    }
+
+    @Override
+    protected synchronized void release(URI resource, long token) {
+        long[] lease = leases.get(resource);
+        if (lease != null && lease[0] == token) {
+            leases.remove(resource);
+        }
+    }
+
+}
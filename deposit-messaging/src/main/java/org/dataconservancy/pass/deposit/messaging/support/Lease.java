@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import java.net.URI;
+
+/**
+ * A time-bounded, exclusive lock over a repository resource, obtained from a {@link LockProvider}.
+ * <p>
+ * A lease expires unless it is renewed, so that the lock is released if its holder dies.  Each lease is issued a
+ * fencing token, which is greater than the token of any lease previously issued for the same resource: a holder whose
+ * lease has expired, and has been issued to another, holds a smaller token than the new holder.  Holders should check
+ * that their lease {@link #isValid() is valid} before modifying the resource.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public interface Lease extends AutoCloseable {
+
+    /**
+     * @return the URI of the resource the lease is held over
+     */
+    URI getResource();
+
+    /**
+     * @return the fencing token issued with the lease
+     */
+    long getFencingToken();
+
+    /**
+     * Answers whether the lease is still held: it has not been released, has not expired, and has not been lost to
+     * another holder.
+     *
+     * @return {@code true} if the lease is still held
+     */
+    boolean isValid();
+
+    /**
+     * Releases the lease.  Must be invoked by the thread that acquired the lease.
+     */
+    @Override
+    void close();
+
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Base {@link LockProvider} that issues leases recorded in a lease store, implemented by subclasses.
+ * <p>
+ * Threads in this JVM contending for the same resource are serialized by a local lock before the store is consulted, so
+ * the store only arbitrates between JVMs, and re-entrant acquisitions never reach the store.  Acquiring a lease from
+ * the store is retried with a back-off until {@code acquireTimeoutMs} elapses.
+ * </p>
+ * <p>
+ * Leases are issued for {@code leaseMs}, and every lease held by this provider is renewed every {@code
+ * renewalIntervalMs} (which ought to be well under {@code leaseMs}), so that long critical sections keep their lease,
+ * while the leases of a JVM that dies expire.  A lease whose renewal is refused by the store (because it expired, and
+ * was issued to another holder) is invalidated.  Expiry times are measured by the {@code clock}, in milliseconds, which
+ * must agree between JVMs sharing a store.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public abstract class LeaseLockProvider implements LockProvider, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LeaseLockProvider.class);
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
+
+    private static final long MIN_BACKOFF_MS = 5;
+
+    private static final long MAX_BACKOFF_MS = 100;
+
+    private final long leaseMs;
+
+    private final long acquireTimeoutMs;
+
+    private final LongSupplier clock;
+
+    private final Map<URI, LocalLock> localLocks = new HashMap<>();
+
+    private final Set<HeldLease> held = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService renewer;
+
+    /**
+     * @param leaseMs how long a lease is issued for, in milliseconds, must be positive
+     * @param acquireTimeoutMs how long to wait to acquire a lease, in milliseconds
+     * @param renewalIntervalMs how often held leases are renewed, in milliseconds, or {@code 0} to disable renewal
+     * @param clock answers the current time, in milliseconds
+     */
+    protected LeaseLockProvider(long leaseMs, long acquireTimeoutMs, long renewalIntervalMs, LongSupplier clock) {
+        if (leaseMs < 1) {
+            throw new IllegalArgumentException("Lease must be a positive integer, was: " + leaseMs);
+        }
+        this.leaseMs = leaseMs;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.clock = clock;
+
+        if (renewalIntervalMs > 0) {
+            renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "lease-renewer-" + THREAD_COUNTER.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            renewer.scheduleWithFixedDelay(this::renewAll, renewalIntervalMs, renewalIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            renewer = null;
+        }
+    }
+
+    @Override
+    public Lease acquire(URI resource) throws InterruptedException {
+        LocalLock local;
+        synchronized (localLocks) {
+            local = localLocks.computeIfAbsent(resource, r -> new LocalLock());
+            local.users++;
+        }
+
+        boolean acquired = false;
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMs);
+            if (!local.lock.tryLock(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+
+            try {
+                if (local.lock.getHoldCount() == 1) {
+                    local.lease = acquireFromStore(resource, deadline);
+                }
+                acquired = local.lease != null;
+                return acquired ? new LeaseHandle(local, local.lease) : null;
+            } finally {
+                if (!acquired) {
+                    local.lock.unlock();
+                }
+            }
+        } finally {
+            if (!acquired) {
+                releaseLocal(resource, local);
+            }
+        }
+    }
+
+    /**
+     * Stops renewing leases.  Leases that are held are not released, and expire.
+     */
+    @Override
+    public void close() {
+        if (renewer != null) {
+            renewer.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of leases held by this provider
+     */
+    public int getHeld() {
+        return held.size();
+    }
+
+    /**
+     * Renews every lease held by this provider.  A lease that cannot be renewed because the store could not be
+     * reached remains valid until it expires.
+     */
+    void renewAll() {
+        for (HeldLease lease : held) {
+            if (!lease.valid) {
+                continue;
+            }
+            long expiresAt = clock.getAsLong() + leaseMs;
+            try {
+                if (renew(lease.resource, lease.token, expiresAt)) {
+                    lease.expiresAt = expiresAt;
+                } else {
+                    lease.valid = false;
+                    LOG.warn(">>>> Lost lease over {} (fencing token {})", lease.resource, lease.token);
+                }
+            } catch (Exception e) {
+                LOG.warn(">>>> Unable to renew lease over {} (fencing token {}): {}", lease.resource, lease.token,
+                        e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the current time, in milliseconds, according to the clock of this provider
+     */
+    protected long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * Records a lease over {@code resource} in the store, if the resource is not leased, or its lease has expired.
+     *
+     * @param resource the URI of the resource
+     * @param expiresAt when the lease expires, in milliseconds
+     * @return the fencing token issued with the lease, which must be positive, or {@code -1} if the resource is leased
+     */
+    protected abstract long tryAcquire(URI resource, long expiresAt);
+
+    /**
+     * Extends the lease over {@code resource}, if it was issued with {@code token} and has not since been issued to
+     * another holder.
+     *
+     * @param resource the URI of the resource
+     * @param token the fencing token issued with the lease
+     * @param expiresAt when the lease expires, in milliseconds
+     * @return {@code false} if the lease has been issued to another holder
+     */
+    protected abstract boolean renew(URI resource, long token, long expiresAt);
+
+    /**
+     * Removes the lease over {@code resource} from the store, if it was issued with {@code token}.
+     *
+     * @param resource the URI of the resource
+     * @param token the fencing token issued with the lease
+     */
+    protected abstract void release(URI resource, long token);
+
+    private HeldLease acquireFromStore(URI resource, long deadline) throws InterruptedException {
+        long backoffMs = MIN_BACKOFF_MS;
+        while (true) {
+            long expiresAt = clock.getAsLong() + leaseMs;
+            long token = tryAcquire(resource, expiresAt);
+            if (token > 0) {
+                HeldLease lease = new HeldLease(resource, token, expiresAt);
+                held.add(lease);
+                LOG.trace(">>>> Acquired lease over {} (fencing token {})", resource, token);
+                return lease;
+            }
+
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) {
+                LOG.debug(">>>> Timed out acquiring lease over {}", resource);
+                return null;
+            }
+            Thread.sleep(Math.min(backoffMs, remainingMs));
+            backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    private void releaseLocal(URI resource, LocalLock local) {
+        synchronized (localLocks) {
+            if (--local.users == 0) {
+                localLocks.remove(resource);
+            }
+        }
+    }
+
+    /**
+     * Serializes the threads of this JVM over a resource, and holds the lease while they do.
+     */
+    private static class LocalLock {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Guarded by {@code localLocks}
+         */
+        private int users;
+
+        /**
+         * Guarded by {@code lock}
+         */
+        private HeldLease lease;
+    }
+
+    private class HeldLease {
+
+        private final URI resource;
+
+        private final long token;
+
+        private volatile long expiresAt;
+
+        private volatile boolean valid = true;
+
+        private HeldLease(URI resource, long token, long expiresAt) {
+            this.resource = resource;
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * One acquisition of a lease by a thread
+     */
+    private class LeaseHandle implements Lease {
+
+        private final LocalLock local;
+
+        private final HeldLease lease;
+
+        private boolean closed;
+
+        private LeaseHandle(LocalLock local, HeldLease lease) {
+            this.local = local;
+            this.lease = lease;
+        }
+
+        @Override
+        public URI getResource() {
+            return lease.resource;
+        }
+
+        @Override
+        public long getFencingToken() {
+            return lease.token;
+        }
+
+        @Override
+        public boolean isValid() {
+            return !closed && lease.valid && clock.getAsLong() < lease.expiresAt;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                if (local.lock.getHoldCount() == 1) {
+                    held.remove(lease);
+                    local.lease = null;
+                    if (lease.valid) {
+                        lease.valid = false;
+                        release(lease.resource, lease.token);
+                        LOG.trace(">>>> Released lease over {} (fencing token {})", lease.resource, lease.token);
+                    }
+                }
+            } catch (Exception e) {
+                LOG.warn(">>>> Unable to release lease over {} (fencing token {}), it will expire: {}",
+                        lease.resource, lease.token, e.getMessage(), e);
+            } finally {
+                local.lock.unlock();
+                releaseLocal(lease.resource, local);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Lease{resource=" + lease.resource + ", fencingToken=" + lease.token + '}';
+        }
+    }
+
+}
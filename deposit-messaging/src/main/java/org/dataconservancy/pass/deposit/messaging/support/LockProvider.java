@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import java.net.URI;
+
+/**
+ * Provides exclusive {@link Lease}s over repository resources, used by the {@link CriticalPath} to insure that only
+ * one thread interacts with a resource at a time.  Depending on the implementation, the exclusion may extend to threads
+ * in other JVMs.
+ * <p>
+ * Leases are re-entrant: a thread that holds the lease over a resource may acquire it again, and must close each
+ * acquisition.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public interface LockProvider {
+
+    /**
+     * Acquires the lease over {@code resource}, blocking until it is acquired, or the acquisition times out.
+     *
+     * @param resource the URI of the resource
+     * @return the lease, or {@code null} if it could not be acquired in time
+     * @throws InterruptedException if the thread is interrupted while waiting for the lease
+     */
+    Lease acquire(URI resource) throws InterruptedException;
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.Json.JSON_ID;
+
+/**
+ * The values of the well-known keys of a JMS message emitted by Fedora, parsed from the message body in a single pass.
+ * <p>
+ * The message body is scanned token by token, and only the following values are retained:
+ * </p>
+ * <ul>
+ *     <li>the {@code id} of the resource: the first {@code id} in the message</li>
+ *     <li>the types of the resource: the top-level {@code type}</li>
+ *     <li>the {@link Attribution}s of the event: the first {@code wasAttributedTo}</li>
+ * </ul>
+ * <p>
+ * The scan stops as soon as all three values have been found, so the (typically large) JSON-LD {@code @context} of the
+ * message is usually not read.  Instances are immutable.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class MessagePayload {
+
+    private static final String TYPE = "type";
+
+    private static final String NAME = "name";
+
+    private static final String WAS_ATTRIBUTED_TO = "wasAttributedTo";
+
+    /**
+     * Thread-safe, and shared so that parsers benefit from its symbol tables
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final String id;
+
+    private final List<String> types;
+
+    private final List<Attribution> attributions;
+
+    private MessagePayload(String id, List<String> types, List<Attribution> attributions) {
+        this.id = id;
+        this.types = types;
+        this.attributions = attributions;
+    }
+
+    /**
+     * Parses the body of a JMS message emitted by Fedora.
+     *
+     * @param json the message body
+     * @return the parsed message body
+     * @throws RuntimeException if {@code json} cannot be parsed
+     */
+    public static MessagePayload parse(String json) {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new RuntimeException("Unable to parse the following to a JSON object:\n" + json);
+            }
+
+            String id = null;
+            List<String> types = null;
+            List<Attribution> attributions = null;
+            int depth = 1;
+
+            JsonToken token;
+            while (depth > 0 && (id == null || types == null || attributions == null) &&
+                    (token = parser.nextToken()) != null) {
+                switch (token) {
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        depth++;
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        depth--;
+                        break;
+                    case FIELD_NAME:
+                        String name = parser.getCurrentName();
+                        JsonToken value = parser.nextToken();
+                        if (depth == 1 && TYPE.equals(name) && types == null) {
+                            types = readStrings(parser, value);
+                        } else if (WAS_ATTRIBUTED_TO.equals(name) && attributions == null) {
+                            attributions = readAttributions(parser, value);
+                        } else if (JSON_ID.equals(name) && id == null && value.isScalarValue()) {
+                            id = parser.getText();
+                        } else if (value.isStructStart()) {
+                            depth++;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            return new MessagePayload(id,
+                    types == null ? Collections.emptyList() : types,
+                    attributions == null ? Collections.emptyList() : attributions);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to parse JMS message body: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the {@code id} of the resource, or {@code null} if the message has no {@code id}
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * @return the types of the resource, which may be empty
+     */
+    public List<String> types() {
+        return types;
+    }
+
+    /**
+     * @return the agents the event is attributed to, which may be empty
+     */
+    public List<Attribution> attributions() {
+        return attributions;
+    }
+
+    @Override
+    public String toString() {
+        return "MessagePayload{id='" + id + "', types=" + types + ", attributions=" + attributions + '}';
+    }
+
+    /**
+     * Reads a string or an array of strings; other values are skipped.
+     */
+    private static List<String> readStrings(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return Collections.singletonList(parser.getText());
+        }
+
+        List<String> strings = new ArrayList<>();
+        if (value == JsonToken.START_ARRAY) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == JsonToken.VALUE_STRING) {
+                    strings.add(parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } else {
+            parser.skipChildren();
+        }
+        return strings;
+    }
+
+    /**
+     * Reads an attribution object, or an array of attribution objects; other values are skipped.
+     */
+    private static List<Attribution> readAttributions(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.START_OBJECT) {
+            return Collections.singletonList(readAttribution(parser));
+        }
+
+        List<Attribution> attributions = new ArrayList<>();
+        if (value == JsonToken.START_ARRAY) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == JsonToken.START_OBJECT) {
+                    attributions.add(readAttribution(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } else {
+            parser.skipChildren();
+        }
+        return attributions;
+    }
+
+    /**
+     * Reads the {@code type} and {@code name} of an attribution object, positioned at its start.
+     */
+    private static Attribution readAttribution(JsonParser parser) throws IOException {
+        String type = null;
+        String name = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_STRING && TYPE.equals(field)) {
+                type = parser.getText();
+            } else if (value == JsonToken.VALUE_STRING && NAME.equals(field)) {
+                name = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new Attribution(type, name);
+    }
+
+    /**
+     * An agent that an event is attributed to, e.g. a {@link Constants.Prov#SOFTWARE_AGENT software agent}.
+     */
+    public static class Attribution {
+
+        private final String type;
+
+        private final String name;
+
+        Attribution(String type, String name) {
+            this.type = type;
+            this.name = name;
+        }
+
+        /**
+         * @return the type of the agent, or {@code null}
+         */
+        public String type() {
+            return type;
+        }
+
+        /**
+         * @return the name of the agent, or {@code null}
+         */
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return "Attribution{type='" + type + "', name='" + name + "'}";
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.model.PassEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates over the URIs matched by a search of the index, one page at a time.
+ * <p>
+ * Rather than collecting every matching URI before any work can start (c.f. {@link
+ * PassClient#findAllByAttribute(Class, String, Object)}), the search is performed a page at a time, and at most two
+ * pages are held in memory: the page being iterated, and the next page, which is retrieved in the background while the
+ * current page is consumed.  The iteration ends with the first page that is not full.
+ * </p>
+ * <p>
+ * Pages are addressed by offset.  If the matching resources change while they are being iterated (e.g. a retried
+ * {@code Deposit} no longer has a {@code FAILED} status), later results shift toward the start of the results.  So the
+ * URIs returned by the last two pages are remembered, and each page is retrieved together with those of them which
+ * still matched when the last page was retrieved, and dropped from it.  The end of each page is brought forward by the
+ * number of remembered results that stopped matching between the last two retrievals, i.e. by the expected shift.  A
+ * result is skipped only if more results stop matching ahead of it between two retrievals than the last two pages
+ * returned, and is returned twice only if results start matching ahead of it; either way the runners find it again on
+ * their next run.  Only the last two pages are remembered, so memory is bounded by the size of the pages, however many
+ * results there are.
+ * </p>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class PagedUriIterator implements Iterator<URI>, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PagedUriIterator.class);
+
+    /**
+     * Retrieves a page of search results.
+     */
+    @FunctionalInterface
+    public interface PageFetcher {
+
+        /**
+         * @param limit the maximum number of results
+         * @param offset the offset of the first result
+         * @return the page of results, never {@code null}
+         */
+        Collection<URI> fetch(int limit, int offset);
+
+    }
+
+    private final PageFetcher fetcher;
+
+    private final int pageSize;
+
+    private final ExecutorService prefetcher;
+
+    private Future<Collection<URI>> nextPage;
+
+    private int nextOffset;
+
+    private int nextLimit;
+
+    /**
+     * The offset just past the last result retrieved, when it was retrieved
+     */
+    private int end;
+
+    /**
+     * The number of remembered URIs which matched when the last page was retrieved
+     */
+    private int matched;
+
+    /**
+     * The number of remembered URIs which no longer matched when the last page was retrieved
+     */
+    private int shift;
+
+    private Iterator<URI> current = Collections.emptyIterator();
+
+    /**
+     * The URIs returned by the last two pages
+     */
+    private final Deque<Set<URI>> returned = new ArrayDeque<>();
+
+    /**
+     * @param fetcher retrieves pages of search results
+     * @param pageSize the number of results per page, must be positive
+     */
+    public PagedUriIterator(PageFetcher fetcher, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be a positive integer, was: " + pageSize);
+        }
+        this.fetcher = fetcher;
+        this.pageSize = pageSize;
+        this.prefetcher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "paged-search");
+            t.setDaemon(true);
+            return t;
+        });
+        prefetch();
+    }
+
+    /**
+     * Answers an {@code Iterable} over the URIs of resources of type {@code modelClass} whose {@code attribute} equals
+     * {@code value}.  Each call to {@link Iterable#iterator()} performs a new search.
+     *
+     * @param passClient the client used to search the index
+     * @param modelClass the type of resource
+     * @param attribute the attribute to search
+     * @param value the value of the attribute, may be {@code null}
+     * @param pageSize the number of results per page
+     * @param <T> the type of resource
+     * @return the URIs of matching resources
+     */
+    public static <T extends PassEntity> Iterable<URI> search(PassClient passClient, Class<T> modelClass,
+                                                              String attribute, Object value, int pageSize) {
+        return () -> new PagedUriIterator((limit, offset) ->
+                passClient.findAllByAttribute(modelClass, attribute, value, limit, offset), pageSize);
+    }
+
+    /**
+     * Answers an {@code Iterable} that iterates over each of the supplied {@code Iterable}s in turn.
+     *
+     * @param iterables the {@code Iterable}s
+     * @return the concatenation of the {@code iterables}
+     */
+    @SafeVarargs
+    public static Iterable<URI> concat(Iterable<URI>... iterables) {
+        return () -> new Iterator<URI>() {
+
+            private int index = 0;
+
+            private Iterator<URI> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && index < iterables.length) {
+                    current = iterables[index++].iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public URI next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (nextPage == null) {
+                return false;
+            }
+
+            Collection<URI> page = await(nextPage);
+
+            // Drop URIs returned by the last two pages, which are retrieved again with this page
+            Set<URI> last = returned.isEmpty() ? Collections.emptySet() : returned.getLast();
+            Set<URI> unseen = new LinkedHashSet<>();
+            int found = 0;
+            int foundLast = 0;
+            for (URI uri : page) {
+                if (last.contains(uri)) {
+                    found++;
+                    foundLast++;
+                } else if (returned.stream().anyMatch(uris -> uris.contains(uri))) {
+                    found++;
+                } else {
+                    unseen.add(uri);
+                }
+            }
+            shift = Math.max(0, matched - found);
+            matched = foundLast + unseen.size();
+            returned.addLast(new HashSet<>(unseen));
+            if (returned.size() > 2) {
+                returned.removeFirst();
+            }
+
+            if (page.size() >= nextLimit) {
+                end = nextOffset + page.size();
+                prefetch();
+            } else {
+                nextPage = null;
+                prefetcher.shutdown();
+            }
+
+            current = unseen.iterator();
+        }
+
+        return true;
+    }
+
+    @Override
+    public URI next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Abandons the iteration, cancelling the retrieval of the next page.
+     */
+    @Override
+    public void close() {
+        if (nextPage != null) {
+            nextPage.cancel(true);
+            nextPage = null;
+        }
+        prefetcher.shutdownNow();
+        current = Collections.emptyIterator();
+    }
+
+    /**
+     * @return the number of URIs remembered, which is never more than the results retrieved by two pages
+     */
+    int remembered() {
+        return returned.stream().mapToInt(Set::size).sum();
+    }
+
+    /**
+     * Retrieves the next page, together with the remembered results which matched when the last page was retrieved.
+     */
+    private void prefetch() {
+        int offset = Math.max(0, end - matched);
+        int limit = Math.max(pageSize, end + pageSize - shift - offset);
+        nextOffset = offset;
+        nextLimit = limit;
+        nextPage = prefetcher.submit(() -> {
+            LOG.debug(">>>> Retrieving search results {} to {}", offset, offset + limit - 1);
+            return fetcher.fetch(limit, offset);
+        });
+    }
+
+    private Collection<URI> await(Future<Collection<URI>> page) {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new RuntimeException("Interrupted while retrieving search results", e);
+        } catch (ExecutionException e) {
+            close();
+            throw new RuntimeException("Failed to retrieve search results: " + e.getCause().getMessage(),
+                    e.getCause());
+        }
+    }
+
+}
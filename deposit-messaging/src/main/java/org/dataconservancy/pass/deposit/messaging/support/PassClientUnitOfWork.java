@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.model.PassEntity;
+
+/**
+ * A {@link UnitOfWork} which performs each write immediately using the {@link PassClient}, re-reading the resource it
+ * wrote.  Writes are not atomic: committing does nothing, and writes are not discarded when it is closed.
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class PassClientUnitOfWork implements UnitOfWork {
+
+    private final PassClient passClient;
+
+    public PassClientUnitOfWork(PassClient passClient) {
+        this.passClient = passClient;
+    }
+
+    @Override
+    public <T extends PassEntity> T create(T resource, Class<T> clazz) {
+        return passClient.createAndReadResource(resource, clazz);
+    }
+
+    @Override
+    public <T extends PassEntity> T update(T resource, Class<T> clazz) {
+        return passClient.updateAndReadResource(resource, clazz);
+    }
+
+    @Override
+    public void commit() {
+        // no-op, each write has been performed
+    }
+
+    @Override
+    public void close() {
+        // no-op, writes cannot be discarded
+    }
+
+}
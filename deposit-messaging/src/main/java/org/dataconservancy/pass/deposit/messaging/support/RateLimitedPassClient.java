@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.model.PassEntity;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link PassClient} which limits the rate of the requests it makes of Fedora by a {@link FedoraRateLimiter}, in the
+ * lane of the calling thread.  Searches are answered by the index rather than Fedora, and are not limited.
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class RateLimitedPassClient implements PassClient {
+
+    private final PassClient delegate;
+
+    private final FedoraRateLimiter limiter;
+
+    /**
+     * @param delegate the client which performs requests of the repository
+     * @param limiter limits the rate of requests made of Fedora
+     */
+    public RateLimitedPassClient(PassClient delegate, FedoraRateLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public URI createResource(PassEntity modelObj) {
+        acquire();
+        return delegate.createResource(modelObj);
+    }
+
+    @Override
+    public <T extends PassEntity> T createAndReadResource(T modelObj, Class<T> modelClass) {
+        acquire();
+        return delegate.createAndReadResource(modelObj, modelClass);
+    }
+
+    @Override
+    public void updateResource(PassEntity modelObj) {
+        acquire();
+        delegate.updateResource(modelObj);
+    }
+
+    @Override
+    public <T extends PassEntity> T updateAndReadResource(T modelObj, Class<T> modelClass) {
+        acquire();
+        return delegate.updateAndReadResource(modelObj, modelClass);
+    }
+
+    @Override
+    public <T extends PassEntity> T readResource(URI uri, Class<T> modelClass) {
+        acquire();
+        return delegate.readResource(uri, modelClass);
+    }
+
+    @Override
+    public void deleteResource(URI uri) {
+        acquire();
+        delegate.deleteResource(uri);
+    }
+
+    @Override
+    public <T extends PassEntity> URI findByAttribute(Class<T> modelClass, String attribute, Object value) {
+        return delegate.findByAttribute(modelClass, attribute, value);
+    }
+
+    @Override
+    public <T extends PassEntity> Set<URI> findAllByAttribute(Class<T> modelClass, String attribute, Object value) {
+        return delegate.findAllByAttribute(modelClass, attribute, value);
+    }
+
+    @Override
+    public <T extends PassEntity> Set<URI> findAllByAttribute(Class<T> modelClass, String attribute, Object value,
+                                                             int limit, int offset) {
+        return delegate.findAllByAttribute(modelClass, attribute, value, limit, offset);
+    }
+
+    @Override
+    public <T extends PassEntity> Set<URI> findAllByAttributes(Class<T> modelClass, Map<String, Object> valueAttributes) {
+        return delegate.findAllByAttributes(modelClass, valueAttributes);
+    }
+
+    @Override
+    public Map<String, Collection<URI>> getIncoming(URI passEntityUri) {
+        return delegate.getIncoming(passEntityUri);
+    }
+
+    @Override
+    public URI upload(URI entityUri, InputStream content, Map<String, ?> params) {
+        acquire();
+        return delegate.upload(entityUri, content, params);
+    }
+
+    private void acquire() {
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting to make a request of Fedora", e);
+        }
+    }
+
+}
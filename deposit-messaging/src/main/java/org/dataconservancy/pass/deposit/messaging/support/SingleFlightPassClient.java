@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.client.PassJsonAdapter;
+import org.dataconservancy.pass.model.PassEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link PassClient} which coalesces concurrent reads of the same resource: while a resource is being read from the
+ * repository, other threads reading the same resource wait for that read to complete and share its result, rather than
+ * issuing a request of their own.
+ * <p>
+ * Nothing is cached: once a read completes, the next read of the resource is issued to the repository.  A thread
+ * joining a read in progress receives a copy of the resource, so callers remain free to modify the resources they
+ * read.  If the read fails, each thread that shared it receives the same exception.  A write of a resource made
+ * through this client detaches any read of the resource in progress, both before and after the write is performed, so
+ * a read that follows a write never shares a read that began before the write completed.  All other operations are delegated to the underlying client as-is.
+ * </p>
+ * <p>
+ * The number of reads, and the number of reads that were answered by a read already in progress, are counted.
+ * Instances are thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class SingleFlightPassClient implements PassClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SingleFlightPassClient.class);
+
+    private final PassClient delegate;
+
+    private final PassJsonAdapter jsonAdapter;
+
+    private final Map<URI, Flight> flights = new ConcurrentHashMap<>();
+
+    private final AtomicLong reads = new AtomicLong();
+
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * @param delegate the client which performs requests of the repository
+     * @param jsonAdapter used to copy resources shared between threads
+     */
+    public SingleFlightPassClient(PassClient delegate, PassJsonAdapter jsonAdapter) {
+        this.delegate = delegate;
+        this.jsonAdapter = jsonAdapter;
+    }
+
+    @Override
+    public <T extends PassEntity> T readResource(URI uri, Class<T> clazz) {
+        reads.incrementAndGet();
+
+        Flight flight = new Flight(clazz);
+        Flight inFlight = flights.putIfAbsent(uri, flight);
+
+        if (inFlight != null && inFlight.join(clazz)) {
+            shared.incrementAndGet();
+            LOG.trace(">>>> Sharing the read of {} in progress", uri);
+            return inFlight.await(clazz);
+        }
+
+        if (inFlight != null) {
+            // the read in progress is of another type, or is completing; don't wait for it
+            return delegate.readResource(uri, clazz);
+        }
+
+        T resource;
+        try {
+            resource = delegate.readResource(uri, clazz);
+        } catch (RuntimeException e) {
+            flights.remove(uri, flight);
+            flight.fail(e);
+            throw e;
+        }
+
+        flights.remove(uri, flight);
+        flight.complete(resource);
+        return resource;
+    }
+
+    @Override
+    public URI createResource(PassEntity modelObj) {
+        return delegate.createResource(modelObj);
+    }
+
+    @Override
+    public <T extends PassEntity> T createAndReadResource(T modelObj, Class<T> modelClass) {
+        return delegate.createAndReadResource(modelObj, modelClass);
+    }
+
+    @Override
+    public void updateResource(PassEntity modelObj) {
+        detach(modelObj.getId());
+        try {
+            delegate.updateResource(modelObj);
+        } finally {
+            // a read begun while the write was in progress may have read the resource as it was before the write
+            detach(modelObj.getId());
+        }
+    }
+
+    @Override
+    public <T extends PassEntity> T updateAndReadResource(T modelObj, Class<T> modelClass) {
+        detach(modelObj.getId());
+        try {
+            return delegate.updateAndReadResource(modelObj, modelClass);
+        } finally {
+            detach(modelObj.getId());
+        }
+    }
+
+    @Override
+    public void deleteResource(URI uri) {
+        detach(uri);
+        try {
+            delegate.deleteResource(uri);
+        } finally {
+            detach(uri);
+        }
+    }
+
+    @Override
+    public <T extends PassEntity> URI findByAttribute(Class<T> modelClass, String attribute, Object value) {
+        return delegate.findByAttribute(modelClass, attribute, value);
+    }
+
+    @Override
+    public <T extends PassEntity> Set<URI> findAllByAttribute(Class<T> modelClass, String attribute, Object value) {
+        return delegate.findAllByAttribute(modelClass, attribute, value);
+    }
+
+    @Override
+    public <T extends PassEntity> Set<URI> findAllByAttribute(Class<T> modelClass, String attribute, Object value,
+                                                             int limit, int offset) {
+        return delegate.findAllByAttribute(modelClass, attribute, value, limit, offset);
+    }
+
+    @Override
+    public <T extends PassEntity> Set<URI> findAllByAttributes(Class<T> modelClass, Map<String, Object> valueAttributes) {
+        return delegate.findAllByAttributes(modelClass, valueAttributes);
+    }
+
+    @Override
+    public Map<String, Collection<URI>> getIncoming(URI passEntityUri) {
+        return delegate.getIncoming(passEntityUri);
+    }
+
+    @Override
+    public URI upload(URI entityUri, InputStream content, Map<String, ?> params) {
+        return delegate.upload(entityUri, content, params);
+    }
+
+    /**
+     * @return the number of resources read through this client
+     */
+    public long getReads() {
+        return reads.get();
+    }
+
+    /**
+     * @return the number of reads answered by a read already in progress
+     */
+    public long getShared() {
+        return shared.get();
+    }
+
+    /**
+     * @return the fraction of reads answered by a read already in progress, between {@code 0} and {@code 1}
+     */
+    public double getDeduplicationRatio() {
+        long total = reads.get();
+        return (total == 0) ? 0 : (double) shared.get() / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SingleFlightPassClient{inFlight=%s, reads=%s, shared=%s, ratio=%.2f}", flights.size(),
+                reads.get(), shared.get(), getDeduplicationRatio());
+    }
+
+    /**
+     * Ensures reads of {@code uri} which begin after this method returns are not answered by a read in progress.
+     */
+    private void detach(URI uri) {
+        if (uri != null) {
+            flights.remove(uri);
+        }
+    }
+
+    /**
+     * A read of a resource in progress, and the threads waiting for it.
+     */
+    private class Flight {
+
+        private final Class<?> type;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private int followers;
+
+        private boolean sealed;
+
+        private byte[] json;
+
+        private String versionTag;
+
+        private boolean found;
+
+        private RuntimeException failure;
+
+        private Flight(Class<?> type) {
+            this.type = type;
+        }
+
+        /**
+         * Joins this read, unless it is of another type, or has completed.
+         *
+         * @return {@code true} if the caller may {@link #await(Class) wait} for the result of this read
+         */
+        private synchronized boolean join(Class<?> clazz) {
+            if (sealed || clazz != type) {
+                return false;
+            }
+            followers++;
+            return true;
+        }
+
+        private <T extends PassEntity> T await(Class<T> clazz) {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted waiting for the read of a resource in progress", e);
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+
+            if (!found) {
+                return null;
+            }
+
+            T copy = jsonAdapter.toModel(json, clazz);
+            copy.setVersionTag(versionTag);
+            return copy;
+        }
+
+        /**
+         * Records the result of the read, serializing it only if other threads are waiting for it: the caller which
+         * performed the read may modify the resource as soon as this method returns.
+         */
+        private void complete(PassEntity resource) {
+            synchronized (this) {
+                sealed = true;
+                if (followers > 0 && resource != null) {
+                    try {
+                        json = jsonAdapter.toJson(resource, false);
+                        versionTag = resource.getVersionTag();
+                        found = true;
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+            }
+            done.countDown();
+        }
+
+        private void fail(RuntimeException e) {
+            synchronized (this) {
+                sealed = true;
+                failure = e;
+            }
+            done.countDown();
+        }
+    }
+
+}
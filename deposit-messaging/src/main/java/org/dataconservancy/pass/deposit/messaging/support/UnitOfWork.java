@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.client.fedora.UpdateConflictException;
+import org.dataconservancy.pass.model.PassEntity;
+
+/**
+ * A group of related writes to the repository (e.g. the {@code RepositoryCopy} and {@code Deposit} of a deposit
+ * tuple), which are committed together.
+ * <p>
+ * Whether the writes are atomic depends on the implementation: a {@link FcrepoUnitOfWork} performs its writes in a
+ * Fedora transaction, so they are visible to other clients only once {@link #commit() committed}, and are discarded if
+ * the unit of work is {@link #close() closed} without being committed.  A {@link PassClientUnitOfWork} performs each
+ * write immediately.  In either case, an update is conditional on the version tag of the resource, if it has one, and
+ * fails with an {@link UpdateConflictException} if the resource has been modified since.
+ * </p>
+ * <p>
+ * Instances are not thread-safe, and must be closed.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public interface UnitOfWork extends AutoCloseable {
+
+    /**
+     * Creates {@code resource} as part of this unit of work.  {@code resource} is not modified.
+     *
+     * @param resource the resource to create, which must not have a URI
+     * @param clazz the type of the resource
+     * @param <T> the type of the resource
+     * @return the state of the created resource, including its URI
+     */
+    <T extends PassEntity> T create(T resource, Class<T> clazz);
+
+    /**
+     * Updates {@code resource} as part of this unit of work.  {@code resource} is not modified.
+     *
+     * @param resource the resource to update
+     * @param clazz the type of the resource
+     * @param <T> the type of the resource
+     * @return the state of the updated resource; its version tag is {@code null} if it is not known until the unit of
+     *         work is committed
+     * @throws UpdateConflictException if the resource has been modified since its version tag was obtained
+     */
+    <T extends PassEntity> T update(T resource, Class<T> clazz);
+
+    /**
+     * Commits the writes made by this unit of work.
+     */
+    void commit();
+
+    /**
+     * Closes this unit of work, discarding its writes if it has not been committed, and they can be discarded.
+     */
+    @Override
+    void close();
+
+    /**
+     * Begins units of work.
+     */
+    @FunctionalInterface
+    interface Factory {
+
+        /**
+         * @return a new unit of work, which the caller must close
+         */
+        UnitOfWork begin();
+
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.client.PassJsonAdapter;
+import org.dataconservancy.pass.model.PassEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retains the last known state of repository resources, as observed by the {@link CriticalPath} after successfully
+ * updating them, so that a subsequent interaction with the same resource can begin without reading it from the
+ * repository.
+ * <p>
+ * A cached state may be stale, because the resource may have been modified by another process since it was cached.
+ * This is safe only because updates to the repository are conditional on the {@link PassEntity#getVersionTag() version
+ * tag} of the resource: an update based on a stale state fails with a conflict, which is resolved against the latest
+ * state of the resource.  For this reason, resources without a version tag are never cached.
+ * </p>
+ * <p>
+ * Resources are cached and returned as copies, so callers are free to modify them.  At most {@code maxSize} resources
+ * are cached; the least recently used resource is forgotten when the limit is exceeded.  A {@code maxSize} of {@code 0}
+ * disables the cache.  Instances are thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class VersionedResourceCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VersionedResourceCache.class);
+
+    private final PassJsonAdapter jsonAdapter;
+
+    private final int maxSize;
+
+    private final Map<URI, Cached> resources;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param jsonAdapter used to copy resources
+     * @param maxSize the maximum number of resources cached, or {@code 0} to disable the cache
+     */
+    public VersionedResourceCache(PassJsonAdapter jsonAdapter, int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Maximum size must not be negative, was: " + maxSize);
+        }
+        this.jsonAdapter = jsonAdapter;
+        this.maxSize = maxSize;
+        this.resources = new LinkedHashMap<URI, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URI, Cached> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Answers a copy of the last known state of the resource identified by {@code uri}.
+     *
+     * @param uri the URI of the resource
+     * @param clazz the type of the resource
+     * @param <T> the type of the resource
+     * @return a copy of the resource, or {@code null} if it is not cached, or is not of type {@code clazz}
+     */
+    public <T extends PassEntity> T get(URI uri, Class<T> clazz) {
+        if (maxSize == 0) {
+            return null;
+        }
+
+        Cached cached;
+        synchronized (resources) {
+            cached = resources.get(uri);
+        }
+
+        if (cached == null || cached.type != clazz) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        LOG.trace(">>>> Using cached state of {} (version {})", uri, cached.versionTag);
+        T copy = jsonAdapter.toModel(cached.json, clazz);
+        copy.setVersionTag(cached.versionTag);
+        return copy;
+    }
+
+    /**
+     * Caches a copy of the state of {@code resource}, replacing any previously cached state.  If the resource has no
+     * version tag, any previously cached state is forgotten instead.
+     *
+     * @param resource the resource
+     */
+    public void put(PassEntity resource) {
+        if (maxSize == 0 || resource == null || resource.getId() == null) {
+            return;
+        }
+
+        if (resource.getVersionTag() == null) {
+            evict(resource.getId());
+            return;
+        }
+
+        Cached cached = new Cached(resource.getClass(), jsonAdapter.toJson(resource, false), resource.getVersionTag());
+        synchronized (resources) {
+            resources.put(resource.getId(), cached);
+        }
+    }
+
+    /**
+     * Forgets the state of the resource identified by {@code uri}.
+     *
+     * @param uri the URI of the resource
+     */
+    public void evict(URI uri) {
+        synchronized (resources) {
+            resources.remove(uri);
+        }
+    }
+
+    /**
+     * @return the number of times a resource was answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of times a resource was not found in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        int size;
+        synchronized (resources) {
+            size = resources.size();
+        }
+        return "VersionedResourceCache{size=" + size + ", hits=" + hits.get() + ", misses=" + misses.get() + '}';
+    }
+
+    /**
+     * The serialized state of a resource.  The version tag is retained separately, because it is not part of the
+     * serialized state.
+     */
+    private static class Cached {
+
+        private final Class<?> type;
+
+        private final byte[] json;
+
+        private final String versionTag;
+
+        private Cached(Class<?> type, byte[] json, String versionTag) {
+            this.type = type;
+            this.json = json;
+            this.versionTag = versionTag;
+        }
+    }
+
+}
@@ -15,10 +15,6 @@
  */
 package org.dataconservancy.pass.deposit.messaging.support.swordv2;
 
-import org.apache.abdera.model.Document;
-import org.apache.abdera.model.Feed;
-import org.apache.abdera.parser.Parser;
-import org.dataconservancy.pass.deposit.assembler.shared.AuthenticatedResource;
 import org.dataconservancy.pass.deposit.messaging.status.DepositStatusParser;
 import org.dataconservancy.pass.deposit.messaging.status.SwordDspaceDepositStatus;
 import org.dataconservancy.pass.deposit.messaging.support.Constants;
@@ -31,8 +27,18 @@ import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Base64.getEncoder;
 
 /**
  * Attempts to determine the status of a {@link Deposit} by retrieving the Atom Statement associated with the
@@ -41,6 +47,17 @@ import java.net.URI;
  * Atom Statements are typically obtained by de-referencing the {@link Deposit#getDepositStatusRef()}, or inspecting
  * the {@link Sword2DepositReceiptResponse#getReceipt() SWORDv2 deposit receipt}.
  * </p>
+ * <p>
+ * Statements are read with a {@link SwordStatementReader}, which streams the statement only as far as the
+ * {@link Constants.SWORD#SWORD_STATE} term.  Statements retrieved over HTTP are requested conditionally: the
+ * {@code ETag} and {@code Last-Modified} validators of the most recent response for each statement URI are remembered
+ * (along with the state parsed from it), and sent on the next request as {@code If-None-Match} and
+ * {@code If-Modified-Since}.  If the statement has not changed, the server answers {@code 304 Not Modified} without a
+ * body, and the remembered state is returned.  At most {@link #getMaxCachedStatements()} statement URIs are
+ * remembered; the least recently used are forgotten first.  Requests time out after {@link #getConnectTimeoutMs()}
+ * if a connection cannot be established, and after {@link #getReadTimeoutMs()} if the server stops responding, so a
+ * hung server cannot block the caller indefinitely.
+ * </p>
  *
  * @author Elliot Metsger (emetsger@jhu.edu)
  * @see <a href="http://swordapp.github.io/SWORDv2-Profile/SWORDProfile.html#statement">SWORDv2 Profile §11</a>
@@ -50,14 +67,36 @@ public class AtomFeedStatusParser implements DepositStatusParser<URI, SwordDspac
 
     private static final Logger LOG = LoggerFactory.getLogger(AtomFeedStatusParser.class);
 
-    private Parser abderaParser;
+    private static final int DEFAULT_MAX_CACHED_STATEMENTS = 10000;
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 30000;
+
+    private static final int DEFAULT_READ_TIMEOUT_MS = 60000;
+
+    private SwordStatementReader statementReader;
 
     private String swordUsername;
 
     private String swordPassword;
 
-    public AtomFeedStatusParser(Parser abderaParser) {
-        this.abderaParser = abderaParser;
+    private volatile int maxCachedStatements = DEFAULT_MAX_CACHED_STATEMENTS;
+
+    private int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+
+    private int readTimeoutMs = DEFAULT_READ_TIMEOUT_MS;
+
+    private final Map<URI, CachedStatement> statementCache = Collections.synchronizedMap(
+            new LinkedHashMap<URI, CachedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<URI, CachedStatement> eldest) {
+                    return size() > maxCachedStatements;
+                }
+            });
+
+    private final AtomicLong notModifiedCount = new AtomicLong();
+
+    public AtomFeedStatusParser(SwordStatementReader statementReader) {
+        this.statementReader = statementReader;
     }
 
     /**
@@ -77,6 +116,10 @@ public class AtomFeedStatusParser implements DepositStatusParser<URI, SwordDspac
             throw new IllegalArgumentException("Atom statement URI must not be null.");
         }
 
+        if (atomStatementUri.getScheme().startsWith("http")) {
+            return parseConditionally(atomStatementUri);
+        }
+
         Resource resource = null;
 
         if (atomStatementUri.getScheme().startsWith("file")) {
@@ -87,13 +130,6 @@ public class AtomFeedStatusParser implements DepositStatusParser<URI, SwordDspac
             } else {
                 resource = new ClassPathResource(atomStatementUri.toString().substring("classpath:".length()));
             }
-        } else if (atomStatementUri.getScheme().startsWith("http")) {
-            try {
-                resource = new AuthenticatedResource(atomStatementUri.toURL(), swordUsername, swordPassword);
-            } catch (MalformedURLException e) {
-                throw new IllegalArgumentException("Atom statement could not be parsed as URL '" + atomStatementUri +
-                        "':" + e.getMessage(), e);
-            }
         } else if (atomStatementUri.getScheme().startsWith("jar")) {
             try {
                 resource = new UrlResource(atomStatementUri);
@@ -108,16 +144,116 @@ public class AtomFeedStatusParser implements DepositStatusParser<URI, SwordDspac
                     atomStatementUri + "'");
         }
 
-        Document<Feed> statementDoc = null;
-        try {
-            LOG.trace("Retrieving SWORD Statement from: {}", atomStatementUri);
-            statementDoc = abderaParser.parse(resource.getInputStream());
+        LOG.trace("Retrieving SWORD Statement from: {}", atomStatementUri);
+        try (InputStream in = resource.getInputStream()) {
+            return statementReader.read(in);
         } catch (Exception e) {
             throw new RuntimeException("Error parsing Atom resource '" + resource + "' (resolved from '" +
                     atomStatementUri + "'): " + e.getMessage(), e);
         }
+    }
+
+    /**
+     * Retrieves the statement using a conditional GET, answering the remembered state if the statement has not been
+     * modified.
+     *
+     * @param atomStatementUri the HTTP URI of the Atom statement
+     * @return the {@code SwordDspaceDepositStatus}, or {@code null} if one cannot be found
+     */
+    private SwordDspaceDepositStatus parseConditionally(URI atomStatementUri) {
+        CachedStatement cached = statementCache.get(atomStatementUri);
+        HttpURLConnection con = null;
+        try {
+            con = (HttpURLConnection) atomStatementUri.toURL().openConnection();
+            con.setConnectTimeout(connectTimeoutMs);
+            con.setReadTimeout(readTimeoutMs);
+            con.setRequestProperty("Accept", "application/atom+xml");
+            con.setRequestProperty("Authorization", "Basic " + getEncoder().encodeToString(
+                    String.format("%s:%s", swordUsername, swordPassword).getBytes(StandardCharsets.UTF_8)));
+            if (cached != null) {
+                if (cached.etag != null) {
+                    con.setRequestProperty("If-None-Match", cached.etag);
+                }
+                if (cached.lastModified != null) {
+                    con.setRequestProperty("If-Modified-Since", cached.lastModified);
+                }
+            }
+
+            LOG.trace("Retrieving SWORD Statement from: {}", atomStatementUri);
+            int status = con.getResponseCode();
+
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                LOG.trace("SWORD Statement {} not modified, state is '{}'", atomStatementUri, cached.state);
+                notModifiedCount.incrementAndGet();
+                return cached.state;
+            }
+
+            if (status < 200 || status > 299) {
+                throw new IOException("Server returned HTTP response code: " + status + " for URL: " +
+                        atomStatementUri);
+            }
+
+            SwordDspaceDepositStatus state;
+            try (InputStream in = con.getInputStream()) {
+                state = statementReader.read(in);
+            }
+
+            String etag = con.getHeaderField("ETag");
+            String lastModified = con.getHeaderField("Last-Modified");
+            if (etag != null || lastModified != null) {
+                statementCache.put(atomStatementUri, new CachedStatement(etag, lastModified, state));
+            } else {
+                statementCache.remove(atomStatementUri);
+            }
+
+            return state;
+        } catch (Exception e) {
+            if (con != null) {
+                con.disconnect();
+            }
+            throw new RuntimeException("Error parsing Atom resource '" + atomStatementUri + "': " + e.getMessage(),
+                    e);
+        }
+    }
+
+    /**
+     * The number of statements that were answered {@code 304 Not Modified} by the server.
+     *
+     * @return the number of unmodified statements
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    public int getMaxCachedStatements() {
+        return maxCachedStatements;
+    }
+
+    public void setMaxCachedStatements(int maxCachedStatements) {
+        this.maxCachedStatements = maxCachedStatements;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    /**
+     * @param connectTimeoutMs how long to wait for a connection to the server, in milliseconds; {@code 0} waits
+     *                         indefinitely
+     */
+    public void setConnectTimeoutMs(int connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
 
-        return AtomUtil.parseAtomStatement(statementDoc);
+    public int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    /**
+     * @param readTimeoutMs how long to wait for the server to send data, in milliseconds; {@code 0} waits indefinitely
+     */
+    public void setReadTimeoutMs(int readTimeoutMs) {
+        this.readTimeoutMs = readTimeoutMs;
     }
 
     public String getSwordUsername() {
@@ -135,4 +271,22 @@ public class AtomFeedStatusParser implements DepositStatusParser<URI, SwordDspac
     public void setSwordPassword(String swordPassword) {
         this.swordPassword = swordPassword;
     }
+
+    /**
+     * The validators of, and the state parsed from, the most recent response for a statement URI.
+     */
+    private static class CachedStatement {
+
+        private final String etag;
+
+        private final String lastModified;
+
+        private final SwordDspaceDepositStatus state;
+
+        private CachedStatement(String etag, String lastModified, SwordDspaceDepositStatus state) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.state = state;
+        }
+    }
 }
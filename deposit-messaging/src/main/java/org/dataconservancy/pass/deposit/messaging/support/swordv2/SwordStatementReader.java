@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support.swordv2;
+
+import org.dataconservancy.pass.deposit.messaging.status.SwordDspaceDepositStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.SWORD.SWORD_STATE;
+
+/**
+ * Reads the {@link SwordDspaceDepositStatus SWORD deposit status} from a SWORD v2 Atom Statement using a streaming
+ * (StAX) parser.
+ * <p>
+ * The status is carried by the first {@code <atom:category>} child of the {@code <atom:feed>} with a {@code scheme} of
+ * {@link org.dataconservancy.pass.deposit.messaging.support.Constants.SWORD#SWORD_STATE}.  Unlike parsing the statement
+ * into an Abdera {@code Document<Feed>} (c.f. {@link AtomUtil#parseAtomStatement(org.apache.abdera.model.Document)}),
+ * the statement is not retained in memory, and reading stops as soon as the state category is found.  Because a
+ * statement lists an {@code <atom:entry>} for every file in the item, this typically avoids reading the bulk of the
+ * statement.
+ * </p>
+ * <p>
+ * Instances are thread-safe.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ * @see <a href="http://swordapp.github.io/SWORDv2-Profile/SWORDProfile.html#statement_predicates_state">SWORDv2 Profile §11.1.2</a>
+ */
+public class SwordStatementReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SwordStatementReader.class);
+
+    static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+
+    static final String FEED = "feed";
+
+    static final String CATEGORY = "category";
+
+    static final String SCHEME = "scheme";
+
+    static final String TERM = "term";
+
+    private final XMLInputFactory xmlInputFactory;
+
+    public SwordStatementReader() {
+        xmlInputFactory = XMLInputFactory.newFactory();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    }
+
+    /**
+     * Reads the SWORD deposit status from the supplied Atom Statement.  The caller is responsible for closing the
+     * stream.
+     *
+     * @param statement the Atom Statement
+     * @return the SWORD deposit status, or {@code null} if the statement does not carry a state, or carries an unknown
+     *         state
+     * @throws XMLStreamException if the statement is not well-formed XML, or is not an Atom feed
+     */
+    public SwordDspaceDepositStatus read(InputStream statement) throws XMLStreamException {
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(statement);
+        try {
+            int depth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    continue;
+                }
+
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+
+                depth++;
+
+                if (depth == 1 && !isAtom(reader, FEED)) {
+                    throw new XMLStreamException("Expected an Atom <feed> document element, but found <" +
+                            reader.getName() + ">", reader.getLocation());
+                }
+
+                if (depth == 2 && isAtom(reader, CATEGORY) &&
+                        SWORD_STATE.equals(reader.getAttributeValue(null, SCHEME))) {
+                    return parseTerm(reader.getAttributeValue(null, TERM));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return null;
+    }
+
+    private static boolean isAtom(XMLStreamReader reader, String localName) {
+        return ATOM_NS.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+    }
+
+    private static SwordDspaceDepositStatus parseTerm(String term) {
+        try {
+            return SwordDspaceDepositStatus.parseUri(term);
+        } catch (IllegalArgumentException e) {
+            // An unknown term value
+            LOG.warn("Unknown term value for Atom <feed>/<category> scheme " + SWORD_STATE + ": " + term, e);
+            return null;
+        }
+    }
+
+}
@@ -17,6 +17,7 @@ package org.dataconservancy.pass.deposit.messaging.policy;
 
 import org.apache.commons.io.IOUtils;
 import org.dataconservancy.pass.deposit.messaging.service.DepositUtil;
+import org.dataconservancy.pass.deposit.messaging.support.MessagePayload;
 import org.springframework.messaging.Message;
 
 import java.io.IOException;
@@ -54,9 +55,10 @@ public class PolicyTestUtil {
         Message message = mock(Message.class);
         when(mc.message()).thenReturn(message);
 
-        when(message.getPayload()).thenReturn(
-                IOUtils.toString(
-                        SubmissionMessagePolicyTest.class.getResourceAsStream(messageBodyResource), "UTF-8"));
+        String payload = IOUtils.toString(
+                SubmissionMessagePolicyTest.class.getResourceAsStream(messageBodyResource), "UTF-8");
+        when(message.getPayload()).thenReturn(payload);
+        when(mc.payload()).thenReturn(MessagePayload.parse(payload));
 
         return mc;
     }
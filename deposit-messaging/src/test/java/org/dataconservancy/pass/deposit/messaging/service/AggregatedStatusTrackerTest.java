@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.policy.TerminalDepositStatusPolicy;
+import org.dataconservancy.pass.deposit.messaging.status.DepositStatusEvaluator;
+import org.dataconservancy.pass.model.Deposit;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.ACCEPTED;
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.REJECTED;
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.SUBMITTED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class AggregatedStatusTrackerTest {
+
+    private static final URI SUBMISSION = URI.create("http://localhost/submission/1");
+
+    private AggregatedStatusTracker underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        underTest = new AggregatedStatusTracker(new TerminalDepositStatusPolicy(new DepositStatusEvaluator()), 2);
+    }
+
+    /**
+     * The seed is only consulted the first time a Submission is seen
+     */
+    @Test
+    public void seedOnce() throws Exception {
+        AtomicInteger seeds = new AtomicInteger();
+        Deposit a = deposit("a", SUBMITTED);
+        Deposit b = deposit("b", SUBMITTED);
+
+        AggregatedStatusTracker.Counts counts = underTest.update(SUBMISSION, deposit("a", ACCEPTED), () -> {
+            seeds.incrementAndGet();
+            return Arrays.asList(a, b);
+        });
+
+        assertTrue(counts.isSeeded());
+        assertEquals(2, counts.getTotal());
+        assertEquals(1, counts.getTerminal());
+        assertFalse(counts.allTerminal());
+
+        counts = underTest.update(SUBMISSION, deposit("b", ACCEPTED), () -> {
+            fail("Unexpected seed");
+            return null;
+        });
+
+        assertFalse(counts.isSeeded());
+        assertTrue(counts.allTerminal());
+        assertTrue(counts.allAccepted());
+        assertEquals(1, seeds.get());
+    }
+
+    /**
+     * Repeated updates for the same Deposit are not double counted
+     */
+    @Test
+    public void updateIsIdempotent() throws Exception {
+        underTest.update(SUBMISSION, deposit("a", REJECTED), () ->
+                Arrays.asList(deposit("a", SUBMITTED), deposit("b", SUBMITTED)));
+        AggregatedStatusTracker.Counts counts = underTest.update(SUBMISSION, deposit("a", REJECTED),
+                Collections::emptyList);
+
+        assertEquals(2, counts.getTotal());
+        assertEquals(1, counts.getTerminal());
+        assertEquals(0, counts.getAccepted());
+    }
+
+    /**
+     * A Deposit missing from the seed is added when its status changes
+     */
+    @Test
+    public void depositCreatedAfterSeed() throws Exception {
+        underTest.update(SUBMISSION, deposit("a", ACCEPTED), () -> Collections.singletonList(deposit("a", ACCEPTED)));
+        AggregatedStatusTracker.Counts counts = underTest.update(SUBMISSION, deposit("b", REJECTED),
+                Collections::emptyList);
+
+        assertEquals(2, counts.getTotal());
+        assertTrue(counts.allTerminal());
+        assertFalse(counts.allAccepted());
+    }
+
+    @Test
+    public void reseedReplacesCounts() throws Exception {
+        underTest.update(SUBMISSION, deposit("a", ACCEPTED), () -> Collections.singletonList(deposit("a", ACCEPTED)));
+
+        AggregatedStatusTracker.Counts counts = underTest.reseed(SUBMISSION,
+                Arrays.asList(deposit("a", ACCEPTED), deposit("b", SUBMITTED)));
+
+        assertTrue(counts.isSeeded());
+        assertEquals(2, counts.getTotal());
+        assertFalse(counts.allTerminal());
+    }
+
+    @Test
+    public void forgetAndEvict() throws Exception {
+        URI second = URI.create("http://localhost/submission/2");
+        URI third = URI.create("http://localhost/submission/3");
+
+        underTest.update(SUBMISSION, deposit("a", ACCEPTED), Collections::emptyList);
+        underTest.update(second, deposit("b", ACCEPTED), Collections::emptyList);
+        underTest.update(third, deposit("c", ACCEPTED), Collections::emptyList);
+
+        // limited to two submissions
+        assertEquals(2, underTest.size());
+
+        underTest.forget(third);
+        assertEquals(1, underTest.size());
+
+        // the first submission was evicted, so it is seeded again
+        assertTrue(underTest.update(SUBMISSION, deposit("a", ACCEPTED), Collections::emptyList).isSeeded());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPositiveMaximum() throws Exception {
+        new AggregatedStatusTracker(new TerminalDepositStatusPolicy(new DepositStatusEvaluator()), 0);
+    }
+
+    private static Deposit deposit(String name, Deposit.DepositStatus status) {
+        Deposit deposit = new Deposit();
+        deposit.setId(URI.create("http://localhost/deposit/" + name));
+        deposit.setSubmission(SUBMISSION);
+        deposit.setDepositStatus(status);
+        return deposit;
+    }
+
+}
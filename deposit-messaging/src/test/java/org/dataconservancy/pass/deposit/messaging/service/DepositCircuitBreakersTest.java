@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.model.Packager;
+import org.dataconservancy.pass.deposit.messaging.service.DepositUtil.DepositWorkerContext;
+import org.dataconservancy.pass.deposit.messaging.support.CircuitBreaker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.TaskExecutor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.dataconservancy.pass.deposit.transport.Transport.TRANSPORT_PROTOCOL;
+import static org.dataconservancy.pass.deposit.transport.Transport.TRANSPORT_SERVER_FQDN;
+import static org.dataconservancy.pass.deposit.transport.Transport.TRANSPORT_SERVER_PORT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositCircuitBreakersTest {
+
+    private TaskExecutor workers;
+
+    private CircuitBreaker fedora;
+
+    private DepositCircuitBreakers underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        workers = mock(TaskExecutor.class);
+        fedora = new CircuitBreaker("Fedora", 1, 1, 1.0, 0, 1.0, 60000);
+        underTest = new DepositCircuitBreakers(workers, fedora,
+                name -> new CircuitBreaker(name, 1, 1, 1.0, 0, 1.0, 0), 50);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        underTest.close();
+    }
+
+    /**
+     * A failed transport opens the circuit of its endpoint, and the next task for that endpoint is deferred rather
+     * than attempted.  Once the circuit is due to be probed, the deferred task is re-submitted as the probe.
+     */
+    @Test
+    public void taskDeferredWhileEndpointCircuitIsOpen() throws Exception {
+        DepositTask failed = task("ftp", "ftp.example.org", "21");
+        when(failed.getTransportNanos()).thenReturn(1000L);
+        when(failed.isTransportFailed()).thenReturn(true);
+        DepositTask deferred = task("ftp", "FTP.example.org", "21");
+
+        assertTrue(underTest.admit(failed));
+        underTest.complete(failed);
+        assertEquals(CircuitBreaker.State.OPEN, underTest.getStates().get("ftp://ftp.example.org:21"));
+
+        // the circuit permits a probe immediately, but only one
+        DepositTask probe = task("ftp", "ftp.example.org", "21");
+        assertTrue(underTest.admit(probe));
+        assertFalse(underTest.admit(deferred));
+        assertEquals(1, underTest.getDeferred());
+
+        // the probe did not transport a package, so the deferred task is re-submitted to probe the endpoint
+        underTest.complete(probe);
+        verify(workers, timeout(10000)).execute(deferred);
+        assertEquals(0, underTest.getDeferred());
+    }
+
+    /**
+     * Tasks are deferred while the circuit of Fedora is open, whatever their endpoint.
+     */
+    @Test
+    public void taskDeferredWhileFedoraCircuitIsOpen() throws Exception {
+        assertTrue(fedora.tryAcquire());
+        fedora.onFailure(1000);
+
+        DepositTask task = task("swordv2", "dspace.example.org", "8080");
+        assertFalse(underTest.admit(task));
+        assertEquals(1, underTest.getDeferred());
+
+        Thread.sleep(200);
+        verify(workers, never()).execute(task);
+    }
+
+    private static DepositTask task(String protocol, String host, String port) {
+        Map<String, String> config = new HashMap<>();
+        config.put(TRANSPORT_PROTOCOL, protocol);
+        config.put(TRANSPORT_SERVER_FQDN, host);
+        config.put(TRANSPORT_SERVER_PORT, port);
+        Packager packager = mock(Packager.class);
+        when(packager.getName()).thenReturn(host);
+        when(packager.getConfiguration()).thenReturn(config);
+        DepositWorkerContext dc = mock(DepositWorkerContext.class);
+        when(dc.packager()).thenReturn(packager);
+        DepositTask task = mock(DepositTask.class);
+        when(task.getDepositWorkerContext()).thenReturn(dc);
+        when(task.getTransportNanos()).thenReturn(-1L);
+        return task;
+    }
+
+}
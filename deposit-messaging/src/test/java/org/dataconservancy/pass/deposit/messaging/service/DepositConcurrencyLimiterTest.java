@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.model.Packager;
+import org.dataconservancy.pass.deposit.messaging.service.DepositUtil.DepositWorkerContext;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositConcurrencyLimiterTest {
+
+    private static final String PACKAGER = "JScholarship";
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private ExecutorService executor;
+
+    @After
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tasks beyond the limit of their Packager are queued rather than rejected, and run once a running task completes.
+     * Tasks of other Packagers are not held up.
+     */
+    @Test
+    public void tasksBeyondLimitAreQueued() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        Consumer<Throwable> errorHandler = mock(Consumer.class);
+        DepositConcurrencyLimiter underTest = new DepositConcurrencyLimiter(new ConcurrentTaskExecutor(executor),
+                errorHandler, 1, 1, 4, 0.9, 2.0);
+
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DepositTask first = task(PACKAGER, -1, false);
+        RuntimeException expected = new RuntimeException("Deposit failed");
+        doAnswer(inv -> {
+            running.countDown();
+            release.await();
+            throw expected;
+        }).when(first).run();
+        DepositTask second = task(PACKAGER, -1, false);
+        DepositTask other = task("Nihms", -1, false);
+
+        underTest.execute(first);
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        underTest.execute(second);
+        underTest.execute(other);
+
+        verify(other, timeout(10000)).run();
+        verify(second, never()).run();
+        assertEquals(1, underTest.getRunning(PACKAGER));
+        assertEquals(1, underTest.getQueued(PACKAGER));
+
+        release.countDown();
+
+        verify(second, timeout(10000)).run();
+        verify(errorHandler, timeout(10000)).accept(expected);
+        assertEquals(0, underTest.getQueued(PACKAGER));
+    }
+
+    /**
+     * The limit grows additively while transports succeed and the limit is in use, and shrinks multiplicatively when a
+     * transport fails, or is slow.  Tasks that transport nothing do not change the limit.
+     */
+    @Test
+    public void limitIncreasesAdditivelyAndDecreasesMultiplicatively() throws Exception {
+        DepositConcurrencyLimiter underTest = new DepositConcurrencyLimiter(new SyncTaskExecutor(), mock(Consumer.class),
+                2, 1, 3, 0.5, 2.0);
+        assertEquals(2, underTest.getLimit(PACKAGER));
+
+        // 2 + 1/2 = 2.5, then 2.5 + 1/2.5 = 2.9
+        underTest.execute(task(PACKAGER, 10 * MS, false));
+        assertEquals(2, underTest.getLimit(PACKAGER));
+        underTest.execute(task(PACKAGER, 10 * MS, false));
+        assertEquals(2, underTest.getLimit(PACKAGER));
+        underTest.execute(task(PACKAGER, 10 * MS, false));
+        assertEquals(3, underTest.getLimit(PACKAGER));
+
+        // one task running of a limit of three is not enough use of the limit to raise it
+        underTest.execute(task(PACKAGER, 10 * MS, false));
+        assertEquals(3, underTest.getLimit(PACKAGER));
+
+        // a task that did not transport its package is no signal
+        underTest.execute(task(PACKAGER, -1, true));
+        assertEquals(3, underTest.getLimit(PACKAGER));
+
+        // a failure halves the limit
+        underTest.execute(task(PACKAGER, 10 * MS, true));
+        assertEquals(1, underTest.getLimit(PACKAGER));
+
+        // a slow transport halves it again, down to the minimum
+        underTest.execute(task(PACKAGER, 10 * MS, false));
+        underTest.execute(task(PACKAGER, 100 * MS, false));
+        assertEquals(1, underTest.getLimit(PACKAGER));
+        assertEquals(1, underTest.getLimits().size());
+    }
+
+    /**
+     * A large package is not slow for taking longer to send than a small one, nor for the time it was paced by the
+     * {@code BandwidthShaper}: the latency of a transport is compared with that expected of a package of its size,
+     * excluding the time spent waiting to read the package.
+     */
+    @Test
+    public void latencyIsExpectedOfPackageSize() throws Exception {
+        DepositConcurrencyLimiter underTest = new DepositConcurrencyLimiter(new SyncTaskExecutor(), mock(Consumer.class),
+                2, 1, 2, 0.5, 2.0);
+
+        // 5 ms to open a connection and receive a receipt, and 100 ns to send each byte
+        long small = 100 * 1024;
+        long large = 10 * 1024 * 1024;
+        for (int i = 0; i < 10; i++) {
+            underTest.execute(task(PACKAGER, 5 * MS + small * 100, 0, small, false));
+            assertEquals(2, underTest.getLimit(PACKAGER));
+            underTest.execute(task(PACKAGER, 5 * MS + large * 100, 0, large, false));
+            assertEquals(2, underTest.getLimit(PACKAGER));
+            // paced by the BandwidthShaper for two seconds
+            underTest.execute(task(PACKAGER, 2000 * MS + 5 * MS + large * 100, 2000 * MS, large, false));
+            assertEquals(2, underTest.getLimit(PACKAGER));
+        }
+
+        // a small package that is slow to send is slow
+        underTest.execute(task(PACKAGER, 200 * MS, 0, small, false));
+        assertEquals(1, underTest.getLimit(PACKAGER));
+    }
+
+    private static DepositTask task(String packagerName, long transportNanos, boolean failed) {
+        return task(packagerName, transportNanos, 0, 0, failed);
+    }
+
+    private static DepositTask task(String packagerName, long transportNanos, long packageReadNanos, long bytes,
+                                    boolean failed) {
+        Packager packager = mock(Packager.class);
+        when(packager.getName()).thenReturn(packagerName);
+        DepositWorkerContext dc = mock(DepositWorkerContext.class);
+        when(dc.packager()).thenReturn(packager);
+        DepositTask task = mock(DepositTask.class);
+        when(task.getDepositWorkerContext()).thenReturn(dc);
+        when(task.getTransportNanos()).thenReturn(transportNanos);
+        when(task.getPackageReadNanos()).thenReturn(packageReadNanos);
+        when(task.getTransportBytes()).thenReturn(bytes);
+        when(task.isTransportFailed()).thenReturn(failed);
+        return task;
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.support.Checkpoint;
+import org.dataconservancy.pass.deposit.messaging.support.DepositJournal;
+import org.dataconservancy.pass.deposit.messaging.support.DepositJournal.Stage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositJournalReplayerTest {
+
+    private static final URI ACCEPTED = URI.create("http://example.org/deposit/accepted");
+
+    private static final URI ASSEMBLING = URI.create("http://example.org/deposit/assembling");
+
+    private static final URI TRANSPORTING = URI.create("http://example.org/deposit/transporting");
+
+    private static final URI TRANSPORTED = URI.create("http://example.org/deposit/transported");
+
+    private static final URI AWAITING_STATUS = URI.create("http://example.org/deposit/awaiting");
+
+    private static final URI DONE = URI.create("http://example.org/deposit/done");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path journalFile;
+
+    private Path checkpointFile;
+
+    private DepositRetryEngine retryEngine;
+
+    private DepositStatusRefreshEngine refreshEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        journalFile = tmp.getRoot().toPath().resolve("journal");
+        checkpointFile = tmp.getRoot().toPath().resolve("journal.checkpoint");
+        retryEngine = mock(DepositRetryEngine.class);
+        refreshEngine = mock(DepositStatusRefreshEngine.class);
+    }
+
+    /**
+     * Deposits left in flight are retried or refreshed according to their last stage, and recorded as done.  Deposits
+     * whose package may have been received are not retried.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void inFlightDepositsAreRecoveredByStage() throws Exception {
+        try (DepositJournal journal = DepositJournal.open(journalFile, 0, 0)) {
+            journal.record(ACCEPTED, Stage.ACCEPTED);
+            journal.record(ASSEMBLING, Stage.ASSEMBLING);
+            journal.record(TRANSPORTING, Stage.TRANSPORTING);
+            journal.record(TRANSPORTED, Stage.TRANSPORTED);
+            journal.record(AWAITING_STATUS, Stage.AWAITING_STATUS);
+            journal.record(DONE, Stage.ASSEMBLING);
+            journal.record(DONE, Stage.DONE);
+        }
+
+        try (DepositJournal journal = DepositJournal.open(journalFile, 0, 0)) {
+            DepositJournalReplayer underTest = new DepositJournalReplayer(journal, retryEngine, refreshEngine,
+                    checkpointFile);
+
+            assertEquals(5, underTest.replay());
+
+            ArgumentCaptor<Iterable<URI>> retried = ArgumentCaptor.forClass(Iterable.class);
+            verify(retryEngine).retry(retried.capture(), any(Checkpoint.class));
+            assertEquals(Arrays.asList(ACCEPTED, ASSEMBLING), retried.getValue());
+
+            ArgumentCaptor<Iterable<URI>> refreshed = ArgumentCaptor.forClass(Iterable.class);
+            verify(refreshEngine).refresh(refreshed.capture());
+            assertEquals(Collections.singletonList(AWAITING_STATUS), refreshed.getValue());
+
+            assertTrue(journal.getInFlight().isEmpty());
+            assertFalse(Files.exists(checkpointFile));
+        }
+
+        try (DepositJournal journal = DepositJournal.open(journalFile, 0, 0)) {
+            assertTrue(journal.getRecovered().isEmpty());
+        }
+    }
+
+    /**
+     * Nothing is recovered from an empty journal, nor are deposits recorded by the current process.
+     */
+    @Test
+    public void depositsOfCurrentProcessAreNotRecovered() throws Exception {
+        try (DepositJournal journal = DepositJournal.open(journalFile, 0, 0)) {
+            journal.record(ACCEPTED, Stage.ACCEPTED);
+            DepositJournalReplayer underTest = new DepositJournalReplayer(journal, retryEngine, refreshEngine,
+                    checkpointFile);
+
+            assertEquals(0, underTest.replay());
+
+            verifyZeroInteractions(retryEngine, refreshEngine);
+            List<URI> inFlight = Collections.singletonList(ACCEPTED);
+            assertEquals(inFlight, Arrays.asList(journal.getInFlight().keySet().toArray()));
+        }
+    }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.builder.InvalidModel;
+import org.dataconservancy.pass.deposit.builder.SubmissionBuilder;
+import org.dataconservancy.pass.deposit.messaging.DepositServiceErrorHandler;
+import org.dataconservancy.pass.deposit.messaging.DepositServiceRuntimeException;
+import org.dataconservancy.pass.deposit.messaging.model.Packager;
+import org.dataconservancy.pass.deposit.messaging.model.Registry;
+import org.dataconservancy.pass.deposit.messaging.service.DepositRetryEngine.Outcome;
+import org.dataconservancy.pass.deposit.messaging.support.Checkpoint;
+import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
+import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.CriticalResult;
+import org.dataconservancy.pass.deposit.model.DepositFile;
+import org.dataconservancy.pass.deposit.model.DepositSubmission;
+import org.dataconservancy.pass.model.Deposit;
+import org.dataconservancy.pass.model.Repository;
+import org.dataconservancy.pass.model.Submission;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.ACCEPTED;
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.FAILED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositRetryEngineTest {
+
+    private static final String REPO_NAME = "repo";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private PassClient passClient;
+
+    private SubmissionBuilder submissionBuilder;
+
+    private DepositTaskHelper depositTaskHelper;
+
+    private Registry<Packager> packagerRegistry;
+
+    private CriticalRepositoryInteraction cri;
+
+    private DepositServiceErrorHandler errorHandler;
+
+    private DepositTask depositTask;
+
+    private Map<URI, Deposit> deposits = new HashMap<>();
+
+    private Checkpoint checkpoint;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        passClient = mock(PassClient.class);
+        submissionBuilder = mock(SubmissionBuilder.class);
+        depositTaskHelper = mock(DepositTaskHelper.class);
+        packagerRegistry = mock(Registry.class);
+        cri = mock(CriticalRepositoryInteraction.class);
+        errorHandler = mock(DepositServiceErrorHandler.class);
+        depositTask = mock(DepositTask.class);
+
+        Repository repo = new Repository();
+        repo.setId(URI.create("http://localhost/repository/1"));
+        repo.setName(REPO_NAME);
+        when(passClient.readResource(repo.getId(), Repository.class)).thenReturn(repo);
+        when(packagerRegistry.get(REPO_NAME)).thenReturn(mock(Packager.class));
+
+        when(passClient.readResource(any(URI.class), eq(Submission.class))).thenAnswer(inv -> {
+            Submission s = new Submission();
+            s.setId(inv.getArgument(0));
+            return s;
+        });
+
+        when(submissionBuilder.build(anyString())).thenAnswer(inv -> depositSubmission());
+
+        when(depositTaskHelper.newDepositTask(any(), any(), any(), any(), any())).thenReturn(depositTask);
+
+        // Evaluate the pre-condition and the critical path against the Deposit as it is "in the repository"
+        when(cri.performCritical(any(), eq(Deposit.class), any(), any(Predicate.class), any())).thenAnswer(inv -> {
+            Deposit d = deposits.get(inv.<URI>getArgument(0));
+            if (!inv.<Predicate<Deposit>>getArgument(2).test(d)) {
+                return new CriticalResult<>(null, d, false);
+            }
+            return new CriticalResult<>(inv.<Function<Deposit, Object>>getArgument(4).apply(d), d, true);
+        });
+
+        checkpoint = Checkpoint.open(tempFolder.getRoot().toPath().resolve("retry.checkpoint"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        checkpoint.close();
+    }
+
+    /**
+     * The DepositSubmission is built once per Submission, regardless of the number of its Deposits
+     */
+    @Test
+    public void buildModelOncePerSubmission() throws Exception {
+        URI a1 = deposit("a1", "a", FAILED);
+        URI a2 = deposit("a2", "a", null);
+        URI b1 = deposit("b1", "b", FAILED);
+
+        OutcomeSummary<Outcome> summary = engine(2).retry(Arrays.asList(a1, b1, a2), checkpoint);
+
+        assertEquals(3, summary.getCount(Outcome.SUBMITTED));
+        verify(submissionBuilder).build(submission("a").toString());
+        verify(submissionBuilder).build(submission("b").toString());
+        verify(submissionBuilder, times(2)).build(anyString());
+        verify(depositTask, times(3)).run();
+        assertEquals(3, checkpoint.getCompleted().size());
+    }
+
+    @Test
+    public void skipDepositsInCheckpoint() throws Exception {
+        URI done = deposit("done", "a", FAILED);
+        URI pending = deposit("pending", "a", FAILED);
+        checkpoint.complete(done);
+
+        OutcomeSummary<Outcome> summary = engine(1).retry(Arrays.asList(done, pending), checkpoint);
+
+        assertEquals(1, summary.getTotal());
+        assertEquals(1, summary.getCount(Outcome.SUBMITTED));
+        verify(passClient, never()).readResource(done, Deposit.class);
+        assertTrue(checkpoint.isComplete(pending));
+    }
+
+    @Test
+    public void skipDepositsThatAreNotFailed() throws Exception {
+        URI accepted = deposit("accepted", "a", ACCEPTED);
+
+        OutcomeSummary<Outcome> summary = engine(1).retry(Collections.singletonList(accepted), checkpoint);
+
+        assertEquals(1, summary.getCount(Outcome.SKIPPED));
+        verify(depositTask, never()).run();
+        assertTrue(checkpoint.isComplete(accepted));
+    }
+
+    @Test
+    public void skipSubmissionWithInvalidModel() throws Exception {
+        URI a1 = deposit("a1", "a", FAILED);
+        URI a2 = deposit("a2", "a", FAILED);
+        when(submissionBuilder.build(anyString())).thenThrow(new InvalidModel("Expected"));
+
+        OutcomeSummary<Outcome> summary = engine(1).retry(Arrays.asList(a1, a2), checkpoint);
+
+        assertEquals(2, summary.getCount(Outcome.SKIPPED));
+        verify(submissionBuilder).build(anyString());
+        verify(depositTask, never()).run();
+    }
+
+    @Test
+    public void skipDepositWithMissingPackager() throws Exception {
+        URI a1 = deposit("a1", "a", FAILED);
+        when(packagerRegistry.get(REPO_NAME)).thenReturn(null);
+
+        OutcomeSummary<Outcome> summary = engine(1).retry(Collections.singletonList(a1), checkpoint);
+
+        assertEquals(1, summary.getCount(Outcome.SKIPPED));
+        verify(depositTask, never()).run();
+    }
+
+    @Test
+    public void depositTaskFailureIsHandled() throws Exception {
+        URI a1 = deposit("a1", "a", FAILED);
+        DepositServiceRuntimeException expected = new DepositServiceRuntimeException("Expected", null);
+        doThrow(expected).when(depositTask).run();
+
+        OutcomeSummary<Outcome> summary = engine(1).retry(Collections.singletonList(a1), checkpoint);
+
+        assertEquals(1, summary.getCount(Outcome.FAILED));
+        verify(errorHandler).handleError(expected);
+        // a failed deposit is retried again when the retry is resumed
+        assertFalse(checkpoint.isComplete(a1));
+    }
+
+    @Test
+    public void readFailureIsRecorded() throws Exception {
+        URI missing = URI.create("http://localhost/deposit/missing");
+        when(passClient.readResource(missing, Deposit.class)).thenThrow(new RuntimeException("Expected"));
+
+        OutcomeSummary<Outcome> summary = engine(1).retry(Collections.singletonList(missing), checkpoint);
+
+        assertEquals(1, summary.getCount(Outcome.FAILED));
+        verify(submissionBuilder, never()).build(anyString());
+        assertFalse(checkpoint.isComplete(missing));
+    }
+
+    /**
+     * More submissions than threads: none are rejected, and no more than {@code concurrency} are in flight at once
+     */
+    @Test
+    public void blockRatherThanReject() throws Exception {
+        int concurrency = 2;
+        List<URI> uris = new ArrayList<>();
+        for (int i = 0; i < concurrency * 5; i++) {
+            uris.add(deposit("deposit-" + i, "submission-" + i, FAILED));
+        }
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        doAnswer(inv -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            return null;
+        }).when(depositTask).run();
+
+        OutcomeSummary<Outcome> summary = engine(concurrency).retry(uris, checkpoint);
+
+        assertEquals(uris.size(), summary.getCount(Outcome.SUBMITTED));
+        assertTrue("Expected at most " + concurrency + " in flight, but was " + maxInFlight.get(),
+                maxInFlight.get() <= concurrency);
+        assertFalse(summary.toString().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPositiveConcurrency() throws Exception {
+        engine(0);
+    }
+
+    private DepositRetryEngine engine(int concurrency) {
+        return new DepositRetryEngine(passClient, submissionBuilder, depositTaskHelper, packagerRegistry, cri,
+                errorHandler, concurrency, 0);
+    }
+
+    private static URI submission(String name) {
+        return URI.create("http://localhost/submission/" + name);
+    }
+
+    private URI deposit(String name, String submissionName, Deposit.DepositStatus status) {
+        URI uri = URI.create("http://localhost/deposit/" + name);
+        Deposit deposit = new Deposit();
+        deposit.setId(uri);
+        deposit.setDepositStatus(status);
+        deposit.setSubmission(submission(submissionName));
+        deposit.setRepository(URI.create("http://localhost/repository/1"));
+        deposits.put(uri, deposit);
+        when(passClient.readResource(uri, Deposit.class)).thenReturn(deposit);
+        return uri;
+    }
+
+    private static DepositSubmission depositSubmission() {
+        DepositFile file = new DepositFile();
+        file.setName("manuscript.pdf");
+        file.setLocation("http://localhost/file/manuscript.pdf");
+        DepositSubmission depositSubmission = new DepositSubmission();
+        depositSubmission.setFiles(Collections.singletonList(file));
+        return depositSubmission;
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.messaging.DepositServiceErrorHandler;
+import org.dataconservancy.pass.deposit.messaging.DepositServiceRuntimeException;
+import org.dataconservancy.pass.deposit.messaging.policy.Policy;
+import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
+import org.dataconservancy.pass.model.Deposit;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.swordapp.client.SWORDError;
+
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositRetrySchedulerTest {
+
+    private static final RuntimeException TRANSIENT = new RuntimeException("Connection failed",
+            new SocketTimeoutException("connect timed out"));
+
+    private TaskExecutor taskExecutor;
+
+    private DepositServiceErrorHandler errorHandler;
+
+    private ScheduledExecutorService delayQueue;
+
+    private DepositTask task;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        taskExecutor = mock(TaskExecutor.class);
+        errorHandler = mock(DepositServiceErrorHandler.class);
+        delayQueue = mock(ScheduledExecutorService.class);
+
+        Deposit deposit = new Deposit();
+        deposit.setId(URI.create("http://example.org/deposit"));
+        DepositUtil.DepositWorkerContext dc = mock(DepositUtil.DepositWorkerContext.class);
+        when(dc.deposit()).thenReturn(deposit);
+        task = new DepositTask(dc, mock(PassClient.class), mock(Policy.class),
+                mock(CriticalRepositoryInteraction.class), mock(DepositTaskHelper.class));
+    }
+
+    /**
+     * Transient failures are retried after a delay bounded by an exponential back-off, until the attempts of the task
+     * are exhausted.
+     */
+    @Test
+    public void transientFailureIsRetriedWithBackoff() throws Exception {
+        DepositRetryScheduler underTest = new DepositRetryScheduler(taskExecutor, errorHandler, 4, 100, 300, 10,
+                delayQueue, () -> 1.0);
+
+        for (long expectedDelay : new long[] {100, 200, 300}) {
+            assertTrue(underTest.schedule(task, TRANSIENT));
+            ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+            verify(delayQueue).schedule(retry.capture(), eq(expectedDelay), eq(TimeUnit.MILLISECONDS));
+            assertEquals(1, underTest.getWaiting());
+
+            retry.getValue().run();
+            assertEquals(0, underTest.getWaiting());
+        }
+
+        verify(taskExecutor, times(3)).execute(task);
+        assertFalse(underTest.schedule(task, TRANSIENT));
+        assertEquals(4, task.getAttempts());
+        assertEquals(3, underTest.getScheduled());
+        assertEquals(1, underTest.getExhausted());
+    }
+
+    /**
+     * Failures caused by I/O errors, rejections, and SWORD server errors are transient; other failures are not.
+     */
+    @Test
+    public void failuresAreClassified() throws Exception {
+        assertTrue(DepositRetryScheduler.isTransient(TRANSIENT));
+        assertTrue(DepositRetryScheduler.isTransient(new TaskRejectedException("rejected")));
+        assertTrue(DepositRetryScheduler.isTransient(new DepositServiceRuntimeException("Failed",
+                new SWORDError(503, "Service Unavailable"), new Deposit())));
+
+        assertFalse(DepositRetryScheduler.isTransient(new DepositServiceRuntimeException("Failed",
+                new SWORDError(400, "Bad Request"), new Deposit())));
+        assertFalse(DepositRetryScheduler.isTransient(new RuntimeException("No files attached")));
+        assertFalse(DepositRetryScheduler.isTransient(new DepositServiceRuntimeException("Failed", new Deposit())));
+
+        DepositRetryScheduler underTest = new DepositRetryScheduler(taskExecutor, errorHandler, 4, 100, 300, 10,
+                delayQueue, () -> 1.0);
+        assertFalse(underTest.schedule(task, new IllegalStateException("Invalid package")));
+        assertEquals(1, underTest.getPermanent());
+        verifyZeroInteractions(delayQueue);
+    }
+
+    /**
+     * No more than {@code capacity} tasks wait to be retried at once.
+     */
+    @Test
+    public void waitingTasksAreBounded() throws Exception {
+        DepositRetryScheduler underTest = new DepositRetryScheduler(taskExecutor, errorHandler, 4, 100, 300, 1,
+                delayQueue, () -> 1.0);
+
+        assertTrue(underTest.schedule(task, TRANSIENT));
+        assertFalse(underTest.schedule(task, TRANSIENT));
+        assertEquals(1, underTest.getOverflowed());
+
+        ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+        verify(delayQueue).schedule(retry.capture(), anyLong(), any());
+        retry.getValue().run();
+
+        assertTrue(underTest.schedule(task, TRANSIENT));
+    }
+
+    /**
+     * A task that cannot be re-submitted is handed to the error handler once its attempts are exhausted.
+     */
+    @Test
+    public void exhaustedTaskIsHandedToErrorHandler() throws Exception {
+        DepositRetryScheduler underTest = new DepositRetryScheduler(taskExecutor, errorHandler, 2, 100, 300, 10,
+                delayQueue, () -> 1.0);
+        doThrow(new RejectedExecutionException("saturated")).when(taskExecutor).execute(task);
+
+        assertTrue(underTest.schedule(task, TRANSIENT));
+        ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+        verify(delayQueue).schedule(retry.capture(), anyLong(), any());
+        retry.getValue().run();
+
+        ArgumentCaptor<Throwable> failure = ArgumentCaptor.forClass(Throwable.class);
+        verify(errorHandler).handleError(failure.capture());
+        assertTrue(failure.getValue() instanceof DepositServiceRuntimeException);
+        assertEquals(task.getDepositWorkerContext().deposit(),
+                ((DepositServiceRuntimeException) failure.getValue()).getResource());
+        assertEquals(0, underTest.getWaiting());
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.messaging.DepositServiceErrorHandler;
+import org.dataconservancy.pass.deposit.messaging.DepositServiceRuntimeException;
+import org.dataconservancy.pass.deposit.messaging.service.DepositStatusRefreshEngine.Outcome;
+import org.dataconservancy.pass.deposit.messaging.support.HostRateLimiter;
+import org.dataconservancy.pass.model.Deposit;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.ACCEPTED;
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.FAILED;
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.REJECTED;
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.SUBMITTED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositStatusRefreshEngineTest {
+
+    private PassClient passClient;
+
+    private DepositTaskHelper depositTaskHelper;
+
+    private DepositServiceErrorHandler errorHandler;
+
+    @Before
+    public void setUp() throws Exception {
+        passClient = mock(PassClient.class);
+        depositTaskHelper = mock(DepositTaskHelper.class);
+        errorHandler = mock(DepositServiceErrorHandler.class);
+    }
+
+    @Test
+    public void tallyOutcomes() throws Exception {
+        URI accepted = deposit("accepted", SUBMITTED);
+        URI rejected = deposit("rejected", SUBMITTED);
+        URI unchanged = deposit("unchanged", SUBMITTED);
+        URI skipped = deposit("skipped", FAILED);
+        URI failed = deposit("failed", SUBMITTED);
+        DepositServiceRuntimeException expected = new DepositServiceRuntimeException("Expected", null);
+
+        when(depositTaskHelper.processDepositStatus(any(Deposit.class))).thenAnswer(inv -> {
+            String id = ((Deposit) inv.getArgument(0)).getId().toString();
+            if (id.endsWith("accepted")) {
+                return ACCEPTED;
+            }
+            if (id.endsWith("rejected")) {
+                return REJECTED;
+            }
+            if (id.endsWith("failed")) {
+                throw expected;
+            }
+            return SUBMITTED;
+        });
+
+        DepositStatusRefreshEngine underTest = engine(2);
+        OutcomeSummary<Outcome> summary = underTest.refresh(Arrays.asList(accepted, rejected, unchanged, skipped, failed));
+
+        assertEquals(5, summary.getTotal());
+        assertEquals(5, summary.getProcessed());
+        assertEquals(1, summary.getCount(Outcome.ACCEPTED));
+        assertEquals(1, summary.getCount(Outcome.REJECTED));
+        assertEquals(1, summary.getCount(Outcome.UNCHANGED));
+        assertEquals(1, summary.getCount(Outcome.SKIPPED));
+        assertEquals(1, summary.getCount(Outcome.FAILED));
+
+        verify(depositTaskHelper, times(4)).processDepositStatus(any(Deposit.class));
+        verify(errorHandler).handleError(expected);
+    }
+
+    @Test
+    public void readFailureIsHandled() throws Exception {
+        URI uri = URI.create("http://localhost/deposit/missing");
+        RuntimeException expected = new RuntimeException("Expected");
+        when(passClient.readResource(uri, Deposit.class)).thenThrow(expected);
+
+        OutcomeSummary<Outcome> summary = engine(1).refresh(Collections.singletonList(uri));
+
+        assertEquals(1, summary.getCount(Outcome.FAILED));
+        verify(errorHandler).handleError(expected);
+        verify(depositTaskHelper, never()).processDepositStatus(any(Deposit.class));
+    }
+
+    @Test
+    public void emptyRefresh() throws Exception {
+        OutcomeSummary<Outcome> summary = engine(4).refresh(Collections.emptyList());
+        assertEquals(0, summary.getProcessed());
+    }
+
+    /**
+     * Deposits are refreshed concurrently, up to the configured concurrency
+     */
+    @Test
+    public void refreshConcurrently() throws Exception {
+        int concurrency = 4;
+        List<URI> uris = new ArrayList<>();
+        for (int i = 0; i < concurrency * 2; i++) {
+            uris.add(deposit("deposit-" + i, SUBMITTED));
+        }
+
+        CountDownLatch allBusy = new CountDownLatch(concurrency);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(depositTaskHelper.processDepositStatus(any(Deposit.class))).thenAnswer(inv -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            allBusy.countDown();
+            allBusy.await(5, TimeUnit.SECONDS);
+            inFlight.decrementAndGet();
+            return SUBMITTED;
+        });
+
+        OutcomeSummary<Outcome> summary = engine(concurrency).refresh(uris);
+
+        assertEquals(uris.size(), summary.getCount(Outcome.UNCHANGED));
+        assertEquals(concurrency, maxInFlight.get());
+    }
+
+    @Test
+    public void statusRefIsRateLimitedByHost() throws Exception {
+        HostRateLimiter rateLimiter = mock(HostRateLimiter.class);
+        URI uri = deposit("limited", SUBMITTED);
+        when(depositTaskHelper.processDepositStatus(any(Deposit.class))).thenReturn(ACCEPTED);
+
+        DepositStatusRefreshEngine underTest =
+                new DepositStatusRefreshEngine(passClient, depositTaskHelper, errorHandler, rateLimiter, 1, 0);
+        underTest.refresh(Collections.singletonList(uri));
+
+        verify(rateLimiter).acquire(eq("statements.example.org"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPositiveConcurrency() throws Exception {
+        engine(0);
+    }
+
+    @Test
+    public void summaryToString() throws Exception {
+        OutcomeSummary<Outcome> summary = engine(1).refresh(Collections.singletonList(deposit("unchanged", SUBMITTED)));
+        assertTrue(summary.toString().startsWith("1/1 deposits"));
+    }
+
+    private DepositStatusRefreshEngine engine(int concurrency) {
+        return new DepositStatusRefreshEngine(passClient, depositTaskHelper, errorHandler, new HostRateLimiter(0),
+                concurrency, 0);
+    }
+
+    private URI deposit(String name, Deposit.DepositStatus status) {
+        URI uri = URI.create("http://localhost/deposit/" + name);
+        Deposit deposit = new Deposit();
+        deposit.setId(uri);
+        deposit.setDepositStatus(status);
+        deposit.setDepositStatusRef("http://statements.example.org/statement/" + name);
+        when(passClient.readResource(uri, Deposit.class)).thenReturn(deposit);
+        return uri;
+    }
+
+}
@@ -17,8 +17,17 @@ package org.dataconservancy.pass.deposit.messaging.service;
 
 import org.apache.abdera.i18n.iri.IRI;
 import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.assembler.Assembler;
+import org.dataconservancy.pass.deposit.assembler.PackageStream;
+import org.dataconservancy.pass.deposit.messaging.DepositServiceRuntimeException;
+import org.dataconservancy.pass.deposit.messaging.model.Packager;
 import org.dataconservancy.pass.deposit.messaging.policy.Policy;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
+import org.dataconservancy.pass.deposit.messaging.support.DepositJournal;
+import org.dataconservancy.pass.deposit.messaging.support.DepositJournal.Stage;
+import org.dataconservancy.pass.deposit.transport.Transport;
+import org.dataconservancy.pass.deposit.transport.TransportResponse;
+import org.dataconservancy.pass.deposit.transport.TransportSession;
 import org.dataconservancy.pass.deposit.transport.sword2.Sword2DepositReceiptResponse;
 import org.dataconservancy.pass.model.Deposit;
 import org.dataconservancy.pass.model.Repository;
@@ -26,22 +35,36 @@ import org.dataconservancy.pass.model.Submission;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.swordapp.client.DepositReceipt;
 import org.swordapp.client.SWORDClientException;
 import org.swordapp.client.SwordIdentifier;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -148,6 +171,262 @@ public class DepositTaskTest {
         assertEquals(href, depositStatusRef.getValue());
     }
 
+    /**
+     * Each stage of a SWORD deposit is recorded in the journal, ending with the deposit being done.
+     */
+    @Test
+    public void stagesAreJournaled() throws Exception {
+        Deposit d = depositContext(dc);
+        URI depositUri = URI.create("http://example.org/deposit");
+        when(d.getId()).thenReturn(depositUri);
+        Sword2DepositReceiptResponse tr = transportResponse();
+        criSuccess(d, tr, cri);
+        DepositReceipt depositReceipt = depositReceipt(tr);
+        SwordIdentifier statementLink = identifierFor("http://moo");
+        when(depositReceipt.getAtomStatementLink()).thenReturn(statementLink);
+
+        DepositJournal journal = mock(DepositJournal.class);
+        underTest.setJournal(journal);
+        underTest.setSwordSleepTimeMs(1);
+
+        underTest.run();
+
+        InOrder inOrder = inOrder(journal);
+        inOrder.verify(journal).record(depositUri, Stage.ASSEMBLING);
+        inOrder.verify(journal).record(depositUri, Stage.TRANSPORTED);
+        inOrder.verify(journal).record(depositUri, Stage.AWAITING_STATUS);
+        inOrder.verify(journal).record(depositUri, Stage.DONE);
+    }
+
+    /**
+     * A deposit that fails is recorded as done, so it is not recovered from the journal.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void failedDepositIsJournaledAsDone() throws Exception {
+        Deposit d = depositContext(dc);
+        URI depositUri = URI.create("http://example.org/deposit");
+        when(d.getId()).thenReturn(depositUri);
+        CriticalRepositoryInteraction.CriticalResult cr = mock(CriticalRepositoryInteraction.CriticalResult.class);
+        when(cr.success()).thenReturn(false);
+        when(cr.throwable()).thenReturn(Optional.empty());
+        when(cri.performCritical(any(), eq(Deposit.class), any(Predicate.class), any(BiPredicate.class),
+                any(Function.class))).thenReturn(cr);
+
+        DepositJournal journal = mock(DepositJournal.class);
+        underTest.setJournal(journal);
+
+        try {
+            underTest.run();
+            fail("Expected a DepositServiceRuntimeException");
+        } catch (DepositServiceRuntimeException e) {
+            // expected
+        }
+
+        InOrder inOrder = inOrder(journal);
+        inOrder.verify(journal).record(depositUri, Stage.ASSEMBLING);
+        inOrder.verify(journal).record(depositUri, Stage.DONE);
+        verify(journal, never()).record(depositUri, Stage.TRANSPORTED);
+    }
+
+    /**
+     * A deposit that fails for a transient reason is handed to the retry scheduler, and remains in flight.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void transientFailureIsScheduledForRetry() throws Exception {
+        Deposit d = depositContext(dc);
+        URI depositUri = URI.create("http://example.org/deposit");
+        when(d.getId()).thenReturn(depositUri);
+        CriticalRepositoryInteraction.CriticalResult cr = mock(CriticalRepositoryInteraction.CriticalResult.class);
+        when(cr.success()).thenReturn(false);
+        when(cr.throwable()).thenReturn(Optional.of(new RuntimeException(new IOException("Connect timed out"))));
+        when(cri.performCritical(any(), eq(Deposit.class), any(Predicate.class), any(BiPredicate.class),
+                any(Function.class))).thenReturn(cr);
+
+        DepositJournal journal = mock(DepositJournal.class);
+        DepositRetryScheduler retryScheduler = mock(DepositRetryScheduler.class);
+        when(retryScheduler.schedule(eq(underTest), any(DepositServiceRuntimeException.class))).thenReturn(true);
+        underTest.setJournal(journal);
+        underTest.setRetryScheduler(retryScheduler);
+
+        underTest.run();
+
+        verify(retryScheduler).schedule(eq(underTest), any(DepositServiceRuntimeException.class));
+        InOrder inOrder = inOrder(journal);
+        inOrder.verify(journal).record(depositUri, Stage.ASSEMBLING);
+        inOrder.verify(journal).record(depositUri, Stage.ACCEPTED);
+        verify(journal, never()).record(depositUri, Stage.DONE);
+    }
+
+    /**
+     * A deposit whose package was received is not retried, even if the {@code Deposit} could not then be updated for a
+     * transient reason.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void receivedPackageIsNotRetried() throws Exception {
+        Deposit d = depositContext(dc);
+        when(d.getId()).thenReturn(URI.create("http://example.org/deposit"));
+        Packager packager = mock(Packager.class);
+        Transport transport = mock(Transport.class);
+        TransportSession session = mock(TransportSession.class);
+        TransportResponse tr = mock(TransportResponse.class);
+        when(tr.success()).thenReturn(true);
+        when(dc.packager()).thenReturn(packager);
+        when(packager.getAssembler()).thenReturn(mock(Assembler.class));
+        when(packager.getTransport()).thenReturn(transport);
+        when(transport.open(any())).thenReturn(session);
+        when(session.send(any(), any())).thenReturn(tr);
+
+        // the package is sent, and then the update of the Deposit fails
+        when(cri.performCritical(any(), eq(Deposit.class), any(Predicate.class), any(BiPredicate.class),
+                any(Function.class))).thenAnswer(inv -> {
+            ((Function<Deposit, Object>) inv.getArgument(4)).apply(d);
+            CriticalRepositoryInteraction.CriticalResult cr = mock(CriticalRepositoryInteraction.CriticalResult.class);
+            when(cr.throwable()).thenReturn(Optional.of(new RuntimeException(new IOException("Read timed out"))));
+            return cr;
+        });
+
+        DepositRetryScheduler retryScheduler = mock(DepositRetryScheduler.class);
+        when(retryScheduler.schedule(any(), any())).thenReturn(true);
+        underTest.setRetryScheduler(retryScheduler);
+
+        try {
+            underTest.run();
+            fail("Expected a DepositServiceRuntimeException");
+        } catch (DepositServiceRuntimeException e) {
+            // expected
+        }
+
+        verify(session).send(any(), any());
+        verify(retryScheduler, never()).schedule(any(), any());
+    }
+
+    /**
+     * A transport that fails after some of the package was sent is not retried, even if its failure is transient: the
+     * remote repository may still be ingesting the package.  One that fails before any of the package was sent is.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void failureAfterPackageWasSentIsNotRetried() throws Exception {
+        Deposit d = depositContext(dc);
+        when(d.getId()).thenReturn(URI.create("http://example.org/deposit"));
+        Packager packager = mock(Packager.class);
+        Assembler assembler = mock(Assembler.class);
+        Transport transport = mock(Transport.class);
+        TransportSession session = mock(TransportSession.class);
+        PackageStream packageStream = mock(PackageStream.class);
+        when(packageStream.open()).thenAnswer(inv -> new ByteArrayInputStream(new byte[1024]));
+        when(assembler.assemble(any())).thenReturn(packageStream);
+        when(dc.packager()).thenReturn(packager);
+        when(packager.getAssembler()).thenReturn(assembler);
+        when(packager.getTransport()).thenReturn(transport);
+        when(transport.open(any())).thenReturn(session);
+        AtomicBoolean readPackage = new AtomicBoolean(true);
+        when(session.send(any(), any())).thenAnswer(inv -> {
+            if (readPackage.get()) {
+                try (InputStream in = ((PackageStream) inv.getArgument(0)).open()) {
+                    while (in.read(new byte[512]) > 0) {
+                        // the request is written
+                    }
+                }
+            }
+            TransportResponse tr = mock(TransportResponse.class);
+            when(tr.error()).thenReturn(readPackage.get() ? new SocketTimeoutException("Read timed out") :
+                    new ConnectException("Connection refused"));
+            return tr;
+        });
+        when(cri.performCritical(any(), eq(Deposit.class), any(Predicate.class), any(BiPredicate.class),
+                any(Function.class))).thenAnswer(inv -> {
+            TransportResponse tr = ((Function<Deposit, TransportResponse>) inv.getArgument(4)).apply(d);
+            CriticalRepositoryInteraction.CriticalResult cr = mock(CriticalRepositoryInteraction.CriticalResult.class);
+            when(cr.throwable()).thenReturn(Optional.empty());
+            when(cr.result()).thenReturn(Optional.of(tr));
+            return cr;
+        });
+
+        DepositRetryScheduler retryScheduler = mock(DepositRetryScheduler.class);
+        when(retryScheduler.schedule(any(), any())).thenReturn(true);
+        underTest.setRetryScheduler(retryScheduler);
+
+        try {
+            underTest.run();
+            fail("Expected a DepositServiceRuntimeException");
+        } catch (DepositServiceRuntimeException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        verify(retryScheduler, never()).schedule(any(), any());
+
+        readPackage.set(false);
+        underTest.run();
+        verify(retryScheduler).schedule(eq(underTest), any(DepositServiceRuntimeException.class));
+    }
+
+    /**
+     * A deposit that hangs in transport is cancelled by the watchdog once its deadline passes: its transport session is
+     * closed, its worker is freed, and it is not retried.  That it was being transported is forced to the journal
+     * before the package was sent.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void hungTransportIsCancelledAtDeadline() throws Exception {
+        Deposit d = depositContext(dc);
+        URI depositUri = URI.create("http://example.org/deposit");
+        when(d.getId()).thenReturn(depositUri);
+        Packager packager = mock(Packager.class);
+        Transport transport = mock(Transport.class);
+        TransportSession session = mock(TransportSession.class);
+        when(dc.packager()).thenReturn(packager);
+        when(packager.getAssembler()).thenReturn(mock(Assembler.class));
+        when(packager.getTransport()).thenReturn(transport);
+        when(transport.open(any())).thenReturn(session);
+        when(session.send(any(), any())).thenAnswer(inv -> {
+            Thread.sleep(60000);
+            return null;
+        });
+
+        // perform the critical function, as the CriticalRepositoryInteraction would
+        when(cri.performCritical(any(), eq(Deposit.class), any(Predicate.class), any(BiPredicate.class),
+                any(Function.class))).thenAnswer(inv -> {
+            CriticalRepositoryInteraction.CriticalResult cr = mock(CriticalRepositoryInteraction.CriticalResult.class);
+            try {
+                ((Function<Deposit, Object>) inv.getArgument(4)).apply(d);
+                when(cr.success()).thenReturn(true);
+            } catch (Exception e) {
+                when(cr.throwable()).thenReturn(Optional.of(e));
+            }
+            return cr;
+        });
+
+        DepositWatchdog watchdog = new DepositWatchdog(10);
+        DepositRetryScheduler retryScheduler = mock(DepositRetryScheduler.class);
+        DepositJournal journal = mock(DepositJournal.class);
+        underTest.setJournal(journal);
+        underTest.setWatchdog(watchdog);
+        underTest.setDeadlineMs(100);
+        underTest.setRetryScheduler(retryScheduler);
+
+        try {
+            underTest.run();
+            fail("Expected a DepositServiceRuntimeException");
+        } catch (DepositServiceRuntimeException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        } finally {
+            watchdog.close();
+        }
+
+        InOrder inOrder = inOrder(journal, session);
+        inOrder.verify(journal).record(depositUri, Stage.TRANSPORTING);
+        inOrder.verify(journal).sync();
+        inOrder.verify(session).send(any(), any());
+        verify(session, atLeastOnce()).close();
+        verify(retryScheduler, never()).schedule(any(), any());
+        assertEquals(1, watchdog.getTimeouts(DepositWatchdog.Stage.TRANSPORT));
+        assertEquals(0, watchdog.getWatched());
+        assertFalse(Thread.interrupted());
+    }
+
     /**
      * Populates the supplied {@code depositContext} with a mock {@code Repository}, {@code Submission} and
      * {@code Deposit}.
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.service.DepositWatchdog.Stage;
+import org.dataconservancy.pass.deposit.messaging.service.DepositWatchdog.Watch;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositWatchdogTest {
+
+    private static final URI DEPOSIT = URI.create("http://example.org/deposit");
+
+    private AtomicLong clock;
+
+    private DepositWatchdog underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new AtomicLong(1000);
+        underTest = new DepositWatchdog(clock::get);
+    }
+
+    /**
+     * Once its deadline passes, a deposit is cancelled: its resources are closed, and its thread is interrupted.
+     */
+    @Test
+    public void overdueDepositIsCancelled() throws Exception {
+        AutoCloseable session = mock(AutoCloseable.class);
+        AtomicReference<Watch> watch = new AtomicReference<>();
+        CountDownLatch watching = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+
+        Thread worker = new Thread(() -> {
+            try (Watch w = underTest.watch(DEPOSIT, 2000)) {
+                watch.set(w);
+                w.stage(Stage.TRANSPORT);
+                w.onCancel(session);
+                watching.countDown();
+                Thread.sleep(60000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        worker.start();
+        assertTrue(watching.await(10, TimeUnit.SECONDS));
+
+        underTest.check();
+        assertFalse(watch.get().isCancelled());
+
+        clock.set(2000);
+        underTest.check();
+        worker.join(10000);
+
+        assertTrue(interrupted.get());
+        assertTrue(watch.get().isCancelled());
+        verify(session).close();
+        assertEquals(1, underTest.getTimeouts(Stage.TRANSPORT));
+        assertEquals(0, underTest.getTimeouts(Stage.ASSEMBLY));
+        assertEquals(0, underTest.getWatched());
+    }
+
+    /**
+     * A deposit that completes before its deadline is never cancelled, and a resource registered after cancellation is
+     * closed immediately.
+     */
+    @Test
+    public void closedWatchIsNotCancelled() throws Exception {
+        AutoCloseable session = mock(AutoCloseable.class);
+        Watch watch = underTest.watch(DEPOSIT, 2000);
+        watch.onCancel(session);
+        assertEquals(1, underTest.getWatched());
+        watch.close();
+
+        clock.set(5000);
+        underTest.check();
+
+        assertFalse(watch.isCancelled());
+        assertFalse(Thread.interrupted());
+        verify(session, never()).close();
+        assertEquals(0, underTest.getWatched());
+
+        Watch overdue = underTest.watch(DEPOSIT, 2000);
+        underTest.check();
+        assertTrue(Thread.interrupted());
+        overdue.onCancel(session);
+        verify(session).close();
+        overdue.close();
+        assertEquals(1, underTest.getTimeouts(Stage.ASSEMBLY));
+    }
+
+}
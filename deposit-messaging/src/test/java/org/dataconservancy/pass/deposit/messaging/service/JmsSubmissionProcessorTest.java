@@ -17,6 +17,7 @@ package org.dataconservancy.pass.deposit.messaging.service;
 
 import org.apache.commons.io.IOUtils;
 import org.dataconservancy.pass.deposit.messaging.support.Constants;
+import org.dataconservancy.pass.deposit.messaging.support.Coalescer;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction;
 import org.dataconservancy.pass.model.Submission;
 import org.junit.Before;
@@ -29,7 +30,6 @@ import java.net.URI;
 import java.time.Instant;
 import java.util.UUID;
 
-import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -75,7 +75,9 @@ public class JmsSubmissionProcessorTest extends AbstractSubmissionProcessorTest
         critical = mock(CriticalRepositoryInteraction.class);
 
         underTest = new JmsSubmissionProcessor(passClient, jsonParser, submissionBuilder, packagerRegistry,
-                submissionPolicy, intermediateDepositStatusPolicy, terminalDepositStatusPolicy, messagePolicy, depositTaskHelper, dspaceStatusMapper, atomStatusParser, critical);
+                submissionPolicy, intermediateDepositStatusPolicy, terminalDepositStatusPolicy, messagePolicy, depositTaskHelper, dspaceStatusMapper, atomStatusParser, critical,
+                new Coalescer<>("submission", 0, 1, 0, e -> { throw new RuntimeException(e); }),
+                new TerminalResourceCache(status -> false, 1, 1));
     }
 
     /**
@@ -93,14 +95,12 @@ public class JmsSubmissionProcessorTest extends AbstractSubmissionProcessorTest
         when(messagePolicy.accept(mc)).thenReturn(true);
         when(message.getPayload()).thenReturn(
                 IOUtils.toString(this.getClass().getResourceAsStream("message_payload.json"), "UTF-8"));
-        when(jsonParser.parseId(any())).thenReturn(submissionUri.toString());
         when(passClient.readResource(submissionUri, Submission.class)).thenReturn(submission);
 
         underTest.processInternal(mc);
 
         verify(messagePolicy).accept(mc);
         verify(message).getPayload();
-        verify(jsonParser).parseId(any());
         verify(passClient).readResource(submissionUri, Submission.class);
         verify(submissionPolicy).accept(submission);
         verifyZeroInteractions(submissionBuilder, taskExecutor);
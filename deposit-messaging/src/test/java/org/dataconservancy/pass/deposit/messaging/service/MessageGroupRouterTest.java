@@ -0,0 +1,318 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQPrefetchPolicy;
+import org.apache.activemq.broker.BrokerService;
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.messaging.support.Constants.JmsDepositHeader;
+import org.dataconservancy.pass.deposit.messaging.support.Constants.JmsDepositOrigin;
+import org.dataconservancy.pass.deposit.messaging.support.Constants.JmsFcrepoHeader;
+import org.dataconservancy.pass.model.Deposit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Routes messages through an embedded broker to several consumers of the grouped queue, each standing in for a Deposit
+ * Services node.
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class MessageGroupRouterTest {
+
+    private static final String GROUPED_QUEUE = "grouped";
+
+    private static final int SUBMISSIONS = 20;
+
+    private static final int DEPOSITS_PER_SUBMISSION = 2;
+
+    private static final AtomicInteger BROKER_COUNTER = new AtomicInteger();
+
+    private BrokerService broker;
+
+    private ActiveMQConnectionFactory connectionFactory;
+
+    private Connection routerConnection;
+
+    private Session routerSession;
+
+    private PassClient passClient;
+
+    private MessageGroupRouter underTest;
+
+    /**
+     * The node names that consumed messages from each group
+     */
+    private Map<String, Set<String>> groupNodes;
+
+    private List<Node> nodes;
+
+    private AtomicInteger messageIds;
+
+    @Before
+    public void setUp() throws Exception {
+        String brokerName = "router-test-" + BROKER_COUNTER.incrementAndGet();
+        broker = new BrokerService();
+        broker.setBrokerName(brokerName);
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setUseShutdownHook(false);
+        broker.start();
+        broker.waitUntilStarted();
+
+        connectionFactory = new ActiveMQConnectionFactory("vm://" + brokerName + "?create=false");
+        ActiveMQPrefetchPolicy prefetchPolicy = new ActiveMQPrefetchPolicy();
+        prefetchPolicy.setQueuePrefetch(1);
+        connectionFactory.setPrefetchPolicy(prefetchPolicy);
+
+        routerConnection = connectionFactory.createConnection();
+        routerConnection.start();
+        routerSession = routerConnection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+
+        passClient = mock(PassClient.class);
+        when(passClient.readResource(any(URI.class), eq(Deposit.class))).then(inv -> {
+            URI depositUri = inv.getArgument(0);
+            Deposit deposit = new Deposit();
+            deposit.setId(depositUri);
+            deposit.setSubmission(submissionOf(depositUri));
+            return deposit;
+        });
+
+        underTest = new MessageGroupRouter(passClient, GROUPED_QUEUE, 100);
+        groupNodes = new ConcurrentHashMap<>();
+        nodes = new ArrayList<>();
+        messageIds = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Node node : nodes) {
+            node.close();
+        }
+        routerConnection.close();
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+
+    /**
+     * All of the messages for a Submission and its Deposits are consumed by the same node, and the groups are spread
+     * over the nodes.
+     */
+    @Test
+    public void messagesForSubmissionConsumedByOneNode() throws Exception {
+        CountDownLatch latch = new CountDownLatch(SUBMISSIONS * (1 + DEPOSITS_PER_SUBMISSION));
+        Node a = startNode("a", latch);
+        Node b = startNode("b", latch);
+
+        routeAll();
+
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertEquals(SUBMISSIONS, groupNodes.size());
+        groupNodes.forEach((group, consumers) -> assertEquals(group + " consumed by " + consumers,
+                1, consumers.size()));
+        assertTrue(a.groups().size() > 0);
+        assertTrue(b.groups().size() > 0);
+        assertEquals(SUBMISSIONS, a.groups().size() + b.groups().size());
+    }
+
+    /**
+     * The groups owned by a node that leaves are taken over by the remaining node.
+     */
+    @Test
+    public void groupsRebalancedWhenNodeLeaves() throws Exception {
+        CountDownLatch first = new CountDownLatch(SUBMISSIONS * (1 + DEPOSITS_PER_SUBMISSION));
+        Node a = startNode("a", first);
+        Node b = startNode("b", first);
+        routeAll();
+        assertTrue(first.await(30, TimeUnit.SECONDS));
+        Set<String> groupsOfA = new HashSet<>(a.groups());
+        assertTrue(groupsOfA.size() > 0);
+
+        a.close();
+        groupNodes.clear();
+        CountDownLatch second = new CountDownLatch(SUBMISSIONS * (1 + DEPOSITS_PER_SUBMISSION));
+        b.latch = second;
+        routeAll();
+
+        assertTrue(second.await(30, TimeUnit.SECONDS));
+        assertEquals(SUBMISSIONS, groupNodes.size());
+        groupNodes.forEach((group, consumers) -> assertEquals(Collections.singleton("b"), consumers));
+        assertTrue(b.groups().containsAll(groupsOfA));
+    }
+
+    /**
+     * The routed message carries the body and properties of the original, its origin, and its original identity;
+     * the Submission of a Deposit is only read once.
+     */
+    @Test
+    public void routedMessageCopiesOriginal() throws Exception {
+        URI depositUri = depositOf(0, 0);
+        TextMessage original = message(depositUri);
+        underTest.routeDepositMessage(routerSession, original);
+        underTest.routeDepositMessage(routerSession, message(depositUri));
+
+        MessageConsumer consumer = routerSession.createConsumer(routerSession.createQueue(GROUPED_QUEUE));
+        Message routed = consumer.receive(10000);
+
+        assertEquals(original.getText(), ((TextMessage) routed).getText());
+        assertEquals("http://fedora.info/definitions/v4/repository#Resource",
+                routed.getStringProperty(JmsFcrepoHeader.FCREPO_RESOURCE_TYPE));
+        assertEquals(JmsDepositOrigin.DEPOSIT, routed.getStringProperty(JmsDepositHeader.ORIGIN));
+        assertEquals(original.getJMSMessageID(), routed.getStringProperty(JmsDepositHeader.ORIGINAL_MESSAGE_ID));
+        assertEquals(original.getJMSTimestamp(), routed.getLongProperty(JmsDepositHeader.ORIGINAL_TIMESTAMP));
+        assertEquals(submissionOf(depositUri).toString(), routed.getStringProperty(JmsDepositHeader.JMSX_GROUP_ID));
+        verify(passClient, times(1)).readResource(depositUri, Deposit.class);
+        assertEquals(1, underTest.getCachedDeposits());
+        consumer.close();
+    }
+
+    /**
+     * A message whose Submission cannot be determined is routed without a group.
+     */
+    @Test
+    public void unparseableMessageRoutedWithoutGroup() throws Exception {
+        TextMessage original = routerSession.createTextMessage("not json");
+        original.setJMSMessageID("ID:unparseable");
+        underTest.routeSubmissionMessage(routerSession, original);
+
+        MessageConsumer consumer = routerSession.createConsumer(routerSession.createQueue(GROUPED_QUEUE));
+        Message routed = consumer.receive(10000);
+
+        assertEquals("not json", ((TextMessage) routed).getText());
+        assertNull(routed.getStringProperty(JmsDepositHeader.JMSX_GROUP_ID));
+        assertEquals(JmsDepositOrigin.SUBMISSION, routed.getStringProperty(JmsDepositHeader.ORIGIN));
+        consumer.close();
+    }
+
+    /**
+     * Routes a message for each Submission, followed by a message for each of its Deposits
+     */
+    private void routeAll() throws JMSException {
+        for (int i = 0; i < SUBMISSIONS; i++) {
+            underTest.routeSubmissionMessage(routerSession, message(submissionOf(i)));
+            for (int j = 0; j < DEPOSITS_PER_SUBMISSION; j++) {
+                underTest.routeDepositMessage(routerSession, message(depositOf(i, j)));
+            }
+        }
+    }
+
+    private TextMessage message(URI resourceUri) throws JMSException {
+        TextMessage message = routerSession.createTextMessage("{\"id\": \"" + resourceUri + "\", \"type\": []}");
+        message.setJMSMessageID("ID:test-" + messageIds.incrementAndGet());
+        message.setJMSTimestamp(System.currentTimeMillis());
+        message.setStringProperty(JmsFcrepoHeader.FCREPO_RESOURCE_TYPE,
+                "http://fedora.info/definitions/v4/repository#Resource");
+        message.setStringProperty(JmsFcrepoHeader.FCREPO_EVENT_TYPE,
+                "http://fedora.info/definitions/v4/event#ResourceModification");
+        return message;
+    }
+
+    private Node startNode(String name, CountDownLatch latch) throws JMSException {
+        Node node = new Node(name, latch);
+        nodes.add(node);
+        return node;
+    }
+
+    private static URI submissionOf(int i) {
+        return URI.create("http://localhost/submission/" + i);
+    }
+
+    private static URI depositOf(int i, int j) {
+        return URI.create("http://localhost/deposit/" + i + "-" + j);
+    }
+
+    private static URI submissionOf(URI depositUri) {
+        String path = depositUri.getPath();
+        return submissionOf(Integer.parseInt(path.substring(path.lastIndexOf('/') + 1, path.lastIndexOf('-'))));
+    }
+
+    /**
+     * A consumer of the grouped queue with its own connection, recording the groups of the messages it consumes
+     */
+    private class Node {
+
+        private final String name;
+
+        private final Connection connection;
+
+        private final Set<String> groups = ConcurrentHashMap.newKeySet();
+
+        private volatile CountDownLatch latch;
+
+        private boolean closed;
+
+        private Node(String name, CountDownLatch latch) throws JMSException {
+            this.name = name;
+            this.latch = latch;
+            this.connection = connectionFactory.createConnection();
+            Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+            session.createConsumer(session.createQueue(GROUPED_QUEUE)).setMessageListener(message -> {
+                try {
+                    String group = message.getStringProperty(JmsDepositHeader.JMSX_GROUP_ID);
+                    groups.add(group);
+                    groupNodes.computeIfAbsent(group, g -> ConcurrentHashMap.newKeySet()).add(name);
+                    message.acknowledge();
+                } catch (JMSException e) {
+                    throw new RuntimeException(e);
+                }
+                this.latch.countDown();
+            });
+            connection.start();
+        }
+
+        private Set<String> groups() {
+            return groups;
+        }
+
+        private void close() throws JMSException {
+            if (!closed) {
+                closed = true;
+                connection.close();
+            }
+        }
+    }
+
+}
@@ -20,6 +20,7 @@ import org.dataconservancy.pass.deposit.model.DepositSubmission;
 import org.dataconservancy.pass.deposit.messaging.DepositServiceRuntimeException;
 import org.dataconservancy.pass.deposit.messaging.model.Packager;
 import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.CriticalResult;
+import org.dataconservancy.pass.deposit.messaging.support.UnitOfWork;
 import org.dataconservancy.pass.model.Deposit;
 import org.dataconservancy.pass.model.Repository;
 import org.dataconservancy.pass.model.Submission;
@@ -27,6 +28,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
 import org.springframework.core.task.TaskRejectedException;
 
 import java.net.URI;
@@ -43,10 +45,13 @@ import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -421,4 +426,57 @@ public class SubmissionProcessorTest extends AbstractSubmissionProcessorTest {
         verifyZeroInteractions(taskExecutor);
     }
 
-}
\ No newline at end of file
+    /**
+     * The Deposits of a Submission are created in a single unit of work, which is committed before any Deposit is
+     * submitted.  If the creation of a Deposit fails, the Deposits created before it are still submitted.
+     */
+    @Test
+    public void depositsCreatedInUnitOfWork() throws Exception {
+        URI submissionUri = URI.create("http://submission.uri");
+        List<URI> repositoryIds = Arrays.asList(URI.create("http://repo1.uri"), URI.create("http://repo2.uri"));
+        Submission submission = new Submission();
+        submission.setId(submissionUri);
+        submission.setRepositories(repositoryIds);
+        submission.setAggregatedDepositStatus(Submission.AggregatedDepositStatus.IN_PROGRESS);
+        DepositSubmission depositSubmission = new DepositSubmission();
+
+        CriticalResult<DepositSubmission, Submission> criResult = mock(CriticalResult.class);
+        when(criResult.success()).thenReturn(true);
+        when(criResult.resource()).thenReturn(Optional.of(submission));
+        when(criResult.result()).thenReturn(Optional.of(depositSubmission));
+        when(cri.performCritical(any(), any(), any(), any(BiPredicate.class), any())).thenReturn(criResult);
+
+        repositoryIds.forEach(repoUri -> {
+            Repository r = new Repository();
+            r.setId(repoUri);
+            r.setName("Repository for " + repoUri);
+            when(passClient.readResource(repoUri, Repository.class)).thenReturn(r);
+            when(packagerRegistry.get(r.getName())).thenReturn(mock(Packager.class));
+        });
+
+        RuntimeException expectedCause = new RuntimeException("Error saving Deposit resource.");
+        UnitOfWork work = mock(UnitOfWork.class);
+        when(work.create(any(Deposit.class), eq(Deposit.class)))
+                .then(inv -> {
+                    ((Deposit) inv.getArgument(0)).setId(URI.create("http://deposit.uri"));
+                    return inv.getArgument(0);
+                })
+                .thenThrow(expectedCause);
+        underTest.setUnitOfWorkFactory(() -> work);
+
+        try {
+            underTest.accept(submission);
+            fail("Expected a DepositServiceRuntimeException");
+        } catch (DepositServiceRuntimeException e) {
+            assertSame(expectedCause, e.getCause());
+        }
+
+        InOrder inOrder = inOrder(work, taskExecutor);
+        inOrder.verify(work, times(2)).create(any(Deposit.class), eq(Deposit.class));
+        inOrder.verify(work).commit();
+        inOrder.verify(work).close();
+        inOrder.verify(taskExecutor).execute(any());
+        verify(passClient, times(0)).createAndReadResource(any(Deposit.class), eq(Deposit.class));
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.service;
+
+import org.dataconservancy.pass.deposit.messaging.policy.TerminalSubmissionStatusPolicy;
+import org.dataconservancy.pass.deposit.messaging.status.SubmissionStatusEvaluator;
+import org.dataconservancy.pass.model.Submission;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class TerminalResourceCacheTest {
+
+    private static final URI DEPOSIT = URI.create("http://example.org/deposit");
+
+    private AtomicLong now;
+
+    private TerminalResourceCache underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        now = new AtomicLong();
+        underTest = new TerminalResourceCache(new TerminalSubmissionStatusPolicy(new SubmissionStatusEvaluator()), 2,
+                1000, now::get);
+    }
+
+    @Test
+    public void recordTerminalSubmission() throws Exception {
+        Submission submission = submission("http://example.org/submission", Submission.AggregatedDepositStatus.ACCEPTED);
+
+        assertFalse(underTest.isTerminal(submission.getId()));
+        assertTrue(underTest.record(submission));
+        assertTrue(underTest.isTerminal(submission.getId()));
+
+        assertEquals(1, underTest.getHits());
+        assertEquals(1, underTest.getMisses());
+    }
+
+    @Test
+    public void nonTerminalSubmissionIsNotRecorded() throws Exception {
+        Submission submission = submission("http://example.org/submission",
+                Submission.AggregatedDepositStatus.IN_PROGRESS);
+
+        assertFalse(underTest.record(submission));
+        assertFalse(underTest.record(DEPOSIT, submission));
+
+        assertFalse(underTest.isTerminal(submission.getId()));
+        assertFalse(underTest.isTerminal(DEPOSIT));
+        assertEquals(0, underTest.size());
+    }
+
+    /**
+     * A Deposit is remembered along with its terminal Submission
+     */
+    @Test
+    public void recordDepositOfTerminalSubmission() throws Exception {
+        Submission submission = submission("http://example.org/submission", Submission.AggregatedDepositStatus.REJECTED);
+
+        assertTrue(underTest.record(DEPOSIT, submission));
+
+        assertTrue(underTest.isTerminal(DEPOSIT));
+        assertTrue(underTest.isTerminal(submission.getId()));
+    }
+
+    @Test
+    public void expiry() throws Exception {
+        Submission submission = submission("http://example.org/submission", Submission.AggregatedDepositStatus.ACCEPTED);
+        underTest.record(submission);
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertTrue(underTest.isTerminal(submission.getId()));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertFalse(underTest.isTerminal(submission.getId()));
+        assertEquals(0, underTest.size());
+    }
+
+    /**
+     * The least recently used URI is forgotten when the maximum size is exceeded
+     */
+    @Test
+    public void bounded() throws Exception {
+        Submission one = submission("http://example.org/1", Submission.AggregatedDepositStatus.ACCEPTED);
+        Submission two = submission("http://example.org/2", Submission.AggregatedDepositStatus.ACCEPTED);
+        Submission three = submission("http://example.org/3", Submission.AggregatedDepositStatus.ACCEPTED);
+
+        underTest.record(one);
+        underTest.record(two);
+        assertTrue(underTest.isTerminal(one.getId()));
+        underTest.record(three);
+
+        assertEquals(2, underTest.size());
+        assertTrue(underTest.isTerminal(one.getId()));
+        assertFalse(underTest.isTerminal(two.getId()));
+        assertTrue(underTest.isTerminal(three.getId()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveTtl() throws Exception {
+        new TerminalResourceCache(status -> true, 1, 0);
+    }
+
+    private static Submission submission(String uri, Submission.AggregatedDepositStatus status) {
+        Submission submission = new Submission();
+        submission.setId(URI.create(uri));
+        submission.setAggregatedDepositStatus(status);
+        return submission;
+    }
+
+}
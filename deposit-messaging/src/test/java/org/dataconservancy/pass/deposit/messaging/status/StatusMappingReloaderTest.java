@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.status;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.FileUtils;
+import org.dataconservancy.pass.model.Deposit.DepositStatus;
+import org.dataconservancy.pass.model.RepositoryCopy.CopyStatus;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class StatusMappingReloaderTest {
+
+    private static final String ORIGINAL = "{\"RepositoryCopyv2\": {\"COMPLETE\": \"ACCEPTED\", \"*\": \"SUBMITTED\"}," +
+            "\"SWORDv2DspaceStatement\": {\"SWORD_STATE_ARCHIVED\": \"ACCEPTED\", \"*\": \"SUBMITTED\"}}";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File mappingFile;
+
+    private RepositoryCopyStatusMapper repoCopyMapper;
+
+    private SwordDspaceDepositStatusMapper swordMapper;
+
+    private StatusMappingReloader underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        mappingFile = tempFolder.newFile("statusmapping.json");
+        write(ORIGINAL, 1000);
+        repoCopyMapper = new RepositoryCopyStatusMapper(objectMapper.readTree(mappingFile));
+        swordMapper = new SwordDspaceDepositStatusMapper(objectMapper.readTree(mappingFile));
+        underTest = new StatusMappingReloader(new FileSystemResource(mappingFile), objectMapper,
+                Arrays.asList(repoCopyMapper, swordMapper));
+    }
+
+    @Test
+    public void testUnmodifiedResourceIsNotReloaded() throws Exception {
+        assertFalse(underTest.reloadIfModified());
+        assertEquals(0, underTest.getReloadCount());
+    }
+
+    @Test
+    public void testModifiedResourceIsReloaded() throws Exception {
+        write("{\"RepositoryCopyv2\": {\"COMPLETE\": \"ACCEPTED\", \"STALLED\": \"FAILED\", \"*\": \"SUBMITTED\"}," +
+                "\"SWORDv2DspaceStatement\": {\"*\": \"REJECTED\"}}", 2000);
+
+        assertTrue(underTest.reloadIfModified());
+        assertEquals(1, underTest.getReloadCount());
+        assertEquals(DepositStatus.FAILED, repoCopyMapper.map(CopyStatus.STALLED));
+        assertEquals(DepositStatus.REJECTED, swordMapper.map(SwordDspaceDepositStatus.SWORD_STATE_ARCHIVED));
+
+        // the modification has been seen, so a second check is a no-op
+        assertFalse(underTest.reloadIfModified());
+    }
+
+    @Test
+    public void testInvalidResourceRetainsCurrentMapping() throws Exception {
+        // the RepositoryCopy mapping is valid, but the SWORD mapping is not: neither mapper should be updated
+        write("{\"RepositoryCopyv2\": {\"*\": \"FAILED\"}," +
+                "\"SWORDv2DspaceStatement\": {\"SWORD_STATE_UNKNOWN\": \"ACCEPTED\"}}", 2000);
+
+        assertFalse(underTest.reloadIfModified());
+        assertEquals(0, underTest.getReloadCount());
+        assertEquals(DepositStatus.SUBMITTED, repoCopyMapper.map(CopyStatus.STALLED));
+        assertEquals(DepositStatus.ACCEPTED, swordMapper.map(SwordDspaceDepositStatus.SWORD_STATE_ARCHIVED));
+    }
+
+    @Test
+    public void testUnparseableResourceRetainsCurrentMapping() throws Exception {
+        write("{ not json", 2000);
+
+        assertFalse(underTest.reloadIfModified());
+        assertEquals(DepositStatus.ACCEPTED, repoCopyMapper.map(CopyStatus.COMPLETE));
+    }
+
+    private void write(String json, long lastModified) throws Exception {
+        FileUtils.write(mappingFile, json, StandardCharsets.UTF_8);
+        assertTrue(mappingFile.setLastModified(lastModified));
+    }
+
+}
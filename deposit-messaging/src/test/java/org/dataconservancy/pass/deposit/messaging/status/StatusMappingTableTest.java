@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.status;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.dataconservancy.pass.model.Deposit.DepositStatus;
+import org.dataconservancy.pass.model.RepositoryCopy.CopyStatus;
+import org.junit.Test;
+
+import static org.dataconservancy.pass.deposit.messaging.status.AbstractStatusMapper.REPO_COPY_MAPPING_KEY;
+import static org.dataconservancy.pass.deposit.messaging.status.AbstractStatusMapper.SWORDV2_MAPPING_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class StatusMappingTableTest extends AbstractStatusMapperTest {
+
+    @Test
+    public void testEveryStatusResolved() throws Exception {
+        StatusMappingTable<SwordDspaceDepositStatus> underTest =
+                StatusMappingTable.compile(mapping, SWORDV2_MAPPING_KEY, SwordDspaceDepositStatus.class);
+
+        assertEquals(SwordDspaceDepositStatus.values().length, underTest.asMap().size());
+        assertEquals(DepositStatus.ACCEPTED, underTest.map(SwordDspaceDepositStatus.SWORD_STATE_ARCHIVED));
+        assertEquals(DepositStatus.REJECTED, underTest.map(SwordDspaceDepositStatus.SWORD_STATE_WITHDRAWN));
+        assertEquals(DepositStatus.SUBMITTED, underTest.map(SwordDspaceDepositStatus.SWORD_STATE_INREVIEW));
+        assertEquals(DepositStatus.SUBMITTED, underTest.wildcard());
+    }
+
+    @Test
+    public void testNullAndUnknownNamesUseWildcard() throws Exception {
+        StatusMappingTable<CopyStatus> underTest =
+                StatusMappingTable.compile(mapping, REPO_COPY_MAPPING_KEY, CopyStatus.class);
+
+        assertEquals(DepositStatus.SUBMITTED, underTest.map((CopyStatus) null));
+        assertEquals(DepositStatus.SUBMITTED, underTest.map((String) null));
+        assertEquals(DepositStatus.SUBMITTED, underTest.map("no-such-status"));
+        assertEquals(DepositStatus.ACCEPTED, underTest.map("complete"));
+    }
+
+    @Test
+    public void testNoWildcard() throws Exception {
+        StatusMappingTable<CopyStatus> underTest = StatusMappingTable.compile(
+                json("{\"RepositoryCopyv2\": {\"COMPLETE\": \"ACCEPTED\"}}"), REPO_COPY_MAPPING_KEY,
+                CopyStatus.class);
+
+        assertEquals(1, underTest.asMap().size());
+        assertEquals(DepositStatus.ACCEPTED, underTest.map(CopyStatus.COMPLETE));
+        assertNull(underTest.map(CopyStatus.IN_PROGRESS));
+        assertNull(underTest.map((CopyStatus) null));
+    }
+
+    @Test
+    public void testMissingConfigurationKey() throws Exception {
+        StatusMappingTable<CopyStatus> underTest =
+                StatusMappingTable.compile(json("{}"), REPO_COPY_MAPPING_KEY, CopyStatus.class);
+
+        assertTrue(underTest.asMap().isEmpty());
+        assertNull(underTest.map(CopyStatus.COMPLETE));
+    }
+
+    @Test
+    public void testUnknownDomainStatus() throws Exception {
+        assertInvalid("{\"RepositoryCopyv2\": {\"FINISHED\": \"ACCEPTED\"}}", "FINISHED");
+    }
+
+    @Test
+    public void testUnknownDepositStatus() throws Exception {
+        assertInvalid("{\"RepositoryCopyv2\": {\"COMPLETE\": \"DONE\"}}", "DONE");
+    }
+
+    @Test
+    public void testNonTextualDepositStatus() throws Exception {
+        assertInvalid("{\"RepositoryCopyv2\": {\"*\": 1}}", "*");
+    }
+
+    @Test
+    public void testMappingNotAnObject() throws Exception {
+        assertInvalid("{\"RepositoryCopyv2\": \"ACCEPTED\"}", REPO_COPY_MAPPING_KEY);
+    }
+
+    private static void assertInvalid(String mapping, String expectedInMessage) throws Exception {
+        try {
+            StatusMappingTable.compile(json(mapping), REPO_COPY_MAPPING_KEY, CopyStatus.class);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(expectedInMessage));
+        }
+    }
+
+    private static JsonNode json(String json) throws Exception {
+        return new ObjectMapper().readTree(json);
+    }
+
+}
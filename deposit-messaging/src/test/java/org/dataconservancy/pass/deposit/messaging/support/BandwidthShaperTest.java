@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.apache.commons.io.IOUtils;
+import org.dataconservancy.pass.deposit.assembler.PackageStream;
+import org.dataconservancy.pass.deposit.messaging.support.BandwidthShaper.Upload;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class BandwidthShaperTest {
+
+    /**
+     * An upload is read no faster than the limit of its transport, and its throughput is reported while it is in
+     * progress.  The uploads of other transports are not limited.
+     */
+    @Test
+    public void uploadLimitedByItsTransport() throws Exception {
+        BandwidthShaper underTest = new BandwidthShaper(0, Collections.singletonMap("nihms", 40_000L));
+
+        long start = System.nanoTime();
+        try (InputStream in = underTest.shape("NIHMS", packageStream(20_000)).open()) {
+            assertEquals(1, underTest.getUploads().size());
+            assertEquals(20_000, IOUtils.toByteArray(in).length);
+            assertTrue(underTest.getUploads().isEmpty());
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 400);
+
+        start = System.nanoTime();
+        try (InputStream in = underTest.shape("JScholarship", packageStream(20_000)).open()) {
+            Upload upload = underTest.getUploads().get(0);
+            IOUtils.toByteArray(in);
+            assertEquals(20_000, upload.getBytes());
+            assertTrue(upload.getBytesPerSecond() > 40_000);
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 400);
+    }
+
+    /**
+     * Uploads in progress share the global limit and the limit of their transport equally, and changes to the limits
+     * apply to the uploads in progress.
+     */
+    @Test
+    public void limitsSharedByUploadsInProgress() throws Exception {
+        BandwidthShaper underTest = new BandwidthShaper(40_000, Collections.emptyMap());
+
+        try (InputStream nihms = underTest.shape("nihms", packageStream(1)).open();
+             InputStream jscholarship = underTest.shape("JScholarship", packageStream(1)).open()) {
+            assertEquals(2, underTest.getUploads().size());
+            underTest.getUploads().forEach(upload -> assertEquals(20_000, underTest.shareOf(upload)));
+
+            underTest.setTransportLimits("JScholarship=5000");
+            underTest.getUploads().forEach(upload ->
+                    assertEquals(upload.getTransport().equals("nihms") ? 20_000 : 5_000, underTest.shareOf(upload)));
+
+            underTest.setGlobalBytesPerSecond(0);
+            underTest.getUploads().forEach(upload ->
+                    assertEquals(upload.getTransport().equals("nihms") ? 0 : 5_000, underTest.shareOf(upload)));
+        }
+
+        assertTrue(underTest.getUploads().isEmpty());
+    }
+
+    private static PackageStream packageStream(int size) {
+        PackageStream.Metadata metadata = mock(PackageStream.Metadata.class);
+        when(metadata.name()).thenReturn("package.tar.gz");
+        PackageStream packageStream = mock(PackageStream.class);
+        when(packageStream.metadata()).thenReturn(metadata);
+        when(packageStream.open()).thenReturn(new ByteArrayInputStream(new byte[size]));
+        return packageStream;
+    }
+
+}
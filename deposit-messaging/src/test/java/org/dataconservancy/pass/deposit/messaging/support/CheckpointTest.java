@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class CheckpointTest {
+
+    private static final URI FIRST = URI.create("http://localhost/deposit/1");
+
+    private static final URI SECOND = URI.create("http://localhost/deposit/2");
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void resumeFromExistingCheckpoint() throws Exception {
+        Path file = tempFolder.getRoot().toPath().resolve("nested/retry.checkpoint");
+
+        try (Checkpoint underTest = Checkpoint.open(file)) {
+            assertFalse(underTest.isComplete(FIRST));
+            underTest.complete(FIRST);
+            assertTrue(underTest.isComplete(FIRST));
+        }
+
+        try (Checkpoint underTest = Checkpoint.open(file)) {
+            assertTrue(underTest.isComplete(FIRST));
+            assertFalse(underTest.isComplete(SECOND));
+            underTest.complete(SECOND);
+        }
+
+        assertEquals(2, Files.readAllLines(file).size());
+    }
+
+    @Test
+    public void completeIsIdempotent() throws Exception {
+        Path file = tempFolder.getRoot().toPath().resolve("retry.checkpoint");
+
+        try (Checkpoint underTest = Checkpoint.open(file)) {
+            underTest.complete(FIRST);
+            underTest.complete(FIRST);
+            assertEquals(1, underTest.getCompleted().size());
+        }
+
+        assertEquals(1, Files.readAllLines(file).size());
+    }
+
+    @Test
+    public void deleteRemovesFile() throws Exception {
+        Path file = tempFolder.getRoot().toPath().resolve("retry.checkpoint");
+        Checkpoint underTest = Checkpoint.open(file);
+        underTest.complete(FIRST);
+
+        underTest.delete();
+
+        assertFalse(Files.exists(file));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void completeAfterClose() throws Exception {
+        Checkpoint underTest = Checkpoint.open(tempFolder.getRoot().toPath().resolve("retry.checkpoint"));
+        underTest.close();
+
+        underTest.complete(FIRST);
+    }
+
+}
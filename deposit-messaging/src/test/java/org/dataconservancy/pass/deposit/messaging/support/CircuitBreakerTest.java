@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.dataconservancy.pass.deposit.messaging.support.CircuitBreaker.State.CLOSED;
+import static org.dataconservancy.pass.deposit.messaging.support.CircuitBreaker.State.HALF_OPEN;
+import static org.dataconservancy.pass.deposit.messaging.support.CircuitBreaker.State.OPEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class CircuitBreakerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private AtomicLong now = new AtomicLong();
+
+    /**
+     * The circuit opens once the failure rate is reached, denies calls while open, permits a single probe once
+     * half-open, opens again if the probe fails, and closes if it succeeds.
+     */
+    @Test
+    public void opensOnFailureRateAndClosesAfterProbe() throws Exception {
+        CircuitBreaker underTest = new CircuitBreaker("ftp://example.org", 4, 4, 0.5, 0, 1.0, 1000, now::get);
+        AtomicInteger closed = new AtomicInteger();
+        underTest.addCloseListener(closed::incrementAndGet);
+
+        // too few calls to open the circuit
+        call(underTest, false);
+        call(underTest, false);
+        call(underTest, true);
+        assertEquals(CLOSED, underTest.getState());
+
+        // two of the last four calls failed
+        call(underTest, false);
+        assertEquals(OPEN, underTest.getState());
+        assertFalse(underTest.tryAcquire());
+        assertEquals(1, underTest.getDenied());
+
+        // a single probe is permitted once the circuit has been open long enough
+        now.addAndGet(1000 * MS);
+        assertTrue(underTest.isCallPermitted());
+        assertTrue(underTest.tryAcquire());
+        assertEquals(HALF_OPEN, underTest.getState());
+        assertFalse(underTest.tryAcquire());
+
+        // a probe that isn't made permits another
+        underTest.release();
+        assertTrue(underTest.tryAcquire());
+
+        underTest.onFailure(MS);
+        assertEquals(OPEN, underTest.getState());
+        assertFalse(underTest.isCallPermitted());
+
+        now.addAndGet(1000 * MS);
+        assertTrue(underTest.tryAcquire());
+        underTest.onSuccess(MS);
+        assertEquals(CLOSED, underTest.getState());
+        assertEquals(1, closed.get());
+
+        // outcomes recorded before the circuit opened are forgotten
+        call(underTest, false);
+        call(underTest, true);
+        call(underTest, true);
+        call(underTest, true);
+        assertEquals(CLOSED, underTest.getState());
+    }
+
+    /**
+     * The circuit opens once the slow call rate is reached.
+     */
+    @Test
+    public void opensOnSlowCallRate() throws Exception {
+        CircuitBreaker underTest = new CircuitBreaker("Fedora", 2, 2, 1.0, 100, 1.0, 1000, now::get);
+
+        assertTrue(underTest.tryAcquire());
+        underTest.onSuccess(10 * MS);
+        assertTrue(underTest.tryAcquire());
+        underTest.onSuccess(200 * MS);
+        assertEquals(CLOSED, underTest.getState());
+
+        assertTrue(underTest.tryAcquire());
+        underTest.onSuccess(200 * MS);
+        assertEquals(OPEN, underTest.getState());
+    }
+
+    private static void call(CircuitBreaker breaker, boolean succeed) {
+        assertTrue(breaker.tryAcquire());
+        if (succeed) {
+            breaker.onSuccess(MS);
+        } else {
+            breaker.onFailure(MS);
+        }
+    }
+
+}
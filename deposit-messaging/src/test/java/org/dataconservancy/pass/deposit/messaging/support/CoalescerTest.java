@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class CoalescerTest {
+
+    private Coalescer<String, String> underTest;
+
+    @After
+    public void tearDown() throws Exception {
+        if (underTest != null) {
+            underTest.close();
+        }
+    }
+
+    /**
+     * Messages for the same key offered within the window are handled once, as a group; messages for other keys are
+     * handled separately.
+     */
+    @Test
+    public void coalesceWithinWindow() throws Exception {
+        underTest = new Coalescer<>("test", 200, 2, 0, e -> { });
+        Map<String, List<String>> groups = new ConcurrentHashMap<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        BiConsumer<String, List<String>> handler = (key, group) -> {
+            groups.put(key, new ArrayList<>(group));
+            latch.countDown();
+        };
+
+        underTest.offer("a", "a1", handler);
+        underTest.offer("b", "b1", handler);
+        underTest.offer("a", "a2", handler);
+        underTest.offer("a", "a3", handler);
+        assertEquals(4, underTest.getPending());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a1", "a2", "a3"), groups.get("a"));
+        assertEquals(Collections.singletonList("b1"), groups.get("b"));
+        assertEquals(4, underTest.getReceived());
+        assertEquals(2, underTest.getHandled());
+        assertEquals(2.0, underTest.getRatio(), 0.001);
+        assertEquals(0, underTest.getPending());
+    }
+
+    /**
+     * A message offered after its key's group has been handled opens a new group.
+     */
+    @Test
+    public void messageAfterWindowOpensNewGroup() throws Exception {
+        underTest = new Coalescer<>("test", 50, 1, 0, e -> { });
+        List<List<String>> groups = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(2);
+        BiConsumer<String, List<String>> handler = (key, group) -> {
+            groups.add(new ArrayList<>(group));
+            first.countDown();
+            second.countDown();
+        };
+
+        underTest.offer("a", "a1", handler);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        underTest.offer("a", "a2", handler);
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(Collections.singletonList("a1"), Collections.singletonList("a2")), groups);
+    }
+
+    /**
+     * When coalescing is disabled, each message is handled immediately by the offering thread.
+     */
+    @Test
+    public void disabled() throws Exception {
+        underTest = new Coalescer<>("test", 0, 1, 0, e -> { });
+        List<Thread> threads = new ArrayList<>();
+
+        underTest.offer("a", "a1", (key, group) -> threads.add(Thread.currentThread()));
+        underTest.offer("a", "a2", (key, group) -> threads.add(Thread.currentThread()));
+
+        assertEquals(Arrays.asList(Thread.currentThread(), Thread.currentThread()), threads);
+        assertEquals(2, underTest.getHandled());
+        assertEquals(1.0, underTest.getRatio(), 0.001);
+    }
+
+    /**
+     * Errors thrown by a handler are passed to the error handler.
+     */
+    @Test
+    public void handlerErrors() throws Exception {
+        RuntimeException expected = new RuntimeException("Expected");
+        List<Throwable> errors = new ArrayList<>();
+        underTest = new Coalescer<>("test", 0, 1, 0, errors::add);
+
+        underTest.offer("a", "a1", (key, group) -> { throw expected; });
+
+        assertEquals(1, errors.size());
+        assertSame(expected, errors.get(0));
+        assertEquals(1, underTest.getHandled());
+    }
+
+    /**
+     * Open groups are handled when the coalescer is closed, rather than discarded, and messages offered after it is
+     * closed are handled immediately.
+     */
+    @Test
+    public void openGroupsHandledOnClose() throws Exception {
+        underTest = new Coalescer<>("test", 60_000, 1, 0, e -> { });
+        Map<String, List<String>> groups = new ConcurrentHashMap<>();
+        BiConsumer<String, List<String>> handler = (key, group) -> groups.put(key, new ArrayList<>(group));
+
+        underTest.offer("a", "a1", handler);
+        underTest.offer("a", "a2", handler);
+        underTest.offer("b", "b1", handler);
+        underTest.close();
+
+        assertEquals(Arrays.asList("a1", "a2"), groups.get("a"));
+        assertEquals(Collections.singletonList("b1"), groups.get("b"));
+        assertEquals(0, underTest.getPending());
+
+        underTest.offer("c", "c1", handler);
+        assertEquals(Collections.singletonList("c1"), groups.get("c"));
+        assertEquals(3, underTest.getHandled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveThreads() throws Exception {
+        new Coalescer<String, String>("test", 100, 0, 0, e -> { });
+    }
+
+}
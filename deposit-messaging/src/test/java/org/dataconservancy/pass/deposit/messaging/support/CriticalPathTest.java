@@ -0,0 +1,395 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.client.PassJsonAdapter;
+import org.dataconservancy.pass.client.fedora.UpdateConflictException;
+import org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.CriticalResult;
+import org.dataconservancy.pass.model.Deposit;
+import org.dataconservancy.pass.model.PassEntity;
+import org.dataconservancy.pass.model.RepositoryCopy;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.dataconservancy.pass.deposit.messaging.support.CriticalRepositoryInteraction.idempotent;
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.ACCEPTED;
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.FAILED;
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.SUBMITTED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Exercises the {@link CriticalPath} against an in-memory repository that performs conditional updates, counting the
+ * round trips made to the repository.
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class CriticalPathTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CriticalPathTest.class);
+
+    private static final URI DEPOSIT_URI = URI.create("http://example.org/deposit");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private PassClient passClient;
+
+    private PassJsonAdapter jsonAdapter;
+
+    /**
+     * The state of the Deposit in the repository
+     */
+    private Deposit stored;
+
+    private AtomicInteger version;
+
+    /**
+     * The number of HTTP requests made to the repository: an update-and-read costs two
+     */
+    private AtomicInteger roundTrips;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        version = new AtomicInteger();
+        roundTrips = new AtomicInteger();
+        stored = new Deposit();
+        stored.setId(DEPOSIT_URI);
+        stored.setDepositStatus(SUBMITTED);
+        stored.setVersionTag(String.valueOf(version.get()));
+
+        jsonAdapter = mock(PassJsonAdapter.class);
+        when(jsonAdapter.toJson(any(), eq(false))).then(inv -> MAPPER.writeValueAsBytes(inv.getArgument(0)));
+        when(jsonAdapter.toModel(any(), any())).then(inv -> MAPPER.readValue((byte[]) inv.getArgument(0),
+                (Class<? extends PassEntity>) inv.getArgument(1)));
+
+        passClient = mock(PassClient.class);
+        when(passClient.readResource(eq(DEPOSIT_URI), eq(Deposit.class))).then(inv -> read());
+        when(passClient.updateAndReadResource(any(Deposit.class), eq(Deposit.class))).then(inv -> {
+            update(inv.getArgument(0));
+            return read();
+        });
+        doAnswer(inv -> {
+            update(inv.getArgument(0));
+            return null;
+        }).when(passClient).updateResource(any(Deposit.class));
+    }
+
+    /**
+     * The last known state of a resource is used in place of reading it for an idempotent interaction, saving a round
+     * trip for each interaction after the first.
+     */
+    @Test
+    public void cachedStateSavesRoundTrips() throws Exception {
+        int interactions = 10;
+
+        CriticalPath uncached = new CriticalPath(passClient, new DefaultConflictHandler(passClient));
+        long uncachedNanos = System.nanoTime();
+        for (int i = 0; i < interactions; i++) {
+            assertTrue(toggle(uncached).success());
+        }
+        uncachedNanos = System.nanoTime() - uncachedNanos;
+        int uncachedRoundTrips = roundTrips.getAndSet(0);
+
+        CriticalPath cached = new CriticalPath(passClient, new DefaultConflictHandler(passClient),
+                new VersionedResourceCache(jsonAdapter, 10));
+        long cachedNanos = System.nanoTime();
+        for (int i = 0; i < interactions; i++) {
+            assertTrue(toggle(cached).success());
+        }
+        cachedNanos = System.nanoTime() - cachedNanos;
+        int cachedRoundTrips = roundTrips.get();
+
+        LOG.info(">>>> {} interactions: {} round trips ({} us) uncached, {} round trips ({} us) cached",
+                interactions, uncachedRoundTrips, uncachedNanos / 1000, cachedRoundTrips, cachedNanos / 1000);
+
+        assertEquals(3 * interactions, uncachedRoundTrips);
+        assertEquals(1 + 2 * interactions, cachedRoundTrips);
+    }
+
+    /**
+     * A stale cached state that fails the precondition is confirmed by reading the resource.
+     */
+    @Test
+    public void staleStateFailingPreconditionIsReRead() throws Exception {
+        CriticalPath underTest = new CriticalPath(passClient, new DefaultConflictHandler(passClient),
+                new VersionedResourceCache(jsonAdapter, 10));
+        assertTrue(underTest.performCritical(DEPOSIT_URI, Deposit.class, d -> true, (d, r) -> true, d -> {
+            d.setDepositStatus(FAILED);
+            return d;
+        }).success());
+
+        // Another process resets the Deposit
+        modifyElsewhere(SUBMITTED);
+        roundTrips.set(0);
+
+        CriticalResult<Deposit, Deposit> result = underTest.performCritical(DEPOSIT_URI, Deposit.class,
+                d -> d.getDepositStatus() == SUBMITTED, (d, r) -> d.getDepositStatus() == ACCEPTED, idempotent(d -> {
+                    d.setDepositStatus(ACCEPTED);
+                    return d;
+                }));
+
+        assertTrue(result.success());
+        assertEquals(ACCEPTED, stored.getDepositStatus());
+        assertEquals(3, roundTrips.get());
+    }
+
+    /**
+     * A stale cached state that passes the precondition results in a conflict, which is resolved against the latest
+     * state of the resource.
+     */
+    @Test
+    public void staleStatePassingPreconditionConflicts() throws Exception {
+        CriticalPath underTest = new CriticalPath(passClient, new DefaultConflictHandler(passClient),
+                new VersionedResourceCache(jsonAdapter, 10));
+        assertTrue(toggle(underTest).success());
+
+        // Another process modifies the Deposit, without changing its status
+        modifyElsewhere(stored.getDepositStatus());
+        stored.setDepositStatusRef("http://example.org/status");
+
+        CriticalResult<Deposit, Deposit> result = toggle(underTest);
+
+        assertTrue(result.success());
+        assertEquals("http://example.org/status", result.resource().get().getDepositStatusRef());
+        assertEquals("http://example.org/status", stored.getDepositStatusRef());
+    }
+
+    /**
+     * A stale cached state never causes a precondition to fail.
+     */
+    @Test
+    public void preconditionFailsOnlyOnLatestState() throws Exception {
+        CriticalPath underTest = new CriticalPath(passClient, new DefaultConflictHandler(passClient),
+                new VersionedResourceCache(jsonAdapter, 10));
+        assertTrue(toggle(underTest).success());
+        modifyElsewhere(FAILED);
+
+        CriticalResult<Deposit, Deposit> result = underTest.performCritical(DEPOSIT_URI, Deposit.class,
+                d -> d.getDepositStatus() == SUBMITTED, (d, r) -> true, idempotent(d -> d));
+
+        assertFalse(result.success());
+        assertEquals(FAILED, result.resource().get().getDepositStatus());
+    }
+
+    /**
+     * An interaction that is not idempotent begins with the state read from the repository even if the last known
+     * state is cached, so its effects are never performed on a stale state.
+     */
+    @Test
+    public void interactionWithEffectsReadsLatestState() throws Exception {
+        CriticalPath underTest = new CriticalPath(passClient, new DefaultConflictHandler(passClient),
+                new VersionedResourceCache(jsonAdapter, 10));
+        assertTrue(toggle(underTest).success());
+        modifyElsewhere(FAILED);
+        roundTrips.set(0);
+        AtomicInteger effects = new AtomicInteger();
+
+        CriticalResult<Deposit, Deposit> result = underTest.performCritical(DEPOSIT_URI, Deposit.class,
+                d -> d.getDepositStatus() != FAILED, (d, r) -> true, d -> {
+                    effects.incrementAndGet();
+                    return d;
+                });
+
+        assertFalse(result.success());
+        assertEquals(FAILED, result.resource().get().getDepositStatus());
+        assertEquals(0, effects.get());
+        assertEquals(1, roundTrips.get());
+    }
+
+    /**
+     * A lease that expires during the critical interaction abandons the update, leaving the resource unmodified.
+     */
+    @Test
+    public void lostLeaseAbandonsUpdate() throws Exception {
+        AtomicLong clock = new AtomicLong();
+        InMemoryLockProvider lockProvider = new InMemoryLockProvider(1000, 0, 0, clock::get);
+        CriticalPath underTest = new CriticalPath(passClient, new DefaultConflictHandler(passClient), null,
+                lockProvider);
+
+        CriticalResult<Deposit, Deposit> result = underTest.performCritical(DEPOSIT_URI, Deposit.class, d -> true,
+                (d, r) -> true, d -> {
+                    clock.addAndGet(1000);
+                    d.setDepositStatus(ACCEPTED);
+                    return d;
+                });
+
+        assertFalse(result.success());
+        assertTrue(result.throwable().isPresent());
+        assertEquals(SUBMITTED, stored.getDepositStatus());
+        assertEquals(0, lockProvider.getHeld());
+
+        assertTrue(toggle(underTest).success());
+        assertEquals(ACCEPTED, stored.getDepositStatus());
+    }
+
+    /**
+     * An interaction fails, without reading the resource, if the lease is held elsewhere.
+     */
+    @Test
+    public void unavailableLeaseFails() throws Exception {
+        InMemoryLockProvider lockProvider = new InMemoryLockProvider(30000, 0, 0, System::currentTimeMillis);
+        CriticalPath underTest = new CriticalPath(passClient, new DefaultConflictHandler(passClient), null,
+                lockProvider);
+
+        Thread holder = new Thread(() -> {
+            try {
+                lockProvider.acquire(DEPOSIT_URI);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        holder.start();
+        holder.join();
+
+        CriticalResult<Deposit, Deposit> result = toggle(underTest);
+
+        assertFalse(result.success());
+        assertTrue(result.throwable().isPresent());
+        assertEquals(0, roundTrips.get());
+    }
+
+    /**
+     * A unit of work whose update conflicts is closed once, discarding its writes, before the conflict is resolved
+     * against the latest state of the resource.
+     */
+    @Test
+    public void conflictingUnitOfWorkIsClosedBeforeConflictIsHandled() throws Exception {
+        UnitOfWork unitOfWork = mock(UnitOfWork.class);
+        when(unitOfWork.update(any(Deposit.class), eq(Deposit.class)))
+                .thenThrow(new UpdateConflictException("412 Precondition Failed"));
+        CriticalPath underTest = new CriticalPath(passClient, new DefaultConflictHandler(passClient));
+        underTest.setUnitOfWorkFactory(() -> unitOfWork);
+
+        CriticalResult<Deposit, Deposit> result = underTest.performCriticalUnitOfWork(DEPOSIT_URI, Deposit.class,
+                d -> true, (d, r) -> true, (d, work) -> {
+                    if (work != unitOfWork) {
+                        verify(unitOfWork).close();
+                    }
+                    d.setDepositStatus(ACCEPTED);
+                    return d;
+                });
+
+        assertTrue(result.success());
+        assertEquals(ACCEPTED, stored.getDepositStatus());
+        verify(unitOfWork).close();
+        verify(unitOfWork, never()).commit();
+    }
+
+    /**
+     * When the update of a unit of work conflicts, its writes are discarded, so the fields modified by the critical
+     * interaction are not merged onto the latest state of the resource: they refer to a {@code RepositoryCopy} whose
+     * creation was discarded.  The critical interaction is performed again, creating a {@code RepositoryCopy} that is
+     * committed.
+     */
+    @Test
+    public void conflictingTransactionalCreateIsNotMerged() throws Exception {
+        URI discardedUri = URI.create("http://example.org/tx/repositoryCopy");
+        URI committedUri = URI.create("http://example.org/repositoryCopy");
+        UnitOfWork unitOfWork = mock(UnitOfWork.class);
+        when(unitOfWork.create(any(RepositoryCopy.class), eq(RepositoryCopy.class))).then(inv -> {
+            RepositoryCopy created = new RepositoryCopy();
+            created.setId(discardedUri);
+            return created;
+        });
+        when(unitOfWork.update(any(Deposit.class), eq(Deposit.class))).then(inv -> {
+            // another process updates the Deposit before the transaction is committed
+            modifyElsewhere(SUBMITTED);
+            throw new UpdateConflictException("412 Precondition Failed");
+        });
+        when(passClient.createAndReadResource(any(RepositoryCopy.class), eq(RepositoryCopy.class))).then(inv -> {
+            RepositoryCopy created = new RepositoryCopy();
+            created.setId(committedUri);
+            return created;
+        });
+        DefaultConflictHandler conflictHandler = new DefaultConflictHandler(passClient, jsonAdapter, 1, 0, 0,
+                new String[] {"depositStatusRef", "repositoryCopy"}, ms -> { }, () -> 0);
+        CriticalPath underTest = new CriticalPath(passClient, conflictHandler);
+        underTest.setUnitOfWorkFactory(() -> unitOfWork);
+
+        CriticalResult<RepositoryCopy, Deposit> result = underTest.performCriticalUnitOfWork(DEPOSIT_URI,
+                Deposit.class, d -> true, (d, rc) -> true, (d, work) -> {
+                    RepositoryCopy repoCopy = work.create(new RepositoryCopy(), RepositoryCopy.class);
+                    d.setRepositoryCopy(repoCopy.getId());
+                    return repoCopy;
+                });
+
+        assertTrue(result.success());
+        assertEquals(committedUri, result.result().get().getId());
+        assertEquals(committedUri, stored.getRepositoryCopy());
+        assertEquals(0, conflictHandler.getMerged());
+        verify(unitOfWork).close();
+        verify(unitOfWork, never()).commit();
+    }
+
+    private CriticalResult<Deposit, Deposit> toggle(CriticalPath criticalPath) {
+        return criticalPath.performCritical(DEPOSIT_URI, Deposit.class, d -> true, (d, r) -> true, idempotent(d -> {
+            d.setDepositStatus(d.getDepositStatus() == SUBMITTED ? ACCEPTED : SUBMITTED);
+            return d;
+        }));
+    }
+
+    private void modifyElsewhere(Deposit.DepositStatus status) {
+        stored.setDepositStatus(status);
+        stored.setVersionTag(String.valueOf(version.incrementAndGet()));
+    }
+
+    private Deposit read() {
+        roundTrips.incrementAndGet();
+        return copy(stored);
+    }
+
+    /**
+     * Updates the stored Deposit, if the version tag of {@code deposit} matches (i.e. {@code If-Match})
+     */
+    private void update(Deposit deposit) {
+        roundTrips.incrementAndGet();
+        if (!stored.getVersionTag().equals(deposit.getVersionTag())) {
+            throw new UpdateConflictException("412 Precondition Failed");
+        }
+        stored = copy(deposit);
+        stored.setVersionTag(String.valueOf(version.incrementAndGet()));
+    }
+
+    private static Deposit copy(Deposit deposit) {
+        try {
+            Deposit copy = MAPPER.readValue(MAPPER.writeValueAsBytes(deposit), Deposit.class);
+            copy.setVersionTag(deposit.getVersionTag());
+            return copy;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.client.PassJsonAdapter;
+import org.dataconservancy.pass.client.fedora.UpdateConflictException;
+import org.dataconservancy.pass.model.Deposit;
+import org.dataconservancy.pass.model.PassEntity;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.ACCEPTED;
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.FAILED;
+import static org.dataconservancy.pass.model.Deposit.DepositStatus.SUBMITTED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DefaultConflictHandlerTest {
+
+    private static final URI DEPOSIT_URI = URI.create("http://example.org/deposit");
+
+    private static final URI REPO_COPY_URI = URI.create("http://example.org/repoCopy");
+
+    private static final String STATUS_REF = "http://example.org/statement";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private PassClient passClient;
+
+    private PassJsonAdapter jsonAdapter;
+
+    /**
+     * The state of the Deposit in the repository
+     */
+    private Deposit stored;
+
+    /**
+     * The number of updates to fail with a conflict before succeeding
+     */
+    private AtomicInteger conflictsRemaining;
+
+    private List<Long> sleeps;
+
+    private AtomicInteger criticalInvocations;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        stored = new Deposit();
+        stored.setId(DEPOSIT_URI);
+        stored.setDepositStatus(SUBMITTED);
+        stored.setVersionTag("2");
+        conflictsRemaining = new AtomicInteger();
+        sleeps = new ArrayList<>();
+        criticalInvocations = new AtomicInteger();
+
+        jsonAdapter = mock(PassJsonAdapter.class);
+        when(jsonAdapter.toJson(any(), eq(false))).then(inv -> MAPPER.writeValueAsBytes(inv.getArgument(0)));
+        when(jsonAdapter.toModel(any(), any())).then(inv -> MAPPER.readValue((byte[]) inv.getArgument(0),
+                (Class<? extends PassEntity>) inv.getArgument(1)));
+
+        passClient = mock(PassClient.class);
+        when(passClient.readResource(eq(DEPOSIT_URI), eq(Deposit.class))).then(inv -> copy(stored));
+        doAnswer(inv -> {
+            if (conflictsRemaining.getAndDecrement() > 0) {
+                throw new UpdateConflictException("412 Precondition Failed");
+            }
+            stored = copy(inv.getArgument(0));
+            return null;
+        }).when(passClient).updateResource(any(Deposit.class));
+    }
+
+    /**
+     * Conflicting retries are attempted again, after a back-off that doubles up to the maximum.
+     */
+    @Test
+    public void retryWithBackoffUntilResolved() throws Exception {
+        DefaultConflictHandler underTest = handler(5, new String[] {});
+        conflictsRemaining.set(3);
+
+        String result = underTest.handleConflict(conflicted(d -> d.setDepositStatus(ACCEPTED)), Deposit.class,
+                d -> d.getDepositStatus() == SUBMITTED, this::accept);
+
+        assertEquals("accepted", result);
+        assertEquals(ACCEPTED, stored.getDepositStatus());
+        assertEquals(4, criticalInvocations.get());
+        assertEquals(4, underTest.getAttempts());
+        assertEquals(1, underTest.getResolved());
+        assertEquals(0, underTest.getAbandoned());
+        assertEquals(4.0, underTest.getAttemptsPerResolution(), 0);
+
+        // random() answers 0.5, bounds are 10, 20, 40, then capped at 50
+        assertEquals(asList(5, 10, 20, 25), sleeps);
+    }
+
+    /**
+     * Resolution is abandoned after the maximum number of attempts.
+     */
+    @Test
+    public void abandonAfterMaxAttempts() throws Exception {
+        DefaultConflictHandler underTest = handler(3, new String[] {});
+        conflictsRemaining.set(Integer.MAX_VALUE);
+
+        assertNull(underTest.handleConflict(conflicted(d -> d.setDepositStatus(ACCEPTED)), Deposit.class,
+                d -> d.getDepositStatus() == SUBMITTED, this::accept));
+
+        assertEquals(SUBMITTED, stored.getDepositStatus());
+        assertEquals(3, underTest.getAttempts());
+        assertEquals(0, underTest.getResolved());
+        assertEquals(1, underTest.getAbandoned());
+    }
+
+    /**
+     * Resolution is abandoned without further attempts if the latest state fails the precondition.
+     */
+    @Test
+    public void abandonWhenPreconditionFails() throws Exception {
+        DefaultConflictHandler underTest = handler(3, new String[] {});
+        Deposit conflicted = conflicted(d -> d.setDepositStatus(ACCEPTED));
+        stored.setDepositStatus(FAILED);
+
+        assertNull(underTest.handleConflict(conflicted, Deposit.class, d -> d.getDepositStatus() == SUBMITTED,
+                this::accept));
+
+        assertEquals(1, underTest.getAttempts());
+        assertEquals(0, criticalInvocations.get());
+    }
+
+    /**
+     * Fields modified by the critical update are merged onto the latest state, without applying the critical update
+     * again, when another process has modified other fields.
+     */
+    @Test
+    public void mergeFieldsModifiedByCriticalUpdate() throws Exception {
+        DefaultConflictHandler underTest = handler(3, new String[] {"depositStatusRef", "repositoryCopy"});
+        Deposit original = copy(stored);
+        Deposit conflicted = conflicted(d -> {
+            d.setDepositStatusRef(STATUS_REF);
+            d.setRepositoryCopy(REPO_COPY_URI);
+        });
+        stored.setRepository(URI.create("http://example.org/repository"));
+
+        String result = underTest.handleConflict(underTest.snapshot(original), conflicted, "result",
+                Deposit.class, d -> d.getDepositStatus() == SUBMITTED, this::accept);
+
+        assertEquals("result", result);
+        assertEquals(0, criticalInvocations.get());
+        assertEquals(1, underTest.getMerged());
+        assertEquals(STATUS_REF, stored.getDepositStatusRef());
+        assertEquals(REPO_COPY_URI, stored.getRepositoryCopy());
+        assertEquals(URI.create("http://example.org/repository"), stored.getRepository());
+        assertEquals(SUBMITTED, stored.getDepositStatus());
+    }
+
+    /**
+     * The critical update is applied again if it modified a field that may not be merged.
+     */
+    @Test
+    public void noMergeWhenNonMergeFieldModified() throws Exception {
+        DefaultConflictHandler underTest = handler(3, new String[] {"depositStatusRef", "repositoryCopy"});
+        Deposit original = copy(stored);
+        Deposit conflicted = conflicted(d -> {
+            d.setDepositStatusRef(STATUS_REF);
+            d.setDepositStatus(ACCEPTED);
+        });
+
+        String result = underTest.handleConflict(underTest.snapshot(original), conflicted, "result",
+                Deposit.class, d -> d.getDepositStatus() == SUBMITTED, this::accept);
+
+        assertEquals("accepted", result);
+        assertEquals(1, criticalInvocations.get());
+        assertEquals(0, underTest.getMerged());
+        assertEquals(ACCEPTED, stored.getDepositStatus());
+    }
+
+    /**
+     * The critical update is applied again if another process modified a merge field to a different value.
+     */
+    @Test
+    public void noMergeWhenFieldModifiedByOtherProcess() throws Exception {
+        DefaultConflictHandler underTest = handler(3, new String[] {"depositStatusRef", "repositoryCopy"});
+        Deposit original = copy(stored);
+        Deposit conflicted = conflicted(d -> d.setDepositStatusRef(STATUS_REF));
+        stored.setDepositStatusRef("http://example.org/other");
+
+        underTest.handleConflict(underTest.snapshot(original), conflicted, "result", Deposit.class,
+                d -> d.getDepositStatus() == SUBMITTED, this::accept);
+
+        assertEquals(1, criticalInvocations.get());
+        assertEquals(0, underTest.getMerged());
+    }
+
+    private DefaultConflictHandler handler(int maxAttempts, String[] mergeFields) {
+        return new DefaultConflictHandler(passClient, jsonAdapter, maxAttempts, 10, 50, mergeFields, sleeps::add,
+                () -> 0.5);
+    }
+
+    private String accept(Deposit deposit) {
+        criticalInvocations.incrementAndGet();
+        deposit.setDepositStatus(ACCEPTED);
+        return "accepted";
+    }
+
+    /**
+     * Answers a copy of the stored Deposit modified by {@code update}, and modifies the stored Deposit so that the
+     * copy conflicts with it.
+     */
+    private Deposit conflicted(Consumer<Deposit> update) {
+        Deposit conflicted = copy(stored);
+        update.accept(conflicted);
+        stored.setVersionTag(String.valueOf(Integer.parseInt(stored.getVersionTag()) + 1));
+        return conflicted;
+    }
+
+    private static List<Long> asList(long... values) {
+        List<Long> list = new ArrayList<>();
+        for (long value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static Deposit copy(Deposit deposit) {
+        try {
+            Deposit copy = MAPPER.readValue(MAPPER.writeValueAsBytes(deposit), Deposit.class);
+            copy.setVersionTag(deposit.getVersionTag());
+            return copy;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.deposit.messaging.support.DepositJournal.Stage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class DepositJournalTest {
+
+    private static final URI DEPOSIT_1 = URI.create("http://example.org/deposit/1");
+
+    private static final URI DEPOSIT_2 = URI.create("http://example.org/deposit/2");
+
+    private static final URI DEPOSIT_3 = URI.create("http://example.org/deposit/3");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = tmp.getRoot().toPath().resolve("journal");
+    }
+
+    /**
+     * Deposits not recorded as done when the journal is closed are recovered when it is reopened, with their last
+     * stage.
+     */
+    @Test
+    public void inFlightDepositsAreRecovered() throws Exception {
+        try (DepositJournal underTest = DepositJournal.open(file, 0, 0)) {
+            underTest.record(DEPOSIT_1, Stage.ACCEPTED);
+            underTest.record(DEPOSIT_2, Stage.ACCEPTED);
+            underTest.record(DEPOSIT_3, Stage.ACCEPTED);
+            underTest.record(DEPOSIT_1, Stage.ASSEMBLING);
+            underTest.record(DEPOSIT_2, Stage.ASSEMBLING);
+            underTest.record(DEPOSIT_2, Stage.TRANSPORTED);
+            underTest.record(DEPOSIT_2, Stage.DONE);
+            underTest.record(DEPOSIT_3, Stage.ASSEMBLING);
+            underTest.record(DEPOSIT_3, Stage.TRANSPORTED);
+            underTest.record(DEPOSIT_3, Stage.AWAITING_STATUS);
+            assertTrue(underTest.getRecovered().isEmpty());
+        }
+
+        try (DepositJournal underTest = DepositJournal.open(file, 0, 0)) {
+            Map<URI, Stage> recovered = underTest.getRecovered();
+            assertEquals(2, recovered.size());
+            assertEquals(Stage.ASSEMBLING, recovered.get(DEPOSIT_1));
+            assertEquals(Stage.AWAITING_STATUS, recovered.get(DEPOSIT_3));
+
+            // records made by this process are in flight, but were not recovered
+            underTest.record(DEPOSIT_2, Stage.ACCEPTED);
+            assertEquals(3, underTest.getInFlight().size());
+            assertEquals(2, underTest.getRecovered().size());
+        }
+    }
+
+    /**
+     * Buffered records are written when the journal is synced, and a record torn by a crash is discarded.
+     */
+    @Test
+    public void tornRecordIsDiscarded() throws Exception {
+        DepositJournal underTest = DepositJournal.open(file, 60000, 0);
+        underTest.record(DEPOSIT_1, Stage.ACCEPTED);
+        assertEquals(0, Files.size(file));
+        underTest.sync();
+        assertTrue(Files.size(file) > 0);
+        underTest.close();
+
+        // simulate a crash while writing a record
+        Files.write(file, "1234 ACCEPTED http://example.org/dep".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        try (DepositJournal reopened = DepositJournal.open(file, 0, 0)) {
+            assertEquals(1, reopened.getRecovered().size());
+            assertEquals(Stage.ACCEPTED, reopened.getRecovered().get(DEPOSIT_1));
+            reopened.record(DEPOSIT_2, Stage.ACCEPTED);
+        }
+
+        try (DepositJournal reopened = DepositJournal.open(file, 0, 0)) {
+            assertEquals(2, reopened.getRecovered().size());
+        }
+    }
+
+    /**
+     * Compaction leaves a single record for each deposit in flight.
+     */
+    @Test
+    public void compactionRetainsInFlightDeposits() throws Exception {
+        try (DepositJournal underTest = DepositJournal.open(file, 0, 0)) {
+            for (int i = 0; i < 100; i++) {
+                URI deposit = URI.create("http://example.org/deposit/done/" + i);
+                underTest.record(deposit, Stage.ACCEPTED);
+                underTest.record(deposit, Stage.ASSEMBLING);
+                underTest.record(deposit, Stage.DONE);
+            }
+            underTest.record(DEPOSIT_1, Stage.ACCEPTED);
+            underTest.record(DEPOSIT_1, Stage.ASSEMBLING);
+            underTest.record(DEPOSIT_2, Stage.ACCEPTED);
+
+            underTest.compact();
+            assertEquals(2, Files.readAllLines(file).size());
+
+            underTest.record(DEPOSIT_2, Stage.DONE);
+            underTest.record(DEPOSIT_3, Stage.ACCEPTED);
+        }
+
+        try (DepositJournal underTest = DepositJournal.open(file, 0, 0)) {
+            Map<URI, Stage> recovered = underTest.getRecovered();
+            assertEquals(2, recovered.size());
+            assertEquals(Stage.ASSEMBLING, recovered.get(DEPOSIT_1));
+            assertEquals(Stage.ACCEPTED, recovered.get(DEPOSIT_3));
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.dataconservancy.pass.client.PassJsonAdapter;
+import org.dataconservancy.pass.client.fedora.UpdateConflictException;
+import org.dataconservancy.pass.model.Deposit;
+import org.dataconservancy.pass.model.Policy;
+import org.dataconservancy.pass.model.RepositoryCopy;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class FcrepoUnitOfWorkTest {
+
+    private static final String BASE = "http://localhost:8080/fcrepo/rest/";
+
+    private static final String TX = BASE + "tx:1234";
+
+    private static final URI DEPOSIT = URI.create(BASE + "deposits/1");
+
+    private List<Request> requests;
+
+    private int updateCode;
+
+    private OkHttpClient okHttpClient;
+
+    private PassJsonAdapter jsonAdapter;
+
+    @Before
+    public void setUp() throws Exception {
+        requests = new ArrayList<>();
+        updateCode = 204;
+        okHttpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            Request req = chain.request();
+            requests.add(req);
+            Response.Builder res = new Response.Builder()
+                    .request(req)
+                    .protocol(Protocol.HTTP_1_1)
+                    .message("")
+                    .body(ResponseBody.create(null, ""));
+            String url = req.url().toString();
+            if (url.equals(BASE + "fcr:tx")) {
+                return res.code(201).header("Location", TX).build();
+            }
+            if (url.equals(TX + "/repositoryCopies")) {
+                return res.code(201).header("Location", TX + "/repositoryCopies/1").build();
+            }
+            if (req.method().equals("PUT")) {
+                return res.code(updateCode).build();
+            }
+            return res.code(204).build();
+        }).build();
+
+        jsonAdapter = mock(PassJsonAdapter.class);
+        when(jsonAdapter.toJson(any(), eq(true))).thenReturn("{}".getBytes());
+        when(jsonAdapter.toModel(any(), eq(RepositoryCopy.class))).thenAnswer(inv -> new RepositoryCopy());
+        when(jsonAdapter.toModel(any(), eq(Deposit.class))).thenAnswer(inv -> new Deposit());
+    }
+
+    /**
+     * Writes are made within the transaction, resources are identified by their URIs outside of the transaction, and
+     * the transaction is committed.
+     */
+    @Test
+    public void writesAreCommittedInTransaction() throws Exception {
+        Deposit deposit = new Deposit();
+        deposit.setId(DEPOSIT);
+        deposit.setVersionTag("W/\"1\"");
+
+        try (UnitOfWork underTest = FcrepoUnitOfWork.begin(okHttpClient, jsonAdapter, BASE)) {
+            RepositoryCopy repoCopy = underTest.create(new RepositoryCopy(), RepositoryCopy.class);
+            assertEquals(URI.create(BASE + "repositoryCopies/1"), repoCopy.getId());
+
+            Deposit updated = underTest.update(deposit, Deposit.class);
+            assertEquals(DEPOSIT, updated.getId());
+            assertNull(updated.getVersionTag());
+
+            underTest.commit();
+        }
+
+        assertEquals(4, requests.size());
+        assertEquals("POST", requests.get(0).method());
+        assertEquals(BASE + "fcr:tx", requests.get(0).url().toString());
+        assertEquals("POST", requests.get(1).method());
+        assertEquals(TX + "/repositoryCopies", requests.get(1).url().toString());
+        assertEquals("PUT", requests.get(2).method());
+        assertEquals(TX + "/deposits/1", requests.get(2).url().toString());
+        assertEquals("W/\"1\"", requests.get(2).header("If-Match"));
+        assertEquals(TX + "/fcr:tx/fcr:commit", requests.get(3).url().toString());
+    }
+
+    /**
+     * An update of an out-of-date resource fails with a conflict, and closing the unit of work rolls back the
+     * transaction.
+     */
+    @Test
+    public void conflictIsRolledBack() throws Exception {
+        updateCode = 412;
+        Deposit deposit = new Deposit();
+        deposit.setId(DEPOSIT);
+        deposit.setVersionTag("W/\"1\"");
+
+        try (UnitOfWork underTest = FcrepoUnitOfWork.begin(okHttpClient, jsonAdapter, BASE)) {
+            underTest.update(deposit, Deposit.class);
+            fail("Expected an UpdateConflictException");
+        } catch (UpdateConflictException e) {
+            // expected
+        }
+
+        assertEquals(3, requests.size());
+        assertEquals(TX + "/fcr:tx/fcr:rollback", requests.get(2).url().toString());
+    }
+
+    /**
+     * Resources are created in the container of their type, which is not always the plural of its name.  A type that is
+     * not in the PASS model has no container.
+     */
+    @Test
+    public void resourcesAreCreatedInContainerOfTheirType() throws Exception {
+        assertEquals("repositoryCopies", FcrepoUnitOfWork.container(RepositoryCopy.class));
+        assertEquals("policies", FcrepoUnitOfWork.container(Policy.class));
+        assertEquals("deposits", FcrepoUnitOfWork.container(Deposit.class));
+
+        try {
+            FcrepoUnitOfWork.container(Object.class);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter.Lane;
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter.Scope;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class FedoraRateLimiterTest {
+
+    /**
+     * Each lane is limited by its own bucket, in the lane of the current thread, and the limits may be changed at
+     * runtime.
+     */
+    @Test
+    public void lanesAreLimitedIndependently() throws Exception {
+        FedoraRateLimiter underTest = new FedoraRateLimiter(5, 1, 0, 1);
+
+        assertEquals(Lane.LIVE, Lane.current());
+        assertEquals(0, underTest.acquire());
+        assertTrue(underTest.acquire() >= 100);
+        assertEquals(2, underTest.getLiveAcquired());
+        assertEquals(1, underTest.getLiveThrottled());
+        assertTrue(underTest.getLiveDelayMs() >= 100);
+
+        // the batch lane is not limited
+        try (Scope ignored = Lane.BATCH.enter()) {
+            assertEquals(Lane.BATCH, Lane.current());
+            assertEquals(0, underTest.acquire());
+            assertEquals(0, underTest.acquire());
+        }
+        assertEquals(Lane.LIVE, Lane.current());
+        assertEquals(2, underTest.getBatchAcquired());
+        assertEquals(0, underTest.getBatchThrottled());
+
+        // lifting the limit of the live lane takes effect immediately
+        underTest.setLivePermitsPerSecond(0);
+        assertEquals(0, underTest.acquire());
+        assertEquals(0, underTest.acquire());
+        assertEquals(1, underTest.getLiveThrottled());
+    }
+
+    /**
+     * A batch request waits while a live request is waiting for a permit, even though the batch lane has permits.
+     */
+    @Test
+    public void batchYieldsToWaitingLiveRequests() throws Exception {
+        FedoraRateLimiter underTest = new FedoraRateLimiter(2, 1, 0, 1);
+        underTest.acquire(Lane.LIVE);
+
+        // waits about 500 ms for its permit
+        CompletableFuture<Long> live = CompletableFuture.supplyAsync(() -> {
+            try {
+                return underTest.acquire(Lane.LIVE);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+
+        long start = System.nanoTime();
+        underTest.acquire(Lane.BATCH);
+        long batchMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(live.get() >= 300);
+        assertTrue("Batch request was blocked for " + batchMs + " ms", batchMs >= 200);
+        assertEquals(1, underTest.getBatchThrottled());
+    }
+
+}
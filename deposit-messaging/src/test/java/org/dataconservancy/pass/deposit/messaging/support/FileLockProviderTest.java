@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulates two nodes contending for leases with two {@link FileLockProvider}s sharing a lease directory.
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class FileLockProviderTest {
+
+    private static final URI RESOURCE = URI.create("http://example.org/deposit");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path directory;
+
+    private AtomicLong clock;
+
+    private FileLockProvider nodeA;
+
+    private FileLockProvider nodeB;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = tmp.newFolder("locks").toPath();
+        clock = new AtomicLong(1000);
+        nodeA = new FileLockProvider(directory, "a", 1000, 50, 0, 0, clock::get);
+        nodeB = new FileLockProvider(directory, "b", 1000, 50, 0, 0, clock::get);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        nodeA.close();
+        nodeB.close();
+    }
+
+    /**
+     * A lease held by one node cannot be acquired by the other until it is released.
+     */
+    @Test
+    public void leaseIsExclusiveBetweenNodes() throws Exception {
+        long token;
+        try (Lease lease = nodeA.acquire(RESOURCE)) {
+            assertNotNull(lease);
+            token = lease.getFencingToken();
+            assertNull(nodeB.acquire(RESOURCE));
+        }
+
+        try (Lease lease = nodeB.acquire(RESOURCE)) {
+            assertNotNull(lease);
+            assertTrue(lease.getFencingToken() > token);
+            assertNull(nodeA.acquire(RESOURCE));
+        }
+    }
+
+    /**
+     * A renewed lease is not acquired by the other node.
+     */
+    @Test
+    public void renewedLeaseIsRetained() throws Exception {
+        try (Lease lease = nodeA.acquire(RESOURCE)) {
+            clock.addAndGet(900);
+            nodeA.renewAll();
+            clock.addAndGet(900);
+
+            assertNull(nodeB.acquire(RESOURCE));
+            assertTrue(lease.isValid());
+        }
+    }
+
+    /**
+     * The lease of a node that dies expires, and is acquired by the other node with a greater fencing token.  Should
+     * the first node recover, its renewal is refused, its lease is invalid, and closing it does not release the lease
+     * of the other node.
+     */
+    @Test
+    public void leaseOfDeadNodeIsAcquired() throws Exception {
+        Lease dead = nodeA.acquire(RESOURCE);
+        assertNotNull(dead);
+
+        clock.addAndGet(1000);
+        assertFalse(dead.isValid());
+
+        try (Lease lease = nodeB.acquire(RESOURCE)) {
+            assertNotNull(lease);
+            assertTrue(lease.getFencingToken() > dead.getFencingToken());
+
+            nodeA.renewAll();
+            assertFalse(dead.isValid());
+            dead.close();
+            assertEquals(0, nodeA.getHeld());
+
+            assertTrue(lease.isValid());
+            assertNull(nodeA.acquire(RESOURCE));
+        }
+    }
+
+    /**
+     * The lease file of a resource is swept a lease period after its lease is released or expires, but not while it
+     * is held, and the fencing token issued after the file is swept is greater than the tokens issued before.
+     */
+    @Test
+    public void leaseFilesAreSwept() throws Exception {
+        long token;
+        try (Lease lease = nodeA.acquire(RESOURCE)) {
+            token = lease.getFencingToken();
+            clock.addAndGet(5000);
+            nodeA.renewAll();
+            assertEquals(0, nodeB.sweep());
+        }
+
+        clock.addAndGet(500);
+        assertEquals(0, nodeB.sweep());
+        assertEquals(1, leaseFiles());
+
+        clock.addAndGet(1000);
+        assertEquals(1, nodeB.sweep());
+        assertEquals(0, leaseFiles());
+
+        try (Lease lease = nodeB.acquire(RESOURCE)) {
+            assertNotNull(lease);
+            assertTrue(lease.getFencingToken() > token);
+            assertNull(nodeA.acquire(RESOURCE));
+        }
+    }
+
+    private long leaseFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+}
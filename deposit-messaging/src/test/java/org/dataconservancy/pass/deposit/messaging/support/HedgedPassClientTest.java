@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter.Lane;
+import org.dataconservancy.pass.deposit.messaging.support.FedoraRateLimiter.Scope;
+import org.dataconservancy.pass.model.Submission;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class HedgedPassClientTest {
+
+    private static final URI SUBMISSION = URI.create("http://example.org/submission");
+
+    private PassClient passClient;
+
+    private Submission submission;
+
+    private HedgedPassClient underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        passClient = mock(PassClient.class);
+        submission = new Submission();
+        submission.setId(SUBMISSION);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        underTest.close();
+    }
+
+    /**
+     * Once the latency threshold is estimated, a slow read is hedged and answered by the hedge, and the slow read is
+     * cancelled.  Reads are hedged only while the budget permits.
+     */
+    @Test
+    public void slowReadIsHedgedWithinBudget() throws Exception {
+        underTest = new HedgedPassClient(passClient, 0.5, 0.25, 4);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch cancelled = new CountDownLatch(1);
+        when(passClient.readResource(SUBMISSION, Submission.class)).thenAnswer(inv -> {
+            int call = calls.incrementAndGet();
+            if (call == 5) {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    cancelled.countDown();
+                    throw e;
+                }
+            } else if (call == 7) {
+                Thread.sleep(200);
+            }
+            return submission;
+        });
+
+        // establish the threshold, earning a single hedge
+        for (int i = 0; i < 4; i++) {
+            assertSame(submission, underTest.readResource(SUBMISSION, Submission.class));
+        }
+        assertEquals(0, underTest.getHedged());
+        assertTrue(underTest.getThresholdMs() >= 0);
+
+        long start = System.currentTimeMillis();
+        assertSame(submission, underTest.readResource(SUBMISSION, Submission.class));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+        assertEquals(1, underTest.getHedged());
+        assertEquals(1, underTest.getHedgeWins());
+
+        // the budget is spent, so this slow read is not hedged
+        assertSame(submission, underTest.readResource(SUBMISSION, Submission.class));
+        assertEquals(1, underTest.getHedged());
+        verify(passClient, times(7)).readResource(SUBMISSION, Submission.class);
+    }
+
+    /**
+     * The read cancelled by a hedge is observed for the time it had run, so the threshold is not estimated from the
+     * faster reads alone.
+     */
+    @Test
+    public void cancelledReadIsObserved() throws Exception {
+        underTest = new HedgedPassClient(passClient, 0.9, 1.0, 4);
+        AtomicInteger calls = new AtomicInteger();
+        when(passClient.readResource(SUBMISSION, Submission.class)).thenAnswer(inv -> {
+            Thread.sleep(calls.incrementAndGet() == 5 ? 10000 : 50);
+            return submission;
+        });
+
+        for (int i = 0; i < 4; i++) {
+            underTest.readResource(SUBMISSION, Submission.class);
+        }
+        assertTrue(underTest.getThresholdMs() < 95);
+
+        // the read is hedged after about 50 ms, and the hedge answers about 50 ms later
+        assertSame(submission, underTest.readResource(SUBMISSION, Submission.class));
+        assertEquals(1, underTest.getHedgeWins());
+        assertTrue(underTest.getThresholdMs() >= 95);
+    }
+
+    /**
+     * Reads are performed in the lane of the calling thread, so each request is limited in the lane of the caller.
+     */
+    @Test
+    public void readsArePerformedInLaneOfCaller() throws Exception {
+        underTest = new HedgedPassClient(passClient, 0.5, 1.0, 4);
+        List<Lane> lanes = new CopyOnWriteArrayList<>();
+        when(passClient.readResource(SUBMISSION, Submission.class)).thenAnswer(inv -> {
+            lanes.add(Lane.current());
+            return submission;
+        });
+
+        underTest.readResource(SUBMISSION, Submission.class);
+        Scope scope = Lane.BATCH.enter();
+        try {
+            underTest.readResource(SUBMISSION, Submission.class);
+        } finally {
+            scope.close();
+        }
+
+        assertEquals(Arrays.asList(Lane.LIVE, Lane.BATCH), lanes);
+    }
+
+    /**
+     * Reads are not hedged until enough latencies are observed to estimate the threshold, and the failure of a read is
+     * reported to the caller as-is.
+     */
+    @Test
+    public void readsAreNotHedgedBeforeThresholdIsEstimated() throws Exception {
+        underTest = new HedgedPassClient(passClient, 0.95, 1.0, 1000);
+        RuntimeException expected = new RuntimeException("Not found");
+        when(passClient.readResource(SUBMISSION, Submission.class)).thenAnswer(inv -> {
+            Thread.sleep(50);
+            return submission;
+        }).thenThrow(expected);
+
+        assertSame(submission, underTest.readResource(SUBMISSION, Submission.class));
+        try {
+            underTest.readResource(SUBMISSION, Submission.class);
+            fail("Expected the read to fail");
+        } catch (RuntimeException e) {
+            assertSame(expected, e);
+        }
+
+        assertEquals(-1, underTest.getThresholdMs());
+        assertEquals(0, underTest.getHedged());
+        assertEquals(2, underTest.getReads());
+        verify(passClient, times(2)).readResource(SUBMISSION, Submission.class);
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class HostRateLimiterTest {
+
+    @Test
+    public void requestsToAHostAreSpaced() throws Exception {
+        HostRateLimiter underTest = new HostRateLimiter(20);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            underTest.acquire("example.org");
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        // the first permit is immediate, the remaining four are spaced 50 ms apart
+        assertTrue("Expected at least 190 ms, was " + elapsedMs, elapsedMs >= 190);
+    }
+
+    @Test
+    public void hostsAreLimitedIndependently() throws Exception {
+        HostRateLimiter underTest = new HostRateLimiter(1);
+
+        assertEquals(0, underTest.acquire("one.example.org"));
+        assertEquals(0, underTest.acquire("two.example.org"));
+        assertEquals(0, underTest.acquire("three.example.org"));
+    }
+
+    @Test
+    public void perHostOverride() throws Exception {
+        HostRateLimiter underTest = new HostRateLimiter(0.001, Collections.singletonMap("Fast.Example.org", 0.0));
+
+        assertEquals(0.0, underTest.rateFor("fast.example.org"), 0.0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, underTest.acquire("FAST.example.org"));
+        }
+    }
+
+    @Test
+    public void nullHostIsNotLimited() throws Exception {
+        assertEquals(0, new HostRateLimiter(0.001).acquire(null));
+        assertEquals(0, new HostRateLimiter(0.001).acquire(null));
+    }
+
+    @Test
+    public void parseHostLimits() throws Exception {
+        Map<String, Double> limits = HostRateLimiter.parseHostLimits(" a.example.org=2, B.example.org = 0.5 ");
+
+        assertEquals(2, limits.size());
+        assertEquals(2.0, limits.get("a.example.org"), 0.0);
+        assertEquals(0.5, limits.get("b.example.org"), 0.0);
+        assertTrue(HostRateLimiter.parseHostLimits("").isEmpty());
+        assertTrue(HostRateLimiter.parseHostLimits(null).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseMalformedHostLimits() throws Exception {
+        HostRateLimiter.parseHostLimits("a.example.org");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseNonNumericHostLimits() throws Exception {
+        HostRateLimiter.parseHostLimits("a.example.org=fast");
+    }
+
+    @Test
+    public void hostOf() throws Exception {
+        assertEquals("example.org", HostRateLimiter.hostOf("https://Example.org:8080/swordv2/statement/1.atom"));
+        assertNull(HostRateLimiter.hostOf("file:/tmp/statement.atom"));
+        assertNull(HostRateLimiter.hostOf(null));
+        assertNull(HostRateLimiter.hostOf("not a uri"));
+    }
+
+}
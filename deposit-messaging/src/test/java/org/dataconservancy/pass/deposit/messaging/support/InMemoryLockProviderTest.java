@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class InMemoryLockProviderTest {
+
+    private static final URI RESOURCE = URI.create("http://example.org/deposit");
+
+    private AtomicLong clock;
+
+    private InMemoryLockProvider underTest;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new AtomicLong();
+        underTest = new InMemoryLockProvider(1000, 50, 0, clock::get);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        underTest.close();
+    }
+
+    /**
+     * Only one thread at a time holds the lease over a resource.
+     */
+    @Test
+    public void leaseIsExclusive() throws Exception {
+        InMemoryLockProvider lockProvider = new InMemoryLockProvider(30000, 10000);
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger maxHolders = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        Future<?>[] futures = new Future[4];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < 50; j++) {
+                    try (Lease lease = lockProvider.acquire(RESOURCE)) {
+                        assertNotNull(lease);
+                        maxHolders.accumulateAndGet(holders.incrementAndGet(), Math::max);
+                        Thread.yield();
+                        holders.decrementAndGet();
+                    }
+                }
+                return null;
+            });
+        }
+
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get(30, TimeUnit.SECONDS);
+        }
+
+        assertEquals(1, maxHolders.get());
+        assertEquals(0, lockProvider.getHeld());
+        lockProvider.close();
+    }
+
+    /**
+     * A thread holding the lease may acquire it again, and the lease is held until the outermost acquisition is closed.
+     */
+    @Test
+    public void leaseIsReentrant() throws Exception {
+        try (Lease outer = underTest.acquire(RESOURCE)) {
+            try (Lease inner = underTest.acquire(RESOURCE)) {
+                assertNotNull(inner);
+                assertEquals(outer.getFencingToken(), inner.getFencingToken());
+            }
+            assertTrue(outer.isValid());
+            assertEquals(1, underTest.getHeld());
+            assertNull(executor.submit(() -> underTest.acquire(RESOURCE)).get());
+        }
+
+        assertEquals(0, underTest.getHeld());
+        assertTrue(executor.submit(() -> {
+            try (Lease lease = underTest.acquire(RESOURCE)) {
+                return lease != null;
+            }
+        }).get());
+    }
+
+    /**
+     * Each lease over a resource is issued a greater fencing token than the last.
+     */
+    @Test
+    public void fencingTokensIncrease() throws Exception {
+        long last = 0;
+        for (int i = 0; i < 3; i++) {
+            try (Lease lease = underTest.acquire(RESOURCE)) {
+                assertTrue(lease.getFencingToken() > last);
+                last = lease.getFencingToken();
+            }
+        }
+    }
+
+    /**
+     * A lease that is not renewed expires; a lease that is renewed does not.
+     */
+    @Test
+    public void leaseExpiresUnlessRenewed() throws Exception {
+        try (Lease lease = underTest.acquire(RESOURCE)) {
+            clock.addAndGet(900);
+            underTest.renewAll();
+            clock.addAndGet(900);
+            assertTrue(lease.isValid());
+
+            clock.addAndGet(100);
+            assertFalse(lease.isValid());
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class MessagePayloadTest {
+
+    /**
+     * The id, types, and attributions of a message emitted by Fedora are parsed
+     */
+    @Test
+    public void parseFedoraMessage() throws Exception {
+        String json = IOUtils.toString(this.getClass().getResourceAsStream("JsonParserTest-parseId.json"), "UTF-8");
+
+        MessagePayload underTest = MessagePayload.parse(json);
+
+        assertEquals("http://fcrepo:8080/fcrepo/rest/submissions/92/42/2a/d3/92422ad3-6384-46cf-98ff-332ff151000b",
+                underTest.id());
+        assertEquals(6, underTest.types().size());
+        assertTrue(underTest.types().contains("http://oapass.org/ns/pass#Submission"));
+        assertTrue(underTest.attributions().stream()
+                .anyMatch(attribution -> Constants.Prov.SOFTWARE_AGENT.equals(attribution.type())));
+    }
+
+    /**
+     * Nested types (e.g. of the event) are not mistaken for the types of the resource, and the first id is used even
+     * if it is nested
+     */
+    @Test
+    public void nestedValues() throws Exception {
+        String json = "{\"wasGeneratedBy\": {\"type\": [\"event\"], \"id\": \"nested\"}, " +
+                "\"type\": \"resource\", \"id\": \"top\"}";
+
+        MessagePayload underTest = MessagePayload.parse(json);
+
+        assertEquals("nested", underTest.id());
+        assertEquals(Collections.singletonList("resource"), underTest.types());
+        assertTrue(underTest.attributions().isEmpty());
+    }
+
+    /**
+     * A single attribution object is treated as an array of one; non-string values are ignored
+     */
+    @Test
+    public void singleAttribution() throws Exception {
+        String json = "{\"id\": \"foo\", \"wasAttributedTo\": {\"type\": \"" + Constants.Prov.SOFTWARE_AGENT +
+                "\", \"name\": {\"not\": \"a string\"}, \"other\": [1, 2]}}";
+
+        MessagePayload underTest = MessagePayload.parse(json);
+
+        assertEquals(1, underTest.attributions().size());
+        assertEquals(Constants.Prov.SOFTWARE_AGENT, underTest.attributions().get(0).type());
+        assertNull(underTest.attributions().get(0).name());
+    }
+
+    @Test
+    public void missingValues() throws Exception {
+        MessagePayload underTest = MessagePayload.parse("{\"foo\": [\"bar\", {\"baz\": 1}]}");
+
+        assertNull(underTest.id());
+        assertTrue(underTest.types().isEmpty());
+        assertTrue(underTest.attributions().isEmpty());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void notAnObject() throws Exception {
+        MessagePayload.parse(Arrays.asList("foo").toString());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void malformed() throws Exception {
+        MessagePayload.parse("{\"id\": ");
+    }
+
+}
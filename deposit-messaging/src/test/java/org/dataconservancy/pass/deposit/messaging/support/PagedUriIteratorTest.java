@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.model.Deposit;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.dataconservancy.pass.deposit.messaging.support.Constants.Indexer.DEPOSIT_STATUS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class PagedUriIteratorTest {
+
+    @Test
+    public void iterateAllPages() throws Exception {
+        List<URI> all = uris(45);
+        List<Integer> offsets = new CopyOnWriteArrayList<>();
+
+        PagedUriIterator underTest = new PagedUriIterator((limit, offset) -> {
+            offsets.add(offset);
+            return page(all, limit, offset);
+        }, 10);
+
+        assertEquals(all, drain(underTest));
+        // each page is retrieved with the results of the two pages before it
+        assertEquals(Arrays.asList(0, 0, 0, 10, 20), offsets);
+    }
+
+    /**
+     * A final page that is exactly full requires an empty page to signal the end of the results
+     */
+    @Test
+    public void iterateFullPages() throws Exception {
+        List<URI> all = uris(20);
+
+        PagedUriIterator underTest = new PagedUriIterator((limit, offset) -> page(all, limit, offset), 10);
+
+        assertEquals(all, drain(underTest));
+    }
+
+    @Test
+    public void emptyResults() throws Exception {
+        PagedUriIterator underTest = new PagedUriIterator((limit, offset) -> Collections.emptyList(), 10);
+
+        assertFalse(underTest.hasNext());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void nextPastEnd() throws Exception {
+        new PagedUriIterator((limit, offset) -> Collections.emptyList(), 10).next();
+    }
+
+    /**
+     * The next page is retrieved while the current page is being consumed
+     */
+    @Test
+    public void prefetchNextPage() throws Exception {
+        List<URI> all = uris(20);
+        CountDownLatch secondPageRequested = new CountDownLatch(2);
+
+        PagedUriIterator underTest = new PagedUriIterator((limit, offset) -> {
+            secondPageRequested.countDown();
+            return page(all, limit, offset);
+        }, 10);
+
+        underTest.next();
+
+        assertTrue(secondPageRequested.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * URIs that shift from one page to the next, because the results changed between pages, are returned once
+     */
+    @Test
+    public void dropUrisRepeatedFromPreviousPage() throws Exception {
+        List<URI> all = uris(15);
+
+        PagedUriIterator underTest = new PagedUriIterator((limit, offset) -> {
+            // the second page starts two results early
+            return page(all, limit, offset == 0 ? 0 : offset - 2);
+        }, 10);
+
+        assertEquals(all, drain(underTest));
+    }
+
+    /**
+     * Results that stop matching the search as they are consumed shift the later pages, but no result is missed
+     */
+    @Test
+    public void noResultsMissedWhenConsumedResultsStopMatching() throws Exception {
+        List<URI> all = uris(25);
+        List<URI> matching = new CopyOnWriteArrayList<>(all);
+
+        PagedUriIterator underTest = new PagedUriIterator((limit, offset) -> {
+            List<URI> snapshot = new ArrayList<>(matching);
+            return new ArrayList<>(page(snapshot, limit, offset));
+        }, 10);
+
+        List<URI> consumed = new ArrayList<>();
+        underTest.forEachRemaining(uri -> {
+            consumed.add(uri);
+            matching.remove(uri);
+        });
+
+        assertEquals(all.size(), consumed.size());
+        assertEquals(new LinkedHashSet<>(all), new LinkedHashSet<>(consumed));
+    }
+
+    /**
+     * Only the URIs returned by the last two pages are remembered, however many results there are, and results that
+     * stop matching as they are consumed are still not missed
+     */
+    @Test
+    public void memoryBoundedByPageSize() throws Exception {
+        List<URI> all = uris(1000);
+        List<URI> matching = new CopyOnWriteArrayList<>(all);
+
+        PagedUriIterator underTest = new PagedUriIterator((limit, offset) ->
+                new ArrayList<>(page(new ArrayList<>(matching), limit, offset)), 10);
+
+        List<URI> consumed = new ArrayList<>();
+        underTest.forEachRemaining(uri -> {
+            consumed.add(uri);
+            // every other result stops matching once it is consumed
+            if (consumed.size() % 2 == 0) {
+                matching.remove(uri);
+            }
+            assertTrue(underTest.remembered() <= 60);
+        });
+
+        assertEquals(all.size(), consumed.size());
+        assertEquals(new LinkedHashSet<>(all), new LinkedHashSet<>(consumed));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void fetchFailure() throws Exception {
+        new PagedUriIterator((limit, offset) -> {
+            throw new IllegalStateException("Expected");
+        }, 10).hasNext();
+    }
+
+    @Test
+    public void searchAndConcat() throws Exception {
+        PassClient passClient = mock(PassClient.class);
+        List<URI> failed = uris(3);
+        List<URI> dirty = Collections.singletonList(URI.create("http://localhost/deposit/dirty"));
+        when(passClient.findAllByAttribute(eq(Deposit.class), eq(DEPOSIT_STATUS), eq(Deposit.DepositStatus.FAILED),
+                anyInt(), anyInt())).thenAnswer(inv -> set(page(failed, inv.getArgument(3), inv.getArgument(4))));
+        when(passClient.findAllByAttribute(eq(Deposit.class), eq(DEPOSIT_STATUS), eq(null), anyInt(), anyInt()))
+                .thenAnswer(inv -> set(page(dirty, inv.getArgument(3), inv.getArgument(4))));
+
+        Iterable<URI> underTest = PagedUriIterator.concat(
+                PagedUriIterator.search(passClient, Deposit.class, DEPOSIT_STATUS, Deposit.DepositStatus.FAILED, 2),
+                PagedUriIterator.search(passClient, Deposit.class, DEPOSIT_STATUS, null, 2));
+
+        List<URI> expected = new ArrayList<>(failed);
+        expected.addAll(dirty);
+        List<URI> actual = new ArrayList<>();
+        underTest.forEach(actual::add);
+        assertEquals(expected.size(), actual.size());
+        assertTrue(actual.containsAll(expected));
+        verify(passClient, never()).findAllByAttribute(Deposit.class, DEPOSIT_STATUS,
+                Deposit.DepositStatus.FAILED);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPositivePageSize() throws Exception {
+        new PagedUriIterator((limit, offset) -> Collections.emptyList(), 0);
+    }
+
+    private static List<URI> drain(PagedUriIterator itr) {
+        List<URI> result = new ArrayList<>();
+        itr.forEachRemaining(result::add);
+        return result;
+    }
+
+    private static List<URI> uris(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> URI.create("http://localhost/deposit/" + i))
+                .collect(Collectors.toList());
+    }
+
+    private static List<URI> page(List<URI> all, int limit, int offset) {
+        return all.subList(Math.min(offset, all.size()), Math.min(offset + limit, all.size()));
+    }
+
+    private static Set<URI> set(Collection<URI> uris) {
+        return new LinkedHashSet<>(uris);
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support;
+
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.client.PassJsonAdapter;
+import org.dataconservancy.pass.model.Submission;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class SingleFlightPassClientTest {
+
+    private static final URI SUBMISSION = URI.create("http://example.org/submission");
+
+    private static final int READERS = 4;
+
+    private PassClient passClient;
+
+    private SingleFlightPassClient underTest;
+
+    private ExecutorService readers;
+
+    @Before
+    public void setUp() throws Exception {
+        passClient = mock(PassClient.class);
+        PassJsonAdapter jsonAdapter = mock(PassJsonAdapter.class);
+        when(jsonAdapter.toJson(any(), anyBoolean())).thenReturn(new byte[0]);
+        when(jsonAdapter.toModel(any(), eq(Submission.class))).thenAnswer(inv -> {
+            Submission copy = new Submission();
+            copy.setId(SUBMISSION);
+            return copy;
+        });
+        underTest = new SingleFlightPassClient(passClient, jsonAdapter);
+        readers = Executors.newFixedThreadPool(READERS);
+    }
+
+    /**
+     * Concurrent reads of the same resource share a single request, each reader receiving its own copy of the
+     * resource.  Once the shared read completes, the next read is issued to the repository.
+     */
+    @Test
+    public void concurrentReadsShareOneRequest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Submission submission = new Submission();
+        submission.setId(SUBMISSION);
+        submission.setVersionTag("W/\"1\"");
+        when(passClient.readResource(SUBMISSION, Submission.class)).thenAnswer(inv -> {
+            release.await(10, TimeUnit.SECONDS);
+            return submission;
+        });
+
+        List<Future<Submission>> results = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            results.add(readers.submit(() -> underTest.readResource(SUBMISSION, Submission.class)));
+        }
+        awaitShared(READERS - 1);
+        release.countDown();
+
+        List<Submission> read = new ArrayList<>();
+        for (Future<Submission> result : results) {
+            read.add(result.get(10, TimeUnit.SECONDS));
+        }
+
+        verify(passClient).readResource(SUBMISSION, Submission.class);
+        assertTrue(read.stream().anyMatch(s -> s == submission));
+        for (Submission s : read) {
+            assertEquals(SUBMISSION, s.getId());
+            assertEquals("W/\"1\"", s.getVersionTag());
+        }
+        Set<Submission> copies = Collections.newSetFromMap(new IdentityHashMap<>());
+        copies.addAll(read);
+        assertEquals(READERS, copies.size());
+        assertEquals(0.75, underTest.getDeduplicationRatio(), 0.001);
+
+        underTest.readResource(SUBMISSION, Submission.class);
+        verify(passClient, times(2)).readResource(SUBMISSION, Submission.class);
+        assertEquals(READERS + 1, underTest.getReads());
+    }
+
+    /**
+     * A failed read is reported to every reader that shared it, and a write detaches the read in progress.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void failedReadIsShared() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RuntimeException expected = new RuntimeException("Fedora unavailable");
+        when(passClient.readResource(SUBMISSION, Submission.class)).thenAnswer(inv -> {
+            release.await(10, TimeUnit.SECONDS);
+            throw expected;
+        });
+
+        Future<Submission> first = readers.submit(() -> underTest.readResource(SUBMISSION, Submission.class));
+        Future<Submission> second = readers.submit(() -> underTest.readResource(SUBMISSION, Submission.class));
+        awaitShared(1);
+
+        Submission update = new Submission();
+        update.setId(SUBMISSION);
+        underTest.updateResource(update);
+        Future<Submission> third = readers.submit(() -> underTest.readResource(SUBMISSION, Submission.class));
+        release.countDown();
+
+        for (Future<Submission> result : new Future[] {first, second, third}) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("Expected the read to fail");
+            } catch (ExecutionException e) {
+                assertSame(expected, e.getCause());
+            }
+        }
+
+        verify(passClient).updateResource(eq(update));
+        verify(passClient, times(2)).readResource(SUBMISSION, Submission.class);
+        assertEquals(1, underTest.getShared());
+        assertEquals(3, underTest.getReads());
+    }
+
+    /**
+     * A read which begins while a write of the resource is in progress is not shared by reads which begin after the
+     * write completes.
+     */
+    @Test
+    public void readDuringWriteIsDetached() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch releaseWrite = new CountDownLatch(1);
+        CountDownLatch releaseRead = new CountDownLatch(1);
+        Submission update = new Submission();
+        update.setId(SUBMISSION);
+        doAnswer(inv -> {
+            writing.countDown();
+            releaseWrite.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(passClient).updateResource(update);
+        when(passClient.readResource(SUBMISSION, Submission.class)).thenAnswer(inv -> {
+            releaseRead.await(10, TimeUnit.SECONDS);
+            return new Submission();
+        });
+
+        Future<?> write = readers.submit(() -> underTest.updateResource(update));
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+        Future<Submission> duringWrite = readers.submit(() -> underTest.readResource(SUBMISSION, Submission.class));
+        awaitReads(1);
+        releaseWrite.countDown();
+        write.get(10, TimeUnit.SECONDS);
+
+        Future<Submission> afterWrite = readers.submit(() -> underTest.readResource(SUBMISSION, Submission.class));
+        awaitReads(2);
+        Thread.sleep(100);
+        releaseRead.countDown();
+        duringWrite.get(10, TimeUnit.SECONDS);
+        afterWrite.get(10, TimeUnit.SECONDS);
+
+        verify(passClient, times(2)).readResource(SUBMISSION, Submission.class);
+        assertEquals(0, underTest.getShared());
+    }
+
+    private void awaitReads(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (underTest.getReads() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, underTest.getReads());
+    }
+
+    private void awaitShared(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (underTest.getShared() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, underTest.getShared());
+    }
+
+}
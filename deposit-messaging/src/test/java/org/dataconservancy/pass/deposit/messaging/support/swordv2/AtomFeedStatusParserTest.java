@@ -15,9 +15,10 @@
  */
 package org.dataconservancy.pass.deposit.messaging.support.swordv2;
 
+import com.sun.net.httpserver.HttpServer;
 import org.apache.abdera.model.Document;
 import org.apache.abdera.model.Feed;
-import org.apache.abdera.parser.Parser;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.ParseException;
 import org.junit.Assert;
 import org.junit.Before;
@@ -26,6 +27,9 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.dataconservancy.pass.deposit.messaging.status.SwordDspaceDepositStatus.SWORD_STATE_ARCHIVED;
 import static org.dataconservancy.pass.deposit.messaging.status.SwordDspaceDepositStatus.SWORD_STATE_INPROGRESS;
@@ -54,14 +58,14 @@ public class AtomFeedStatusParserTest {
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
 
-    private Parser abderaParser;
+    private SwordStatementReader statementReader;
 
     private AtomFeedStatusParser underTest;
 
     @Before
     public void setUp() throws Exception {
-        abderaParser = mock(Parser.class);
-        underTest = new AtomFeedStatusParser(abderaParser);
+        statementReader = mock(SwordStatementReader.class);
+        underTest = new AtomFeedStatusParser(statementReader);
     }
 
     // Test cases
@@ -127,7 +131,7 @@ public class AtomFeedStatusParserTest {
         expectedException.expect(RuntimeException.class);
         expectedException.expectMessage("Expected exception.");
         expectedException.expectMessage("AtomStatusParser-archived.xml");
-        when(abderaParser.parse(any(InputStream.class))).thenThrow(expected);
+        when(statementReader.read(any(InputStream.class))).thenThrow(expected);
 
         underTest.parse(findUriByName(ARCHIVED_STATUS_RESOURCE, AtomResources.class));
     }
@@ -140,8 +144,100 @@ public class AtomFeedStatusParserTest {
         expectedException.expectMessage("Expected cause.");
         expectedException.expectMessage("AtomStatusParser-archived.xml");
 
-        when(abderaParser.parse(any(InputStream.class))).thenThrow(expectedCause);
+        when(statementReader.read(any(InputStream.class))).thenThrow(expectedCause);
 
         underTest.parse(findUriByName(ARCHIVED_STATUS_RESOURCE, AtomResources.class));
     }
-}
\ No newline at end of file
+
+    /**
+     * A statement retrieved over HTTP is requested conditionally on subsequent polls, and a 304 answers the state
+     * parsed from the last full response
+     */
+    @Test
+    public void conditionalGetNotModified() throws Exception {
+        AtomicInteger fullResponses = new AtomicInteger();
+        AtomicInteger notModifiedResponses = new AtomicInteger();
+        HttpServer server = statementServer("\"v1\"", fullResponses, notModifiedResponses);
+        try {
+            AtomFeedStatusParser parser = new AtomFeedStatusParser(new SwordStatementReader());
+            URI statementUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/statement.atom");
+
+            assertEquals(SWORD_STATE_ARCHIVED, parser.parse(statementUri));
+            assertEquals(SWORD_STATE_ARCHIVED, parser.parse(statementUri));
+            assertEquals(SWORD_STATE_ARCHIVED, parser.parse(statementUri));
+
+            assertEquals(1, fullResponses.get());
+            assertEquals(2, notModifiedResponses.get());
+            assertEquals(2, parser.getNotModifiedCount());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * A statement retrieved without validators is always requested unconditionally
+     */
+    @Test
+    public void unconditionalGetWithoutValidators() throws Exception {
+        AtomicInteger fullResponses = new AtomicInteger();
+        AtomicInteger notModifiedResponses = new AtomicInteger();
+        HttpServer server = statementServer(null, fullResponses, notModifiedResponses);
+        try {
+            AtomFeedStatusParser parser = new AtomFeedStatusParser(new SwordStatementReader());
+            URI statementUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/statement.atom");
+
+            assertEquals(SWORD_STATE_ARCHIVED, parser.parse(statementUri));
+            assertEquals(SWORD_STATE_ARCHIVED, parser.parse(statementUri));
+
+            assertEquals(2, fullResponses.get());
+            assertEquals(0, notModifiedResponses.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void conditionalGetErrorResponse() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            AtomFeedStatusParser parser = new AtomFeedStatusParser(new SwordStatementReader());
+            URI statementUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/statement.atom");
+            expectedException.expect(RuntimeException.class);
+            expectedException.expectMessage("404");
+            parser.parse(statementUri);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Answers the archived statement, honoring If-None-Match if {@code etag} is non-null
+     */
+    private static HttpServer statementServer(String etag, AtomicInteger fullResponses,
+                                              AtomicInteger notModifiedResponses) throws Exception {
+        byte[] statement = IOUtils.toByteArray(findStreamByName(ARCHIVED_STATUS_RESOURCE, AtomResources.class));
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            if (etag != null && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedResponses.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                fullResponses.incrementAndGet();
+                if (etag != null) {
+                    exchange.getResponseHeaders().add("ETag", etag);
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/atom+xml");
+                exchange.sendResponseHeaders(200, statement.length);
+                exchange.getResponseBody().write(statement);
+            }
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.messaging.support.swordv2;
+
+import org.dataconservancy.pass.deposit.messaging.status.SwordDspaceDepositStatus;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.dataconservancy.pass.deposit.messaging.status.SwordDspaceDepositStatus.SWORD_STATE_ARCHIVED;
+import static org.dataconservancy.pass.deposit.messaging.status.SwordDspaceDepositStatus.SWORD_STATE_INPROGRESS;
+import static org.dataconservancy.pass.deposit.messaging.status.SwordDspaceDepositStatus.SWORD_STATE_INREVIEW;
+import static org.dataconservancy.pass.deposit.messaging.status.SwordDspaceDepositStatus.SWORD_STATE_WITHDRAWN;
+import static org.dataconservancy.pass.deposit.messaging.support.swordv2.AtomResources.ARCHIVED_STATUS_RESOURCE;
+import static org.dataconservancy.pass.deposit.messaging.support.swordv2.AtomResources.INPROGRESS_STATUS_RESOURCE;
+import static org.dataconservancy.pass.deposit.messaging.support.swordv2.AtomResources.INREVIEW_STATUS_RESOURCE;
+import static org.dataconservancy.pass.deposit.messaging.support.swordv2.AtomResources.MISSING_STATUS_RESOURCE;
+import static org.dataconservancy.pass.deposit.messaging.support.swordv2.AtomResources.MULTIPLE_STATUS_RESOURCE;
+import static org.dataconservancy.pass.deposit.messaging.support.swordv2.AtomResources.UNKNOWN_STATUS_RESOURCE;
+import static org.dataconservancy.pass.deposit.messaging.support.swordv2.AtomResources.WITHDRAWN_STATUS_RESOURCE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static resources.SharedResourceUtil.findStreamByName;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class SwordStatementReaderTest {
+
+    private SwordStatementReader underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        underTest = new SwordStatementReader();
+    }
+
+    @Test
+    public void readArchived() throws Exception {
+        assertEquals(SWORD_STATE_ARCHIVED, read(ARCHIVED_STATUS_RESOURCE));
+    }
+
+    @Test
+    public void readInProgress() throws Exception {
+        assertEquals(SWORD_STATE_INPROGRESS, read(INPROGRESS_STATUS_RESOURCE));
+    }
+
+    @Test
+    public void readInReview() throws Exception {
+        assertEquals(SWORD_STATE_INREVIEW, read(INREVIEW_STATUS_RESOURCE));
+    }
+
+    @Test
+    public void readWithdrawn() throws Exception {
+        assertEquals(SWORD_STATE_WITHDRAWN, read(WITHDRAWN_STATUS_RESOURCE));
+    }
+
+    @Test
+    public void readMissing() throws Exception {
+        assertNull(read(MISSING_STATUS_RESOURCE));
+    }
+
+    @Test
+    public void readMultiple() throws Exception {
+        assertEquals(SWORD_STATE_ARCHIVED, read(MULTIPLE_STATUS_RESOURCE));
+    }
+
+    @Test
+    public void readUnknown() throws Exception {
+        assertNull(read(UNKNOWN_STATUS_RESOURCE));
+    }
+
+    /**
+     * Only categories of the feed carry the state; a state category on an entry must be ignored
+     */
+    @Test
+    public void ignoreEntryCategories() throws Exception {
+        String statement = "<feed xmlns='http://www.w3.org/2005/Atom'><entry>" +
+                "<category scheme='http://purl.org/net/sword/terms/state' term='http://dspace.org/state/archived'/>" +
+                "</entry></feed>";
+        assertNull(underTest.read(stream(statement)));
+    }
+
+    /**
+     * Reading stops at the state category, so content following it is never parsed
+     */
+    @Test
+    public void stopAtStateCategory() throws Exception {
+        String statement = "<feed xmlns='http://www.w3.org/2005/Atom'>" +
+                "<category scheme='http://purl.org/net/sword/terms/state' term='http://dspace.org/state/inreview'/>" +
+                "<entry><this is not well-formed XML";
+        assertEquals(SWORD_STATE_INREVIEW, underTest.read(stream(statement)));
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void rejectNonAtomDocument() throws Exception {
+        underTest.read(stream("<rss><channel/></rss>"));
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void rejectMalformedDocument() throws Exception {
+        underTest.read(stream("<feed xmlns='http://www.w3.org/2005/Atom'><category"));
+    }
+
+    private SwordDspaceDepositStatus read(String resource) throws Exception {
+        try (InputStream in = findStreamByName(resource, AtomResources.class)) {
+            return underTest.read(in);
+        }
+    }
+
+    private static InputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.builder.fs;
+
+import com.fasterxml.jackson.databind.exc.InvalidTypeIdException;
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.model.PassEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Reads the resources of a particular type that link to a target resource.
+ * <p>
+ * The incoming links of a resource (e.g. the {@code Deposit}s, {@code File}s and other resources that link to a {@code
+ * Submission}) are untyped, so reading all of them as a single type means reading resources that are not of that type.
+ * Instead, the index is used to determine the type of each incoming link before it is read: links that the index
+ * reports as the wanted type are read, and links that the index reports as one of the other types known to link to the
+ * target are not read at all.  The incoming links themselves remain authoritative, so a link the index does not (yet)
+ * know about is still read, tolerating a failure to interpret it as the wanted type.
+ * </p>
+ * <p>
+ * The surviving links are read concurrently.
+ * </p>
+ *
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class IncomingLinkResolver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncomingLinkResolver.class);
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
+
+    private static final int DEFAULT_CONCURRENCY = 4;
+
+    private static final Executor DEFAULT_EXECUTOR = Executors.newFixedThreadPool(DEFAULT_CONCURRENCY, r -> {
+        Thread t = new Thread(r, "incoming-link-reader-" + THREAD_COUNTER.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final PassClient passClient;
+
+    private final Executor executor;
+
+    /**
+     * Reads incoming links using a shared pool of {@value #DEFAULT_CONCURRENCY} threads.
+     *
+     * @param passClient used to resolve, search for, and read resources
+     */
+    public IncomingLinkResolver(PassClient passClient) {
+        this(passClient, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * @param passClient used to resolve, search for, and read resources
+     * @param executor reads the incoming links
+     */
+    public IncomingLinkResolver(PassClient passClient, Executor executor) {
+        this.passClient = passClient;
+        this.executor = executor;
+    }
+
+    /**
+     * Reads the resources of type {@code type} that link to {@code target} using {@code field}.
+     *
+     * @param target the resource being linked to
+     * @param field the name of the field that links to {@code target}, e.g. {@code submission}
+     * @param type the type of resource to read
+     * @param otherTypes other types of resource that link to {@code target} using {@code field}, which are not read
+     * @param <T> the type of resource to read
+     * @return the resources of type {@code type} that link to {@code target}, in the order of the incoming links
+     */
+    public <T extends PassEntity> List<T> readIncoming(URI target, String field, Class<T> type,
+                                                       Collection<Class<? extends PassEntity>> otherTypes) {
+        Collection<URI> incoming = passClient.getIncoming(target).getOrDefault(field, Collections.emptySet());
+        if (incoming.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Set<URI> typed = find(type, field, target);
+        Set<URI> others = new HashSet<>();
+        otherTypes.forEach(otherType -> others.addAll(find(otherType, field, target)));
+
+        List<CompletableFuture<T>> reads = new ArrayList<>(incoming.size());
+        for (URI uri : incoming) {
+            if (typed.contains(uri)) {
+                reads.add(CompletableFuture.supplyAsync(() -> passClient.readResource(uri, type), executor));
+            } else if (!others.contains(uri)) {
+                LOG.trace(">>>> Type of {} linking to {} is not indexed, reading it as a {}", uri, target,
+                        type.getSimpleName());
+                reads.add(CompletableFuture.supplyAsync(() -> readTolerantly(uri, type), executor));
+            }
+        }
+
+        LOG.trace(">>>> Reading {} of {} resources linking to {} as {}", reads.size(), incoming.size(), target,
+                type.getSimpleName());
+
+        try {
+            return reads.stream()
+                    .map(CompletableFuture::join)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Searches the index for resources of {@code type} linking to {@code target}.  The index is only an optimization,
+     * so if it can't be searched, an empty set is returned and every incoming link is read.
+     */
+    private Set<URI> find(Class<? extends PassEntity> type, String field, URI target) {
+        try {
+            Set<URI> found = passClient.findAllByAttribute(type, field, target);
+            return found == null ? Collections.emptySet() : found;
+        } catch (RuntimeException e) {
+            LOG.debug(">>>> Unable to search the index for {} resources linking to {}: {}", type.getSimpleName(),
+                    target, e.getMessage(), e);
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * Reads {@code uri} as {@code type}, returning {@code null} if the resource is not of that type.
+     */
+    private <T extends PassEntity> T readTolerantly(URI uri, Class<T> type) {
+        try {
+            return passClient.readResource(uri, type);
+        } catch (RuntimeException e) {
+            Throwable cause = e.getCause();
+            while (cause != null) {
+                if (cause instanceof InvalidTypeIdException) {
+                    return null;
+                }
+                cause = cause.getCause();
+            }
+            throw e;
+        }
+    }
+
+}
@@ -16,7 +16,6 @@
 
 package org.dataconservancy.pass.deposit.builder.fs;
 
-import com.fasterxml.jackson.databind.exc.InvalidTypeIdException;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
@@ -26,6 +25,7 @@ import org.dataconservancy.deposit.util.spring.EncodingClassPathResource;
 import org.dataconservancy.pass.client.PassClient;
 import org.dataconservancy.pass.client.PassClientFactory;
 import org.dataconservancy.pass.client.adapter.PassJsonAdapterBasic;
+import org.dataconservancy.pass.model.Deposit;
 import org.dataconservancy.pass.model.File;
 import org.dataconservancy.pass.model.Funder;
 import org.dataconservancy.pass.model.Grant;
@@ -52,7 +52,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -394,31 +394,9 @@ public class PassJsonFedoraAdapter {
         }
 
         // Add File resources that reference this Submission to the entity list.
-        Map<String, Collection<URI>> incomingLinks = client.getIncoming(submissionUri);
-        Collection<URI> uris = incomingLinks.get(Submission.class.getSimpleName().toLowerCase());
-        if (uris != null) {
-            for (URI uri : uris) {
-                try {
-                    File file = client.readResource(uri, File.class);
-                    entities.put(uri, file);
-                } catch (RuntimeException e) {
-                    // Ignore non-File entities, which throw invalid type exceptions.
-                    boolean tolerate = false;
-                    Throwable cause = e.getCause();
-                    while (cause != null) {
-                        if (cause instanceof InvalidTypeIdException) {
-                            tolerate = true;
-                            break;
-                        }
-                        cause = cause.getCause();
-                    }
-                    if (!tolerate) {
-                        // There was some other kind of exception
-                        throw e;
-                    }
-                }
-            }
-        }
+        new IncomingLinkResolver(client)
+                .readIncoming(submissionUri, "submission", File.class, Collections.singleton(Deposit.class))
+                .forEach(file -> entities.put(file.getId(), file));
 
         return submission;
     }
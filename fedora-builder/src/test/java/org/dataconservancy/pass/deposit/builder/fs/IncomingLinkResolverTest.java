@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.pass.deposit.builder.fs;
+
+import com.fasterxml.jackson.databind.exc.InvalidTypeIdException;
+import org.dataconservancy.pass.client.PassClient;
+import org.dataconservancy.pass.model.Deposit;
+import org.dataconservancy.pass.model.File;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Elliot Metsger (emetsger@jhu.edu)
+ */
+public class IncomingLinkResolverTest {
+
+    private static final URI SUBMISSION = URI.create("http://example.org/submission");
+
+    private static final URI FILE_1 = URI.create("http://example.org/file/1");
+
+    private static final URI FILE_2 = URI.create("http://example.org/file/2");
+
+    private static final URI DEPOSIT = URI.create("http://example.org/deposit");
+
+    private PassClient passClient;
+
+    private IncomingLinkResolver underTest;
+
+    @Before
+    public void setUp() throws Exception {
+        passClient = mock(PassClient.class);
+        underTest = new IncomingLinkResolver(passClient, Runnable::run);
+        when(passClient.getIncoming(SUBMISSION)).thenReturn(
+                singletonMap("submission", Arrays.asList(FILE_1, DEPOSIT, FILE_2)));
+    }
+
+    /**
+     * Incoming links the index reports as another type are not read.
+     */
+    @Test
+    public void indexedLinksOfOtherTypesAreNotRead() throws Exception {
+        File file1 = file(FILE_1);
+        File file2 = file(FILE_2);
+        when(passClient.findAllByAttribute(File.class, "submission", SUBMISSION))
+                .thenReturn(new HashSet<>(Arrays.asList(FILE_1, FILE_2)));
+        when(passClient.findAllByAttribute(Deposit.class, "submission", SUBMISSION)).thenReturn(singleton(DEPOSIT));
+        when(passClient.readResource(FILE_1, File.class)).thenReturn(file1);
+        when(passClient.readResource(FILE_2, File.class)).thenReturn(file2);
+
+        List<File> files = underTest.readIncoming(SUBMISSION, "submission", File.class, singleton(Deposit.class));
+
+        assertEquals(Arrays.asList(file1, file2), files);
+        verify(passClient, never()).readResource(eq(DEPOSIT), any());
+    }
+
+    /**
+     * Incoming links missing from the index are read, and skipped if they are not of the wanted type.
+     */
+    @Test
+    public void unindexedLinksAreReadTolerantly() throws Exception {
+        File file1 = file(FILE_1);
+        File file2 = file(FILE_2);
+        when(passClient.findAllByAttribute(File.class, "submission", SUBMISSION)).thenReturn(singleton(FILE_1));
+        when(passClient.findAllByAttribute(Deposit.class, "submission", SUBMISSION))
+                .thenReturn(Collections.emptySet());
+        when(passClient.readResource(FILE_1, File.class)).thenReturn(file1);
+        when(passClient.readResource(FILE_2, File.class)).thenReturn(file2);
+        when(passClient.readResource(DEPOSIT, File.class)).thenThrow(
+                new RuntimeException(new RuntimeException(InvalidTypeIdException.from(null, "Not a File", null,
+                        null))));
+
+        List<File> files = underTest.readIncoming(SUBMISSION, "submission", File.class, singleton(Deposit.class));
+
+        assertEquals(Arrays.asList(file1, file2), files);
+    }
+
+    /**
+     * If the index can't be searched, every incoming link is read.
+     */
+    @Test
+    public void indexFailureFallsBackToReadingEveryLink() throws Exception {
+        File file1 = file(FILE_1);
+        File file2 = file(FILE_2);
+        when(passClient.findAllByAttribute(any(), eq("submission"), eq(SUBMISSION)))
+                .thenThrow(new RuntimeException("Index unavailable"));
+        when(passClient.readResource(FILE_1, File.class)).thenReturn(file1);
+        when(passClient.readResource(FILE_2, File.class)).thenReturn(file2);
+        when(passClient.readResource(DEPOSIT, File.class)).thenThrow(
+                new RuntimeException(InvalidTypeIdException.from(null, "Not a File", null, null)));
+
+        List<File> files = underTest.readIncoming(SUBMISSION, "submission", File.class, singleton(Deposit.class));
+
+        assertEquals(Arrays.asList(file1, file2), files);
+    }
+
+    /**
+     * Errors other than type errors are propagated.
+     */
+    @Test
+    public void otherReadErrorsArePropagated() throws Exception {
+        RuntimeException expected = new RuntimeException("Read failed");
+        when(passClient.findAllByAttribute(File.class, "submission", SUBMISSION)).thenReturn(singleton(FILE_1));
+        when(passClient.readResource(FILE_1, File.class)).thenThrow(expected);
+        when(passClient.readResource(FILE_2, File.class)).thenReturn(file(FILE_2));
+        when(passClient.readResource(DEPOSIT, File.class)).thenThrow(
+                new RuntimeException(InvalidTypeIdException.from(null, "Not a File", null, null)));
+
+        try {
+            underTest.readIncoming(SUBMISSION, "submission", File.class, Collections.emptySet());
+            fail("Expected a RuntimeException");
+        } catch (RuntimeException e) {
+            assertSame(expected, e);
+        }
+    }
+
+    @Test
+    public void noIncomingLinks() throws Exception {
+        when(passClient.getIncoming(SUBMISSION)).thenReturn(Collections.emptyMap());
+
+        assertTrue(underTest.readIncoming(SUBMISSION, "submission", File.class, singleton(Deposit.class)).isEmpty());
+        verify(passClient, never()).findAllByAttribute(any(), any(), any());
+    }
+
+    private static File file(URI uri) {
+        File file = new File();
+        file.setId(uri);
+        return file;
+    }
+
+}
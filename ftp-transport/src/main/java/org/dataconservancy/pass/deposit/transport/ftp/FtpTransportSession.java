@@ -25,6 +25,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -58,7 +59,7 @@ public class FtpTransportSession implements TransportSession {
     /**
      * Whether or not the {@link #ftpClient} has been closed.
      */
-    private boolean isClosed = false;
+    private volatile boolean isClosed = false;
 
     /**
      * Used to submit jobs for transferring files
@@ -73,7 +74,7 @@ public class FtpTransportSession implements TransportSession {
     /**
      * A transfer that may still be in-progress
      */
-    private FutureTask<TransportResponse> transfer;
+    private volatile FutureTask<TransportResponse> transfer;
 
     public FtpTransportSession(FTPClient ftpClient) {
         this(ftpClient, Executors.newSingleThreadExecutor());
@@ -101,7 +102,7 @@ public class FtpTransportSession implements TransportSession {
 
         try {
             return transfer.get();
-        } catch (InterruptedException e) {
+        } catch (InterruptedException | CancellationException e) {
             LOG.info(format(ERR_TRANSFER, streamMetadata.name(), "<host>", "<port>", "transfer was cancelled!"));
             return new TransportResponse() {
                 @Override
@@ -140,12 +141,15 @@ public class FtpTransportSession implements TransportSession {
     public void close() throws Exception {
         LOG.debug("Closing {}@{}...",
                 this.getClass().getSimpleName(), toHexString(identityHashCode(this)));
+        boolean cancelled = false;
         if (transfer != null && !transfer.isDone()) {
             LOG.debug("Closing {}@{}, cancelling pending transfer...",
                     this.getClass().getSimpleName(), toHexString(identityHashCode(this)));
-            transfer.cancel(true);
+            cancelled = transfer.cancel(true);
         }
 
+        executorService.shutdownNow();
+
         if (this.isClosed) {
             LOG.debug("{}@{} is already closed.",
                     this.getClass().getSimpleName(), toHexString(identityHashCode(this)));
@@ -153,7 +157,12 @@ public class FtpTransportSession implements TransportSession {
         }
 
         try {
-            FtpUtil.disconnect(ftpClient);
+            if (cancelled) {
+                // the server may be unresponsive, so close the sockets without waiting for a reply to a logout
+                ftpClient.disconnect();
+            } else {
+                FtpUtil.disconnect(ftpClient);
+            }
         } catch (IOException e) {
             LOG.debug("Exception encountered while closing {}@{}, FTP client logout failed.  " +
                             "Continuing to close the object despite the exception: {}",
@@ -20,13 +20,18 @@ import org.apache.commons.io.input.NullInputStream;
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPReply;
+import org.dataconservancy.pass.deposit.assembler.PackageStream;
 import org.dataconservancy.pass.deposit.transport.TransportResponse;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.dataconservancy.pass.deposit.transport.ftp.FtpTestUtil.FTP_ROOT_DIR;
 import static org.junit.Assert.assertEquals;
@@ -40,6 +45,7 @@ import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -197,6 +203,43 @@ public class FtpTransportSessionTest {
         verify(ftpClient).setFileType(FTP.BINARY_FILE_TYPE);
     }
 
+    /**
+     * Closing a session while a transfer is pending cancels the transfer, and disconnects from the server without
+     * waiting for a reply to a logout.
+     */
+    @Test
+    public void testCloseCancelsPendingTransfer() throws Exception {
+        CountDownLatch storing = new CountDownLatch(1);
+        when(ftpClient.printWorkingDirectory()).thenReturn(FTP_ROOT_DIR);
+        when(ftpClient.getReplyCode()).thenReturn(FTPReply.COMMAND_OK);
+        when(ftpClient.setFileType(FTP.BINARY_FILE_TYPE)).thenReturn(true);
+        when(ftpClient.storeFile(any(), any())).thenAnswer(inv -> {
+            storing.countDown();
+            Thread.sleep(60000);
+            return true;
+        });
+
+        PackageStream packageStream = mock(PackageStream.class);
+        PackageStream.Metadata metadata = mock(PackageStream.Metadata.class);
+        when(packageStream.metadata()).thenReturn(metadata);
+        when(metadata.name()).thenReturn("package.tar.gz");
+        when(packageStream.open()).thenReturn(new NullInputStream(ONE_MIB));
+
+        AtomicReference<TransportResponse> response = new AtomicReference<>();
+        Thread sender = new Thread(() -> response.set(ftpSession.send(packageStream, Collections.emptyMap())));
+        sender.start();
+        assertTrue(storing.await(10, TimeUnit.SECONDS));
+
+        ftpSession.close();
+        sender.join(10000);
+
+        assertTrue(ftpSession.closed());
+        assertNotNull(response.get());
+        assertFalse(response.get().success());
+        verify(ftpClient).disconnect();
+        verify(ftpClient, never()).logout();
+    }
+
     private void verifyDestinationResource(String destinationResource) throws IOException {
         verifyDestinationResource(destinationResource, any(InputStream.class));
     }
@@ -118,6 +118,7 @@ public abstract class AbstractZippedPackageStream implements PackageStream {
         AbstractThreadedOutputStreamWriter streamWriter = getStreamWriter(archiveOut, rbf);
         streamWriter.setCloseStreamHandler(getCloseOutputstreamHandler(pipedOut, archiveOut));
         streamWriter.setUncaughtExceptionHandler(exceptionHandler);
+        pipedIn.setWriter(streamWriter);
         streamWriter.start();
 
         return pipedIn;
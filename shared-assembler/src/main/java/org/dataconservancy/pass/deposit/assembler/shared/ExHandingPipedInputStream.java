@@ -34,6 +34,10 @@ import java.io.PipedOutputStream;
  * reading side of the pipe will re-throw them to readers if {@link #setWriterEx(Throwable)} is called with a non-{@code
  * null Throwable}.
  * </p>
+ * <p>
+ * Should the reading side of the pipe be closed before the package has been read, the {@link #setWriter(Thread)
+ * writer} is interrupted, so it does not block writing to a pipe that nobody drains.
+ * </p>
  *
  * @author Elliot Metsger (emetsger@jhu.edu)
  */
@@ -47,6 +51,16 @@ public class ExHandingPipedInputStream extends PipedInputStream {
      */
     private volatile Throwable writerEx;
 
+    /**
+     * The thread writing to the pipe, if known
+     */
+    private volatile Thread writer;
+
+    /**
+     * Whether the end of the stream has been read
+     */
+    private volatile boolean eof;
+
     public ExHandingPipedInputStream(int pipeSize) {
         super(pipeSize);
     }
@@ -66,13 +80,13 @@ public class ExHandingPipedInputStream extends PipedInputStream {
     @Override
     public synchronized int read() throws IOException {
         handleEx();
-        return super.read();
+        return eof(super.read());
     }
 
     @Override
     public synchronized int read(byte[] b, int off, int len) throws IOException {
         handleEx();
-        return super.read(b, off, len);
+        return eof(super.read(b, off, len));
     }
 
     @Override
@@ -86,6 +100,11 @@ public class ExHandingPipedInputStream extends PipedInputStream {
         // Close the stream, regardless of whether or not there is an exception waiting for us
         try {
             super.close();
+            Thread writer = this.writer;
+            if (!eof && writer != null && writer.isAlive()) {
+                LOG.debug("Closed before the end of the stream was read, interrupting writer {}", writer.getName());
+                writer.interrupt();
+            }
         } finally {
             handleEx();
         }
@@ -113,6 +132,23 @@ public class ExHandingPipedInputStream extends PipedInputStream {
         this.writerEx = writerEx;
     }
 
+    /**
+     * Set the thread writing to the pipe, which is interrupted if this stream is closed before the end of the stream
+     * has been read.
+     *
+     * @param writer the thread writing to the pipe
+     */
+    public void setWriter(Thread writer) {
+        this.writer = writer;
+    }
+
+    private int eof(int read) {
+        if (read < 0) {
+            eof = true;
+        }
+        return read;
+    }
+
     /**
      * Checks for a non-null {@link #writerEx}, and re-throws it as an {@link IOException}.
      *
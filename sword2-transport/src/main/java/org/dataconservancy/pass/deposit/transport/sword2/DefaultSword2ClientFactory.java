@@ -16,6 +16,9 @@
 
 package org.dataconservancy.pass.deposit.transport.sword2;
 
+import org.apache.commons.httpclient.params.DefaultHttpParams;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.params.HttpParams;
 import org.springframework.stereotype.Component;
 import org.swordapp.client.ClientConfiguration;
 import org.swordapp.client.SWORDClient;
@@ -23,12 +26,37 @@ import org.swordapp.client.SWORDClient;
 import java.util.Map;
 
 /**
+ * Creates {@link SWORDClient}s configured by the transport hints.
+ * <p>
+ * The {@code SWORDClient} creates a new HTTP client for every request, and exposes neither the client nor its
+ * connections, so their timeouts cannot be set per client or per transport.  Instead, {@link #setTimeouts(int, int)}
+ * sets the connect and socket timeouts as the default parameters of commons-httpclient, which the HTTP clients of the
+ * {@code SWORDClient} inherit.  The timeouts are global: they apply to every commons-httpclient 3.x client in the JVM,
+ * and are meant to be set once, at startup, before any deposit is made.
+ * </p>
  *
  * @author Elliot Metsger (emetsger@jhu.edu)
  */
 @Component
 public class DefaultSword2ClientFactory implements Sword2ClientFactory {
 
+    /**
+     * Sets the connect and socket timeouts of every commons-httpclient 3.x client subsequently created in the JVM,
+     * including those of the {@code SWORDClient}.  A timeout of {@code 0} waits indefinitely.
+     *
+     * @param connectTimeoutMs how long, in milliseconds, to wait for a connection
+     * @param socketTimeoutMs how long, in milliseconds, to wait for data from an established connection
+     */
+    public static void setTimeouts(int connectTimeoutMs, int socketTimeoutMs) {
+        if (connectTimeoutMs < 0 || socketTimeoutMs < 0) {
+            throw new IllegalArgumentException("Timeouts must not be negative: connect timeout " + connectTimeoutMs +
+                    " ms, socket timeout " + socketTimeoutMs + " ms");
+        }
+        HttpParams defaults = DefaultHttpParams.getDefaultParams();
+        defaults.setIntParameter(HttpConnectionParams.CONNECTION_TIMEOUT, connectTimeoutMs);
+        defaults.setIntParameter(HttpConnectionParams.SO_TIMEOUT, socketTimeoutMs);
+    }
+
     @Override
     public SWORDClient newInstance(Map<String, String> hints) {
         ClientConfiguration clientConfiguration = new ClientConfiguration();
@@ -32,6 +32,14 @@ import org.swordapp.client.ServiceDocument;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import static java.lang.Integer.toHexString;
+import static java.lang.System.identityHashCode;
 
 /**
  * Encapsulates a session with a SWORDv2 endpoint authenticated using the transport hints supplied on {@link
@@ -49,7 +57,21 @@ public class Sword2TransportSession implements TransportSession {
     private static final String WARN_MISSING_SHOULD = "SWORD v2 deposit request is missing HTTP request header '%s' " +
             "recommended as SHOULD by %s";
 
-    private boolean closed = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Used to perform deposits, so that the thread invoking {@link #send(PackageStream, Map)} may be interrupted
+     */
+    private ExecutorService executorService = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "sword2-transport");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * A deposit that may still be in-progress
+     */
+    private volatile FutureTask<DepositReceipt> transfer;
 
     private SWORDClient client;
 
@@ -149,17 +171,36 @@ public class Sword2TransportSession implements TransportSession {
 
         DepositReceipt receipt = null;
 
-        try (InputStream stream = packageStream.open()) {
-            swordDeposit.setFile(stream);
-            receipt = client.deposit(selectCollection(serviceDocument, packageStream.metadata(), metadata),
-                    swordDeposit, authCreds);
-        } catch (SWORDError e) {
-            return new Sword2ErrorResponse(e);
-        } catch (ProtocolViolationException | InvalidCollectionUrl e) {
+        // the deposit is performed by the session thread, so the caller may be interrupted while it blocks
+        this.transfer = new FutureTask<>(() -> {
+            try (InputStream stream = packageStream.open()) {
+                swordDeposit.setFile(stream);
+                return client.deposit(selectCollection(serviceDocument, packageStream.metadata(), metadata),
+                        swordDeposit, authCreds);
+            }
+        });
+
+        executorService.submit(transfer);
+
+        try {
+            receipt = transfer.get();
+        } catch (InterruptedException | CancellationException e) {
+            LOG.info("SWORD deposit of {} was cancelled!", streamMetadata.name());
+            // interrupts the session thread, which is released by the socket timeout if it is blocked on the socket
+            transfer.cancel(true);
             return new Sword2ThrowableResponse(e);
-        } catch (IOException e) {
-            return new Sword2ThrowableResponse(new RuntimeException("Error closing PackageStream: " + e.getMessage(), e));
-        } catch (Exception e) {
+        } catch (ExecutionException executionException) {
+            Throwable e = executionException.getCause();
+            if (e instanceof SWORDError) {
+                return new Sword2ErrorResponse((SWORDError) e);
+            }
+            if (e instanceof ProtocolViolationException || e instanceof InvalidCollectionUrl) {
+                return new Sword2ThrowableResponse(e);
+            }
+            if (e instanceof IOException) {
+                return new Sword2ThrowableResponse(new RuntimeException("Error closing PackageStream: " +
+                        e.getMessage(), e));
+            }
             return new Sword2ThrowableResponse(new RuntimeException("Error depositing SWORD package to '" +
                     selectCollection(serviceDocument, packageStream.metadata(), metadata).getHref().toASCIIString() +
                     "': " + e.getMessage(), e));
@@ -173,8 +214,23 @@ public class Sword2TransportSession implements TransportSession {
         return this.closed;
     }
 
+    /**
+     * Cancels a deposit in progress, releasing the thread blocked in {@link #send(PackageStream, Map)}.  The
+     * connection of the deposit is not exposed by the {@code SWORDClient}, so it cannot be aborted: the session thread
+     * is interrupted, and, if it is blocked reading from the endpoint, is released when the socket timeout (see {@link
+     * DefaultSword2ClientFactory#setTimeouts(int, int)}) expires.  Until then a hung endpoint holds one session thread and its connection,
+     * and a thread blocked writing to an endpoint that has stopped reading is held until the connection is reset.
+     */
     @Override
     public void close() throws Exception {
+        if (transfer != null && !transfer.isDone()) {
+            LOG.debug("Closing {}@{}, cancelling pending deposit...",
+                    this.getClass().getSimpleName(), toHexString(identityHashCode(this)));
+            transfer.cancel(true);
+        }
+
+        executorService.shutdownNow();
+
         if (this.closed()) {
             return;
         }